@@ -0,0 +1,28 @@
+package joglmaze;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BaselineRunner, runs every benchmark with the allocation profiler and writes the
+ * results to a JSON file, to compare with a run on the same machine after a change
+ * <p>
+ * Usage: BaselineRunner [resultfile] - the results go to baseline.json by default
+ */
+public class BaselineRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String resultFile = args.length > 0 ? args[0] : "baseline.json";
+        Options options = new OptionsBuilder()
+                .include("joglmaze\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,71 @@
+package joglmaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CameraBenchmark, the per-frame work of moving the camera: updating and culling
+ * the view frustum, and querying the walls around the camera
+ * <p>
+ * The camera jumps between random open cells, facing a different way each time,
+ * so that the branch predictor and caches see a realistic spread of positions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class CameraBenchmark {
+
+    //The number of camera positions cycled through
+    private static final int POSITIONS = 1024;
+
+    @Param({"101", "1001", "10001"})
+    public int size;
+
+    private MazeGrid grid;
+    private ViewFrustum frustum;
+    private int[] cells;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        grid = MazeLoader.LoadGrid(MazeFixture.file(size).getPath());
+        frustum = new ViewFrustum(ViewRenderer.FIELD_OF_VIEW, ViewRenderer.FAR_PLANE);
+        cells = MazeFixture.openCells(grid, POSITIONS);
+    }
+
+    //Move the camera and find the cells in view
+    @Benchmark
+    public int frustumCull() {
+        int cell = cells[next++ & (POSITIONS - 1)];
+        frustum.update(cell / grid.getCols(), cell % grid.getCols(), cell * 0.61803f);
+        return frustum.cull(grid);
+    }
+
+    //Look up the four walls of every camera position
+    @Benchmark
+    public int wallQueries() {
+        int walls = 0;
+        for (int cell : cells) {
+            int i = cell / grid.getCols(), j = cell % grid.getCols();
+            for (int side = 0; side < 4; side++) {
+                if (grid.hasWall(i, j, side)) walls++;
+            }
+        }
+        return walls;
+    }
+}
@@ -0,0 +1,71 @@
+package joglmaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CollisionBenchmark, moves per second through the camera collider
+ * <p>
+ * Each move starts somewhere in a random open cell and heads a random way, a
+ * step several times longer than a tick's, so that many moves hit a wall or a
+ * corner. The cost should not change with the size of the maze.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class CollisionBenchmark {
+
+    //The number of moves cycled through
+    private static final int MOVES = 4096;
+    //The length of each move, in cells
+    private static final float STEP = 0.2f;
+
+    @Param({"101", "1001", "10001"})
+    public int size;
+
+    private MazeCollider collider;
+    private float[] from, by;
+    private final float[] out = new float[2];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        MazeGrid grid = MazeLoader.LoadGrid(MazeFixture.file(size).getPath());
+        collider = new MazeCollider(grid, MazeCollider.PLAYER_RADIUS);
+        int[] cells = MazeFixture.openCells(grid, MOVES);
+        Random random = new Random(11);
+        from = new float[MOVES * 2];
+        by = new float[MOVES * 2];
+        for (int m = 0; m < MOVES; m++) {
+            from[2 * m] = cells[m] / grid.getCols() + random.nextFloat() * 0.4f - 0.2f;
+            from[2 * m + 1] = cells[m] % grid.getCols() + random.nextFloat() * 0.4f - 0.2f;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            by[2 * m] = (float) (STEP * Math.sin(angle));
+            by[2 * m + 1] = (float) (STEP * Math.cos(angle));
+        }
+    }
+
+    //Resolve one move against the walls
+    @Benchmark
+    public float move() {
+        int m = (next++ & (MOVES - 1)) * 2;
+        collider.move(from[m], from[m + 1], by[m], by[m + 1], out);
+        return out[0] + out[1];
+    }
+}
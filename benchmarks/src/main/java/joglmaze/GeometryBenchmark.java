@@ -0,0 +1,51 @@
+package joglmaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GeometryBenchmark, working out the walls of a maze and building its merged mesh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class GeometryBenchmark {
+
+    @Param({"101", "1001", "10001"})
+    public int size;
+
+    private MazeGrid grid;
+
+    @Setup
+    public void setUp() throws IOException {
+        grid = MazeLoader.LoadGrid(MazeFixture.file(size).getPath());
+    }
+
+    //The wall bits of every cell, from its neighbours
+    @Benchmark
+    public MazeGrid computeWalls() {
+        grid.computeWalls();
+        return grid;
+    }
+
+    //The merged wall, floor and ceiling strips of the whole maze
+    @Benchmark
+    public MazeMesh buildMesh() {
+        return MazeMesh.build(grid);
+    }
+}
@@ -0,0 +1,53 @@
+package joglmaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoaderBenchmark, loading a maze file and making its cells
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class LoaderBenchmark {
+
+    @Param({"101", "1001", "10001"})
+    public int size;
+
+    private String file;
+    private MazeGrid grid;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = MazeFixture.file(size).getPath();
+        grid = MazeLoader.LoadGrid(file);
+    }
+
+    //Parsing the text file into a grid, including the walls
+    @Benchmark
+    public MazeGrid loadGrid() {
+        return MazeLoader.LoadGrid(file);
+    }
+
+    //Making the Cell objects of a loaded grid
+    @Benchmark
+    public ArrayList<Cell> makeMaze() {
+        return MazeLoader.MakeMaze(grid);
+    }
+}
@@ -0,0 +1,53 @@
+package joglmaze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * MazeFixture, the generated mazes the benchmarks run against
+ * <p>
+ * Each size is written once per benchmark JVM and kept until it exits.
+ */
+class MazeFixture {
+
+    private static final Map<Integer, File> FILES = new HashMap<Integer, File>();
+
+    /**
+     * Get a random square maze file
+     *
+     * @param size The (odd) width and height
+     * @return The maze file
+     */
+    static synchronized File file(int size) throws IOException {
+        File file = FILES.get(size);
+        if (file == null) {
+            file = RandomMaze.write(size, size, 42);
+            FILES.put(size, file);
+        }
+        return file;
+    }
+
+    /**
+     * Pick random open cells of a maze
+     *
+     * @param grid  The maze grid
+     * @param count The number of cells
+     * @return The flat indices of the cells
+     */
+    static int[] openCells(MazeGrid grid, int count) {
+        Random random = new Random(7);
+        int[] cells = new int[count];
+        int size = grid.getRows() * grid.getCols();
+        for (int c = 0; c < count; c++) {
+            int index;
+            do {
+                index = random.nextInt(size);
+            } while (!grid.isOpen(index));
+            cells[c] = index;
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,91 @@
+package joglmaze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * MazeFormatBenchmark, compares loading a maze from the text format and from the binary format
+ * <p>
+ * For random mazes of about 1M and 100M cells this times the conversion, opening the
+ * file for tile reads (the text file has to be scanned for its start and end cells,
+ * the binary file is only mapped), loading the whole grid (the best of three loads)
+ * and reading random 64x64 tiles.
+ * <p>
+ * Usage: MazeFormatBenchmark [size...] - the sizes are the (odd) width and height of the mazes.
+ * The 100M cell maze needs a heap of about 2GB (-Xmx2g).
+ */
+public class MazeFormatBenchmark {
+
+    //The number of full loads, of which the fastest is reported
+    private static final int LOADS = 3;
+    //The number of random tiles read
+    private static final int TILE_READS = 500;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1001, 10001};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int a = 0; a < args.length; a++) sizes[a] = Integer.parseInt(args[a]);
+        }
+
+        System.out.println(String.format("%-12s %-7s %12s %10s %10s %10s %12s",
+                "maze", "format", "file bytes", "convert ms", "open ms", "load ms", "tile us"));
+        for (int size : sizes) {
+            File textFile = RandomMaze.write(size, size, 42);
+            File binaryFile = new File(textFile.getPath() + ".bin");
+            binaryFile.deleteOnExit();
+            long before = System.nanoTime();
+            BinaryMazeFile.convert(textFile.getPath(), binaryFile.getPath());
+            double convertMs = (System.nanoTime() - before) / 1e6;
+
+            MazeGrid textGrid = null;
+            for (File file : new File[]{textFile, binaryFile}) {
+                before = System.nanoTime();
+                MazeTileSource source = MazeLoader.OpenTiles(file.getPath());
+                double openMs = (System.nanoTime() - before) / 1e6;
+                double tileUs = timeTiles(source);
+                source.close();
+
+                long best = Long.MAX_VALUE;
+                MazeGrid grid = null;
+                for (int load = 0; load < LOADS; load++) {
+                    grid = null;
+                    before = System.nanoTime();
+                    grid = MazeLoader.LoadGrid(file.getPath());
+                    best = Math.min(best, System.nanoTime() - before);
+                }
+
+                boolean binary = file == binaryFile;
+                System.out.println(String.format("%-12s %-7s %12d %10s %10.2f %10.1f %12.1f",
+                        size + "x" + size, binary ? "binary" : "text", file.length(),
+                        binary ? String.format("%.1f", convertMs) : "-", openMs, best / 1e6, tileUs));
+
+                //Both formats must give the same maze
+                if (textGrid == null) {
+                    textGrid = grid;
+                } else if (grid.getCellCount() != textGrid.getCellCount()
+                        || grid.getStart() != textGrid.getStart() || grid.getEnd() != textGrid.getEnd()) {
+                    System.out.println("The binary maze does not match the text maze");
+                }
+                grid = null;
+            }
+            textGrid = null;
+            textFile.delete();
+            binaryFile.delete();
+        }
+    }
+
+    //The average time to read a random 64x64 tile, in microseconds
+    private static double timeTiles(MazeTileSource source) throws IOException {
+        Random random = new Random(1);
+        int tileSize = BinaryMazeFile.TILE_SIZE;
+        long before = System.nanoTime();
+        for (int t = 0; t < TILE_READS; t++) {
+            int i = random.nextInt(Math.max(1, source.getRows() - tileSize));
+            int j = random.nextInt(Math.max(1, source.getCols() - tileSize));
+            source.readTile(i, j, Math.min(tileSize, source.getRows()), Math.min(tileSize, source.getCols()));
+        }
+        return (System.nanoTime() - before) / 1e3 / TILE_READS;
+    }
+}
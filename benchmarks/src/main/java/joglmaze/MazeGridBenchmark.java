@@ -0,0 +1,62 @@
+package joglmaze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * MazeGridBenchmark, compares the heap used by a MazeGrid with the ArrayList of Cells
+ * <p>
+ * Random mazes of growing size are loaded both ways. The grid is only a few small
+ * arrays, which is below what the heap figures can resolve, so its size is worked
+ * out from the array lengths. The heap used by the cells is measured after a full
+ * garbage collection, with the list still reachable.
+ * <p>
+ * Usage: MazeGridBenchmark [size...] - the sizes are the (odd) width and height of the mazes
+ */
+public class MazeGridBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {101, 501, 1001, 2001};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int a = 0; a < args.length; a++) sizes[a] = Integer.parseInt(args[a]);
+        }
+
+        System.out.println(String.format("%-12s %10s %14s %12s %14s %12s",
+                "maze", "cells", "grid bytes", "bytes/cell", "cells bytes", "bytes/cell"));
+        for (int size : sizes) {
+            File file = RandomMaze.write(size, size, 42);
+
+            MazeGrid grid = MazeLoader.LoadGrid(file.getPath());
+            long gridBytes = grid.getMemoryFootprint();
+
+            long before = usedHeap();
+            ArrayList<Cell> cells = MazeLoader.MakeMaze(grid);
+            long cellBytes = usedHeap() - before;
+
+            System.out.println(String.format("%-12s %10d %14d %12.2f %14d %12.2f",
+                    size + "x" + size, grid.getCellCount(), gridBytes, gridBytes / (double) grid.getCellCount(),
+                    cellBytes, cellBytes / (double) cells.size()));
+            file.delete();
+
+            //Let the next size start from an empty heap
+            grid = null;
+            cells = null;
+        }
+    }
+
+    //The heap in use after collecting all the garbage that can be collected
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        //Collect until the figure settles
+        for (int attempt = 0; attempt < 5; attempt++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) break;
+            used = now;
+        }
+        return used;
+    }
+}
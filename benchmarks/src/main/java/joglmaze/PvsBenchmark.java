@@ -0,0 +1,73 @@
+package joglmaze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * PvsBenchmark, measures how many cells the visible sets save over frustum culling alone
+ * <p>
+ * For every maze, the visible set is computed (timed), and then the camera is put
+ * in random open cells looking in random directions. The number of cells drawn with
+ * frustum culling alone is compared to frustum culling of the visible set only.
+ * <p>
+ * Usage: PvsBenchmark [maze file...] - without arguments it uses maze_layout_2 and
+ * some randomly generated mazes.
+ */
+public class PvsBenchmark {
+
+    //The number of random camera placements per maze
+    private static final int SAMPLES = 20000;
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> files = new ArrayList<String>();
+        if (args.length > 0) {
+            for (String arg : args) files.add(arg);
+        } else {
+            files.add("maze_layout_2");
+            for (int size : new int[]{101, 301, 601}) {
+                files.add(RandomMaze.write(size, size, 42).getPath());
+            }
+        }
+
+        System.out.println(String.format("%-24s %9s %10s %10s %12s %12s %8s",
+                "maze", "cells", "pvs ms", "pvs ints", "frustum avg", "pvs avg", "saved"));
+        for (String file : files) {
+            run(file);
+        }
+    }
+
+    //Benchmark one maze file
+    private static void run(String file) {
+        MazeGrid grid = MazeLoader.LoadGrid(file);
+
+        long started = System.nanoTime();
+        PotentiallyVisibleSet pvs = PotentiallyVisibleSet.compute(grid, ViewRenderer.FAR_PLANE);
+        long pvsMillis = (System.nanoTime() - started) / 1000000;
+
+        //Collect the open cells to put the camera in
+        int[] open = new int[grid.getCellCount()];
+        int count = 0;
+        for (int index = 0; index < grid.getRows() * grid.getCols(); index++) {
+            if (grid.isOpen(index)) open[count++] = index;
+        }
+
+        ViewFrustum frustum = new ViewFrustum(ViewRenderer.FIELD_OF_VIEW, ViewRenderer.FAR_PLANE);
+        Random random = new Random(1);
+        long frustumTotal = 0, pvsTotal = 0;
+        for (int s = 0; s < SAMPLES; s++) {
+            int cell = open[random.nextInt(count)];
+            int i = cell / grid.getCols(), j = cell % grid.getCols();
+            frustum.update(i, j, (float) (random.nextDouble() * 2 * Math.PI));
+            frustumTotal += frustum.cull(grid);
+            pvsTotal += frustum.cull(grid, pvs, cell);
+        }
+
+        double frustumAverage = frustumTotal / (double) SAMPLES;
+        double pvsAverage = pvsTotal / (double) SAMPLES;
+        System.out.println(String.format("%-24.24s %9d %10d %10d %12.1f %12.1f %7.1f%%",
+                new File(file).getName(), grid.getCellCount(), pvsMillis, pvs.getEncodedSize(),
+                frustumAverage, pvsAverage, 100 * (1 - pvsAverage / frustumAverage)));
+    }
+}
@@ -0,0 +1,70 @@
+package joglmaze;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * RandomMaze, writes random maze layouts for the benchmarks
+ */
+class RandomMaze {
+
+    /**
+     * Write a random perfect maze (depth-first search over every other cell) to a temporary file
+     *
+     * @param rows The number of rows, odd
+     * @param cols The number of columns, odd
+     * @param seed The random seed
+     * @return The maze file
+     */
+    static File write(int rows, int cols, long seed) throws IOException {
+        char[][] layout = new char[rows][cols];
+        for (char[] row : layout) Arrays.fill(row, 'o');
+
+        Random random = new Random(seed);
+        int[] stack = new int[rows * cols];
+        int top = 0;
+        stack[top++] = 1 * cols + 1;
+        layout[1][1] = 'x';
+        while (top > 0) {
+            int current = stack[top - 1];
+            int i = current / cols, j = current % cols;
+            //Pick a random unvisited neighbour two cells away
+            int[] directions = {0, 1, 2, 3};
+            int chosen = -1;
+            for (int d = 3; d >= 0 && chosen < 0; d--) {
+                int pick = random.nextInt(d + 1);
+                int direction = directions[pick];
+                directions[pick] = directions[d];
+                int ni = i + (direction == 0 ? -2 : direction == 1 ? 2 : 0);
+                int nj = j + (direction == 2 ? -2 : direction == 3 ? 2 : 0);
+                if (ni > 0 && nj > 0 && ni < rows - 1 && nj < cols - 1 && layout[ni][nj] == 'o') {
+                    layout[(i + ni) / 2][(j + nj) / 2] = 'x';
+                    layout[ni][nj] = 'x';
+                    chosen = ni * cols + nj;
+                }
+            }
+            if (chosen < 0) top--;
+            else stack[top++] = chosen;
+        }
+        layout[1][1] = 's';
+        layout[rows - 2][cols - 2] = 'e';
+
+        File file = File.createTempFile("maze_" + rows + "x" + cols + "_", "");
+        file.deleteOnExit();
+        BufferedWriter output = new BufferedWriter(new FileWriter(file));
+        try {
+            output.write(rows + "\n" + cols + "\n");
+            for (char[] row : layout) {
+                output.write(row);
+                output.write('\n');
+            }
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,67 @@
+package joglmaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SolverBenchmark, the time to find a route through a maze, for each search
+ * <p>
+ * The generated mazes are perfect, so the route from the start in one corner
+ * to the exit in the other winds through most of the maze; between two random
+ * cells it is usually far shorter. The solver is made in setup, so its arrays
+ * are not counted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class SolverBenchmark {
+
+    //The number of random cell pairs cycled through
+    private static final int PAIRS = 64;
+
+    @Param({"101", "1001", "10001"})
+    public int size;
+
+    @Param({"BFS", "ASTAR", "JPS", "BIDIRECTIONAL"})
+    public MazeSolver.Algorithm algorithm;
+
+    private MazeGrid grid;
+    private MazeSolver solver;
+    private int[] cells;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        grid = MazeLoader.LoadGrid(MazeFixture.file(size).getPath());
+        solver = new MazeSolver(grid);
+        cells = MazeFixture.openCells(grid, 2 * PAIRS);
+    }
+
+    //From the start to the exit
+    @Benchmark
+    public int[] startToEnd() {
+        return solver.solve(grid.getStart(), grid.getEnd(), algorithm);
+    }
+
+    //Between two random open cells
+    @Benchmark
+    public int[] randomPair() {
+        int p = (next++ % PAIRS) * 2;
+        return solver.solve(cells[p], cells[p + 1], algorithm);
+    }
+}
@@ -0,0 +1,85 @@
+package joglmaze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * StartupBenchmark, times the CPU side of start-up with a cold and a warm texture cache
+ * <p>
+ * Start-up is loading the texture atlas plus loading the maze and building its mesh.
+ * Each is timed done one after the other, the way init() used to do it, and with
+ * the atlas loading in the background while the maze loads, the way init() does it
+ * now. A cold start has no texture cache, so the images are decoded; a warm start
+ * reads the cache. The GL uploads are not included.
+ * <p>
+ * Usage: StartupBenchmark [mazefile] - a random 1001x1001 maze is used by default
+ */
+public class StartupBenchmark {
+
+    //The number of rounds, of which the fastest is reported
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        File randomMaze = null;
+        String mazeFile;
+        if (args.length > 0) {
+            mazeFile = args[0];
+        } else {
+            randomMaze = RandomMaze.write(1001, 1001, 42);
+            mazeFile = randomMaze.getPath();
+        }
+
+        System.out.println(String.format("%-6s %14s %14s %14s %14s",
+                "cache", "textures ms", "maze ms", "serial ms", "overlapped ms"));
+        for (boolean warm : new boolean[]{false, true}) {
+            long bestTextures = Long.MAX_VALUE, bestMaze = Long.MAX_VALUE;
+            long bestSerial = Long.MAX_VALUE, bestOverlapped = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                //One after the other
+                prepareCache(warm);
+                long before = System.nanoTime();
+                ExecutorService decoders = Executors.newFixedThreadPool(TextureAtlas.MATERIAL_FILES.length);
+                TextureAtlas.load(decoders);
+                decoders.shutdown();
+                long textures = System.nanoTime() - before;
+                loadMaze(mazeFile);
+                long serial = System.nanoTime() - before;
+
+                //The atlas in the background
+                prepareCache(warm);
+                before = System.nanoTime();
+                Future<TextureAtlas> atlas = TextureAtlas.loadAsync();
+                loadMaze(mazeFile);
+                atlas.get();
+                long overlapped = System.nanoTime() - before;
+
+                bestTextures = Math.min(bestTextures, textures);
+                bestMaze = Math.min(bestMaze, serial - textures);
+                bestSerial = Math.min(bestSerial, serial);
+                bestOverlapped = Math.min(bestOverlapped, overlapped);
+            }
+            System.out.println(String.format("%-6s %14.1f %14.1f %14.1f %14.1f", warm ? "warm" : "cold",
+                    bestTextures / 1e6, bestMaze / 1e6, bestSerial / 1e6, bestOverlapped / 1e6));
+        }
+        if (randomMaze != null) randomMaze.delete();
+    }
+
+    //Load the maze and build its mesh, as init() does
+    private static void loadMaze(String mazeFile) {
+        MazeMesh.build(MazeLoader.LoadGrid(mazeFile));
+    }
+
+    //Make sure the texture cache is there for a warm start, or gone for a cold one
+    private static void prepareCache(boolean warm) throws IOException, InterruptedException, ExecutionException {
+        new File(TextureAtlas.COMPRESSED_CACHE_FILE).delete();
+        if (warm) {
+            if (!new File(TextureAtlas.CACHE_FILE).exists()) TextureAtlas.loadAsync().get();
+        } else {
+            new File(TextureAtlas.CACHE_FILE).delete();
+        }
+    }
+}
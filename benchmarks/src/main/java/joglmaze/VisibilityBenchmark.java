@@ -0,0 +1,46 @@
+package joglmaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VisibilityBenchmark, computing the potentially visible sets of a whole maze
+ * <p>
+ * Every open cell traces sight lines out to the far plane, so this stops at
+ * 1001x1001; larger mazes take minutes per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class VisibilityBenchmark {
+
+    @Param({"101", "1001"})
+    public int size;
+
+    private MazeGrid grid;
+
+    @Setup
+    public void setUp() throws IOException {
+        grid = MazeLoader.LoadGrid(MazeFixture.file(size).getPath());
+    }
+
+    @Benchmark
+    public PotentiallyVisibleSet compute() {
+        return PotentiallyVisibleSet.compute(grid, ViewRenderer.FAR_PLANE);
+    }
+}
@@ -0,0 +1,313 @@
+package joglmaze;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * BinaryMazeFile, a maze stored as bit-packed 64x64 tiles and read through a memory map
+ * <p>
+ * The file starts with a header:
+ * <pre>
+ *   int   magic ("JMAZ")       long  start cell (flat index, -1 if none)
+ *   int   version              long  end cell (flat index, -1 if none)
+ *   int   rows                 int   tile size (64)
+ *   int   cols                 int   tile rows, int tile columns, int unused
+ * </pre>
+ * followed by the tile index, one long per tile row by row, giving the file offset of
+ * the tile's data or 0 for a tile with no open cells. The tile data follows, aligned
+ * to its size: 64 longs per tile, one per row (i) of the tile, with bit n set if
+ * column (j) n of that row is open. Tiles with no open cells are not stored.
+ * <p>
+ * Opening the file only maps it, so it is near-instant whatever the maze size, and
+ * cells are read straight out of the page cache. Reads never move a buffer position,
+ * so tiles can be read from several threads at once.
+ * <p>
+ * Usage: BinaryMazeFile mazefile... - writes each text maze file to mazefile.bin
+ */
+public class BinaryMazeFile implements MazeTileSource, MazeLayout {
+
+    static final int MAGIC = 0x4A4D415A;
+    static final int VERSION = 1;
+    //The tile size; one tile row is one long
+    static final int TILE_SIZE = 64;
+    //The bytes of the header and of one tile
+    private static final int HEADER_SIZE = 48;
+    private static final int TILE_BYTES = TILE_SIZE * 8;
+    //The tile data is mapped in segments, since one mapping is limited to 2GB
+    private static final int SEGMENT_SHIFT = 30;
+
+    //The maze dimensions
+    private final int rows;
+    private final int cols;
+    private final long start;
+    private final long end;
+    private final int tileRows;
+    private final int tileCols;
+    //Where the tile data starts
+    private final long dataOffset;
+
+    private final RandomAccessFile file;
+    //The tile index, and the tile data segments
+    private final LongBuffer tileIndex;
+    private final LongBuffer[] segments;
+
+    /**
+     * Open and map a binary maze file
+     *
+     * @param filename The binary maze file
+     * @throws IOException If the file cannot be read or is not a binary maze file
+     */
+    public BinaryMazeFile(String filename) throws IOException {
+        file = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a binary maze file");
+            if (header.getInt(4) != VERSION) throw new IOException("Unsupported binary maze version " + header.getInt(4));
+            if (header.getInt(32) != TILE_SIZE) throw new IOException("Unsupported tile size " + header.getInt(32));
+            rows = header.getInt(8);
+            cols = header.getInt(12);
+            start = header.getLong(16);
+            end = header.getLong(24);
+            tileRows = header.getInt(36);
+            tileCols = header.getInt(40);
+
+            long tileCount = (long) tileRows * tileCols;
+            tileIndex = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, tileCount * 8).asLongBuffer();
+            dataOffset = dataOffset(tileCount);
+            long dataSize = Math.max(0, channel.size() - dataOffset);
+            segments = new LongBuffer[(int) ((dataSize + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT)];
+            for (int s = 0; s < segments.length; s++) {
+                long position = dataOffset + ((long) s << SEGMENT_SHIFT);
+                long size = Math.min(1L << SEGMENT_SHIFT, channel.size() - position);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, position, size).asLongBuffer();
+            }
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        } catch (RuntimeException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    //Where the tile data starts, after the header and the index, aligned to a tile
+    private static long dataOffset(long tileCount) {
+        long indexEnd = HEADER_SIZE + tileCount * 8;
+        return (indexEnd + TILE_BYTES - 1) / TILE_BYTES * TILE_BYTES;
+    }
+
+    /**
+     * Check whether a file is a binary maze file
+     *
+     * @param filename The file
+     * @return True if the file starts with the binary maze magic number
+     * @throws IOException If the file cannot be read
+     */
+    public static boolean isBinary(String filename) throws IOException {
+        DataInputStream input = new DataInputStream(new FileInputStream(filename));
+        try {
+            return input.available() >= 4 && input.readInt() == MAGIC;
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    @Override
+    public long getStart() {
+        return start;
+    }
+
+    @Override
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get one row of a tile
+     *
+     * @param tile The tile number, tile row * tile columns + tile column
+     * @param row  The row within the tile
+     * @return The open bits of the row, bit n for column n of the tile
+     */
+    private long tileRow(int tile, int row) {
+        long offset = tileIndex.get(tile);
+        if (offset == 0) return 0;
+        long word = (offset - dataOffset) / 8 + row;
+        return segments[(int) (word >>> (SEGMENT_SHIFT - 3))].get((int) (word & ((1 << (SEGMENT_SHIFT - 3)) - 1)));
+    }
+
+    /**
+     * Check whether a position is open. Positions outside the maze are occupied.
+     *
+     * @param i The row (x) index
+     * @param j The column (z) index
+     * @return True if the position is an open cell
+     */
+    @Override
+    public boolean isOpen(int i, int j) {
+        if (i < 0 || j < 0 || i >= rows || j >= cols) return false;
+        long bits = tileRow((i / TILE_SIZE) * tileCols + j / TILE_SIZE, i % TILE_SIZE);
+        return ((bits >>> (j % TILE_SIZE)) & 1) != 0;
+    }
+
+    @Override
+    public MazeGrid readTile(int firstRow, int firstCol, int height, int width) {
+        //The rectangle plus its border
+        int borderWidth = width + 2, borderHeight = height + 2;
+        boolean[] open = new boolean[borderWidth * borderHeight];
+        for (int i = 0; i < borderHeight; i++) {
+            for (int j = 0; j < borderWidth; j++) {
+                open[i * borderWidth + j] = isOpen(firstRow + i - 1, firstCol + j - 1);
+            }
+        }
+
+        //Fill in the grid, taking the walls from the bordered layout
+        return MazeGrid.fromBorderedLayout(open, height, width);
+    }
+
+    /**
+     * Load the whole maze into a grid
+     *
+     * @return The grid of open cells and their walls
+     */
+    public MazeGrid loadGrid() {
+        MazeGrid grid = new MazeGrid(rows, cols);
+        for (int ti = 0; ti < tileRows; ti++) {
+            for (int tj = 0; tj < tileCols; tj++) {
+                int tile = ti * tileCols + tj;
+                if (tileIndex.get(tile) == 0) continue;
+                int rowCount = Math.min(TILE_SIZE, rows - ti * TILE_SIZE);
+                for (int row = 0; row < rowCount; row++) {
+                    long bits = tileRow(tile, row);
+                    int rowStart = (ti * TILE_SIZE + row) * cols + tj * TILE_SIZE;
+                    //Visit only the set bits
+                    while (bits != 0) {
+                        grid.setOpen(rowStart + Long.numberOfTrailingZeros(bits));
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+        grid.setStart((int) start);
+        grid.setEnd((int) end);
+        MazeLoader.ComputeWalls(grid, MazeLoader.PARALLEL_THRESHOLD);
+        return grid;
+    }
+
+    /**
+     * Close the file. The mappings stay valid until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Convert a text maze file to the binary format. The text file is read one
+     * line at a time and only one row of tiles is held in memory.
+     *
+     * @param textFile   The maze file, in the text format MazeLoader reads
+     * @param binaryFile The binary maze file to write
+     * @throws IOException If a file cannot be read or written, or the text file is malformed
+     */
+    public static void convert(String textFile, String binaryFile) throws IOException {
+        BufferedReader input = new BufferedReader(new FileReader(textFile));
+        RandomAccessFile output = new RandomAccessFile(binaryFile, "rw");
+        try {
+            int rows = Integer.parseInt(input.readLine().trim());
+            int cols = Integer.parseInt(input.readLine().trim());
+            int tileRows = (rows + TILE_SIZE - 1) / TILE_SIZE;
+            int tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+            long[] index = new long[tileRows * tileCols];
+            long start = -1, end = -1;
+
+            output.setLength(0);
+            FileChannel channel = output.getChannel();
+            long position = dataOffset(index.length);
+
+            //One row of tiles, filled from the top row of the file down
+            long[][] band = new long[tileCols][TILE_SIZE];
+            ByteBuffer bandBytes = ByteBuffer.allocateDirect(tileCols * TILE_BYTES);
+            for (int line = 0; line < rows; line++) {
+                String text = input.readLine();
+                if (text == null || text.length() < cols) throw new IOException("Maze file row " + line + " is too short");
+                //Rows are stored top down, the maze has them bottom up
+                int i = rows - 1 - line;
+                int row = i % TILE_SIZE;
+                for (int j = 0; j < cols; j++) {
+                    char c = text.charAt(j);
+                    if (c == 'o') continue;
+                    band[j / TILE_SIZE][row] |= 1L << (j % TILE_SIZE);
+                    if (c == 's') start = (long) i * cols + j;
+                    if (c == 'e') end = (long) i * cols + j;
+                }
+
+                //Once the bottom row of a row of tiles is read, write out the tiles that have open cells
+                if (row != 0) continue;
+                bandBytes.clear();
+                for (int tj = 0; tj < tileCols; tj++) {
+                    long[] tile = band[tj];
+                    boolean empty = true;
+                    for (long bits : tile) empty &= bits == 0;
+                    if (empty) continue;
+                    index[(i / TILE_SIZE) * tileCols + tj] = position + bandBytes.position();
+                    for (int r = 0; r < TILE_SIZE; r++) {
+                        bandBytes.putLong(tile[r]);
+                        tile[r] = 0;
+                    }
+                }
+                bandBytes.flip();
+                while (bandBytes.hasRemaining()) position += channel.write(bandBytes, position);
+            }
+
+            //The header and index go in last, once the tile offsets are known
+            ByteBuffer header = ByteBuffer.allocate((int) (HEADER_SIZE + index.length * 8L));
+            header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols);
+            header.putLong(start).putLong(end);
+            header.putInt(TILE_SIZE).putInt(tileRows).putInt(tileCols).putInt(0);
+            header.asLongBuffer().put(index);
+            header.clear();
+            long headerPosition = 0;
+            while (header.hasRemaining()) headerPosition += channel.write(header, headerPosition);
+            //Make sure the file covers the data start even if no tile has open cells
+            if (output.length() < dataOffset(index.length)) output.setLength(dataOffset(index.length));
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: BinaryMazeFile mazefile...");
+            System.exit(1);
+        }
+        for (String textFile : args) {
+            try {
+                convert(textFile, textFile + ".bin");
+                System.out.println("Wrote " + textFile + ".bin");
+            } catch (IOException ex) {
+                System.out.println("Failed to convert maze file " + textFile + "\n" + ex.toString());
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package joglmaze;
+
+/**
+ * CameraState, an immutable snapshot of the camera after a simulation tick
+ * <p>
+ * Each snapshot also keeps where the camera was after the tick before it, so
+ * the renderer can draw the camera anywhere between the two ticks without
+ * holding on to two snapshots that might come from different publications.
+ */
+public final class CameraState {
+
+    //The number of ticks simulated, and the time the tick was due at, from System.nanoTime()
+    private final long tick;
+    private final long time;
+    //The camera position and angle after this tick, and after the tick before
+    private final float x, z, angle;
+    private final float previousX, previousZ, previousAngle;
+
+    /**
+     * Create a snapshot of a camera that is standing still
+     *
+     * @param tick  The number of ticks simulated
+     * @param time  The time of the tick, from System.nanoTime()
+     * @param x     The camera X position
+     * @param z     The camera Z position
+     * @param angle The camera angle, in radians; 0 looks along +z
+     */
+    public CameraState(long tick, long time, float x, float z, float angle) {
+        this(tick, time, x, z, angle, x, z, angle);
+    }
+
+    private CameraState(long tick, long time, float x, float z, float angle,
+                        float previousX, float previousZ, float previousAngle) {
+        this.tick = tick;
+        this.time = time;
+        this.x = x;
+        this.z = z;
+        this.angle = angle;
+        this.previousX = previousX;
+        this.previousZ = previousZ;
+        this.previousAngle = previousAngle;
+    }
+
+    /**
+     * Make the snapshot of the next tick, with this one as the previous position
+     *
+     * @param time  The time of the next tick, from System.nanoTime()
+     * @param x     The camera X position after the next tick
+     * @param z     The camera Z position after the next tick
+     * @param angle The camera angle after the next tick
+     * @return The snapshot of the next tick
+     */
+    public CameraState next(long time, float x, float z, float angle) {
+        return new CameraState(tick + 1, time, x, z, angle, this.x, this.z, this.angle);
+    }
+
+    //The number of ticks simulated when the snapshot was taken
+    public long getTick() {
+        return tick;
+    }
+
+    //The time of the tick, from System.nanoTime()
+    public long getTime() {
+        return time;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    public float getAngle() {
+        return angle;
+    }
+
+    /**
+     * Get the camera between the previous tick and this one
+     *
+     * @param alpha  How far between the two ticks: 0 is the previous tick, 1 this one
+     * @param camera Set to the camera x, z and angle
+     */
+    public void interpolate(float alpha, float[] camera) {
+        camera[0] = previousX + (x - previousX) * alpha;
+        camera[1] = previousZ + (z - previousZ) * alpha;
+        camera[2] = previousAngle + (angle - previousAngle) * alpha;
+    }
+}
@@ -1,7 +1,5 @@
 package joglmaze;
 
-import com.jogamp.opengl.util.texture.Texture;
-
 import javax.media.opengl.GL2;
 
 /**
@@ -10,39 +8,48 @@ import javax.media.opengl.GL2;
  *
  * @author You
  */
-public class Cell {
+public class Cell implements Renderable {
 
-    //Define the sets of coordinates that will make up the walls, floors and ceiling
-    private float[][] wall1 = {{-0.5f, 0.5f, 0.5f},
+    //Define the sets of coordinates that will make up the walls, floors and ceiling (shared by all cells)
+    private static final float[][] wall1 = {{-0.5f, 0.5f, 0.5f},
             {-0.5f, -0.5f, 0.5f},
             {-0.5f, -0.5f, -0.5f},
             {-0.5f, 0.5f, -0.5f}};
 
-    private float[][] wall2 = {{0.5f, 0.5f, 0.5f},
+    private static final float[][] wall2 = {{0.5f, 0.5f, 0.5f},
             {0.5f, 0.5f, -0.5f},
             {0.5f, -0.5f, -0.5f},
             {0.5f, -0.5f, 0.5f}};
 
-    private float[][] wall3 = {{0.5f, 0.5f, -0.5f},
+    private static final float[][] wall3 = {{0.5f, 0.5f, -0.5f},
             {-0.5f, 0.5f, -0.5f},
             {-0.5f, -0.5f, -0.5f},
             {0.5f, -0.5f, -0.5f}};
 
-    private float[][] wall4 = {{0.5f, 0.5f, 0.5f},
+    private static final float[][] wall4 = {{0.5f, 0.5f, 0.5f},
             {0.5f, -0.5f, 0.5f},
             {-0.5f, -0.5f, 0.5f},
             {-0.5f, 0.5f, 0.5f}};
 
-    private float[][] floor = {{0.5f, -0.5f, 0.5f},
+    private static final float[][] floor = {{0.5f, -0.5f, 0.5f},
             {0.5f, -0.5f, -0.5f},
             {-0.5f, -0.5f, -0.5f},
             {-0.5f, -0.5f, 0.5f}};
 
-    private float[][] ceiling = {{0.5f, 0.5f, 0.5f},
+    private static final float[][] ceiling = {{0.5f, 0.5f, 0.5f},
             {-0.5f, 0.5f, 0.5f},
             {-0.5f, 0.5f, -0.5f},
             {0.5f, 0.5f, -0.5f}};
 
+    //The positions of the two lamps (GL_LIGHT0 and GL_LIGHT1) relative to the cell centre
+    static final float[][] LAMP_POSITIONS = {{-0.3f, 0.4f, 0.0f, 1.0f},
+            {0.3f, 0.4f, 0.0f, 1.0f}};
+
+    //The parts of a cell submitted to the render queue: the walls are parts 0 to 3, by wall index
+    static final int FLOOR = 4;
+    static final int CEILING = 5;
+    //The turn of the face list about y for each wall
+    private static final float[] WALL_ANGLES = {0, 180, 270, 90};
 
     //The list of booleans that determine the existence of the walls
     boolean[] walls;
@@ -77,97 +84,94 @@ public class Cell {
     public void addItem(MazeEndPoint obj) {
         //Add the maze object to the list of variables
         this.obj = obj;
-
-        //If it's the start cell, set the initial player position
-        if (this.obj.isStart()) ViewRenderer.setPos(i, j);
     }
 
-    public void draw(Texture[] textures, GL2 gl) {
-
-        gl.glPushMatrix();
+    /**
+     * Submits the walls, floor and ceiling of the cell, and its maze object, to
+     * the render queue. Their texture layers are picked with the texture matrix
+     * of the atlas, which must be bound when the queue is flushed.
+     *
+     * @param queue  The render queue of the frame
+     * @param shader Whether the faces are lit by the lighting shader
+     */
+    public void submit(RenderQueue queue, boolean shader) {
+        int brick = TextureAtlas.layer(TextureAtlas.BRICK, -1);
 
+        //If a wall of the current maze cell exists, draw it. Repeat for all 4 walls.
+        for (int w = 0; w < 4; w++) {
+            if (walls[w]) queue.submit(shader, brick, RenderQueue.DEFAULT_MATERIAL, i, j, this, w);
+        }
 
-        //Move the current cell of the maze according to its relative position
-        gl.glTranslatef(i, 0.0f, j);
+        //The floor and the ceiling are always drawn
+        queue.submit(shader, TextureAtlas.layer(TextureAtlas.REDBOOK, -1), RenderQueue.DEFAULT_MATERIAL, i, j, this, FLOOR);
+        queue.submit(shader, TextureAtlas.layer(TextureAtlas.VINE, -1), RenderQueue.DEFAULT_MATERIAL, i, j, this, CEILING);
 
-        //Set up the lighting point position
-        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, new float[]{-0.3f, 0.4f, 0.0f, 1.0f}, 0);
-        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_POSITION, new float[]{0.3f, 0.4f, 0.0f, 1.0f}, 0);
-        //gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_SPOT_DIRECTION, new float [] { 0.0f, -0.5f, 1.0f, 0.0f}, 0);
+        submitItem(queue);
+    }
 
-        //Enable and bind the textures to be used for mapping onto the faces
-        gl.glActiveTexture(GL2.GL_TEXTURE0);
-        textures[0].enable(gl);
-        textures[0].bind(gl);
+    /**
+     * Submits only the maze object of this cell (if there is one). Used when the
+     * walls, floor and ceiling are drawn from the static maze mesh instead.
+     *
+     * @param queue The render queue of the frame
+     */
+    public void submitItem(RenderQueue queue) {
+        if (obj != null) obj.submit(queue, i, j);
+    }
 
+    /**
+     * Draws one wall, the floor or the ceiling, at the cell origin
+     *
+     * @param gl   The openGL context
+     * @param part The wall index, FLOOR or CEILING
+     */
+    @Override
+    public void render(GL2 gl, int part) {
+        //The maze objects change the colour
         gl.glColor3f(1.0f, 1.0f, 1.0f);
 
-        //If a wall of the current maze cell exists, draw it. Repeat for all 4 walls.
-        if (walls[0]) {
-            gl.glNormal3f(1.0f, 0.0f, 0.0f);
-            gl.glCallList(rectList);
-
-        }
-        if (walls[1]) {
-            gl.glPushMatrix();
-            gl.glRotatef(180, 0.0f, 1.0f, 0.0f);
-            gl.glNormal3f(1.0f, 0.0f, 0.0f);
-            gl.glCallList(rectList);
-            gl.glPopMatrix();
-        }
-        if (walls[2]) {
-            gl.glPushMatrix();
-            gl.glRotatef(270, 0.0f, 1.0f, 0.0f);
-            gl.glNormal3f(1.0f, 0.0f, 0.0f);
-            gl.glCallList(rectList);
-            gl.glPopMatrix();
-        }
-        if (walls[3]) {
-            gl.glPushMatrix();
-            gl.glRotatef(90, 0.0f, 1.0f, 0.0f);
-            gl.glNormal3f(1.0f, 0.0f, 0.0f);
-            gl.glCallList(rectList);
-            gl.glPopMatrix();
+        if (part == FLOOR) {
+            gl.glBegin(GL2.GL_POLYGON);
+            //setNormal(floor[0], floor[1], floor[2], gl);
+            gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 0, 0);
+            gl.glVertex3fv(floor[0], 0);
+            gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 0, 1);
+            gl.glVertex3fv(floor[1], 0);
+            gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 1, 1);
+            gl.glVertex3fv(floor[2], 0);
+            gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 1, 0);
+            gl.glVertex3fv(floor[3], 0);
+            gl.glEnd();
+            return;
         }
 
-        //Change the textures to be used for next mapping
-        textures[0].disable(gl);
-        textures[1].enable(gl);
-        textures[1].bind(gl);
-
-        //The floor
-        gl.glBegin(GL2.GL_POLYGON);
-        //setNormal(floor[0], floor[1], floor[2], gl);
-        gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 0, 0);
-        gl.glVertex3fv(floor[0], 0);
-        gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 0, 1);
-        gl.glVertex3fv(floor[1], 0);
-        gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 1, 1);
-        gl.glVertex3fv(floor[2], 0);
-        gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, 1, 0);
-        gl.glVertex3fv(floor[3], 0);
-        gl.glEnd();
-
-        //Change the textures to be used for next mapping
-        textures[1].disable(gl);
-        textures[2].enable(gl);
-        textures[2].bind(gl);
-
-        //The ceiling
+        //The walls and the ceiling are the face list turned into place
         gl.glPushMatrix();
-        gl.glRotatef(90, 0.0f, 0.0f, -1.0f);
+        if (part == CEILING) gl.glRotatef(90, 0.0f, 0.0f, -1.0f);
+        else gl.glRotatef(WALL_ANGLES[part], 0.0f, 1.0f, 0.0f);
         gl.glNormal3f(1.0f, 0.0f, 0.0f);
         gl.glCallList(rectList);
         gl.glPopMatrix();
+    }
 
-        textures[2].disable(gl);
-
-        //If the maze's end-point object exists, invoke its draw method
-        if (obj != null) obj.draw(gl);
-
-        gl.glPopMatrix();
+    /**
+     * Positions the two cell lamps relative to the current cell origin
+     *
+     * @param gl The openGL context
+     */
+    static void placeLights(GL2 gl) {
+        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, LAMP_POSITIONS[0], 0);
+        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_POSITION, LAMP_POSITIONS[1], 0);
+    }
 
+    //The X index of the maze cell
+    public float getI() {
+        return i;
+    }
 
+    //The Y index of the maze cell
+    public float getJ() {
+        return j;
     }
 
     /**
@@ -181,32 +185,18 @@ public class Cell {
      */
     public void setNormal(float[] a, float[] b, float[] c, GL2 gl) {
 
-        //Create the vectors to apply the cross product on
-        float v1[] = new float[3];
-        float v2[] = new float[3];
-        float vC[] = new float[3];
-        float vN[] = new float[3];
-
         //Calculate the vectors by substracting one set of coordinates from another
-        v1[0] = b[0] - a[0];
-        v1[1] = b[1] - a[1];
-        v1[2] = b[2] - a[2];
-
-        v2[0] = c[0] - a[0];
-        v2[1] = c[1] - a[1];
-        v2[2] = c[2] - a[2];
+        float v1x = b[0] - a[0], v1y = b[1] - a[1], v1z = b[2] - a[2];
+        float v2x = c[0] - a[0], v2y = c[1] - a[1], v2z = c[2] - a[2];
 
         //Calculate the cross product between the 2 vectors
-        vC[0] = (v1[1] * v2[2]) - (v1[2] * v2[1]);
-        vC[1] = (v1[2] * v2[0]) - (v1[0] * v2[2]);
-        vC[2] = (v1[0] * v2[1]) - (v1[1] * v2[0]);
+        float cx = (v1y * v2z) - (v1z * v2y);
+        float cy = (v1z * v2x) - (v1x * v2z);
+        float cz = (v1x * v2y) - (v1y * v2x);
 
         //Turn the resulting vector into a unit-vector
-        float magnitude = (float) Math.sqrt((vC[0] * vC[0]) + (vC[1] * vC[1]) + (vC[2] * vC[2]));
-        vN[0] = vC[0] / magnitude;
-        vN[1] = vC[1] / magnitude;
-        vN[2] = vC[2] / magnitude;
+        float magnitude = (float) Math.sqrt((cx * cx) + (cy * cy) + (cz * cz));
         //Send the normalization command with the vector to the GL context
-        gl.glNormal3fv(vN, 0);
+        gl.glNormal3f(cx / magnitude, cy / magnitude, cz / magnitude);
     }
 }
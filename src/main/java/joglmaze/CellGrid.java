@@ -0,0 +1,56 @@
+package joglmaze;
+
+import java.util.List;
+
+/**
+ * CellGrid, a uniform grid index over the maze cells
+ * <p>
+ * The cells are stored in a flat array keyed by the flat index i * cols + j
+ * of the maze grid, so finding the Cell object of a grid position is a single
+ * array access. Occupied spaces of the maze have no cell and are stored as null.
+ */
+public class CellGrid {
+
+    //The size of the grid
+    private final int rows;
+    private final int cols;
+    //The cells, row by row
+    private final Cell[] cells;
+
+    /**
+     * Builds the grid index of a list of cells
+     *
+     * @param grid      The maze grid the cells were made from
+     * @param mazeCells The maze cells, as returned by MazeLoader.MakeMaze
+     */
+    public CellGrid(MazeGrid grid, List<Cell> mazeCells) {
+        rows = grid.getRows();
+        cols = grid.getCols();
+        cells = new Cell[rows * cols];
+        for (Cell cell : mazeCells) {
+            cells[(int) cell.getI() * cols + (int) cell.getJ()] = cell;
+        }
+    }
+
+    /**
+     * Get the cell at a grid position
+     *
+     * @param i The row (x) index
+     * @param j The column (z) index
+     * @return The cell, or null if the space is occupied or outside the maze
+     */
+    public Cell get(int i, int j) {
+        if (i < 0 || j < 0 || i >= rows || j >= cols) return null;
+        return cells[i * cols + j];
+    }
+
+    /**
+     * Get the cell at a flat index (i * cols + j)
+     *
+     * @param index The flat index
+     * @return The cell, or null if the space is occupied
+     */
+    public Cell get(int index) {
+        return cells[index];
+    }
+}
@@ -0,0 +1,296 @@
+package joglmaze;
+
+import javax.media.opengl.GL2;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ChunkedMaze, a maze that is streamed in as square tiles around the camera
+ * <p>
+ * Only the tiles within a radius of the camera are read and meshed. Reading
+ * and meshing happen on background threads; the GL thread only uploads the
+ * finished meshes, a few per frame, so display() never waits for the disk.
+ * Loaded tiles are kept in least-recently-used order and the oldest ones are
+ * released once their buffers go over the memory budget.
+ * <p>
+ * The tiles are found through an array with a slot per tile of the maze, and
+ * the use order is a list linked through the tiles themselves, so a frame in
+ * which no new tiles come into range allocates nothing.
+ */
+public class ChunkedMaze {
+
+    //The number of threads reading and meshing tiles
+    private static final int LOADER_THREADS = 2;
+    //The most tiles uploaded in one frame, to keep frame times even
+    private static final int MAX_UPLOADS_PER_FRAME = 4;
+
+    //The maze file being streamed
+    private final MazeTileSource mazeFile;
+    //The tile size in cells, how many tiles around the camera are loaded, and the memory budget
+    private final int tileSize;
+    private final int radius;
+    private final long memoryBudget;
+
+    //The number of tiles down and across the maze
+    private final int tileRows, tileCols;
+    //The tile in each slot: an uploaded tile, PENDING while it is with the loader threads, or null
+    private final Tile[] slots;
+    private static final Tile PENDING = new Tile(0, 0, 0, null);
+    //The uploaded tiles, from the least to the most recently used, and how many there are
+    private Tile oldest, newest;
+    private int tileCount;
+    //The tiles the loader threads have finished, waiting to be uploaded
+    private final ConcurrentLinkedQueue<Tile> loaded = new ConcurrentLinkedQueue<Tile>();
+    private final ExecutorService loader;
+    //The bytes of all uploaded tiles
+    private long memoryUsed;
+
+    //The number of cells in the tiles drawn and skipped in the last frame
+    private int cellsDrawn, cellsCulled;
+    //The draw calls and texture and buffer binds of the last frame
+    private int drawCalls, stateChanges;
+
+    /**
+     * A loaded tile of the maze
+     */
+    private static class Tile {
+        final int firstRow, firstCol;
+        final int cellCount;
+        final MazeMesh mesh;
+        //The neighbouring tiles in the use order
+        Tile older, newer;
+
+        Tile(int firstRow, int firstCol, int cellCount, MazeMesh mesh) {
+            this.firstRow = firstRow;
+            this.firstCol = firstCol;
+            this.cellCount = cellCount;
+            this.mesh = mesh;
+        }
+    }
+
+    /**
+     * Open a maze file for streaming
+     *
+     * @param filename     The maze file, text or binary
+     * @param tileSize     The width and height of a tile, in cells
+     * @param radius       How many tiles around the camera's tile to keep loaded
+     * @param memoryBudget The most bytes of mesh data to keep loaded
+     * @throws IOException If the file cannot be opened
+     */
+    public ChunkedMaze(String filename, int tileSize, int radius, long memoryBudget) throws IOException {
+        this.mazeFile = MazeLoader.OpenTiles(filename);
+        this.tileSize = tileSize;
+        this.radius = radius;
+        this.memoryBudget = memoryBudget;
+        this.tileRows = (mazeFile.getRows() + tileSize - 1) / tileSize;
+        this.tileCols = (mazeFile.getCols() + tileSize - 1) / tileSize;
+        this.slots = new Tile[tileRows * tileCols];
+        this.loader = Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "maze-tile-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //The maze file being streamed, for its dimensions and start and end cells
+    public MazeTileSource getMazeFile() {
+        return mazeFile;
+    }
+
+    /**
+     * Request the tiles around the camera, upload the tiles that have finished
+     * loading and release the least recently used tiles that go over the budget.
+     * Called on the GL thread every frame; it never waits for a tile.
+     *
+     * @param gl The openGL context
+     * @param x  The camera X position
+     * @param z  The camera Z position
+     */
+    public void update(GL2 gl, float x, float z) {
+        int centreI = Math.round(x) / tileSize, centreJ = Math.round(z) / tileSize;
+
+        //Ask for the tiles in range, nearest first
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int ti = centreI - ring; ti <= centreI + ring; ti++) {
+                for (int tj = centreJ - ring; tj <= centreJ + ring; tj++) {
+                    if (Math.max(Math.abs(ti - centreI), Math.abs(tj - centreJ)) != ring) continue;
+                    if (ti < 0 || tj < 0 || ti >= tileRows || tj >= tileCols) continue;
+                    Tile tile = slots[ti * tileCols + tj];
+                    if (tile == PENDING) continue;
+                    if (tile != null) {
+                        //Touching a loaded tile marks it as recently used
+                        unlink(tile);
+                        append(tile);
+                        continue;
+                    }
+                    slots[ti * tileCols + tj] = PENDING;
+                    loader.execute(new LoadTask(ti * tileSize, tj * tileSize));
+                }
+            }
+        }
+
+        //Upload a few of the finished tiles
+        for (int u = 0; u < MAX_UPLOADS_PER_FRAME; u++) {
+            Tile tile = loaded.poll();
+            if (tile == null) break;
+            //A tile that failed to load is kept without a mesh, so it is not asked for again
+            if (tile.mesh != null) {
+                tile.mesh.upload(gl);
+                memoryUsed += tile.mesh.getBufferBytes();
+            }
+            slots[slotOf(tile)] = tile;
+            append(tile);
+        }
+
+        //Release the oldest tiles outside the camera's range while over budget
+        Tile tile = oldest;
+        while (memoryUsed > memoryBudget && tile != null) {
+            Tile next = tile.newer;
+            int ti = tile.firstRow / tileSize, tj = tile.firstCol / tileSize;
+            if (Math.abs(ti - centreI) > radius || Math.abs(tj - centreJ) > radius) {
+                if (tile.mesh != null) {
+                    memoryUsed -= tile.mesh.getBufferBytes();
+                    tile.mesh.dispose(gl);
+                }
+                unlink(tile);
+                slots[slotOf(tile)] = null;
+            }
+            tile = next;
+        }
+    }
+
+    /**
+     * Draw the loaded tiles that are in view
+     *
+     * @param gl      The openGL context
+     * @param atlas   The texture atlas
+     * @param frustum The view frustum, updated for this frame
+     */
+    public void draw(GL2 gl, TextureAtlas atlas, ViewFrustum frustum) {
+        cellsDrawn = 0;
+        cellsCulled = 0;
+        drawCalls = 0;
+        stateChanges = MazeMesh.BEGIN_END_BINDS;
+        MazeMesh.begin(gl, atlas);
+        //Walk the use order list, so that drawing does not change the use order
+        for (Tile tile = oldest; tile != null; tile = tile.newer) {
+            if (tile.mesh == null) continue;
+            if (frustum.overlaps(tile.firstRow, tile.firstCol, tile.firstRow + tileSize - 1, tile.firstCol + tileSize - 1)) {
+                tile.mesh.drawAll(gl);
+                cellsDrawn += tile.cellCount;
+                drawCalls += tile.mesh.getDrawCalls();
+                stateChanges += MazeMesh.MESH_BINDS;
+            } else {
+                cellsCulled += tile.cellCount;
+            }
+        }
+        MazeMesh.end(gl, atlas);
+    }
+
+    //The cells in the tiles drawn in the last frame
+    public int getCellsDrawn() {
+        return cellsDrawn;
+    }
+
+    //The cells in the loaded tiles skipped in the last frame
+    public int getCellsCulled() {
+        return cellsCulled;
+    }
+
+    //The draw calls made in the last frame
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    //The texture and buffer binds made in the last frame
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    //The number of tiles uploaded
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Stop the loader threads and release all the tiles
+     *
+     * @param gl The openGL context
+     */
+    public void dispose(GL2 gl) {
+        loader.shutdownNow();
+        for (Tile tile = oldest; tile != null; tile = tile.newer) {
+            if (tile.mesh != null) tile.mesh.dispose(gl);
+        }
+        Arrays.fill(slots, null);
+        oldest = newest = null;
+        tileCount = 0;
+        memoryUsed = 0;
+        try {
+            mazeFile.close();
+        } catch (IOException ex) {
+            System.out.println("Failed to close maze file\n" + ex.toString());
+        }
+    }
+
+    //The slot of a tile in the slots array
+    private int slotOf(Tile tile) {
+        return tile.firstRow / tileSize * tileCols + tile.firstCol / tileSize;
+    }
+
+    //Add a tile to the most recently used end of the use order
+    private void append(Tile tile) {
+        tile.older = newest;
+        tile.newer = null;
+        if (newest != null) newest.newer = tile;
+        else oldest = tile;
+        newest = tile;
+        tileCount++;
+    }
+
+    //Take a tile out of the use order
+    private void unlink(Tile tile) {
+        if (tile.older != null) tile.older.newer = tile.newer;
+        else oldest = tile.newer;
+        if (tile.newer != null) tile.newer.older = tile.older;
+        else newest = tile.older;
+        tile.older = tile.newer = null;
+        tileCount--;
+    }
+
+    /**
+     * Reads and meshes one tile on a loader thread
+     */
+    private class LoadTask implements Runnable {
+        private final int firstRow, firstCol;
+
+        LoadTask(int firstRow, int firstCol) {
+            this.firstRow = firstRow;
+            this.firstCol = firstCol;
+        }
+
+        @Override
+        public void run() {
+            MazeMesh mesh = null;
+            int cellCount = 0;
+            try {
+                int height = Math.min(tileSize, mazeFile.getRows() - firstRow);
+                int width = Math.min(tileSize, mazeFile.getCols() - firstCol);
+                MazeGrid grid = mazeFile.readTile(firstRow, firstCol, height, width);
+                cellCount = grid.getCellCount();
+                mesh = MazeMesh.build(grid, firstRow, firstCol);
+            } catch (IOException ex) {
+                System.out.println("Failed to load maze tile\n" + ex.toString());
+            }
+            //A tile without a mesh still comes back, so that it is no longer pending
+            loaded.add(new Tile(firstRow, firstCol, cellCount, mesh));
+        }
+    }
+}
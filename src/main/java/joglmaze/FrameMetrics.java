@@ -0,0 +1,352 @@
+package joglmaze;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.media.opengl.GL2;
+import java.lang.management.ManagementFactory;
+
+/**
+ * FrameMetrics, measures where the time of each frame goes
+ * <p>
+ * A frame is split into phases. The CPU time of each phase is taken with
+ * System.nanoTime(), and where the driver has timer queries its GPU time is
+ * taken with a GL_TIME_ELAPSED query around the phase. Query results are only
+ * read once the driver says they are available, a few frames later, so the
+ * measurement never makes the CPU wait for the GPU; a phase whose query from
+ * QUERY_FRAMES frames ago still has no result is simply not timed on the GPU.
+ * The times go into latency histograms, which are shown over JMX together
+ * with the draw call, cell and state change counts of the last frame.
+ * <p>
+ * Everything except the JMX getters must be called on the GL thread.
+ */
+public class FrameMetrics implements FrameMetricsMBean {
+
+    /**
+     * The phases of a frame, in the order they are drawn
+     */
+    public enum Phase {
+        //Taking the camera and the frame worked out for it, or waiting for the frame preparer to finish it
+        CULL,
+        //Clearing the buffers and loading the view matrix
+        CAMERA,
+        //Uploading and releasing the tiles of a streamed maze
+        STREAM,
+        //Drawing the walls, floors and ceilings
+        MAZE,
+        //Drawing the start and end markers
+        ITEMS,
+        //Updating the minimap with the cells explored, and drawing it
+        MINIMAP,
+        //Handing the frame to the driver
+        FLUSH
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    //The name the metrics are registered under with the platform MBean server
+    static final String OBJECT_NAME = "joglmaze:type=FrameMetrics";
+    //The number of frames of GPU queries in flight before a phase stops being timed
+    private static final int QUERY_FRAMES = 4;
+    //GL_TIME_ELAPSED, the same value in the EXT and ARB timer query extensions and GL 3.3
+    private static final int GL_TIME_ELAPSED = GL2.GL_TIME_ELAPSED_EXT;
+
+    //The CPU and GPU time of each phase, and the CPU time of whole frames
+    private final LatencyHistogram[] cpuTimes = new LatencyHistogram[PHASES.length];
+    private final LatencyHistogram[] gpuTimes = new LatencyHistogram[PHASES.length];
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+
+    //The query objects, QUERY_FRAMES sets of one per phase, and which ones are waiting for a result
+    private final int[] queries = new int[QUERY_FRAMES * PHASES.length];
+    private final boolean[] pending = new boolean[QUERY_FRAMES * PHASES.length];
+    private final int[] queryResult = new int[1];
+    private boolean gpuTiming;
+
+    //The frame being measured, when it and the current phase started, and the query of the current phase
+    private long frame;
+    private long frameStart, phaseStart;
+    private int activeQuery = -1;
+
+    //The latest CPU and GPU times of each phase, in nanoseconds, for the overlay
+    private final long[] lastCpu = new long[PHASES.length];
+    private final long[] lastGpu = new long[PHASES.length];
+    private long lastFrame;
+
+    //The counters of the frame being drawn, and of the last frame drawn
+    private int drawCalls, cellsDrawn, stateChanges, stateChangesSaved;
+    private volatile int lastDrawCalls, lastCellsDrawn, lastStateChanges, lastStateChangesSaved;
+
+    public FrameMetrics() {
+        for (int p = 0; p < PHASES.length; p++) {
+            cpuTimes[p] = new LatencyHistogram();
+            gpuTimes[p] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Create the timer queries, if the driver has them
+     *
+     * @param gl The openGL context
+     */
+    public void init(GL2 gl) {
+        gpuTiming = gl.isExtensionAvailable("GL_ARB_timer_query") || gl.isExtensionAvailable("GL_EXT_timer_query");
+        if (gpuTiming) gl.glGenQueries(queries.length, queries, 0);
+    }
+
+    /**
+     * Release the timer queries
+     *
+     * @param gl The openGL context
+     */
+    public void dispose(GL2 gl) {
+        if (gpuTiming) gl.glDeleteQueries(queries.length, queries, 0);
+    }
+
+    /**
+     * Start measuring a frame, and collect the GPU times that have come back
+     * since the last one
+     *
+     * @param gl The openGL context
+     */
+    public void beginFrame(GL2 gl) {
+        if (gpuTiming) collect(gl);
+        frame++;
+        drawCalls = 0;
+        cellsDrawn = 0;
+        stateChanges = 0;
+        stateChangesSaved = 0;
+        frameStart = System.nanoTime();
+    }
+
+    /**
+     * Start measuring a phase. Phases cannot overlap.
+     *
+     * @param gl    The openGL context
+     * @param phase The phase
+     */
+    public void beginPhase(GL2 gl, Phase phase) {
+        int query = (int) (frame % QUERY_FRAMES) * PHASES.length + phase.ordinal();
+        //The query of this phase QUERY_FRAMES frames ago has not come back; skip rather than wait
+        if (gpuTiming && !pending[query]) {
+            gl.glBeginQuery(GL_TIME_ELAPSED, queries[query]);
+            activeQuery = query;
+        }
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Stop measuring a phase
+     *
+     * @param gl    The openGL context
+     * @param phase The phase, the one passed to beginPhase()
+     */
+    public void endPhase(GL2 gl, Phase phase) {
+        long elapsed = System.nanoTime() - phaseStart;
+        cpuTimes[phase.ordinal()].record(elapsed);
+        lastCpu[phase.ordinal()] = elapsed;
+        if (activeQuery >= 0) {
+            gl.glEndQuery(GL_TIME_ELAPSED);
+            pending[activeQuery] = true;
+            activeQuery = -1;
+        }
+    }
+
+    /**
+     * Stop measuring a frame
+     */
+    public void endFrame() {
+        lastFrame = System.nanoTime() - frameStart;
+        frameTimes.record(lastFrame);
+        lastDrawCalls = drawCalls;
+        lastCellsDrawn = cellsDrawn;
+        lastStateChanges = stateChanges;
+        lastStateChangesSaved = stateChangesSaved;
+    }
+
+    //Read the results of the queries that are ready, oldest frame first, without waiting for any
+    private void collect(GL2 gl) {
+        for (int f = 1; f <= QUERY_FRAMES; f++) {
+            int first = (int) ((frame + f) % QUERY_FRAMES) * PHASES.length;
+            for (int p = 0; p < PHASES.length; p++) {
+                int query = first + p;
+                if (!pending[query]) continue;
+                gl.glGetQueryObjectiv(queries[query], GL2.GL_QUERY_RESULT_AVAILABLE, queryResult, 0);
+                if (queryResult[0] == 0) continue;
+                //A 32 bit result is enough for any phase shorter than four seconds
+                gl.glGetQueryObjectiv(queries[query], GL2.GL_QUERY_RESULT, queryResult, 0);
+                long elapsed = queryResult[0] & 0xffffffffL;
+                gpuTimes[p].record(elapsed);
+                lastGpu[p] = elapsed;
+                pending[query] = false;
+            }
+        }
+    }
+
+    /**
+     * Count draw calls made in the frame being drawn
+     *
+     * @param count The number of draw calls
+     */
+    public void addDrawCalls(int count) {
+        drawCalls += count;
+    }
+
+    /**
+     * Count cells drawn in the frame being drawn
+     *
+     * @param count The number of cells
+     */
+    public void addCells(int count) {
+        cellsDrawn += count;
+    }
+
+    /**
+     * Count state changes (texture, texture layer and buffer binds) in the frame being drawn
+     *
+     * @param count The number of state changes
+     */
+    public void addStateChanges(int count) {
+        stateChanges += count;
+    }
+
+    /**
+     * Count state changes that sorting the render queue saved in the frame being drawn
+     *
+     * @param count The number of state changes saved
+     */
+    public void addStateChangesSaved(int count) {
+        stateChangesSaved += count;
+    }
+
+    /**
+     * Describe the last frame, a line at a time, for drawing on screen
+     *
+     * @return The lines of text
+     */
+    public String[] getOverlayLines() {
+        String[] lines = new String[PHASES.length + 2];
+        lines[0] = String.format("frame %6.2f ms   p99 %6.2f ms", lastFrame / 1e6, frameTimes.getPercentileMillis(0.99));
+        for (Phase phase : PHASES) {
+            int p = phase.ordinal();
+            String gpu = gpuTiming ? String.format("%6.2f ms", lastGpu[p] / 1e6) : "     -";
+            lines[p + 1] = String.format("%-7s cpu %6.2f ms   gpu %s", phase, lastCpu[p] / 1e6, gpu);
+        }
+        lines[PHASES.length + 1] = "draw calls " + lastDrawCalls + "   cells " + lastCellsDrawn
+                + "   state changes " + lastStateChanges + " (" + lastStateChangesSaved + " saved)";
+        return lines;
+    }
+
+    /**
+     * Make the metrics visible over JMX, under OBJECT_NAME
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            //A renderer created again in the same JVM takes over the name
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException ex) {
+            System.out.println("Failed to register frame metrics\n" + ex.toString());
+        }
+    }
+
+    /**
+     * Remove the metrics from JMX, if they are the ones registered
+     */
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException ex) {
+            System.out.println("Failed to unregister frame metrics\n" + ex.toString());
+        }
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameTimes.getCount();
+    }
+
+    @Override
+    public double getFrameTimeMeanMillis() {
+        return frameTimes.getMeanMillis();
+    }
+
+    @Override
+    public double getFrameTimeP50Millis() {
+        return frameTimes.getPercentileMillis(0.50);
+    }
+
+    @Override
+    public double getFrameTimeP95Millis() {
+        return frameTimes.getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        return frameTimes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getFrameTimeMaxMillis() {
+        return frameTimes.getMaxMillis();
+    }
+
+    @Override
+    public int getDrawCalls() {
+        return lastDrawCalls;
+    }
+
+    @Override
+    public int getCellsDrawn() {
+        return lastCellsDrawn;
+    }
+
+    @Override
+    public int getStateChanges() {
+        return lastStateChanges;
+    }
+
+    @Override
+    public int getStateChangesSaved() {
+        return lastStateChangesSaved;
+    }
+
+    @Override
+    public boolean isGpuTimingAvailable() {
+        return gpuTiming;
+    }
+
+    @Override
+    public String[] getPhaseTimes() {
+        String[] lines = new String[PHASES.length];
+        for (Phase phase : PHASES) {
+            lines[phase.ordinal()] = describe(phase);
+        }
+        return lines;
+    }
+
+    /**
+     * Describe the times of a phase: the percentiles of its CPU and GPU times
+     *
+     * @param phase The phase
+     * @return One line of text
+     */
+    public String describe(Phase phase) {
+        LatencyHistogram cpu = cpuTimes[phase.ordinal()], gpu = gpuTimes[phase.ordinal()];
+        return String.format("%-7s cpu p50 %.3f p95 %.3f p99 %.3f ms   gpu p50 %.3f p95 %.3f p99 %.3f ms",
+                phase, cpu.getPercentileMillis(0.50), cpu.getPercentileMillis(0.95), cpu.getPercentileMillis(0.99),
+                gpu.getPercentileMillis(0.50), gpu.getPercentileMillis(0.95), gpu.getPercentileMillis(0.99));
+    }
+
+    @Override
+    public void reset() {
+        for (int p = 0; p < PHASES.length; p++) {
+            cpuTimes[p].reset();
+            gpuTimes[p].reset();
+        }
+        frameTimes.reset();
+    }
+}
@@ -0,0 +1,42 @@
+package joglmaze;
+
+/**
+ * FrameMetricsMBean, the frame metrics as they are shown over JMX
+ * <p>
+ * Times are in milliseconds. The counters are those of the last frame drawn.
+ */
+public interface FrameMetricsMBean {
+
+    //The number of frames measured since the last reset
+    long getFrameCount();
+
+    //The CPU time of whole frames
+    double getFrameTimeMeanMillis();
+
+    double getFrameTimeP50Millis();
+
+    double getFrameTimeP95Millis();
+
+    double getFrameTimeP99Millis();
+
+    double getFrameTimeMaxMillis();
+
+    //The draw calls, cells and state changes of the last frame
+    int getDrawCalls();
+
+    int getCellsDrawn();
+
+    int getStateChanges();
+
+    //The state changes the render queue saved in the last frame by sorting its draws
+    int getStateChangesSaved();
+
+    //Whether the GPU time of each phase is being measured
+    boolean isGpuTimingAvailable();
+
+    //One line per phase, with the percentiles of its CPU and GPU times
+    String[] getPhaseTimes();
+
+    //Forget all the measurements so far
+    void reset();
+}
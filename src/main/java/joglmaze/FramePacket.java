@@ -0,0 +1,87 @@
+package joglmaze;
+
+/**
+ * FramePacket, what the GL thread needs to draw one frame, worked out ahead of it
+ * <p>
+ * A packet holds the camera of the frame, the view frustum at that camera,
+ * the cells found in view, and the render queues of the frame's cells and
+ * markers, already sorted. The FramePreparer fills it and hands it to the GL
+ * thread, which only reads it; it is not written again until the GL thread has
+ * drawn it and handed it back. Its arrays are reused from frame to frame.
+ */
+public class FramePacket {
+
+    //The camera of the frame
+    private float x, z, angle;
+    //The view frustum at the camera, and the cells found in it
+    private final ViewFrustum frustum = new ViewFrustum(ViewRenderer.FIELD_OF_VIEW, ViewRenderer.FAR_PLANE);
+    private int cellsDrawn, cellsCulled;
+    //The faces of the visible cells when drawing cell by cell, and the start and end markers
+    private final RenderQueue cells = new RenderQueue();
+    private final RenderQueue items = new RenderQueue();
+
+    /**
+     * Start filling the packet for a camera
+     *
+     * @param x     The camera X position
+     * @param z     The camera Z position
+     * @param angle The camera angle
+     */
+    void setCamera(float x, float z, float angle) {
+        this.x = x;
+        this.z = z;
+        this.angle = angle;
+        frustum.update(x, z, angle);
+    }
+
+    /**
+     * Record how many cells were found in view
+     *
+     * @param drawn  The number of cells in view
+     * @param culled The number of cells left out
+     */
+    void setCellCounts(int drawn, int culled) {
+        cellsDrawn = drawn;
+        cellsCulled = culled;
+    }
+
+    //The camera X position
+    public float getX() {
+        return x;
+    }
+
+    //The camera Z position
+    public float getZ() {
+        return z;
+    }
+
+    //The camera angle
+    public float getAngle() {
+        return angle;
+    }
+
+    //The view frustum at the camera; getVisible() holds the cells in view
+    public ViewFrustum getFrustum() {
+        return frustum;
+    }
+
+    //The number of cells in view
+    public int getCellsDrawn() {
+        return cellsDrawn;
+    }
+
+    //The number of cells left out
+    public int getCellsCulled() {
+        return cellsCulled;
+    }
+
+    //The faces of the visible cells, sorted, when drawing cell by cell
+    public RenderQueue getCells() {
+        return cells;
+    }
+
+    //The start and end markers, sorted, when the maze is drawn from a mesh
+    public RenderQueue getItems() {
+        return items;
+    }
+}
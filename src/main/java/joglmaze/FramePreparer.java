@@ -0,0 +1,234 @@
+package joglmaze;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * FramePreparer, works out each frame on its own thread while the GL thread draws the one before
+ * <p>
+ * Each frame the GL thread takes the packet it asked for a frame earlier, which
+ * it draws, and hands over the camera it sampled; while it draws, the
+ * preparation thread finds the cells in view of the new camera, submits their
+ * faces to the packet's render queue and sorts it. So the GL thread only makes
+ * GL calls, and the camera it draws is one frame old. There are PACKETS
+ * packets: one being drawn, one ready to be drawn and one being prepared, so
+ * neither thread ever waits for the other to let go of a packet. If the
+ * preparation takes longer than drawing, the GL thread waits for the packet
+ * it asked for rather than draw an old one again, so a frame takes as long as
+ * the slower of the two instead of both.
+ * <p>
+ * When the frustum covers many cells, as it does for a camera outside the
+ * open cells, the rows are scanned on a fork/join pool across the cores.
+ * Streamed mazes upload their tiles as the camera moves, which has to be done
+ * on the GL thread, so for them only the frustum is prepared here.
+ * <p>
+ * Without start() being called, next() prepares each packet on the GL thread
+ * itself, one frame at a time.
+ */
+public class FramePreparer {
+
+    //The packets in flight
+    static final int PACKETS = 3;
+
+    private final FramePacket[] packets = new FramePacket[PACKETS];
+
+    //The maze, or null for a streamed maze, its visible sets, or null until found, and the cells when drawing
+    //cell by cell
+    private final MazeGrid grid;
+    private volatile PotentiallyVisibleSet visibleSet;
+    private final CellGrid cellGrid;
+    //The cells with markers, drawn from their own queue when the maze is drawn from a mesh
+    private final List<Cell> itemCells;
+    //Whether the cell faces are lit by the lighting shader
+    private final boolean shaderLighting;
+    //The pool scanning large frustums, or null on a single core
+    private final ForkJoinPool pool;
+
+    //The packet being drawn, the newest one ready, the one being prepared, or -1; guarded by this
+    private int drawing = -1, ready = -1, preparing = -1;
+    //The camera asked for and not yet being prepared; guarded by this
+    private boolean requested;
+    private float requestX, requestZ, requestAngle;
+    private Thread thread;
+
+    /**
+     * Create a preparer for a maze
+     *
+     * @param grid           The maze, or null if it is streamed
+     * @param visibleSet     The visible sets of the maze, or null if it is streamed or they are not found yet
+     * @param cellGrid       The maze cells when drawing cell by cell, otherwise null
+     * @param itemCells      The cells with markers, when the maze is not drawn cell by cell
+     * @param shaderLighting Whether the cell faces are lit by the lighting shader
+     */
+    public FramePreparer(MazeGrid grid, PotentiallyVisibleSet visibleSet, CellGrid cellGrid, List<Cell> itemCells,
+                         boolean shaderLighting) {
+        this.grid = grid;
+        this.visibleSet = visibleSet;
+        this.cellGrid = cellGrid;
+        this.itemCells = itemCells;
+        this.shaderLighting = shaderLighting;
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.pool = cores > 1 ? new ForkJoinPool(cores) : null;
+        for (int p = 0; p < PACKETS; p++) packets[p] = new FramePacket();
+    }
+
+    /**
+     * Cull the frames prepared from now on with the visible sets of the maze
+     *
+     * @param visibleSet The visible sets, once they are found
+     */
+    public void setVisibleSet(PotentiallyVisibleSet visibleSet) {
+        this.visibleSet = visibleSet;
+    }
+
+    /**
+     * Start preparing frames on a background thread
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prepareFrames();
+            }
+        }, "frame-preparer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the background thread; next() then prepares frames on the calling thread
+     */
+    public void stop() {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (stopping == null) return;
+        stopping.interrupt();
+        try {
+            stopping.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Take the newest frame prepared to draw, and ask for the next one to be
+     * prepared while it is drawn. The packet taken last time is handed back.
+     * The first frame, with nothing asked for before it, is prepared for the
+     * camera given and waited for.
+     *
+     * @param x     The camera X position
+     * @param z     The camera Z position
+     * @param angle The camera angle
+     * @return The packet to draw
+     */
+    public FramePacket next(float x, float z, float angle) {
+        synchronized (this) {
+            drawing = -1;
+            if (thread != null) {
+                if (!requested && preparing < 0 && ready < 0) request(x, z, angle);
+                boolean interrupted = false;
+                while (ready < 0 && thread != null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+                if (ready >= 0) {
+                    drawing = ready;
+                    ready = -1;
+                    request(x, z, angle);
+                    return packets[drawing];
+                }
+            }
+        }
+        //Not running: prepare the frame here
+        prepare(packets[0], x, z, angle);
+        return packets[0];
+    }
+
+    //Ask the preparation thread for a frame; called holding the lock
+    private void request(float x, float z, float angle) {
+        requestX = x;
+        requestZ = z;
+        requestAngle = angle;
+        requested = true;
+        notifyAll();
+    }
+
+    //The loop of the preparation thread
+    private void prepareFrames() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            int packet;
+            float x, z, angle;
+            synchronized (this) {
+                while (!requested && thread == self) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        //Checked by the loop
+                    }
+                }
+                if (thread != self) return;
+                requested = false;
+                x = requestX;
+                z = requestZ;
+                angle = requestAngle;
+                //The packet that is neither being drawn nor waiting to be
+                packet = 0;
+                while (packet == drawing || packet == ready) packet++;
+                preparing = packet;
+            }
+            prepare(packets[packet], x, z, angle);
+            synchronized (this) {
+                ready = preparing;
+                preparing = -1;
+                notifyAll();
+            }
+        }
+    }
+
+    //Fill a packet for a camera
+    private void prepare(FramePacket packet, float x, float z, float angle) {
+        packet.setCamera(x, z, angle);
+        ViewFrustum frustum = packet.getFrustum();
+        if (grid != null) {
+            //Find the cells that are in front of the camera, and that can be seen from the camera's cell
+            int visibleCount;
+            int cameraI = Math.round(x), cameraJ = Math.round(z);
+            PotentiallyVisibleSet sets = visibleSet;
+            if (sets != null && grid.isOpen(cameraI, cameraJ)) {
+                visibleCount = frustum.cull(grid, sets, cameraI * grid.getCols() + cameraJ);
+            } else {
+                visibleCount = frustum.cull(grid, pool);
+            }
+            packet.setCellCounts(visibleCount, grid.getCellCount() - visibleCount);
+
+            if (cellGrid != null) {
+                RenderQueue cells = packet.getCells();
+                cells.clear();
+                int[] visible = frustum.getVisible();
+                for (int c = 0; c < visibleCount; c++) {
+                    cellGrid.get(visible[c]).submit(cells, shaderLighting);
+                }
+                cells.sort();
+            }
+        }
+
+        if (cellGrid == null) {
+            RenderQueue items = packet.getItems();
+            items.clear();
+            for (int c = 0; c < itemCells.size(); c++) {
+                itemCells.get(c).submitItem(items);
+            }
+            items.sort();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package joglmaze;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.TraceGL2;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GLProfiler, counts the GL calls made through a context, and the ones that changed nothing
+ * <p>
+ * JOGL's TraceGL2 prints every call it passes on; here the print goes to a
+ * stream that only reads the entry point name off each line and counts it. For
+ * the calls that set state the renderer cares about - texture, buffer and
+ * program bindings, capabilities, materials and the current colour - the value
+ * set is remembered, and a call that sets the value already there is counted
+ * as redundant. State that a call can change behind the profiler's back
+ * (glPopAttrib, display lists, deleted objects) is forgotten, so a change is
+ * only called redundant when it certainly was.
+ * <p>
+ * The counts are kept for the whole run and divided by the number of frames
+ * marked with endFrame(). When the JVM exits they are written to a file, most
+ * called entry points first. Every call is formatted as text on its way
+ * through, so the profiler is for measuring, not for shipping.
+ */
+public class GLProfiler extends TraceGL2 {
+
+    //Counts the calls traced
+    private final CallCounter counter;
+    //The file the summary is written to at exit
+    private final File file;
+
+    //The redundant calls of each entry point, the frames marked, the calls before this frame, and the most in a frame
+    private final Map<String, long[]> redundant = new HashMap<String, long[]>();
+    private long frames, callsBeforeFrame, maxFrameCalls;
+
+    //The state set last: bindings by unit and target, capabilities, program, materials by face and parameter, colour
+    private int activeTexture = GL.GL_TEXTURE0;
+    private final Map<Long, Integer> textures = new HashMap<Long, Integer>();
+    private final Map<Integer, Integer> buffers = new HashMap<Integer, Integer>();
+    private final Map<Integer, Boolean> capabilities = new HashMap<Integer, Boolean>();
+    private int program = -1;
+    private final Map<Integer, float[]> materials = new HashMap<Integer, float[]>();
+    private float[] colour;
+
+    /**
+     * Create a profiler around a context, writing its summary when the JVM exits
+     *
+     * @param gl   The context to profile
+     * @param file The file to write the summary to
+     */
+    public GLProfiler(GL2 gl, File file) {
+        this(gl, file, new CallCounter());
+    }
+
+    private GLProfiler(GL2 gl, File file, CallCounter counter) {
+        super(gl, new PrintStream(counter));
+        this.counter = counter;
+        this.file = file;
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "gl-profile-writer"));
+    }
+
+    //Count a redundant call
+    private void redundant(String name) {
+        synchronized (counter) {
+            long[] count = redundant.get(name);
+            if (count == null) redundant.put(name, count = new long[1]);
+            count[0]++;
+        }
+    }
+
+    private static <K, V> boolean changed(Map<K, V> state, K key, V value) {
+        V last = state.put(key, value);
+        return last == null || !last.equals(value);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        if (activeTexture == texture) redundant("glActiveTexture");
+        activeTexture = texture;
+        super.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        if (!changed(textures, ((long) activeTexture << 32) | target, texture)) redundant("glBindTexture");
+        super.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (!changed(buffers, target, buffer)) redundant("glBindBuffer");
+        super.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glEnable(int capability) {
+        if (!changed(capabilities, capability, true)) redundant("glEnable");
+        super.glEnable(capability);
+    }
+
+    @Override
+    public void glDisable(int capability) {
+        if (!changed(capabilities, capability, false)) redundant("glDisable");
+        super.glDisable(capability);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (this.program == program) redundant("glUseProgram");
+        this.program = program;
+        super.glUseProgram(program);
+    }
+
+    @Override
+    public void glMaterialfv(int face, int name, float[] values, int offset) {
+        float[] value = Arrays.copyOfRange(values, offset, Math.min(values.length, offset + 4));
+        if (Arrays.equals(materials.put((face << 16) | name, value), value)) redundant("glMaterialfv");
+        super.glMaterialfv(face, name, values, offset);
+    }
+
+    @Override
+    public void glMaterialf(int face, int name, float value) {
+        float[] values = {value};
+        if (Arrays.equals(materials.put((face << 16) | name, values), values)) redundant("glMaterialf");
+        super.glMaterialf(face, name, value);
+    }
+
+    @Override
+    public void glColor3f(float red, float green, float blue) {
+        setColour("glColor3f", red, green, blue, 1.0f);
+        super.glColor3f(red, green, blue);
+    }
+
+    @Override
+    public void glColor4f(float red, float green, float blue, float alpha) {
+        setColour("glColor4f", red, green, blue, alpha);
+        super.glColor4f(red, green, blue, alpha);
+    }
+
+    private void setColour(String name, float red, float green, float blue, float alpha) {
+        float[] value = {red, green, blue, alpha};
+        if (Arrays.equals(colour, value)) redundant(name);
+        colour = value;
+    }
+
+    @Override
+    public void glPopAttrib() {
+        capabilities.clear();
+        materials.clear();
+        colour = null;
+        super.glPopAttrib();
+    }
+
+    @Override
+    public void glCallList(int list) {
+        //A list can set the colour and materials
+        materials.clear();
+        colour = null;
+        super.glCallList(list);
+    }
+
+    @Override
+    public void glDeleteTextures(int count, int[] names, int offset) {
+        textures.clear();
+        super.glDeleteTextures(count, names, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int count, int[] names, int offset) {
+        buffers.clear();
+        super.glDeleteBuffers(count, names, offset);
+    }
+
+    /**
+     * Mark the end of a frame
+     */
+    public void endFrame() {
+        synchronized (counter) {
+            frames++;
+            long total = counter.getTotal();
+            maxFrameCalls = Math.max(maxFrameCalls, total - callsBeforeFrame);
+            callsBeforeFrame = total;
+        }
+    }
+
+    /**
+     * Write the summary: calls per frame by entry point, and the redundant ones
+     */
+    public void write() {
+        synchronized (counter) {
+            long total = counter.getTotal(), wasted = 0;
+            for (long[] count : redundant.values()) wasted += count[0];
+            double perFrame = Math.max(1, frames);
+            try {
+                PrintWriter out = new PrintWriter(new FileWriter(file));
+                try {
+                    out.println(String.format("%d frames, %d GL calls, %.1f per frame, at most %d in a frame",
+                            frames, total, total / perFrame, maxFrameCalls));
+                    out.println(String.format("%d redundant state changes, %.1f per frame", wasted, wasted / perFrame));
+                    out.println();
+                    out.println("Calls per frame by entry point:");
+                    for (Map.Entry<String, long[]> entry : sorted(counter.getCalls())) {
+                        out.println(String.format("  %-32s %12.1f", entry.getKey(), entry.getValue()[0] / perFrame));
+                    }
+                    out.println();
+                    out.println("Redundant state changes per frame:");
+                    for (Map.Entry<String, long[]> entry : sorted(redundant)) {
+                        out.println(String.format("  %-32s %12.1f", entry.getKey(), entry.getValue()[0] / perFrame));
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException ex) {
+                System.out.println("Failed to write the GL profile " + file + "\n" + ex.toString());
+            }
+        }
+    }
+
+    //The counts, highest first
+    private static List<Map.Entry<String, long[]>> sorted(Map<String, long[]> counts) {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+            @Override
+            public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Reads the trace TraceGL2 prints, and counts the calls by the name at the start of each line
+     */
+    private static class CallCounter extends OutputStream {
+        private final Map<String, long[]> calls = new HashMap<String, long[]>();
+        private long total;
+        //The name being read, and whether the rest of the line is being skipped
+        private final StringBuilder name = new StringBuilder();
+        private boolean skipping;
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                skipping = false;
+                name.setLength(0);
+            } else if (skipping) {
+                return;
+            } else if (b == '(') {
+                String call = name.toString();
+                long[] count = calls.get(call);
+                if (count == null) calls.put(call, count = new long[1]);
+                count[0]++;
+                total++;
+                skipping = true;
+            } else {
+                name.append((char) b);
+            }
+        }
+
+        //The calls counted by entry point; read holding this
+        Map<String, long[]> getCalls() {
+            return calls;
+        }
+
+        synchronized long getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package joglmaze;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * HeadlessBenchmark, renders a maze offscreen along a scripted camera path and reports frame times
+ * <p>
+ * The renderer draws into an offscreen drawable (an FBO or a pbuffer, whichever the
+ * driver offers), so no window is opened and Mesa software rendering is enough; on
+ * a machine without a display, run it under xvfb-run. Every frame ends with
+ * glFinish(), so the frame times include the GPU work. The first frames are a
+ * warm-up and are not counted.
+ * <p>
+ * The camera follows a path of (x, z) waypoints at a fixed speed, facing the way it
+ * moves, and turns back at the end of the path. The path is read from a file of
+ * "x z" lines ('#' starts a comment), or else it is the shortest route from the
+ * start of the maze to its end.
+ * <p>
+ * The path file can also be an input log recorded in the viewer with
+ * -Dmaze.record=&lt;file&gt;. The log is then replayed one tick per frame, so the
+ * camera moves as it did when playing, and the frames are capped at the ticks
+ * recorded. The replay is checked against the log as it goes.
+ * <p>
+ * Usage: HeadlessBenchmark mazefile [frames [width height [pathfile]]]
+ */
+public class HeadlessBenchmark {
+
+    //The distance the camera moves per frame, in cells
+    private static final float CAMERA_STEP = 0.05f;
+    //The share of the frames rendered before timing starts
+    private static final int WARM_UP_DIVISOR = 10;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: HeadlessBenchmark mazefile [frames [width height [pathfile]]]");
+            System.exit(1);
+        }
+        String mazeFile = args[0];
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int width = args.length > 3 ? Integer.parseInt(args[2]) : 512;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+        InputLog.Reader log = args.length > 4 && InputLog.isLog(args[4]) ? new InputLog.Reader(args[4]) : null;
+        float[] path = log != null ? null : args.length > 4 ? readPath(args[4]) : shortestRoute(mazeFile);
+        int warmUp = frames / WARM_UP_DIVISOR;
+        if (log != null && log.getTicks() > 0 && warmUp + frames > log.getTicks()) {
+            //No more frames than the log has ticks
+            warmUp = (int) (log.getTicks() / (WARM_UP_DIVISOR + 1));
+            frames = (int) log.getTicks() - warmUp;
+        }
+
+        GLProfile.initSingleton();
+        GLProfile profile = GLProfile.get(GLProfile.GL2);
+        GLCapabilities capabilities = new GLCapabilities(profile);
+        capabilities.setOnscreen(false);
+        GLDrawableFactory factory = GLDrawableFactory.getFactory(profile);
+        GLOffscreenAutoDrawable drawable = factory.createOffscreenAutoDrawable(factory.getDefaultDevice(),
+                capabilities, null, width, height, null);
+
+        ViewRenderer renderer = new ViewRenderer(log != null ? log.getTickRate() : 60, mazeFile);
+        if (log != null) renderer.replay(log, true);
+        FrameFinisher finisher = new FrameFinisher();
+        drawable.addGLEventListener(renderer);
+        drawable.addGLEventListener(finisher);
+
+        //The first display initialises the renderer and loads the maze
+        long before = System.nanoTime();
+        drawable.display();
+        double initMs = (System.nanoTime() - before) / 1e6;
+
+        long[] frameTimes = new long[frames];
+        long[] cellsDrawn = new long[frames];
+        float[] camera = new float[3];
+        long start = 0;
+        for (int frame = -warmUp; frame < frames; frame++) {
+            if (log == null) {
+                cameraAt(path, (frame + warmUp) * CAMERA_STEP, camera);
+                renderer.setCamera(camera[0], camera[1], camera[2]);
+            }
+            if (frame == 0) {
+                //Only the measured frames go into the phase histograms
+                renderer.getMetrics().reset();
+                start = System.nanoTime();
+            }
+            before = System.nanoTime();
+            drawable.display();
+            if (frame < 0) continue;
+            frameTimes[frame] = System.nanoTime() - before;
+            cellsDrawn[frame] = renderer.getCellsDrawn();
+        }
+        double totalSeconds = (System.nanoTime() - start) / 1e9;
+        drawable.destroy();
+
+        long totalCells = 0, maxCells = 0;
+        for (long cells : cellsDrawn) {
+            totalCells += cells;
+            maxCells = Math.max(maxCells, cells);
+        }
+        Arrays.sort(frameTimes);
+        System.out.println("Maze: " + mazeFile + ", " + width + "x" + height + ", " + frames
+                + " frames after " + warmUp + " warm-up frames, "
+                + (log != null ? "replaying " + args[4] : "path of " + path.length / 2 + " waypoints"));
+        System.out.println("Renderer: " + finisher.renderer);
+        System.out.println(String.format("Init: %.1f ms", initMs));
+        System.out.println(String.format("Frame time: p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms",
+                percentile(frameTimes, 50), percentile(frameTimes, 95), percentile(frameTimes, 99),
+                frameTimes[frames - 1] / 1e6));
+        System.out.println(String.format("Throughput: %.1f frames/s", frames / totalSeconds));
+        if (log != null) {
+            System.out.println("Replay: " + log.getChecked() + " checksums compared, "
+                    + (log.getDivergedAt() < 0 ? "all matched" : "diverged at tick " + log.getDivergedAt()));
+        }
+        System.out.println(String.format("Cells drawn per frame: mean %.1f, max %d", totalCells / (double) frames, maxCells));
+        FrameMetrics metrics = renderer.getMetrics();
+        System.out.println("Phases" + (metrics.isGpuTimingAvailable() ? ":" : " (no GPU timer queries):"));
+        for (FrameMetrics.Phase phase : FrameMetrics.Phase.values()) {
+            System.out.println("  " + metrics.describe(phase));
+        }
+    }
+
+    //A percentile of the sorted frame times, in milliseconds
+    private static double percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Find where the camera is after moving a distance along the path, going back
+     * and forth along it
+     *
+     * @param path     The waypoints, x and z of each
+     * @param distance The distance moved
+     * @param camera   Set to the camera x, z and angle
+     */
+    static void cameraAt(float[] path, float distance, float[] camera) {
+        int segments = path.length / 2 - 1;
+        if (segments < 1) {
+            camera[0] = path[0];
+            camera[1] = path[1];
+            camera[2] = 0;
+            return;
+        }
+        float length = 0;
+        for (int s = 0; s < segments; s++) length += segmentLength(path, s);
+        //Out along the path, then back
+        distance %= 2 * length;
+        boolean back = distance > length;
+        if (back) distance = 2 * length - distance;
+
+        int s = 0;
+        while (s < segments - 1 && distance > segmentLength(path, s)) {
+            distance -= segmentLength(path, s);
+            s++;
+        }
+        float dx = path[2 * s + 2] - path[2 * s], dz = path[2 * s + 3] - path[2 * s + 1];
+        float fraction = Math.min(1, distance / Math.max(segmentLength(path, s), 1e-6f));
+        camera[0] = path[2 * s] + dx * fraction;
+        camera[1] = path[2 * s + 1] + dz * fraction;
+        //The renderer moves along (sin(angle), cos(angle))
+        camera[2] = (float) Math.atan2(back ? -dx : dx, back ? -dz : dz);
+    }
+
+    private static float segmentLength(float[] path, int s) {
+        float dx = path[2 * s + 2] - path[2 * s], dz = path[2 * s + 3] - path[2 * s + 1];
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
+
+    //Read a path file of "x z" lines
+    private static float[] readPath(String filename) throws IOException {
+        ArrayList<Float> values = new ArrayList<Float>();
+        BufferedReader input = new BufferedReader(new FileReader(filename));
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2) throw new IOException("Path lines must be \"x z\": " + line);
+                values.add(Float.parseFloat(fields[0]));
+                values.add(Float.parseFloat(fields[1]));
+            }
+        } finally {
+            input.close();
+        }
+        if (values.isEmpty()) throw new IOException("The path file has no waypoints");
+        float[] path = new float[values.size()];
+        for (int v = 0; v < path.length; v++) path[v] = values.get(v);
+        return path;
+    }
+
+    //The shortest route through the maze from its start to its end, as the points it turns at; a maze without
+    //them is crossed from its first open cell to its last
+    static float[] shortestRoute(String mazeFile) {
+        int[] dimensions = MazeLoader.ReadDimensions(mazeFile);
+        if ((long) dimensions[0] * dimensions[1] > ViewRenderer.CHUNKED_MIN_CELLS) {
+            System.out.println("Streamed mazes are too large to find a route through; give a path file");
+            System.exit(1);
+        }
+        MazeGrid grid = MazeLoader.LoadGrid(mazeFile);
+        int start = grid.getStart(), end = grid.getEnd();
+        if (start < 0) {
+            start = 0;
+            while (!grid.isOpen(start)) start++;
+        }
+        if (end < 0) {
+            end = grid.getRows() * grid.getCols() - 1;
+            while (!grid.isOpen(end)) end--;
+        }
+        int[] route = new MazeSolver(grid).solve(start, end, MazeSolver.Algorithm.BFS);
+        if (route == null) {
+            System.out.println("There is no route through the maze; give a path file");
+            System.exit(1);
+        }
+        return MazeSolver.waypoints(route, grid.getCols());
+    }
+
+    /**
+     * Runs after the renderer: waits for each frame to finish, and records the renderer name
+     */
+    private static class FrameFinisher implements GLEventListener {
+        private String renderer = "unknown";
+
+        @Override
+        public void init(GLAutoDrawable drawable) {
+            renderer = drawable.getGL().glGetString(GL.GL_RENDERER) + " (" + drawable.getGL().glGetString(GL.GL_VERSION) + ")";
+        }
+
+        @Override
+        public void display(GLAutoDrawable drawable) {
+            drawable.getGL().glFinish();
+        }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void dispose(GLAutoDrawable drawable) {
+        }
+    }
+}
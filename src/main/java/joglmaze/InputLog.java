@@ -0,0 +1,359 @@
+package joglmaze;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+/**
+ * InputLog, a recording of what drove the camera, tick by tick, to be replayed exactly
+ * <p>
+ * The log records what the simulation acted on at the start of each tick rather
+ * than the keys pressed, so a replay does not depend on when key events or route
+ * searches happened to arrive: given the same inputs at the same ticks, the
+ * simulation moves the camera the same way. Every CHECKSUM_INTERVAL ticks the
+ * camera position after the tick is recorded as a checksum too, so a replay
+ * that comes out somewhere else is caught at the tick it goes wrong. The file
+ * starts with a header:
+ * <pre>
+ *   int   magic ("JMIN")       int   maze rows
+ *   int   version              int   maze columns
+ *   int   tick rate            long  ticks recorded (0 if the recording was cut short)
+ *   int   checksum interval
+ * </pre>
+ * followed by the events, each the ticks since the event before as a varint, a
+ * type byte, and what the type says follows:
+ * <pre>
+ *   CONTROLS   float speed, float turn
+ *   ROUTE      varint point count, then float x, float z of each; no points stops walking
+ *   PLACE      float x, float z, float angle
+ *   CHECKSUM   int CRC-32 of the camera x, z and angle after the tick
+ *   END        nothing
+ * </pre>
+ * Standing still, or holding the same keys, writes nothing but the checksums,
+ * about a dozen bytes a second.
+ */
+public class InputLog {
+
+    static final int MAGIC = 0x4A4D494E;
+    static final int VERSION = 1;
+    //The ticks between checksums
+    static final int CHECKSUM_INTERVAL = 30;
+    //The bytes of the header, and where the number of ticks is in it
+    private static final int HEADER_SIZE = 32;
+    private static final int TICKS_OFFSET = 24;
+
+    //The event types
+    static final int END = 0;
+    static final int CONTROLS = 1;
+    static final int ROUTE = 2;
+    static final int PLACE = 3;
+    static final int CHECKSUM = 4;
+
+    /**
+     * Find the checksum of a camera, as recorded in the log
+     *
+     * @param state The camera after a tick
+     * @return The CRC-32 of its x, z and angle
+     */
+    static int checksum(CameraState state) {
+        ByteBuffer bytes = ByteBuffer.allocate(12);
+        bytes.putFloat(state.getX()).putFloat(state.getZ()).putFloat(state.getAngle());
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Check whether a file is an input log
+     *
+     * @param filename The file
+     * @return True if the file starts with the log's magic number
+     */
+    static boolean isLog(String filename) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(filename, "r");
+            try {
+                return file.length() >= HEADER_SIZE && file.readInt() == MAGIC;
+            } finally {
+                file.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Writer, records a simulation's inputs to a file as the ticks run
+     * <p>
+     * The simulation calls recordInputs() before each tick and recordState() after
+     * it; only the inputs that changed are written. Events are gathered in a buffer
+     * and written out as it fills, and on close(), which also fills in the number
+     * of ticks in the header.
+     */
+    public static class Writer {
+
+        private final File file;
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        //The tick of the last event, and the last tick recorded
+        private long lastEvent, lastTick;
+        //The inputs last written, to write only the changes
+        private float speed, turn;
+        private float[] route;
+        private boolean closed;
+
+        /**
+         * Create a log file, replacing any file there
+         *
+         * @param file     The file to write
+         * @param tickRate The simulation's ticks per second
+         * @param rows     The number of rows of the maze
+         * @param cols     The number of columns of the maze
+         * @throws IOException If the file cannot be written
+         */
+        public Writer(File file, int tickRate, int rows, int cols) throws IOException {
+            this.file = file;
+            channel = new FileOutputStream(file).getChannel();
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(tickRate).putInt(CHECKSUM_INTERVAL)
+                    .putInt(rows).putInt(cols).putLong(0);
+        }
+
+        /**
+         * Record the inputs a tick is about to act on
+         *
+         * @param tick   The tick
+         * @param placed The camera, if it was put somewhere since the last tick; or null
+         * @param speed  The forward speed
+         * @param turn   The turning speed
+         * @param route  The route being walked, or null
+         */
+        synchronized void recordInputs(long tick, CameraState placed, float speed, float turn, float[] route) {
+            if (closed) return;
+            if (placed != null) {
+                event(tick, PLACE, 12);
+                buffer.putFloat(placed.getX()).putFloat(placed.getZ()).putFloat(placed.getAngle());
+            }
+            if (speed != this.speed || turn != this.turn) {
+                event(tick, CONTROLS, 8);
+                buffer.putFloat(speed).putFloat(turn);
+                this.speed = speed;
+                this.turn = turn;
+            }
+            if (route != this.route) {
+                int points = route == null ? 0 : route.length / 2;
+                event(tick, ROUTE, 5 + points * 8);
+                WorldSnapshot.writeVarint(buffer, points);
+                for (int p = 0; p < points * 2; p++) buffer.putFloat(route[p]);
+                this.route = route;
+            }
+        }
+
+        /**
+         * Record the camera after a tick, as a checksum every CHECKSUM_INTERVAL ticks
+         *
+         * @param state The camera after the tick
+         */
+        synchronized void recordState(CameraState state) {
+            if (closed) return;
+            lastTick = state.getTick();
+            if (lastTick % CHECKSUM_INTERVAL != 0) return;
+            event(lastTick, CHECKSUM, 4);
+            buffer.putInt(checksum(state));
+        }
+
+        //Start an event, making room for it and what follows
+        private void event(long tick, int type, int size) {
+            int needed = WorldSnapshot.varintSize(tick - lastEvent) + 1 + size;
+            if (buffer.remaining() < needed) {
+                flush();
+                if (buffer.capacity() < needed) buffer = ByteBuffer.allocate(needed);
+            }
+            WorldSnapshot.writeVarint(buffer, tick - lastEvent);
+            buffer.put((byte) type);
+            lastEvent = tick;
+        }
+
+        //Write out the events gathered so far
+        private void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            } catch (IOException ex) {
+                System.out.println("Failed to write the input log\n" + ex.toString());
+            }
+            buffer.clear();
+        }
+
+        /**
+         * End the log, write it out and close the file
+         */
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            event(lastTick, END, 0);
+            flush();
+            try {
+                channel.close();
+                //Now the length of the recording is known
+                RandomAccessFile header = new RandomAccessFile(file, "rw");
+                try {
+                    header.seek(TICKS_OFFSET);
+                    header.writeLong(lastTick);
+                } finally {
+                    header.close();
+                }
+            } catch (IOException ex) {
+                System.out.println("Failed to write the input log\n" + ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Reader, plays a log back into a simulation
+     * <p>
+     * The simulation calls applyInputs() before each tick, which sets the inputs
+     * recorded for that tick, and checkState() after it, which compares the camera
+     * with the checksum recorded for that tick, if there is one. The first tick
+     * whose checksum differs is kept as the divergence.
+     */
+    public static class Reader {
+
+        private final ByteBuffer log;
+        private final int tickRate, rows, cols;
+        private final long ticks;
+        //The tick and type of the next event, whose payload is at the log's position
+        private long nextTick;
+        private int nextType;
+        //The checksums compared, and the first tick that did not match, or -1
+        private long checked;
+        private long divergedAt = -1;
+
+        /**
+         * Read a log file
+         *
+         * @param filename The file
+         * @throws IOException If the file cannot be read, or is not an input log
+         */
+        public Reader(String filename) throws IOException {
+            log = ByteBuffer.wrap(Files.readAllBytes(new File(filename).toPath()));
+            if (log.remaining() < HEADER_SIZE || log.getInt() != MAGIC) {
+                throw new IOException(filename + " is not an input log");
+            }
+            int version = log.getInt();
+            if (version != VERSION) throw new IOException("Unknown input log version " + version);
+            tickRate = log.getInt();
+            if (log.getInt() != CHECKSUM_INTERVAL) throw new IOException("Unknown input log checksum interval");
+            rows = log.getInt();
+            cols = log.getInt();
+            ticks = log.getLong();
+            readEvent();
+        }
+
+        //Read the tick and type of the next event; a log cut short ends where it stops
+        private void readEvent() {
+            if (!log.hasRemaining()) {
+                nextType = END;
+                return;
+            }
+            try {
+                nextTick += WorldSnapshot.readVarint(log);
+                nextType = log.get();
+            } catch (BufferUnderflowException ex) {
+                nextType = END;
+            }
+        }
+
+        /**
+         * Set the inputs recorded for a tick
+         *
+         * @param tick       The tick about to run
+         * @param simulation The simulation to set them in
+         * @throws IOException If an event is cut short
+         */
+        void applyInputs(long tick, Simulation simulation) throws IOException {
+            try {
+                while (nextType != END && nextType != CHECKSUM && nextTick <= tick) {
+                    if (nextType == PLACE) {
+                        simulation.moveTo(log.getFloat(), log.getFloat(), log.getFloat());
+                    } else if (nextType == CONTROLS) {
+                        simulation.control(log.getFloat(), log.getFloat());
+                    } else if (nextType == ROUTE) {
+                        float[] route = new float[2 * (int) WorldSnapshot.readVarint(log)];
+                        for (int p = 0; p < route.length; p++) route[p] = log.getFloat();
+                        simulation.walkRoute(route.length == 0 ? null : route);
+                    } else {
+                        throw new IOException("Unknown input log event " + nextType + " at tick " + nextTick);
+                    }
+                    readEvent();
+                }
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("The input log ends in the middle of tick " + nextTick);
+            }
+        }
+
+        /**
+         * Compare the camera after a tick with the checksum recorded for it, if any
+         *
+         * @param state The camera after the tick
+         * @return False if the camera is not where it was when recording
+         */
+        boolean checkState(CameraState state) {
+            //Skip checksums of ticks that were never run, as when the log starts later
+            while (nextType == CHECKSUM && nextTick < state.getTick()) {
+                log.position(log.position() + 4);
+                readEvent();
+            }
+            if (nextType != CHECKSUM || nextTick != state.getTick()) return true;
+            boolean same = log.getInt() == checksum(state);
+            readEvent();
+            checked++;
+            if (!same && divergedAt < 0) divergedAt = state.getTick();
+            return same;
+        }
+
+        /**
+         * Check whether the recording has been played to its end
+         *
+         * @param tick The last tick run
+         * @return True if every event has been played, and the recording ran no further
+         */
+        public boolean isFinished(long tick) {
+            return nextType == END && tick >= nextTick;
+        }
+
+        //The simulation's ticks per second when recording
+        public int getTickRate() {
+            return tickRate;
+        }
+
+        //The size of the maze recorded in
+        public int getRows() {
+            return rows;
+        }
+
+        public int getCols() {
+            return cols;
+        }
+
+        //The ticks recorded, or 0 if the recording was cut short
+        public long getTicks() {
+            return ticks;
+        }
+
+        //The checksums compared so far
+        public long getChecked() {
+            return checked;
+        }
+
+        //The first tick the camera was not where it was when recording, or -1
+        public long getDivergedAt() {
+            return divergedAt;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package joglmaze;
+
+import java.io.IOException;
+
+/**
+ * InputReplay, plays an input log back through the simulation alone, without drawing, and checks it ends up where the recording did
+ * <p>
+ * The camera is moved through the maze as the log says, against the same walls,
+ * and compared with the checksums recorded; the first tick it is somewhere else
+ * is reported, and the exit status is 1. By default the ticks run as fast as they
+ * can, which makes a quick regression check of the movement and collision code;
+ * with "realtime" they run on the clock, as in the viewer. To watch a log, or to
+ * time the frames it draws, run the viewer with -Dmaze.replay=&lt;file&gt; or give the
+ * log to HeadlessBenchmark as its path file.
+ * <p>
+ * Usage: InputReplay mazefile logfile [realtime]
+ */
+public class InputReplay {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: InputReplay mazefile logfile [realtime]");
+            System.exit(1);
+        }
+        String mazeFile = args[0];
+        boolean realTime = args.length > 2 && "realtime".equals(args[2]);
+        InputLog.Reader log = new InputLog.Reader(args[1]);
+        int[] dimensions = MazeLoader.ReadDimensions(mazeFile);
+        if (log.getRows() != dimensions[0] || log.getCols() != dimensions[1]) {
+            System.out.println("The log was recorded in a " + log.getRows() + "x" + log.getCols() + " maze, not this one");
+            System.exit(1);
+        }
+
+        //The same walls as the viewer: streamed mazes only collide if the file can look up any cell
+        Simulation simulation = new Simulation(log.getTickRate());
+        if ((long) dimensions[0] * dimensions[1] > ViewRenderer.CHUNKED_MIN_CELLS) {
+            MazeTileSource tiledFile = MazeLoader.OpenTiles(mazeFile);
+            if (tiledFile instanceof MazeLayout) {
+                simulation.setCollider(new MazeCollider((MazeLayout) tiledFile, MazeCollider.PLAYER_RADIUS));
+            }
+        } else {
+            simulation.setCollider(new MazeCollider(MazeLoader.LoadGrid(mazeFile), MazeCollider.PLAYER_RADIUS));
+        }
+
+        //The log places the camera on its first tick
+        simulation.replay(log);
+        long before = System.nanoTime();
+        if (realTime) {
+            simulation.start(0, 0, true);
+            while (simulation.isReplaying()) Thread.sleep(10);
+            simulation.stop();
+        } else {
+            simulation.start(0, 0, false);
+            while (simulation.isReplaying()) simulation.runTick();
+        }
+        double seconds = (System.nanoTime() - before) / 1e9;
+        long ticks = simulation.getState().getTick();
+        System.out.println(String.format("%d ticks (%.1f s recorded) in %.3f s, %.0f ticks per second",
+                ticks, ticks / (double) log.getTickRate(), seconds, ticks / seconds));
+        if (log.getDivergedAt() >= 0) System.exit(1);
+    }
+}
@@ -0,0 +1,100 @@
+package joglmaze;
+
+/**
+ * LatencyHistogram, a fixed-size histogram of durations
+ * <p>
+ * Durations are kept in microseconds, in buckets that double in width every
+ * eight buckets, so every bucket is within 12.5% of the durations it holds and
+ * the whole range from a microsecond to days fits in a few hundred counters.
+ * Recording is a few shifts and an increment, and never allocates, so it can
+ * be done on the GL thread every frame; the figures are read from other threads.
+ */
+public class LatencyHistogram {
+
+    //The number of buckets per doubling of the duration, as a power of two
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    //Enough buckets for any duration in microseconds that fits in a long
+    private static final int BUCKET_COUNT = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Add a duration
+     *
+     * @param nanos The duration, in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        buckets[bucketOf(micros)]++;
+        count++;
+        total += micros;
+        if (micros > max) max = micros;
+    }
+
+    /**
+     * Get the duration below which a fraction of the recorded durations fall
+     *
+     * @param fraction The fraction, for instance 0.99 for the 99th percentile
+     * @return The duration in milliseconds, or 0 if nothing has been recorded
+     */
+    public synchronized double getPercentileMillis(double fraction) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            seen += buckets[b];
+            if (seen >= rank) {
+                //The middle of the bucket, but never more than the largest duration seen
+                long low = lowerBound(b), high = lowerBound(b + 1);
+                return Math.min((low + high) / 2, max) / 1000.0;
+            }
+        }
+        return max / 1000.0;
+    }
+
+    //The mean of the recorded durations, in milliseconds
+    public synchronized double getMeanMillis() {
+        return count == 0 ? 0 : total / (double) count / 1000.0;
+    }
+
+    //The largest recorded duration, in milliseconds
+    public synchronized double getMaxMillis() {
+        return max / 1000.0;
+    }
+
+    //The number of recorded durations
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Forget all the recorded durations
+     */
+    public synchronized void reset() {
+        for (int b = 0; b < BUCKET_COUNT; b++) buckets[b] = 0;
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    //The first few buckets are one microsecond wide, then each doubling is split into SUB_COUNT buckets
+    private static int bucketOf(long micros) {
+        if (micros < SUB_COUNT) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    //The smallest duration in a bucket, in microseconds
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        int sub = bucket % SUB_COUNT;
+        if (exponent >= 63) return Long.MAX_VALUE;
+        return (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+}
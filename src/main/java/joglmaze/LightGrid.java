@@ -0,0 +1,280 @@
+package joglmaze;
+
+import java.util.Arrays;
+
+/**
+ * LightGrid, the lights placed in a maze and the lights that reach each part of it
+ * <p>
+ * Each light has a position, a colour and a radius beyond which it gives no
+ * light. The maze is split into square tiles of TILE_SIZE cells, and each tile
+ * keeps a list of the lights whose radius reaches into it, so shading a cell only
+ * looks at the lights of its tile. A tile holds at most MAX_TILE_LIGHTS lights,
+ * which bounds the cost of a pixel however many lights the maze has; lights that
+ * do not fit are left out of that tile and counted. forMaze() leaves out the
+ * torches that would fill a tile, so that the maze's own lights always fit with
+ * a slot to spare for the lantern. When a light moves, only the tiles it leaves
+ * and the tiles it enters are updated.
+ * <p>
+ * Lights are stored in parallel arrays, indexed by id; removed ids are reused.
+ */
+public class LightGrid {
+
+    //The width and height of a tile, in cells
+    static final int TILE_SIZE = 8;
+    //The most lights evaluated for a cell
+    static final int MAX_TILE_LIGHTS = 8;
+
+    //The torches: how far from the cell centre towards their wall, how high, their colour and reach
+    static final float TORCH_INSET = 0.4f;
+    static final float TORCH_HEIGHT = 0.2f;
+    static final float[] TORCH_COLOUR = {1.0f, 0.6f, 0.25f};
+    static final float TORCH_RADIUS = 2.5f;
+    //The glow over the exit
+    static final float[] EXIT_COLOUR = {0.2f, 1.0f, 0.3f};
+    static final float EXIT_RADIUS = 3.0f;
+
+    //The number of tiles along i and j
+    private final int tileRows, tileCols;
+    //The lights of each tile, MAX_TILE_LIGHTS slots per tile, and how many are used
+    private final int[] tileLights;
+    private final byte[] tileCounts;
+    //The number of times a light did not fit in a tile
+    private int overflow;
+
+    //The position (x, y, z), colour (r, g, b) and radius of each light
+    private float[] positions = new float[3 * 16];
+    private float[] colours = new float[3 * 16];
+    private float[] radii = new float[16];
+    //Whether each id is in use, the number of ids handed out, and the number in use
+    private boolean[] used = new boolean[16];
+    private int idCount, lightCount;
+
+    /**
+     * Create an empty light grid for a maze
+     *
+     * @param rows The number of rows of the maze (along x)
+     * @param cols The number of columns of the maze (along z)
+     */
+    public LightGrid(int rows, int cols) {
+        tileRows = (rows + TILE_SIZE - 1) / TILE_SIZE;
+        tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+        tileLights = new int[tileRows * tileCols * MAX_TILE_LIGHTS];
+        tileCounts = new byte[tileRows * tileCols];
+    }
+
+    /**
+     * Create the lights of a maze: a glow over the exit, and a torch on a wall of
+     * about one cell in every torchSpacing, picked by a hash of the cell so the
+     * same maze always gets the same torches. A torch is left out where it would
+     * take the last slot of a tile, which is kept for a light carried around, so
+     * no light of the maze is ever left out of a tile.
+     *
+     * @param grid         The maze
+     * @param torchSpacing The number of open cells per torch, on average
+     * @return The lights
+     */
+    public static LightGrid forMaze(MazeGrid grid, int torchSpacing) {
+        LightGrid lights = new LightGrid(grid.getRows(), grid.getCols());
+        int cols = grid.getCols(), size = grid.getRows() * cols;
+        int end = grid.getEnd();
+        if (end >= 0) {
+            lights.add(end / cols, 0, end % cols, EXIT_COLOUR[0], EXIT_COLOUR[1], EXIT_COLOUR[2], EXIT_RADIUS);
+        }
+        for (int index = 0; index < size; index++) {
+            if (!grid.isOpen(index) || grid.getWalls(index) == 0) continue;
+            if (((index * 0x9E3779B1) >>> 8) % torchSpacing != 0) continue;
+            //On the first wall of the cell, a little way out from it
+            int side = Integer.numberOfTrailingZeros(grid.getWalls(index));
+            float x = index / cols, z = index % cols;
+            if (side == MazeGrid.WALL_MINUS_I) x -= TORCH_INSET;
+            else if (side == MazeGrid.WALL_PLUS_I) x += TORCH_INSET;
+            else if (side == MazeGrid.WALL_MINUS_J) z -= TORCH_INSET;
+            else z += TORCH_INSET;
+            if (!lights.hasRoom(x, z, TORCH_RADIUS, 2)) continue;
+            lights.add(x, TORCH_HEIGHT, z, TORCH_COLOUR[0], TORCH_COLOUR[1], TORCH_COLOUR[2], TORCH_RADIUS);
+        }
+        return lights;
+    }
+
+    //Whether every tile a light would reach has at least a number of free slots
+    private boolean hasRoom(float x, float z, float radius, int slots) {
+        int maxI = tileMax(x, radius, tileRows), maxJ = tileMax(z, radius, tileCols);
+        for (int ti = tileMin(x, radius); ti <= maxI; ti++) {
+            for (int tj = tileMin(z, radius); tj <= maxJ; tj++) {
+                if (tileCounts[ti * tileCols + tj] > MAX_TILE_LIGHTS - slots) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Place a light
+     *
+     * @param x      The X position
+     * @param y      The Y position
+     * @param z      The Z position
+     * @param red    The red intensity
+     * @param green  The green intensity
+     * @param blue   The blue intensity
+     * @param radius The distance at which the light fades out completely
+     * @return The id of the light
+     */
+    public int add(float x, float y, float z, float red, float green, float blue, float radius) {
+        int id = 0;
+        while (id < idCount && used[id]) id++;
+        if (id == idCount) {
+            if (idCount == radii.length) grow();
+            idCount++;
+        }
+        used[id] = true;
+        lightCount++;
+        positions[3 * id] = x;
+        positions[3 * id + 1] = y;
+        positions[3 * id + 2] = z;
+        colours[3 * id] = red;
+        colours[3 * id + 1] = green;
+        colours[3 * id + 2] = blue;
+        radii[id] = radius;
+        link(id, tileMin(x, radius), tileMax(x, radius, tileRows), tileMin(z, radius), tileMax(z, radius, tileCols),
+                Integer.MAX_VALUE, -1, 0, -1);
+        return id;
+    }
+
+    /**
+     * Move a light, updating only the tiles it leaves or enters
+     *
+     * @param id The id of the light
+     * @param x  The new X position
+     * @param y  The new Y position
+     * @param z  The new Z position
+     */
+    public void move(int id, float x, float y, float z) {
+        float radius = radii[id];
+        float oldX = positions[3 * id], oldZ = positions[3 * id + 2];
+        int oldMinI = tileMin(oldX, radius), oldMaxI = tileMax(oldX, radius, tileRows);
+        int oldMinJ = tileMin(oldZ, radius), oldMaxJ = tileMax(oldZ, radius, tileCols);
+        int minI = tileMin(x, radius), maxI = tileMax(x, radius, tileRows);
+        int minJ = tileMin(z, radius), maxJ = tileMax(z, radius, tileCols);
+        positions[3 * id] = x;
+        positions[3 * id + 1] = y;
+        positions[3 * id + 2] = z;
+        if (minI == oldMinI && maxI == oldMaxI && minJ == oldMinJ && maxJ == oldMaxJ) return;
+        unlink(id, oldMinI, oldMaxI, oldMinJ, oldMaxJ, minI, maxI, minJ, maxJ);
+        link(id, minI, maxI, minJ, maxJ, oldMinI, oldMaxI, oldMinJ, oldMaxJ);
+    }
+
+    /**
+     * Take a light out of the maze
+     *
+     * @param id The id of the light
+     */
+    public void remove(int id) {
+        float radius = radii[id], x = positions[3 * id], z = positions[3 * id + 2];
+        unlink(id, tileMin(x, radius), tileMax(x, radius, tileRows), tileMin(z, radius), tileMax(z, radius, tileCols),
+                Integer.MAX_VALUE, -1, 0, -1);
+        used[id] = false;
+        lightCount--;
+    }
+
+    //Add a light to the tiles of a range, skipping those also in a second range
+    private void link(int id, int minI, int maxI, int minJ, int maxJ, int skipMinI, int skipMaxI, int skipMinJ, int skipMaxJ) {
+        for (int ti = minI; ti <= maxI; ti++) {
+            for (int tj = minJ; tj <= maxJ; tj++) {
+                if (ti >= skipMinI && ti <= skipMaxI && tj >= skipMinJ && tj <= skipMaxJ) continue;
+                int tile = ti * tileCols + tj;
+                if (tileCounts[tile] == MAX_TILE_LIGHTS) {
+                    overflow++;
+                    continue;
+                }
+                tileLights[tile * MAX_TILE_LIGHTS + tileCounts[tile]++] = id;
+            }
+        }
+    }
+
+    //Take a light out of the tiles of a range, skipping those also in a second range
+    private void unlink(int id, int minI, int maxI, int minJ, int maxJ, int skipMinI, int skipMaxI, int skipMinJ, int skipMaxJ) {
+        for (int ti = minI; ti <= maxI; ti++) {
+            for (int tj = minJ; tj <= maxJ; tj++) {
+                if (ti >= skipMinI && ti <= skipMaxI && tj >= skipMinJ && tj <= skipMaxJ) continue;
+                int tile = ti * tileCols + tj, first = tile * MAX_TILE_LIGHTS, last = first + tileCounts[tile] - 1;
+                for (int slot = first; slot <= last; slot++) {
+                    if (tileLights[slot] != id) continue;
+                    //The last light of the tile takes its slot
+                    tileLights[slot] = tileLights[last];
+                    tileCounts[tile]--;
+                    break;
+                }
+            }
+        }
+    }
+
+    //The first tile a light reaches along an axis; cell n covers n - 0.5 to n + 0.5
+    private static int tileMin(float position, float radius) {
+        return Math.max(0, (int) Math.floor((position - radius + 0.5f) / TILE_SIZE));
+    }
+
+    //The last tile a light reaches along an axis
+    private static int tileMax(float position, float radius, int tiles) {
+        return Math.min(tiles - 1, (int) Math.floor((position + radius + 0.5f) / TILE_SIZE));
+    }
+
+    private void grow() {
+        int capacity = radii.length * 2;
+        positions = Arrays.copyOf(positions, 3 * capacity);
+        colours = Arrays.copyOf(colours, 3 * capacity);
+        radii = Arrays.copyOf(radii, capacity);
+        used = Arrays.copyOf(used, capacity);
+    }
+
+    /**
+     * Get the tile a cell is in
+     *
+     * @param i The row (x) index of the cell
+     * @param j The column (z) index of the cell
+     * @return The tile index
+     */
+    public int tileOf(int i, int j) {
+        return (i / TILE_SIZE) * tileCols + j / TILE_SIZE;
+    }
+
+    //The number of lights that reach a tile
+    public int getTileLightCount(int tile) {
+        return tileCounts[tile];
+    }
+
+    /**
+     * Get one of the lights that reach a tile
+     *
+     * @param tile The tile index
+     * @param n    Which of its lights, up to getTileLightCount()
+     * @return The id of the light
+     */
+    public int getTileLight(int tile, int n) {
+        return tileLights[tile * MAX_TILE_LIGHTS + n];
+    }
+
+    //The X, Y and Z position of light id are at 3 * id in this array
+    public float[] getPositions() {
+        return positions;
+    }
+
+    //The red, green and blue intensity of light id are at 3 * id in this array
+    public float[] getColours() {
+        return colours;
+    }
+
+    //The radius of light id is at id in this array
+    public float[] getRadii() {
+        return radii;
+    }
+
+    //The number of lights in the maze
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    //The number of times a light did not fit in a tile, and was left out of it
+    public int getOverflow() {
+        return overflow;
+    }
+}
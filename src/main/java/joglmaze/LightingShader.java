@@ -0,0 +1,309 @@
+package joglmaze;
+
+import javax.media.opengl.GL2;
+
+/**
+ * LightingShader, lights the cell faces per pixel with a GLSL program
+ * <p>
+ * The program evaluates the same lighting as the fixed-function pipeline, from
+ * the same GL_LIGHT0/GL_LIGHT1 state and material: the diffuse term from the
+ * current colour, the specular term from the material, and constant, linear and
+ * quadratic attenuation, with an infinitely distant viewer. Only it does so for
+ * every pixel instead of every vertex, so a face can be drawn as a single quad
+ * where fixed-function lighting needs a finely tessellated face to look smooth.
+ * The atlas is sampled through texture unit 0 and its texture matrix, the way
+ * TextureAtlas.selectLayer() expects.
+ * <p>
+ * On top of the two cell lamps, the lights of a LightGrid tile are added: up to
+ * LightGrid.MAX_TILE_LIGHTS of them, diffuse only, fading to nothing at their
+ * radius. They are uploaded in eye space whenever the cells drawn move on to
+ * another tile.
+ * <p>
+ * The maze mesh has the two cell lamps baked into its atlas layers, so it is
+ * drawn with a second program (see useMesh) that adds only the tile lights, to
+ * the plain material under each baked texel. The mesh has no normals; its faces
+ * are flat, so the normal is worked out from how the position changes across
+ * the pixels.
+ */
+public class LightingShader {
+
+    private static final String VERTEX_SOURCE = ""
+            + "varying vec3 position;\n"
+            + "varying vec3 normal;\n"
+            + "void main() {\n"
+            + "    position = vec3(gl_ModelViewMatrix * gl_Vertex);\n"
+            + "    normal = gl_NormalMatrix * gl_Normal;\n"
+            + "    gl_FrontColor = gl_Color;\n"
+            + "    gl_TexCoord[0] = gl_TextureMatrix[0] * gl_MultiTexCoord0;\n"
+            + "    gl_Position = ftransform();\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SOURCE = ""
+            + "uniform sampler2D atlas;\n"
+            + "uniform int lightCount;\n"
+            + "uniform vec4 lightPositions[" + LightGrid.MAX_TILE_LIGHTS + "];\n"
+            + "uniform vec3 lightColours[" + LightGrid.MAX_TILE_LIGHTS + "];\n"
+            + "varying vec3 position;\n"
+            + "varying vec3 normal;\n"
+            + "void main() {\n"
+            + "    vec3 n = normalize(normal);\n"
+            + "    vec4 light = gl_FrontLightModelProduct.sceneColor;\n"
+            + "    for (int l = 0; l < " + Cell.LAMP_POSITIONS.length + "; l++) {\n"
+            + "        vec3 toLamp = gl_LightSource[l].position.xyz - position;\n"
+            + "        float distance = length(toLamp);\n"
+            + "        vec3 direction = toLamp / distance;\n"
+            + "        float attenuation = 1.0 / (gl_LightSource[l].constantAttenuation\n"
+            + "                + gl_LightSource[l].linearAttenuation * distance\n"
+            + "                + gl_LightSource[l].quadraticAttenuation * distance * distance);\n"
+            + "        float diffuse = max(dot(n, direction), 0.0);\n"
+            + "        float specular = diffuse > 0.0\n"
+            + "                ? pow(max(dot(n, normalize(direction + vec3(0.0, 0.0, 1.0))), 0.0), gl_FrontMaterial.shininess)\n"
+            + "                : 0.0;\n"
+            + "        light += attenuation * (gl_LightSource[l].ambient * gl_Color\n"
+            + "                + gl_LightSource[l].diffuse * gl_Color * diffuse\n"
+            + "                + gl_FrontLightProduct[l].specular * specular);\n"
+            + "    }\n"
+            + "    for (int l = 0; l < " + LightGrid.MAX_TILE_LIGHTS + "; l++) {\n"
+            + "        if (l >= lightCount) break;\n"
+            + "        vec3 toLight = lightPositions[l].xyz - position;\n"
+            + "        float distance = length(toLight);\n"
+            + "        float falloff = max(1.0 - distance / lightPositions[l].w, 0.0);\n"
+            + "        light.rgb += lightColours[l] * gl_Color.rgb * max(dot(n, toLight / distance), 0.0) * falloff * falloff;\n"
+            + "    }\n"
+            + "    gl_FragColor = vec4(clamp(light.rgb, 0.0, 1.0), gl_Color.a) * texture2D(atlas, gl_TexCoord[0].st);\n"
+            + "}\n";
+
+    private static final String MESH_VERTEX_SOURCE = ""
+            + "uniform float plainOffsets[" + TextureAtlas.layerCount() + "];\n"
+            + "varying vec3 position;\n"
+            + "varying float plainOffset;\n"
+            + "void main() {\n"
+            + "    position = vec3(gl_ModelViewMatrix * gl_Vertex);\n"
+            + "    plainOffset = plainOffsets[int(gl_MultiTexCoord0.t * " + TextureAtlas.layerCount() + ".0)];\n"
+            + "    gl_TexCoord[0] = gl_MultiTexCoord0;\n"
+            + "    gl_Position = ftransform();\n"
+            + "}\n";
+
+    private static final String MESH_FRAGMENT_SOURCE = ""
+            + "uniform sampler2D atlas;\n"
+            + "uniform int lightCount;\n"
+            + "uniform vec4 lightPositions[" + LightGrid.MAX_TILE_LIGHTS + "];\n"
+            + "uniform vec3 lightColours[" + LightGrid.MAX_TILE_LIGHTS + "];\n"
+            + "varying vec3 position;\n"
+            + "varying float plainOffset;\n"
+            + "void main() {\n"
+            + "    vec3 n = normalize(cross(dFdx(position), dFdy(position)));\n"
+            + "    if (dot(n, position) > 0.0) n = -n;\n"
+            + "    vec3 light = vec3(0.0);\n"
+            + "    for (int l = 0; l < " + LightGrid.MAX_TILE_LIGHTS + "; l++) {\n"
+            + "        if (l >= lightCount) break;\n"
+            + "        vec3 toLight = lightPositions[l].xyz - position;\n"
+            + "        float distance = length(toLight);\n"
+            + "        float falloff = max(1.0 - distance / lightPositions[l].w, 0.0);\n"
+            + "        light += lightColours[l] * max(dot(n, toLight / distance), 0.0) * falloff * falloff;\n"
+            + "    }\n"
+            + "    vec4 baked = texture2D(atlas, gl_TexCoord[0].st);\n"
+            + "    vec3 plain = texture2D(atlas, gl_TexCoord[0].st + vec2(0.0, plainOffset)).rgb;\n"
+            + "    gl_FragColor = vec4(clamp(baked.rgb + plain * light, 0.0, 1.0), baked.a);\n"
+            + "}\n";
+
+    //The two programs
+    private static final int CELLS = 0;
+    private static final int MESH = 1;
+
+    //The linked programs for cells and for the mesh, or 0, and the one in use
+    private final int[] programs = new int[2];
+    private int inUse = CELLS;
+    //The locations of the light uniforms in each program
+    private final int[] lightCountLocations = new int[2];
+    private final int[] lightPositionsLocations = new int[2];
+    private final int[] lightColoursLocations = new int[2];
+
+    //The camera for the frame, to put the lights in eye space
+    private float cameraX, cameraZ, sinAngle, cosAngle;
+    //The tile whose lights were uploaded last, or -1
+    private int uploadedTile = -1;
+    //The lights being uploaded: eye space position and radius, and colour
+    private final float[] lightPositions = new float[4 * LightGrid.MAX_TILE_LIGHTS];
+    private final float[] lightColours = new float[3 * LightGrid.MAX_TILE_LIGHTS];
+
+    /**
+     * Check whether a context can run the programs
+     *
+     * @param gl The openGL context
+     * @return True if the context has GLSL
+     */
+    public static boolean isSupported(GL2 gl) {
+        return gl.hasGLSL() && gl.isFunctionAvailable("glCreateShader");
+    }
+
+    /**
+     * Compile and link the programs
+     *
+     * @param gl The openGL context
+     * @return True if the programs are ready, false if one failed to build and the fixed-function path should be used
+     */
+    public boolean init(GL2 gl) {
+        programs[CELLS] = link(gl, VERTEX_SOURCE, FRAGMENT_SOURCE);
+        programs[MESH] = programs[CELLS] == 0 ? 0 : link(gl, MESH_VERTEX_SOURCE, MESH_FRAGMENT_SOURCE);
+        if (programs[MESH] == 0) {
+            dispose(gl);
+            return false;
+        }
+
+        for (int p = 0; p < programs.length; p++) {
+            gl.glUseProgram(programs[p]);
+            gl.glUniform1i(gl.glGetUniformLocation(programs[p], "atlas"), 0);
+            lightCountLocations[p] = gl.glGetUniformLocation(programs[p], "lightCount");
+            lightPositionsLocations[p] = gl.glGetUniformLocation(programs[p], "lightPositions");
+            lightColoursLocations[p] = gl.glGetUniformLocation(programs[p], "lightColours");
+            gl.glUniform1i(lightCountLocations[p], 0);
+        }
+        //Where the plain material of each of the mesh's baked layers is
+        float[] plainOffsets = new float[TextureAtlas.layerCount()];
+        for (int l = 0; l < plainOffsets.length; l++) plainOffsets[l] = TextureAtlas.plainOffset(l);
+        gl.glUseProgram(programs[MESH]);
+        gl.glUniform1fv(gl.glGetUniformLocation(programs[MESH], "plainOffsets"), plainOffsets.length, plainOffsets, 0);
+        gl.glUseProgram(0);
+        return true;
+    }
+
+    //Compile and link one program, returning 0 if it fails
+    private static int link(GL2 gl, String vertexSource, String fragmentSource) {
+        int vertex = compile(gl, GL2.GL_VERTEX_SHADER, vertexSource);
+        int fragment = compile(gl, GL2.GL_FRAGMENT_SHADER, fragmentSource);
+        if (vertex == 0 || fragment == 0) {
+            if (vertex != 0) gl.glDeleteShader(vertex);
+            if (fragment != 0) gl.glDeleteShader(fragment);
+            return 0;
+        }
+
+        int program = gl.glCreateProgram();
+        gl.glAttachShader(program, vertex);
+        gl.glAttachShader(program, fragment);
+        gl.glLinkProgram(program);
+        //The program keeps the shaders alive for as long as it needs them
+        gl.glDeleteShader(vertex);
+        gl.glDeleteShader(fragment);
+        int[] status = new int[1];
+        gl.glGetProgramiv(program, GL2.GL_LINK_STATUS, status, 0);
+        if (status[0] != 0) return program;
+
+        int[] length = new int[1];
+        gl.glGetProgramiv(program, GL2.GL_INFO_LOG_LENGTH, length, 0);
+        byte[] log = new byte[Math.max(1, length[0])];
+        gl.glGetProgramInfoLog(program, log.length, length, 0, log, 0);
+        System.out.println("Failed to link the lighting shader\n" + new String(log, 0, length[0]));
+        gl.glDeleteProgram(program);
+        return 0;
+    }
+
+    //Compile one shader, returning 0 if it fails
+    private static int compile(GL2 gl, int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[]{source}, null);
+        gl.glCompileShader(shader);
+        int[] status = new int[1];
+        gl.glGetShaderiv(shader, GL2.GL_COMPILE_STATUS, status, 0);
+        if (status[0] != 0) return shader;
+
+        int[] length = new int[1];
+        gl.glGetShaderiv(shader, GL2.GL_INFO_LOG_LENGTH, length, 0);
+        byte[] log = new byte[Math.max(1, length[0])];
+        gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+        System.out.println("Failed to compile the lighting shader\n" + new String(log, 0, length[0]));
+        gl.glDeleteShader(shader);
+        return 0;
+    }
+
+    /**
+     * Light the cells drawn next with the cell program
+     *
+     * @param gl The openGL context
+     */
+    public void use(GL2 gl) {
+        select(gl, CELLS);
+    }
+
+    /**
+     * Light the maze mesh drawn next with the tile lights, on top of the lamps baked into its layers
+     *
+     * @param gl The openGL context
+     */
+    public void useMesh(GL2 gl) {
+        select(gl, MESH);
+    }
+
+    //Switch programs; each program keeps the lights uploaded to it, so the tile has to be uploaded again
+    private void select(GL2 gl, int which) {
+        if (which != inUse) uploadedTile = -1;
+        inUse = which;
+        gl.glUseProgram(programs[which]);
+    }
+
+    /**
+     * Set the camera of the frame, the one gluLookAt was given, and forget the lights uploaded for the last frame
+     *
+     * @param x     The camera X position
+     * @param z     The camera Z position
+     * @param angle The camera angle, in radians; 0 looks along +z
+     */
+    public void beginFrame(float x, float z, float angle) {
+        cameraX = x;
+        cameraZ = z;
+        sinAngle = (float) Math.sin(angle);
+        cosAngle = (float) Math.cos(angle);
+        uploadedTile = -1;
+    }
+
+    /**
+     * Light what is drawn next with the lights of a tile. Must be called while a program is in use.
+     *
+     * @param gl     The openGL context
+     * @param lights The lights of the maze
+     * @param tile   The tile the next cells are in
+     * @return The number of uniform uploads made, 0 if the tile's lights were already uploaded
+     */
+    public int selectTile(GL2 gl, LightGrid lights, int tile) {
+        if (tile == uploadedTile) return 0;
+        uploadedTile = tile;
+        float[] positions = lights.getPositions(), colours = lights.getColours(), radii = lights.getRadii();
+        int count = lights.getTileLightCount(tile);
+        for (int n = 0; n < count; n++) {
+            int id = lights.getTileLight(tile, n);
+            //The same transform as gluLookAt from (x, 0, z) along (sin, 0, cos) with y up
+            float dx = positions[3 * id] - cameraX, dy = positions[3 * id + 1], dz = positions[3 * id + 2] - cameraZ;
+            lightPositions[4 * n] = -cosAngle * dx + sinAngle * dz;
+            lightPositions[4 * n + 1] = dy;
+            lightPositions[4 * n + 2] = -(sinAngle * dx + cosAngle * dz);
+            lightPositions[4 * n + 3] = radii[id];
+            System.arraycopy(colours, 3 * id, lightColours, 3 * n, 3);
+        }
+        gl.glUniform1i(lightCountLocations[inUse], count);
+        if (count == 0) return 1;
+        gl.glUniform4fv(lightPositionsLocations[inUse], count, lightPositions, 0);
+        gl.glUniform3fv(lightColoursLocations[inUse], count, lightColours, 0);
+        return 3;
+    }
+
+    /**
+     * Go back to fixed-function lighting
+     *
+     * @param gl The openGL context
+     */
+    public void release(GL2 gl) {
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Delete the programs
+     *
+     * @param gl The openGL context
+     */
+    public void dispose(GL2 gl) {
+        for (int p = 0; p < programs.length; p++) {
+            if (programs[p] != 0) gl.glDeleteProgram(programs[p]);
+            programs[p] = 0;
+        }
+    }
+}
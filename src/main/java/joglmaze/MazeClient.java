@@ -0,0 +1,217 @@
+package joglmaze;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * MazeClient, a player's connection to a MazeServer
+ * <p>
+ * The client holds no thread of its own: it is registered with a selector run
+ * by its owner, which calls read() when the socket has data and flush() when
+ * it can be written again, so one thread can run any number of clients. Each
+ * snapshot received is decoded against the baseline the server picked, and
+ * acknowledged with the controls held. The last HISTORY snapshots decoded are
+ * kept to decode against; a delta against an older one is dropped, and the
+ * client acknowledges tick 0, which gets it a full snapshot.
+ */
+public class MazeClient {
+
+    //The snapshots decoded that are kept as baselines
+    static final int HISTORY = 8;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    //The messages being read, and the input being written
+    private ByteBuffer in = ByteBuffer.allocate(16384);
+    private final ByteBuffer out = ByteBuffer.allocate(MazeServer.INPUT_SIZE * 64);
+
+    //What the server said about the maze and the client's player, once welcomed
+    private int slot = -1, tickRate, rows, cols;
+    //The snapshots decoded, by tick modulo HISTORY, the newest one, and the tick to acknowledge
+    private final WorldSnapshot[] history = new WorldSnapshot[HISTORY];
+    private WorldSnapshot latest;
+    private long acked;
+    //The CONTROL_ bits held
+    private int controls;
+
+    //The traffic
+    private long bytesReceived, snapshotsDecoded, snapshotsDropped;
+
+    /**
+     * Connect to a server, waiting for the connection, and register with a selector
+     *
+     * @param address  The server address
+     * @param selector The selector the owner runs
+     * @throws IOException If the server cannot be reached
+     */
+    public MazeClient(SocketAddress address, Selector selector) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        for (int h = 0; h < HISTORY; h++) history[h] = new WorldSnapshot();
+    }
+
+    /**
+     * Read what the server has sent, decode the snapshots and acknowledge the newest
+     *
+     * @return The number of snapshots decoded
+     * @throws IOException If the server closed the connection or sent something that cannot be decoded
+     */
+    public int read() throws IOException {
+        int read = channel.read(in);
+        if (read < 0) throw new EOFException("The server closed the connection");
+        bytesReceived += read;
+        in.flip();
+        int decoded = 0;
+        while (true) {
+            int start = in.position();
+            long length = WorldSnapshot.tryReadVarint(in);
+            if (length < 0 || in.remaining() < length) {
+                in.position(start);
+                break;
+            }
+            int end = in.position() + (int) length, limit = in.limit();
+            in.limit(end);
+            try {
+                if (handle(in)) decoded++;
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("A message from the server ends early");
+            }
+            in.limit(limit);
+            in.position(end);
+        }
+        in.compact();
+        //Make room for a message longer than the buffer
+        if (!in.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            larger.put(in);
+            in = larger;
+        }
+        if (decoded > 0 || acked == 0) sendInput();
+        return decoded;
+    }
+
+    //Handle one message, returning true if it was a snapshot that was decoded
+    private boolean handle(ByteBuffer message) throws IOException {
+        byte type = message.get();
+        if (type == MazeServer.WELCOME) {
+            slot = (int) WorldSnapshot.readVarint(message);
+            tickRate = (int) WorldSnapshot.readVarint(message);
+            rows = (int) WorldSnapshot.readVarint(message);
+            cols = (int) WorldSnapshot.readVarint(message);
+            return false;
+        }
+        if (type != MazeServer.SNAPSHOT) throw new IOException("Unknown message type " + type);
+        long tick = WorldSnapshot.readVarint(message);
+        long back = WorldSnapshot.readVarint(message);
+        WorldSnapshot baseline = null;
+        if (back > 0) {
+            baseline = history[(int) ((tick - back) % HISTORY)];
+            if (baseline.getTick() != tick - back) {
+                //Not kept any more: ask for the whole world
+                snapshotsDropped++;
+                acked = 0;
+                return false;
+            }
+        }
+        WorldSnapshot snapshot = history[(int) (tick % HISTORY)];
+        snapshot.readDelta(message, baseline, tick);
+        latest = snapshot;
+        acked = tick;
+        snapshotsDecoded++;
+        return true;
+    }
+
+    /**
+     * Send the controls held, and acknowledge the newest snapshot
+     *
+     * @throws IOException If the connection is broken
+     */
+    public void sendInput() throws IOException {
+        //With the socket this far behind, the inputs waiting will do
+        if (out.position() + MazeServer.INPUT_SIZE > out.capacity()) return;
+        out.put(MazeServer.INPUT);
+        out.put((byte) controls);
+        out.putInt((int) acked);
+        flush();
+    }
+
+    /**
+     * Write the input waiting to be sent, and wait for the socket if it does not all go
+     *
+     * @throws IOException If the connection is broken
+     */
+    public void flush() throws IOException {
+        out.flip();
+        channel.write(out);
+        key.interestOps(out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        out.compact();
+    }
+
+    /**
+     * Set the controls held; they are sent with the next acknowledgement
+     *
+     * @param controls The MazeServer CONTROL_ bits
+     */
+    public void setControls(int controls) {
+        this.controls = controls;
+    }
+
+    /**
+     * Disconnect from the server
+     */
+    public void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            //Closed either way
+        }
+    }
+
+    //The client's slot in the snapshots, or -1 before the server has welcomed it
+    public int getSlot() {
+        return slot;
+    }
+
+    //The server's ticks per second
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    //The size of the maze
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    //The newest snapshot decoded, or null
+    public WorldSnapshot getLatest() {
+        return latest;
+    }
+
+    //The bytes read from the server
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    //The snapshots decoded, and those dropped for being against a baseline no longer kept
+    public long getSnapshotsDecoded() {
+        return snapshotsDecoded;
+    }
+
+    public long getSnapshotsDropped() {
+        return snapshotsDropped;
+    }
+}
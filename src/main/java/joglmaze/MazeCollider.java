@@ -0,0 +1,110 @@
+package joglmaze;
+
+/**
+ * MazeCollider, keeps the camera out of the walls
+ * <p>
+ * The camera is a circle of a given radius. A move is resolved one axis at a
+ * time against the cell the camera is in: along each axis it stops short of
+ * the walls on that axis, where the neighbouring cells are closed, and keeps
+ * the rest of the move along the other axis, so the camera slides along walls.
+ * Then the circle is pushed off the corners of closed diagonal cells, which
+ * stick out into a junction. Only the camera's cell and its eight neighbours
+ * are ever looked up, so a move takes the same time in any size of maze and
+ * allocates nothing.
+ */
+public class MazeCollider {
+
+    //The radius of the player, how close the camera can get to a wall (-Dmaze.playerRadius=...)
+    static final float PLAYER_RADIUS = Float.parseFloat(System.getProperty("maze.playerRadius", "0.2"));
+
+    //The largest radius that still fits through a corridor one cell wide
+    static final float MAX_RADIUS = 0.45f;
+    //The longest move along one axis, so that a move never crosses more than one cell
+    static final float MAX_STEP = 0.5f;
+
+    private final MazeLayout layout;
+    private final float radius;
+
+    /**
+     * Create a collider for a maze
+     *
+     * @param layout The maze
+     * @param radius The radius of the camera, up to MAX_RADIUS
+     */
+    public MazeCollider(MazeLayout layout, float radius) {
+        if (radius < 0 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("The player radius must be between 0 and " + MAX_RADIUS + ": " + radius);
+        }
+        this.layout = layout;
+        this.radius = radius;
+    }
+
+    /**
+     * Move the camera as far as the walls allow, sliding along them
+     *
+     * @param x   The camera X position
+     * @param z   The camera Z position
+     * @param dx  The move along X, at most MAX_STEP either way
+     * @param dz  The move along Z, at most MAX_STEP either way
+     * @param out Set to the X and Z position after the move
+     */
+    public void move(float x, float z, float dx, float dz, float[] out) {
+        dx = Math.max(-MAX_STEP, Math.min(MAX_STEP, dx));
+        dz = Math.max(-MAX_STEP, Math.min(MAX_STEP, dz));
+        int i = Math.round(x), j = Math.round(z);
+
+        //A camera placed inside a wall moves freely, so that it can get out
+        if (!layout.isOpen(i, j)) {
+            out[0] = x + dx;
+            out[1] = z + dz;
+            return;
+        }
+
+        //Along X, stopping at the wall towards i - 1 or i + 1
+        float newX = clampX(x + dx, i, j);
+        i = Math.round(newX);
+
+        //Along Z, from the cell the X move ended in
+        float newZ = clampZ(z + dz, i, j);
+        j = Math.round(newZ);
+
+        //The Z move may have gone into a cell with a wall beside it along X
+        newX = clampX(newX, i, j);
+
+        //Push the circle off the corners of the closed diagonal cells
+        for (int si = -1; si <= 1; si += 2) {
+            for (int sj = -1; sj <= 1; sj += 2) {
+                if (layout.isOpen(i + si, j + sj)) continue;
+                float cornerX = i + 0.5f * si, cornerZ = j + 0.5f * sj;
+                float awayX = newX - cornerX, awayZ = newZ - cornerZ;
+                float distance2 = awayX * awayX + awayZ * awayZ;
+                if (distance2 >= radius * radius || distance2 == 0) continue;
+                float scale = radius / (float) Math.sqrt(distance2);
+                newX = cornerX + awayX * scale;
+                newZ = cornerZ + awayZ * scale;
+            }
+        }
+
+        out[0] = newX;
+        out[1] = newZ;
+    }
+
+    //Keep an X position at least the radius away from the walls of a cell towards i - 1 and i + 1
+    private float clampX(float x, int i, int j) {
+        if (!layout.isOpen(i + 1, j)) x = Math.min(x, i + 0.5f - radius);
+        if (!layout.isOpen(i - 1, j)) x = Math.max(x, i - 0.5f + radius);
+        return x;
+    }
+
+    //Keep a Z position at least the radius away from the walls of a cell towards j - 1 and j + 1
+    private float clampZ(float z, int i, int j) {
+        if (!layout.isOpen(i, j + 1)) z = Math.min(z, j + 0.5f - radius);
+        if (!layout.isOpen(i, j - 1)) z = Math.max(z, j - 0.5f + radius);
+        return z;
+    }
+
+    //The radius of the camera
+    public float getRadius() {
+        return radius;
+    }
+}
@@ -1,8 +1,5 @@
 package joglmaze;
 
-import com.jogamp.opengl.util.gl2.GLUT;
-
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
 /**
@@ -18,6 +15,17 @@ public class MazeEndPoint extends MazeObject {
         END
     }
 
+    //The sizes of the cone and the torus, and the pieces they are made of around and along them
+    static final float CONE_RADIUS = 0.25f;
+    static final float CONE_HEIGHT = 0.5f;
+    static final float TORUS_INNER_RADIUS = 0.125f;
+    static final float TORUS_OUTER_RADIUS = 0.25f;
+    static final int SLICES = 10;
+    static final int STACKS = 10;
+
+    //The draw lists of the cone and the torus, built once by buildLists()
+    private static int coneList = -1, torusList = -1;
+
     //The variable that decides if it's a start point or an end point
     private EndPointType type;
 
@@ -31,9 +39,21 @@ public class MazeEndPoint extends MazeObject {
         return false;
     }
 
-    public void draw(GL2 gl) {
+    /**
+     * Submits the marker, untextured and in the start or end material
+     *
+     * @param queue The render queue of the frame
+     * @param x     The X position of the marker's cell
+     * @param z     The Z position of the marker's cell
+     */
+    @Override
+    public void submit(RenderQueue queue, float x, float z) {
+        int material = type == EndPointType.START ? RenderQueue.START_MATERIAL : RenderQueue.END_MATERIAL;
+        queue.submit(false, RenderQueue.NO_TEXTURE, material, x, z, this, 0);
+    }
 
-        GLUT glut = new GLUT();
+    @Override
+    public void render(GL2 gl, int part) {
 
         //Transform the to-be-placed geometric shapes
         gl.glPushMatrix();
@@ -44,40 +64,79 @@ public class MazeEndPoint extends MazeObject {
         if (type == EndPointType.START) {
 
             //Place a glowing yellow cone
-
-            //Change the colouring for this particular object material
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_AMBIENT, new float[]{0.8f, 0.8f, 0.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_DIFFUSE, new float[]{1.0f, 1.0f, 0.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_EMISSION, new float[]{0.5f, 0.5f, 0.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SPECULAR, new float[]{1.0f, 1.0f, 1.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SHININESS, new float[]{60.0f}, 0);
-
             gl.glColor3f(1.0f, 1.0f, 0.0f);
-            glut.glutSolidCone(0.25f, 0.5f, 10, 10);
+            gl.glCallList(coneList);
 
         } else {
 
             //Place a shiny green torus
-
-            //Change the colouring for this particular object material
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_AMBIENT, new float[]{0.0f, 0.2f, 0.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_DIFFUSE, new float[]{0.0f, 1.0f, 0.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_EMISSION, new float[]{0.0f, 0.1f, 0.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SPECULAR, new float[]{1.0f, 1.0f, 1.0f, 1.0f}, 0);
-            gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SHININESS, new float[]{20.0f}, 0);
-
             gl.glColor3f(0.0f, 1.0f, 0.0f);
-            glut.glutSolidTorus(0.125f, 0.25f, 10, 10);
+            gl.glCallList(torusList);
 
         }
 
-        //Put the material properties back to default
-        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_AMBIENT, new float[]{0.8f, 0.8f, 0.8f, 1.0f}, 0);
-        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_DIFFUSE, new float[]{0.8f, 0.8f, 0.8f, 1.0f}, 0);
-        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_EMISSION, new float[]{0.0f, 0.0f, 0.0f, 1.0f}, 0);
-        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SPECULAR, new float[]{0.2f, 0.2f, 0.2f, 0.2f}, 0);
-        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SHININESS, new float[]{50.0f}, 0);
-
         gl.glPopMatrix();
     }
+
+    /**
+     * Compile the cone and the torus into draw lists, the same shapes GLUT's solid
+     * cone and torus make, so that drawing a marker is a single call that needs
+     * nothing beyond GL. Must be called on the GL thread before any marker is drawn.
+     *
+     * @param gl The openGL context
+     */
+    static void buildLists(GL2 gl) {
+        disposeLists(gl);
+        coneList = gl.glGenLists(2);
+        torusList = coneList + 1;
+
+        //The cone along +z, its side in stacks of quad strips; the slope of the side tilts its normals up
+        float slope = (float) Math.sqrt(CONE_HEIGHT * CONE_HEIGHT + CONE_RADIUS * CONE_RADIUS);
+        float normalXY = CONE_HEIGHT / slope, normalZ = CONE_RADIUS / slope;
+        gl.glNewList(coneList, GL2.GL_COMPILE);
+        for (int stack = 0; stack < STACKS; stack++) {
+            float z0 = CONE_HEIGHT * stack / STACKS, z1 = CONE_HEIGHT * (stack + 1) / STACKS;
+            float r0 = CONE_RADIUS * (STACKS - stack) / STACKS, r1 = CONE_RADIUS * (STACKS - stack - 1) / STACKS;
+            gl.glBegin(GL2.GL_QUAD_STRIP);
+            for (int slice = 0; slice <= SLICES; slice++) {
+                double around = 2 * Math.PI * slice / SLICES;
+                float sin = (float) Math.sin(around), cos = (float) Math.cos(around);
+                gl.glNormal3f(sin * normalXY, cos * normalXY, normalZ);
+                gl.glVertex3f(r0 * sin, r0 * cos, z0);
+                gl.glVertex3f(r1 * sin, r1 * cos, z1);
+            }
+            gl.glEnd();
+        }
+        gl.glEndList();
+
+        //The torus around z, a quad strip around the tube for each ring
+        gl.glNewList(torusList, GL2.GL_COMPILE);
+        for (int ring = 0; ring < STACKS; ring++) {
+            double theta0 = 2 * Math.PI * ring / STACKS, theta1 = 2 * Math.PI * (ring + 1) / STACKS;
+            float cos0 = (float) Math.cos(theta0), sin0 = (float) Math.sin(theta0);
+            float cos1 = (float) Math.cos(theta1), sin1 = (float) Math.sin(theta1);
+            gl.glBegin(GL2.GL_QUAD_STRIP);
+            for (int side = 0; side <= SLICES; side++) {
+                double phi = 2 * Math.PI * side / SLICES;
+                float cosPhi = (float) Math.cos(phi), sinPhi = (float) Math.sin(phi);
+                float distance = TORUS_OUTER_RADIUS + TORUS_INNER_RADIUS * cosPhi;
+                gl.glNormal3f(cos0 * cosPhi, sin0 * cosPhi, sinPhi);
+                gl.glVertex3f(cos0 * distance, sin0 * distance, TORUS_INNER_RADIUS * sinPhi);
+                gl.glNormal3f(cos1 * cosPhi, sin1 * cosPhi, sinPhi);
+                gl.glVertex3f(cos1 * distance, sin1 * distance, TORUS_INNER_RADIUS * sinPhi);
+            }
+            gl.glEnd();
+        }
+        gl.glEndList();
+    }
+
+    /**
+     * Release the draw lists of the shapes
+     *
+     * @param gl The openGL context
+     */
+    static void disposeLists(GL2 gl) {
+        if (coneList >= 0) gl.glDeleteLists(coneList, 2);
+        coneList = torusList = -1;
+    }
 }
@@ -0,0 +1,250 @@
+package joglmaze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * MazeGenerator, writes random perfect mazes of any size in the text format MazeLoader reads
+ * <p>
+ * The maze is made with Eller's algorithm, one row of cells at a time: only the
+ * sets of the current row are kept, so memory grows with the width of the maze
+ * and not with its height. The rows are split into bands of BAND_ROWS rows. Each
+ * band is a perfect maze of its own, made from its own random stream, and is
+ * joined to the band below it by a single opening, so the whole maze is still
+ * perfect. Every line of the file has the same length, so each band knows where
+ * its lines go and the bands can be written at once on several threads. The
+ * maze depends only on its size and seed, not on the number of threads.
+ * <p>
+ * Cells are at the odd rows and columns of the layout, and the walls between
+ * them at the even ones, so both dimensions must be odd. The start is in the
+ * top left cell of the file and the end in the bottom right.
+ * <p>
+ * Usage: MazeGenerator mazefile rows cols [seed [threads]]
+ */
+public class MazeGenerator {
+
+    //The number of rows of cells in a band
+    static final int BAND_ROWS = 1024;
+    //The size of the buffer each band writes its lines through
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte OPEN = 'x', WALL = 'o', START = 's', END = 'e';
+
+    //The size of the layout, and of the grid of cells within it
+    private final int rows, cols;
+    private final int cellRows, cellCols;
+    private final long seed;
+
+    /**
+     * Create a generator for a maze
+     *
+     * @param rows The number of rows of the layout, odd and at least 3
+     * @param cols The number of columns of the layout, odd and at least 3
+     * @param seed The random seed
+     */
+    public MazeGenerator(int rows, int cols, long seed) {
+        if (rows < 3 || cols < 3 || rows % 2 == 0 || cols % 2 == 0) {
+            throw new IllegalArgumentException("The maze size must be odd and at least 3x3: " + rows + "x" + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.cellRows = (rows - 1) / 2;
+        this.cellCols = (cols - 1) / 2;
+        this.seed = seed;
+    }
+
+    /**
+     * Write the maze to a file
+     *
+     * @param file    The file to write, replaced if it exists
+     * @param threads The number of bands to write at once
+     */
+    public void write(File file, int threads) throws IOException {
+        byte[] header = (rows + "\n" + cols + "\n").getBytes("US-ASCII");
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(header.length + (long) rows * (cols + 1));
+            final FileChannel channel = output.getChannel();
+            channel.write(ByteBuffer.wrap(header), 0);
+            final long linesStart = header.length;
+
+            int bands = (cellRows + BAND_ROWS - 1) / BAND_ROWS;
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, bands)));
+            try {
+                List<Future<Void>> written = new ArrayList<Future<Void>>();
+                for (int b = 0; b < bands; b++) {
+                    final int band = b;
+                    written.add(pool.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            writeBand(channel, linesStart, band);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> band : written) band.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing the maze", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                throw new IOException(ex.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    //Make one band of rows with Eller's algorithm and write its lines where they go in the file
+    private void writeBand(FileChannel channel, long linesStart, int band) throws IOException {
+        int firstRow = band * BAND_ROWS, endRow = Math.min(cellRows, firstRow + BAND_ROWS);
+        boolean lastBand = endRow == cellRows;
+        Random random = new Random(seed ^ (band * 0x9E3779B97F4A7C15L));
+        //The one opening down into the next band
+        int exit = lastBand ? -1 : random.nextInt(cellCols);
+
+        //The set of each cell of the row, with a union-find over the set labels while the row is worked on
+        int[] set = new int[cellCols], parent = new int[cellCols];
+        //Per set: how many of its cells were seen, the one picked to go down, and whether one already does
+        int[] seen = new int[cellCols], picked = new int[cellCols];
+        boolean[] hasDown = new boolean[cellCols], used = new boolean[cellCols];
+        boolean[] right = new boolean[cellCols], down = new boolean[cellCols];
+        for (int c = 0; c < cellCols; c++) set[c] = c;
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 2 * (cols + 1)));
+        byte[] line = new byte[cols + 1];
+        line[cols] = '\n';
+        //The first line of the band in the file; band 0 also writes the top wall
+        long position = linesStart + (long) (2 * firstRow + 1) * (cols + 1);
+        if (band == 0) {
+            position = linesStart;
+            Arrays.fill(line, 0, cols, WALL);
+            buffer.put(line);
+        }
+
+        for (int row = firstRow; row < endRow; row++) {
+            boolean lastRow = row == endRow - 1;
+            for (int k = 0; k < cellCols; k++) parent[k] = k;
+
+            //Join neighbouring cells of different sets at random; the last row joins them all
+            for (int c = 0; c < cellCols - 1; c++) {
+                int a = find(parent, set[c]), b = find(parent, set[c + 1]);
+                right[c] = a != b && (lastRow || random.nextBoolean());
+                if (right[c]) parent[a] = b;
+            }
+            right[cellCols - 1] = false;
+
+            //Open some cells of each set downwards, at least one per set, except on the last row
+            if (lastRow) {
+                Arrays.fill(down, false);
+                if (exit >= 0) down[exit] = true;
+            } else {
+                for (int c = 0; c < cellCols; c++) {
+                    int s = find(parent, set[c]);
+                    set[c] = s;
+                    seen[s] = 0;
+                    hasDown[s] = false;
+                }
+                for (int c = 0; c < cellCols; c++) {
+                    int s = set[c];
+                    down[c] = random.nextBoolean();
+                    if (down[c]) hasDown[s] = true;
+                    //Pick one cell of the set evenly at random, in case none of them went down
+                    if (random.nextInt(++seen[s]) == 0) picked[s] = c;
+                }
+                for (int c = 0; c < cellCols; c++) {
+                    int s = set[c];
+                    if (!hasDown[s] && picked[s] == c) down[c] = true;
+                }
+            }
+
+            //The line of cells and the walls between them, then the line of walls below them
+            line[0] = WALL;
+            for (int c = 0; c < cellCols; c++) {
+                line[2 * c + 1] = OPEN;
+                line[2 * c + 2] = right[c] ? OPEN : WALL;
+            }
+            if (row == 0) line[1] = START;
+            if (row == cellRows - 1) line[cols - 2] = END;
+            position = put(channel, buffer, line, position);
+            for (int c = 0; c < cellCols; c++) {
+                line[2 * c + 1] = down[c] ? OPEN : WALL;
+                line[2 * c + 2] = WALL;
+            }
+            position = put(channel, buffer, line, position);
+
+            //The cells opened downwards keep their set into the next row, the others get a set of their own
+            if (!lastRow) {
+                Arrays.fill(used, false);
+                for (int c = 0; c < cellCols; c++) {
+                    if (down[c]) used[set[c]] = true;
+                }
+                int free = 0;
+                for (int c = 0; c < cellCols; c++) {
+                    if (down[c]) continue;
+                    while (used[free]) free++;
+                    set[c] = free;
+                    used[free] = true;
+                }
+            }
+        }
+        flush(channel, buffer, position);
+    }
+
+    //Add a line to the buffer, writing the buffer out first if it is full; returns where the buffer starts in the file
+    private static long put(FileChannel channel, ByteBuffer buffer, byte[] line, long position) throws IOException {
+        if (buffer.remaining() < line.length) position = flush(channel, buffer, position);
+        buffer.put(line);
+        return position;
+    }
+
+    //Write the buffer out at a position of the file; returns the position after it
+    private static long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+        buffer.clear();
+        return position;
+    }
+
+    //The label a set label has been joined into
+    private static int find(int[] parent, int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: MazeGenerator mazefile rows cols [seed [threads]]");
+            System.exit(1);
+        }
+        int rows = Integer.parseInt(args[1]), cols = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        try {
+            long started = System.nanoTime();
+            new MazeGenerator(rows, cols, seed).write(new File(args[0]), threads);
+            System.out.println(String.format("Wrote %s, %dx%d with seed %d, in %.1f s", args[0], rows, cols, seed,
+                    (System.nanoTime() - started) / 1e9));
+        } catch (IOException ex) {
+            System.out.println("Failed to write maze file " + args[0] + "\n" + ex.toString());
+            System.exit(1);
+        }
+    }
+}
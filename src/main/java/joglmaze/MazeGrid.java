@@ -0,0 +1,251 @@
+package joglmaze;
+
+/**
+ * MazeGrid, a compact bit-packed representation of a maze layout
+ * <p>
+ * Each grid position takes one bit for whether it is open, and four bits for
+ * the walls of the cell, in the same order as Cell's walls array. Positions
+ * are addressed by (i, j) or by the flat index i * cols + j, and every query,
+ * including the neighbour queries, is a single array access.
+ */
+public class MazeGrid implements MazeLayout {
+
+    //The wall bits, in the order used by Cell: towards i - 1, i + 1, j - 1, j + 1
+    public static final int WALL_MINUS_I = 0;
+    public static final int WALL_PLUS_I = 1;
+    public static final int WALL_MINUS_J = 2;
+    public static final int WALL_PLUS_J = 3;
+
+    //The size of the grid
+    private final int rows;
+    private final int cols;
+    //One bit per position, set if the position is open
+    private final long[] open;
+    //Four bits per position, one per wall
+    private final long[] walls;
+    //The number of open positions
+    private int cellCount;
+    //The flat index of the start and end cells, or -1
+    private int start = -1;
+    private int end = -1;
+
+    /**
+     * Create a grid with every position occupied
+     *
+     * @param rows The number of rows (along x)
+     * @param cols The number of columns (along z)
+     */
+    public MazeGrid(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        long size = (long) rows * cols;
+        this.open = new long[(int) ((size + 63) >>> 6)];
+        this.walls = new long[(int) ((size * 4 + 63) >>> 6)];
+    }
+
+    /**
+     * Open a position. The walls are not touched, see computeWalls().
+     *
+     * @param index The flat index of the position
+     */
+    public void setOpen(int index) {
+        if (!isOpen(index)) cellCount++;
+        open[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * Work out the walls of every open cell from its neighbours: a cell has a
+     * wall on every side where the neighbour is occupied or outside the maze.
+     */
+    public void computeWalls() {
+        computeWalls(0, rows * cols);
+    }
+
+    /**
+     * Work out the walls of the cells in a range of flat indices. The wall bits are
+     * written a whole long (16 positions) at a time, so ranges that start and end on
+     * a multiple of 16 can be worked out on different threads at once.
+     *
+     * @param from The first flat index, a multiple of 16
+     * @param to   The flat index after the last one, a multiple of 16 or the grid size
+     */
+    void computeWalls(int from, int to) {
+        int size = rows * cols;
+        int i = from / cols, j = from - i * cols;
+        for (int word = from >>> 4; word < (to + 15) >>> 4; word++) {
+            long bits = 0;
+            int last = Math.min((word + 1) << 4, size);
+            for (int index = word << 4; index < last; index++) {
+                if (isOpen(index)) {
+                    long cell = 0;
+                    if (!isOpen(i - 1, j)) cell |= 1 << WALL_MINUS_I;
+                    if (!isOpen(i + 1, j)) cell |= 1 << WALL_PLUS_I;
+                    if (!isOpen(i, j - 1)) cell |= 1 << WALL_MINUS_J;
+                    if (!isOpen(i, j + 1)) cell |= 1 << WALL_PLUS_J;
+                    bits |= cell << ((index & 15) << 2);
+                }
+                if (++j == cols) {
+                    j = 0;
+                    i++;
+                }
+            }
+            walls[word] = bits;
+        }
+    }
+
+    /**
+     * Build the grid of a rectangle of a larger maze from its layout plus a
+     * border of one position all around, which gives the walls on the edges
+     *
+     * @param open   Whether each position of the bordered rectangle is open, row by row
+     * @param height The number of rows, without the border
+     * @param width  The number of columns, without the border
+     * @return The grid of the rectangle
+     */
+    static MazeGrid fromBorderedLayout(boolean[] open, int height, int width) {
+        int borderWidth = width + 2;
+        MazeGrid grid = new MazeGrid(height, width);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int b = (i + 1) * borderWidth + j + 1;
+                if (!open[b]) continue;
+                int index = i * width + j;
+                grid.setOpen(index);
+                int bits = 0;
+                if (!open[b - borderWidth]) bits |= 1 << WALL_MINUS_I;
+                if (!open[b + borderWidth]) bits |= 1 << WALL_PLUS_I;
+                if (!open[b - 1]) bits |= 1 << WALL_MINUS_J;
+                if (!open[b + 1]) bits |= 1 << WALL_PLUS_J;
+                grid.setWalls(index, bits);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Set the four wall bits of a position
+     *
+     * @param index The flat index of the position
+     * @param bits  The walls, bit n set for wall n
+     */
+    void setWalls(int index, int bits) {
+        int shift = (index & 15) << 2;
+        walls[index >>> 4] = (walls[index >>> 4] & ~(0xfL << shift)) | ((long) bits << shift);
+    }
+
+    //The number of rows (along x)
+    public int getRows() {
+        return rows;
+    }
+
+    //The number of columns (along z)
+    public int getCols() {
+        return cols;
+    }
+
+    //The number of open cells
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    //The flat index of the start cell, or -1 if the maze has none
+    public int getStart() {
+        return start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    //The flat index of the end cell, or -1 if the maze has none
+    public int getEnd() {
+        return end;
+    }
+
+    public void setEnd(int end) {
+        this.end = end;
+    }
+
+    /**
+     * Check whether a position is open
+     *
+     * @param index The flat index of the position
+     * @return True if the position is an open cell
+     */
+    public boolean isOpen(int index) {
+        return (open[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Check whether a position is open. Positions outside the maze are occupied.
+     *
+     * @param i The row (x) index
+     * @param j The column (z) index
+     * @return True if the position is an open cell
+     */
+    @Override
+    public boolean isOpen(int i, int j) {
+        if (i < 0 || j < 0 || i >= rows || j >= cols) return false;
+        return isOpen(i * cols + j);
+    }
+
+    /**
+     * Check whether a cell has a wall
+     *
+     * @param index The flat index of the cell
+     * @param side  The wall, one of the WALL_ constants
+     * @return True if the cell has that wall
+     */
+    public boolean hasWall(int index, int side) {
+        return ((walls[index >>> 4] >>> (((index & 15) << 2) + side)) & 1) != 0;
+    }
+
+    /**
+     * Check whether a cell has a wall. Occupied positions have no walls of their own.
+     *
+     * @param i    The row (x) index
+     * @param j    The column (z) index
+     * @param side The wall, one of the WALL_ constants
+     * @return True if the cell has that wall
+     */
+    public boolean hasWall(int i, int j, int side) {
+        if (i < 0 || j < 0 || i >= rows || j >= cols) return false;
+        return hasWall(i * cols + j, side);
+    }
+
+    /**
+     * Get the four wall bits of a cell
+     *
+     * @param index The flat index of the cell
+     * @return The walls, bit n set for wall n
+     */
+    public int getWalls(int index) {
+        return (int) (walls[index >>> 4] >>> ((index & 15) << 2)) & 0xf;
+    }
+
+    /**
+     * Get the flat index of the neighbour of a cell across one of its walls
+     *
+     * @param index The flat index of the cell
+     * @param side  The direction, one of the WALL_ constants
+     * @return The flat index of the neighbour, or -1 if it is outside the maze
+     */
+    public int neighbour(int index, int side) {
+        int i = index / cols, j = index - i * cols;
+        switch (side) {
+            case WALL_MINUS_I:
+                return i > 0 ? index - cols : -1;
+            case WALL_PLUS_I:
+                return i < rows - 1 ? index + cols : -1;
+            case WALL_MINUS_J:
+                return j > 0 ? index - 1 : -1;
+            default:
+                return j < cols - 1 ? index + 1 : -1;
+        }
+    }
+
+    //The approximate heap footprint of the grid, in bytes
+    public long getMemoryFootprint() {
+        return 16 + 8L * open.length + 16 + 8L * walls.length + 48;
+    }
+}
@@ -0,0 +1,16 @@
+package joglmaze;
+
+/**
+ * MazeLayout, a maze whose open cells can be looked up one at a time
+ */
+public interface MazeLayout {
+
+    /**
+     * Check whether a position is open. Positions outside the maze are occupied.
+     *
+     * @param i The row (x) index
+     * @param j The column (z) index
+     * @return True if the position is an open cell
+     */
+    boolean isOpen(int i, int j);
+}
@@ -4,6 +4,8 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Maze Loader, loads a maze from a text file
@@ -13,6 +15,10 @@ import java.util.ArrayList;
  */
 public class MazeLoader {
 
+    //The fewest cells in a row band worked on by one fork/join task (-Dmaze.parallelThreshold=...).
+    //Mazes of no more cells than this are loaded on the calling thread.
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("maze.parallelThreshold", 1 << 16);
+
     /**
      * Static function to load a maze from the contents of a file.
      * <p>
@@ -32,11 +38,41 @@ public class MazeLoader {
      * a character. An 'x' represents an open space in the maze, an 'o'
      * represents an occupied space (walls) and 's' and 'e' are the
      * start and end of the maze respectively.
+     * <p>
+     * Mazes converted to the binary format of BinaryMazeFile are
+     * recognised and loaded too.
      *
      * @param filename The name of the file to load
      * @return A list of Cell objects that make up the maze
      */
     static public ArrayList<Cell> MakeMaze(String filename) {
+        return MakeMaze(LoadGrid(filename));
+    }
+
+    /**
+     * Static function to load the layout of a maze into a bit-packed grid,
+     * without creating any Cell objects. The file format is the one described
+     * for MakeMaze(String).
+     *
+     * @param filename The name of the file to load
+     * @return The grid of open cells and their walls
+     */
+    static public MazeGrid LoadGrid(String filename) {
+        // Binary mazes are read straight from a memory map
+        try {
+            if (BinaryMazeFile.isBinary(filename)) {
+                BinaryMazeFile binary = new BinaryMazeFile(filename);
+                try {
+                    return binary.loadGrid();
+                } finally {
+                    binary.close();
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Failed to open maze file\n" + ex.toString());
+            System.exit(1);
+        }
+
         // Variables to store the data in the file
         int[] _dimensions = {0, 0};
         String[] _maze_string = {};
@@ -62,45 +98,194 @@ public class MazeLoader {
             System.exit(1);
         }
 
-        // Go through the data and create the maze
-        ArrayList<Cell> maze = new ArrayList<Cell>();
-        // Iterate through each cell in the grid
+        // Mark the open cells and the start and end points
+        MazeGrid grid = new MazeGrid(_dimensions[0], _dimensions[1]);
         for (int i = 0; i < _dimensions[0]; ++i) {
             for (int j = 0; j < _dimensions[1]; ++j) {
+                char c = _maze_string[i].charAt(j);
                 // If that space in the grid is not occupied...
-                if (_maze_string[i].charAt(j) != 'o') {
-                    // Start with a cell with four walls
-                    boolean[] walls = {true, true, true, true};
-                    // Look at the neighbouring cells. If they are not occupied remove the wall
-                    if (i > 0 && _maze_string[i - 1].charAt(j) != 'o') {
-                        walls[0] = false;
-                    }
-                    if (i < (_dimensions[0] - 1) && _maze_string[i + 1].charAt(j) != 'o') {
-                        walls[1] = false;
-                    }
-                    if (j > 0 && _maze_string[i].charAt(j - 1) != 'o') {
-                        walls[2] = false;
-                    }
-                    if (j < (_dimensions[1] - 1) && _maze_string[i].charAt(j + 1) != 'o') {
-                        walls[3] = false;
-                    }
-
-                    // If this cell is the start or end point, add the appropriate marker
-                    Cell new_cell = new Cell(walls, i, j);
-                    if (_maze_string[i].charAt(j) == 's') {
-                        new_cell.addItem(new MazeEndPoint(MazeEndPoint.EndPointType.START));
-                    }
-                    if (_maze_string[i].charAt(j) == 'e') {
-                        new_cell.addItem(new MazeEndPoint(MazeEndPoint.EndPointType.END));
-                    }
-
-                    // Add this cell to the maze
-                    maze.add(new_cell);
+                if (c != 'o') {
+                    int index = i * _dimensions[1] + j;
+                    grid.setOpen(index);
+                    if (c == 's') grid.setStart(index);
+                    if (c == 'e') grid.setEnd(index);
                 }
             }
         }
 
-        // Return the completed maze
+        // Look at the neighbouring cells to find the walls
+        ComputeWalls(grid, PARALLEL_THRESHOLD);
+        return grid;
+    }
+
+    /**
+     * Static function to work out the walls of a maze grid, in parallel row
+     * bands on large mazes. The result is the same as MazeGrid.computeWalls().
+     *
+     * @param grid      The maze grid, with its open cells set
+     * @param threshold The fewest cells in a band; grids of no more cells are done sequentially
+     */
+    static public void ComputeWalls(MazeGrid grid, int threshold) {
+        int size = grid.getRows() * grid.getCols();
+        if (threshold <= 0 || size <= threshold) {
+            grid.computeWalls();
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new BandTask(grid, null, threshold, 0, grid.getRows()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Static function to read only the dimensions of a maze file
+     *
+     * @param filename The name of the file to read
+     * @return The number of rows and columns of the maze
+     */
+    static public int[] ReadDimensions(String filename) {
+        int[] _dimensions = {0, 0};
+        try {
+            if (BinaryMazeFile.isBinary(filename)) {
+                BinaryMazeFile binary = new BinaryMazeFile(filename);
+                _dimensions[0] = binary.getRows();
+                _dimensions[1] = binary.getCols();
+                binary.close();
+                return _dimensions;
+            }
+            BufferedReader input = new BufferedReader(new FileReader(filename));
+            try {
+                _dimensions[0] = Integer.parseInt(input.readLine());
+                _dimensions[1] = Integer.parseInt(input.readLine());
+            } finally {
+                input.close();
+            }
+        } catch (IOException ex) {
+            System.out.println("Failed to open maze file\n" + ex.toString());
+            System.exit(1);
+        }
+        return _dimensions;
+    }
+
+    /**
+     * Static function to open a maze file, text or binary, for reading tiles of it
+     *
+     * @param filename The name of the file to open
+     * @return The open file
+     * @throws IOException If the file cannot be opened
+     */
+    static public MazeTileSource OpenTiles(String filename) throws IOException {
+        if (BinaryMazeFile.isBinary(filename)) return new BinaryMazeFile(filename);
+        return new TiledMazeFile(filename);
+    }
+
+    /**
+     * Static function to create the Cell objects of a maze grid
+     *
+     * @param grid The maze grid, as returned by LoadGrid
+     * @return A list of Cell objects that make up the maze
+     */
+    static public ArrayList<Cell> MakeMaze(MazeGrid grid) {
+        return MakeMaze(grid, PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Static function to create the Cell objects of a maze grid, in parallel
+     * row bands on large mazes. The cells are in the same order either way.
+     *
+     * @param grid      The maze grid, as returned by LoadGrid
+     * @param threshold The fewest cells in a band; grids of no more cells are done sequentially
+     * @return A list of Cell objects that make up the maze
+     */
+    static public ArrayList<Cell> MakeMaze(MazeGrid grid, int threshold) {
+        int size = grid.getRows() * grid.getCols();
+        ArrayList<Cell> maze = new ArrayList<Cell>(grid.getCellCount());
+        if (threshold <= 0 || size <= threshold) {
+            // Iterate through each cell in the grid
+            for (int index = 0; index < size; index++) {
+                if (grid.isOpen(index)) maze.add(MakeCell(grid, index));
+            }
+            return maze;
+        }
+
+        // Make the cells in bands, each into its own place in the grid, then gather them in order
+        Cell[] cells = new Cell[size];
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new BandTask(grid, cells, threshold, 0, grid.getRows()));
+        } finally {
+            pool.shutdown();
+        }
+        for (Cell cell : cells) {
+            if (cell != null) maze.add(cell);
+        }
         return maze;
     }
+
+    /**
+     * Static function to create the Cell object of one open cell in a maze grid
+     *
+     * @param grid  The maze grid
+     * @param index The flat index of the cell
+     * @return The cell, with its start or end marker if it has one
+     */
+    static public Cell MakeCell(MazeGrid grid, int index) {
+        boolean[] walls = new boolean[4];
+        for (int side = 0; side < 4; side++) {
+            walls[side] = grid.hasWall(index, side);
+        }
+        Cell new_cell = new Cell(walls, index / grid.getCols(), index % grid.getCols());
+
+        // If this cell is the start or end point, add the appropriate marker
+        if (index == grid.getStart()) {
+            new_cell.addItem(new MazeEndPoint(MazeEndPoint.EndPointType.START));
+        }
+        if (index == grid.getEnd()) {
+            new_cell.addItem(new MazeEndPoint(MazeEndPoint.EndPointType.END));
+        }
+        return new_cell;
+    }
+
+    /**
+     * Fork/join task working on a band of rows: either working out the walls, or,
+     * if it is given an array for them, making the cells
+     */
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final MazeGrid grid;
+        private final Cell[] cells;
+        private final int threshold;
+        private final int firstRow, lastRow;
+
+        BandTask(MazeGrid grid, Cell[] cells, int threshold, int firstRow, int lastRow) {
+            this.grid = grid;
+            this.cells = cells;
+            this.threshold = threshold;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        @Override
+        protected void compute() {
+            int cols = grid.getCols();
+            if ((long) (lastRow - firstRow) * cols > threshold && lastRow - firstRow > 1) {
+                int middle = (firstRow + lastRow) >>> 1;
+                invokeAll(new BandTask(grid, cells, threshold, firstRow, middle),
+                        new BandTask(grid, cells, threshold, middle, lastRow));
+                return;
+            }
+            if (cells == null) {
+                // Bands meet on whole longs of wall bits, so no two tasks write the same long
+                int from = firstRow == 0 ? 0 : (firstRow * cols) & ~15;
+                int to = lastRow == grid.getRows() ? lastRow * cols : (lastRow * cols) & ~15;
+                grid.computeWalls(from, to);
+            } else {
+                for (int index = firstRow * cols; index < lastRow * cols; index++) {
+                    if (grid.isOpen(index)) cells[index] = MakeCell(grid, index);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,571 @@
+package joglmaze;
+
+import com.jogamp.common.nio.Buffers;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * MazeMesh, the static geometry of the whole maze in a single vertex/index buffer
+ * <p>
+ * The mesh is built once from the wall bits of the maze grid. Coplanar faces of
+ * neighbouring cells are greedily merged into long strips, one cell high, in four
+ * face groups:
+ * <p>
+ * walls facing along x, walls facing along z, floor, ceiling
+ * <p>
+ * Every group is textured from its own layer of the texture atlas, so the whole
+ * mesh draws with a single texture binding. The strips repeat the texture along
+ * their length (s) and stay within one layer across it (t).
+ * <p>
+ * For culling, the maze is split into square blocks of cells. Quads never cross a
+ * block edge and the indices are sorted by block, so a range of visible blocks is
+ * a single draw call.
+ * <p>
+ * Every cell used to be lit by its own pair of lamps (see Cell.draw), so the lighting
+ * pattern repeats exactly once per cell. That pattern is baked into the atlas layers
+ * of the groups (see bakeLightMap), which keeps the look of the tessellated per-cell
+ * walls with only two triangles per merged face.
+ * <p>
+ * The torches and other lights of a LightGrid are added per pixel by the
+ * lighting shader. The blocks are the size of the light tiles, so when lit,
+ * each block is drawn on its own with the lights of its tile.
+ */
+public class MazeMesh {
+
+    //The face groups, in the order they are stored in the index buffer
+    static final int WALLS_X = 0;
+    static final int WALLS_Z = 1;
+    static final int FLOOR = 2;
+    static final int CEILING = 3;
+    static final int GROUP_COUNT = 4;
+
+    //The material each group is drawn with
+    static final int[] GROUP_MATERIAL = {TextureAtlas.BRICK, TextureAtlas.BRICK, TextureAtlas.REDBOOK, TextureAtlas.VINE};
+
+    //Floats per vertex: x, y, z, u, v
+    private static final int VERTEX_SIZE = 5;
+
+    //The size of the blocks that are culled and drawn as a whole, in cells; a block is a light tile
+    static final int BLOCK_SIZE = LightGrid.TILE_SIZE;
+
+    //The texture and buffer binds made by begin() and end() together, and by each mesh drawn between them
+    static final int BEGIN_END_BINDS = 4;
+    static final int MESH_BINDS = 2;
+
+    //The mesh data on the CPU side
+    private float[] vertices;
+    private int[] indices;
+    //The first index and the number of indices of every block
+    private int[] blockOffset;
+    private int[] blockIndexCount;
+    private int quadCount;
+
+    //The grid width, and the blocks of BLOCK_SIZE x BLOCK_SIZE cells the mesh is split into
+    private int cols;
+    private int blockCols;
+    private int blockCount;
+
+    //The blocks seen in the current frame, and the frame each block was last seen in
+    private int[] visibleBlocks;
+    private int visibleBlockCount;
+    private int[] blockStamp;
+    private int frame;
+    //The number of draw calls, and of program switches and light uploads, made by the last draw
+    private int drawCalls;
+    private int lightingStateChanges;
+
+    //The GL buffer names, once uploaded
+    private int vertexBuffer = -1;
+    private int indexBuffer = -1;
+    //The size of the uploaded buffers, in bytes
+    private long bufferBytes;
+
+    private MazeMesh() {
+    }
+
+    /**
+     * Builds the merged mesh of a maze
+     *
+     * @param grid The maze grid
+     * @return The mesh, ready to be uploaded
+     */
+    public static MazeMesh build(MazeGrid grid) {
+        return build(grid, 0, 0);
+    }
+
+    /**
+     * Builds the merged mesh of a part of a maze
+     *
+     * @param grid    The grid of this part of the maze
+     * @param originI The row of the whole maze that the first row of the grid is at
+     * @param originJ The column of the whole maze that the first column of the grid is at
+     * @return The mesh, ready to be uploaded
+     */
+    public static MazeMesh build(MazeGrid grid, int originI, int originJ) {
+        int rows = grid.getRows(), cols = grid.getCols();
+        MazeMesh mesh = new MazeMesh();
+        mesh.cols = cols;
+        mesh.blockCols = (cols + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        mesh.blockCount = ((rows + BLOCK_SIZE - 1) / BLOCK_SIZE) * mesh.blockCols;
+
+        QuadList[] groups = new QuadList[GROUP_COUNT];
+        for (int g = 0; g < GROUP_COUNT; g++) {
+            groups[g] = new QuadList(originI, originJ, TextureAtlas.layer(GROUP_MATERIAL[g], g));
+        }
+
+        //Walls on the -x and +x side of a cell run along z, so merge them along each row
+        for (int i = 0; i < rows; i++) {
+            for (int side = 0; side < 2; side++) {
+                int j = 0;
+                while (j < cols) {
+                    if (!grid.hasWall(i, j, side)) {
+                        j++;
+                        continue;
+                    }
+                    //Runs stop at block edges so that every block can be drawn on its own
+                    int start = j;
+                    int blockEnd = Math.min(cols, (j / BLOCK_SIZE + 1) * BLOCK_SIZE);
+                    while (j < blockEnd && grid.hasWall(i, j, side)) j++;
+                    int block = mesh.blockOf(i, start);
+                    if (side == 0) {
+                        //-x wall, faces +x
+                        groups[WALLS_X].add(block, i - 0.5f, -0.5f, j - 0.5f, 0, 0, -(j - start), 0, 1, 0);
+                    } else {
+                        //+x wall, faces -x
+                        groups[WALLS_X].add(block, i + 0.5f, -0.5f, start - 0.5f, 0, 0, j - start, 0, 1, 0);
+                    }
+                }
+            }
+        }
+
+        //Walls on the -z and +z side of a cell run along x, so merge them along each column
+        for (int j = 0; j < cols; j++) {
+            for (int side = 2; side < 4; side++) {
+                int i = 0;
+                while (i < rows) {
+                    if (!grid.hasWall(i, j, side)) {
+                        i++;
+                        continue;
+                    }
+                    int start = i;
+                    int blockEnd = Math.min(rows, (i / BLOCK_SIZE + 1) * BLOCK_SIZE);
+                    while (i < blockEnd && grid.hasWall(i, j, side)) i++;
+                    int block = mesh.blockOf(start, j);
+                    if (side == 2) {
+                        //-z wall, faces +z
+                        groups[WALLS_Z].add(block, start - 0.5f, -0.5f, j - 0.5f, i - start, 0, 0, 0, 1, 0);
+                    } else {
+                        //+z wall, faces -z
+                        groups[WALLS_Z].add(block, i - 0.5f, -0.5f, j + 0.5f, -(i - start), 0, 0, 0, 1, 0);
+                    }
+                }
+            }
+        }
+
+        //Floor and ceiling cover the same cells, so merge the open cells of each row into strips once
+        for (int i = 0; i < rows; i++) {
+            int j = 0;
+            while (j < cols) {
+                if (!grid.isOpen(i, j)) {
+                    j++;
+                    continue;
+                }
+                int start = j;
+                int blockEnd = Math.min(cols, (j / BLOCK_SIZE + 1) * BLOCK_SIZE);
+                while (j < blockEnd && grid.isOpen(i, j)) j++;
+                int block = mesh.blockOf(i, start);
+                groups[FLOOR].add(block, i - 0.5f, -0.5f, start - 0.5f, 0, 0, j - start, 1, 0, 0);
+                groups[CEILING].add(block, i - 0.5f, 0.5f, j - 0.5f, 0, 0, -(j - start), 1, 0, 0);
+            }
+        }
+
+        //Put the groups one after another into a single vertex array, and sort
+        //the indices of all the quads by block
+        int vertexFloats = 0, indexCount = 0;
+        for (QuadList group : groups) {
+            vertexFloats += group.size * 4 * VERTEX_SIZE;
+            indexCount += group.size * 6;
+        }
+        mesh.vertices = new float[vertexFloats];
+        mesh.indices = new int[indexCount];
+        mesh.blockOffset = new int[mesh.blockCount];
+        mesh.blockIndexCount = new int[mesh.blockCount];
+
+        //Counting sort of the quads by block
+        for (QuadList group : groups) {
+            for (int q = 0; q < group.size; q++) {
+                mesh.blockIndexCount[group.blocks[q]] += 6;
+            }
+        }
+        int[] next = new int[mesh.blockCount];
+        int indexOffset = 0;
+        for (int b = 0; b < mesh.blockCount; b++) {
+            mesh.blockOffset[b] = indexOffset;
+            next[b] = indexOffset;
+            indexOffset += mesh.blockIndexCount[b];
+        }
+        int vertexOffset = 0;
+        for (QuadList group : groups) {
+            System.arraycopy(group.data, 0, mesh.vertices, vertexOffset * VERTEX_SIZE, group.size * 4 * VERTEX_SIZE);
+            for (int q = 0; q < group.size; q++) {
+                int base = vertexOffset + q * 4;
+                int n = next[group.blocks[q]];
+                mesh.indices[n] = base;
+                mesh.indices[n + 1] = base + 1;
+                mesh.indices[n + 2] = base + 2;
+                mesh.indices[n + 3] = base;
+                mesh.indices[n + 4] = base + 2;
+                mesh.indices[n + 5] = base + 3;
+                next[group.blocks[q]] = n + 6;
+            }
+            vertexOffset += group.size * 4;
+            mesh.quadCount += group.size;
+        }
+        mesh.blockStamp = new int[mesh.blockCount];
+        mesh.visibleBlocks = new int[mesh.blockCount];
+        return mesh;
+    }
+
+    //The block that a cell belongs to
+    private int blockOf(int i, int j) {
+        return (i / BLOCK_SIZE) * blockCols + j / BLOCK_SIZE;
+    }
+
+    /**
+     * Uploads the mesh into buffer objects. The CPU-side copy of the mesh is
+     * released afterwards. Must be called on the GL thread.
+     *
+     * @param gl The openGL context
+     */
+    public void upload(GL2 gl) {
+        int[] names = new int[2];
+        gl.glGenBuffers(2, names, 0);
+        vertexBuffer = names[0];
+        indexBuffer = names[1];
+
+        FloatBuffer vertexData = Buffers.newDirectFloatBuffer(vertices);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, vertices.length * Buffers.SIZEOF_FLOAT, vertexData, GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+        IntBuffer indexData = Buffers.newDirectIntBuffer(indices);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indices.length * Buffers.SIZEOF_INT, indexData, GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        bufferBytes = (long) vertices.length * Buffers.SIZEOF_FLOAT + (long) indices.length * Buffers.SIZEOF_INT;
+        vertices = null;
+        indices = null;
+    }
+
+    /**
+     * Draws the blocks of the mesh that hold at least one of the visible cells.
+     * The lighting is baked into the atlas, so fixed-function lighting is
+     * switched off while the mesh is drawn.
+     *
+     * @param gl      The openGL context
+     * @param atlas   The texture atlas
+     * @param frustum The view frustum, already culled against the maze grid
+     */
+    public void draw(GL2 gl, TextureAtlas atlas, ViewFrustum frustum) {
+        draw(gl, atlas, frustum, null, null);
+    }
+
+    /**
+     * Draws the blocks of the mesh that hold at least one of the visible cells,
+     * adding the lights of each block's tile to the baked lamps with the lighting
+     * shader. The shader's frame must have been begun.
+     *
+     * @param gl       The openGL context
+     * @param atlas    The texture atlas
+     * @param frustum  The view frustum, already culled against the maze grid
+     * @param lighting The lighting shader, or null to draw with the baked lamps alone
+     * @param lights   The lights of the maze, the same size as the mesh; null without the shader
+     */
+    public void draw(GL2 gl, TextureAtlas atlas, ViewFrustum frustum, LightingShader lighting, LightGrid lights) {
+        //Find the blocks of the visible cells, without clearing anything per frame
+        frame++;
+        visibleBlockCount = 0;
+        int[] visible = frustum.getVisible();
+        for (int c = frustum.getVisibleCount() - 1; c >= 0; c--) {
+            int block = blockOf(visible[c] / cols, visible[c] % cols);
+            if (blockStamp[block] != frame) {
+                blockStamp[block] = frame;
+                visibleBlocks[visibleBlockCount++] = block;
+            }
+        }
+        //In index order, so that neighbouring blocks can share a draw call
+        Arrays.sort(visibleBlocks, 0, visibleBlockCount);
+
+        begin(gl, atlas);
+        if (lighting != null) {
+            lighting.useMesh(gl);
+            drawLitBlocks(gl, lighting, lights);
+            lighting.release(gl);
+        } else {
+            lightingStateChanges = 0;
+            drawBlocks(gl);
+        }
+        end(gl, atlas);
+    }
+
+    /**
+     * Draws every block of the mesh. Must be called between begin() and end(),
+     * so that many meshes can be drawn with the same state.
+     *
+     * @param gl The openGL context
+     */
+    public void drawAll(GL2 gl) {
+        for (int b = 0; b < blockCount; b++) visibleBlocks[b] = b;
+        visibleBlockCount = blockCount;
+        drawBlocks(gl);
+    }
+
+    /**
+     * Sets up the state for drawing meshes: the atlas is bound once, and its baked
+     * lighting replaces fixed-function lighting
+     *
+     * @param gl    The openGL context
+     * @param atlas The texture atlas
+     */
+    public static void begin(GL2 gl, TextureAtlas atlas) {
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glColor3f(1.0f, 1.0f, 1.0f);
+        atlas.bind(gl);
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+    }
+
+    /**
+     * Puts the state back the way the rest of the scene expects it
+     *
+     * @param gl    The openGL context
+     * @param atlas The texture atlas
+     */
+    public static void end(GL2 gl, TextureAtlas atlas) {
+        gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        atlas.unbind(gl);
+        gl.glEnable(GL2.GL_LIGHTING);
+    }
+
+    //Draw the blocks listed in visibleBlocks, one draw call per run of neighbouring blocks
+    private void drawBlocks(GL2 gl) {
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.glVertexPointer(3, GL.GL_FLOAT, VERTEX_SIZE * Buffers.SIZEOF_FLOAT, 0);
+        gl.glTexCoordPointer(2, GL.GL_FLOAT, VERTEX_SIZE * Buffers.SIZEOF_FLOAT, 3 * Buffers.SIZEOF_FLOAT);
+
+        int offset = 0, count = 0;
+        drawCalls = 0;
+        for (int v = 0; v < visibleBlockCount; v++) {
+            int b = visibleBlocks[v];
+            if (blockIndexCount[b] == 0) continue;
+            if (count > 0 && blockOffset[b] != offset + count) {
+                gl.glDrawElements(GL.GL_TRIANGLES, count, GL.GL_UNSIGNED_INT, (long) offset * Buffers.SIZEOF_INT);
+                drawCalls++;
+                count = 0;
+            }
+            if (count == 0) offset = blockOffset[b];
+            count += blockIndexCount[b];
+        }
+        if (count > 0) {
+            gl.glDrawElements(GL.GL_TRIANGLES, count, GL.GL_UNSIGNED_INT, (long) offset * Buffers.SIZEOF_INT);
+            drawCalls++;
+        }
+    }
+
+    //Draw the blocks listed in visibleBlocks one at a time, each with the lights of its tile
+    private void drawLitBlocks(GL2 gl, LightingShader lighting, LightGrid lights) {
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.glVertexPointer(3, GL.GL_FLOAT, VERTEX_SIZE * Buffers.SIZEOF_FLOAT, 0);
+        gl.glTexCoordPointer(2, GL.GL_FLOAT, VERTEX_SIZE * Buffers.SIZEOF_FLOAT, 3 * Buffers.SIZEOF_FLOAT);
+
+        drawCalls = 0;
+        //Switching to the program and back
+        lightingStateChanges = 2;
+        for (int v = 0; v < visibleBlockCount; v++) {
+            int b = visibleBlocks[v];
+            if (blockIndexCount[b] == 0) continue;
+            int tile = lights.tileOf((b / blockCols) * BLOCK_SIZE, (b % blockCols) * BLOCK_SIZE);
+            lightingStateChanges += lighting.selectTile(gl, lights, tile);
+            gl.glDrawElements(GL.GL_TRIANGLES, blockIndexCount[b], GL.GL_UNSIGNED_INT,
+                    (long) blockOffset[b] * Buffers.SIZEOF_INT);
+            drawCalls++;
+        }
+    }
+
+    /**
+     * Releases the GL buffers
+     *
+     * @param gl The openGL context
+     */
+    public void dispose(GL2 gl) {
+        if (vertexBuffer != -1) {
+            gl.glDeleteBuffers(2, new int[]{vertexBuffer, indexBuffer}, 0);
+            vertexBuffer = indexBuffer = -1;
+        }
+    }
+
+    //The size of the uploaded vertex and index buffers, in bytes
+    public long getBufferBytes() {
+        return bufferBytes;
+    }
+
+    //The number of merged quads in the mesh
+    public int getQuadCount() {
+        return quadCount;
+    }
+
+    //The number of blocks the mesh is split into
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    //The number of blocks drawn by the last draw
+    public int getVisibleBlockCount() {
+        return visibleBlockCount;
+    }
+
+    //The number of draw calls made by the last draw
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    //The number of shader program switches and light uploads made by the last draw
+    public int getLightingStateChanges() {
+        return lightingStateChanges;
+    }
+
+    /**
+     * Computes the lighting of one cell face of a face group by evaluating the two
+     * cell lamps the same way fixed-function lighting does (diffuse term with linear
+     * and quadratic attenuation). The lamps are symmetric in x and z, so one map
+     * serves both walls of a group.
+     *
+     * @param group The face group
+     * @param size  The width and height of the map, in texels
+     * @return The RGB light of each texel, row (t) by row, each between 0 and 1
+     */
+    static float[] bakeLightMap(int group, int size) {
+        float[] light = new float[size * size * 3];
+        float[] point = new float[3];
+        float[] normal = new float[3];
+        int n = 0;
+        for (int t = 0; t < size; t++) {
+            for (int s = 0; s < size; s++) {
+                float u = (s + 0.5f) / size;
+                float v = (t + 0.5f) / size;
+
+                //Turn the texel into a point on the face, relative to the cell centre
+                switch (group) {
+                    case WALLS_X:
+                        set(point, -0.5f, v - 0.5f, 0.5f - u);
+                        set(normal, 1, 0, 0);
+                        break;
+                    case WALLS_Z:
+                        set(point, u - 0.5f, v - 0.5f, -0.5f);
+                        set(normal, 0, 0, 1);
+                        break;
+                    case FLOOR:
+                        set(point, v - 0.5f, -0.5f, u - 0.5f);
+                        set(normal, 0, 1, 0);
+                        break;
+                    default:
+                        set(point, v - 0.5f, 0.5f, 0.5f - u);
+                        set(normal, 0, -1, 0);
+                        break;
+                }
+
+                float[] colour = new float[3];
+                for (float[] lamp : Cell.LAMP_POSITIONS) {
+                    float lx = lamp[0] - point[0], ly = lamp[1] - point[1], lz = lamp[2] - point[2];
+                    float distance = (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+                    float diffuse = Math.max(0, (lx * normal[0] + ly * normal[1] + lz * normal[2]) / distance);
+                    float attenuation = 1.0f / (1.0f + ViewRenderer.LAMP_LINEAR_ATTENUATION * distance
+                            + ViewRenderer.LAMP_QUADRATIC_ATTENUATION * distance * distance);
+                    for (int c = 0; c < 3; c++) {
+                        colour[c] += ViewRenderer.LAMP_DIFFUSE[c] * diffuse * attenuation;
+                    }
+                }
+                for (int c = 0; c < 3; c++) {
+                    light[n++] = Math.min(1.0f, colour[c]);
+                }
+            }
+        }
+        return light;
+    }
+
+    private static void set(float[] v, float x, float y, float z) {
+        v[0] = x;
+        v[1] = y;
+        v[2] = z;
+    }
+
+    /**
+     * A growable list of quads for one face group
+     */
+    private static class QuadList {
+        private float[] data = new float[64 * 4 * VERTEX_SIZE];
+        private int[] blocks = new int[64];
+        private int size;
+        //Where the grid is in the whole maze
+        private final float originI, originJ;
+        //The t coordinates of the two edges of the group's atlas layer
+        private final float t0, t1;
+
+        QuadList(int originI, int originJ, int layer) {
+            this.originI = originI;
+            this.originJ = originJ;
+            this.t0 = TextureAtlas.t(layer, 0);
+            this.t1 = TextureAtlas.t(layer, 1);
+        }
+
+        /**
+         * Adds a quad spanned by two edges from a corner. The edges must be
+         * ordered so that a x b points the way the face should be seen from,
+         * which gives counter-clockwise front faces. The b edge must be one cell
+         * long, as the texture only repeats along a. The s coordinate is taken
+         * from the world position so that it repeats once per cell.
+         * The block is the culling block the quad is drawn with.
+         */
+        void add(int block, float x, float y, float z, float ax, float ay, float az, float bx, float by, float bz) {
+            if (size == blocks.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+                blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            }
+            blocks[size] = block;
+            x += originI;
+            z += originJ;
+
+            //The texture repeats once per cell, so only the fraction of the start matters;
+            //dropping the whole part keeps the coordinates precise far from the origin
+            float aLength = Math.abs(ax + ay + az);
+            float u0 = (x * ax + y * ay + z * az) / aLength + 0.5f;
+            u0 -= (float) Math.floor(u0);
+
+            int n = size * 4 * VERTEX_SIZE;
+            n = put(n, x, y, z, u0, t0);
+            n = put(n, x + ax, y + ay, z + az, u0 + aLength, t0);
+            n = put(n, x + ax + bx, y + ay + by, z + az + bz, u0 + aLength, t1);
+            put(n, x + bx, y + by, z + bz, u0, t1);
+            size++;
+        }
+
+        private int put(int n, float x, float y, float z, float u, float v) {
+            data[n] = x;
+            data[n + 1] = y;
+            data[n + 2] = z;
+            data[n + 3] = u;
+            data[n + 4] = v;
+            return n + VERTEX_SIZE;
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package joglmaze;
 
-import javax.media.opengl.GL2;
-
-
 /**
  * MazeObject, abstract class representing an object in the maze
  * You don't need to edit this class but you can if you want to
  *
  * @author J.Kilner
  */
-public abstract class MazeObject {
+public abstract class MazeObject implements Renderable {
 
-    public abstract void draw(GL2 gl);
+    /**
+     * Submit the object to the render queue, with the state it is drawn with
+     *
+     * @param queue The render queue of the frame
+     * @param x     The X position of the object's cell
+     * @param z     The Z position of the object's cell
+     */
+    public abstract void submit(RenderQueue queue, float x, float z);
 }
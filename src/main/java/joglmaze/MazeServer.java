@@ -0,0 +1,528 @@
+package joglmaze;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MazeServer, holds the maze and every player in it, and keeps the players' clients up to date
+ * <p>
+ * The server is authoritative: clients only send the controls they hold, and
+ * the server moves every player in fixed ticks, with the same step and wall
+ * collision as the local Simulation. One thread does everything. Between
+ * ticks a non-blocking selector accepts clients and reads their input; at each
+ * tick the players are moved, a WorldSnapshot of them is kept in a ring of the
+ * last HISTORY ticks, and each client is sent the snapshot as a delta against
+ * the last one it acknowledged, or in full if it has acknowledged none still
+ * in the ring.
+ * <p>
+ * A client is only sent the players near it: the maze is split into square
+ * regions of REGION_SIZE cells, and each client gets the players in the
+ * regions next to its own, so what it is sent grows with the players around
+ * it rather than with all the players in the maze. Each client remembers the
+ * region its snapshots were cut to, so a delta is exact even when the client
+ * has changed region since its baseline. The snapshot is the same for every
+ * client, so a delta only depends on the client's region, and on the tick it
+ * acknowledged and that tick's region; each is encoded once and its bytes are
+ * shared by all the clients it fits. A client still taking an earlier
+ * snapshot off the socket is skipped for the tick; its next delta is against
+ * what it acknowledged, so it misses the positions between, but nothing else.
+ * <p>
+ * The protocol, with ints big-endian and varints as WorldSnapshot writes them:
+ * <p>
+ * Client to server, INPUT_SIZE bytes each: INPUT, the CONTROL_ bits held, and
+ * the last tick decoded as an int, or 0 to ask for a full snapshot.
+ * <p>
+ * Server to client, each a varint length and then: WELCOME, the client's slot,
+ * the tick rate, and the maze rows and columns, as varints; or SNAPSHOT, the
+ * tick and how many ticks before it the baseline is (0 for none) as varints,
+ * then the delta.
+ * <p>
+ * The server listens on the loopback address only. Usage: MazeServer mazefile [port [tickrate]]
+ */
+public class MazeServer {
+
+    //The port listened on by default, and the connections waiting to be accepted
+    static final int DEFAULT_PORT = 7373;
+    static final int BACKLOG = 1024;
+    //The ticks per second by default, the snapshots kept to send deltas against, and the most ticks run at once to catch up
+    static final int DEFAULT_TICK_RATE = 30;
+    static final int HISTORY = 32;
+    static final int MAX_CATCH_UP = Simulation.MAX_CATCH_UP;
+    //The most players by default
+    static final int DEFAULT_MAX_PLAYERS = 8192;
+    //The side of a region, in cells, and how many regions each way from its own a client is sent the players of
+    static final int REGION_SIZE = 32;
+    static final int INTEREST_REGIONS = 1;
+
+    //The message types
+    static final byte INPUT = 1;
+    static final byte WELCOME = 2;
+    static final byte SNAPSHOT = 3;
+    //The size of an input message: type, controls, acknowledged tick
+    static final int INPUT_SIZE = 6;
+
+    //The controls a client can hold
+    static final int CONTROL_FORWARD = 1;
+    static final int CONTROL_BACKWARD = 2;
+    static final int CONTROL_LEFT = 4;
+    static final int CONTROL_RIGHT = 8;
+
+    private final MazeGrid grid;
+    private final MazeCollider collider;
+    private final float startX, startZ;
+    private final int rows, cols, regionRows, regionCols;
+    //Where new players are put, when not at the start cell
+    private Random spawns;
+    private final int tickRate;
+    private final long tickNanos;
+    private final float tickSeconds;
+
+    //The players, by slot: their position, angle and controls held, and their client, or null for a free slot
+    private final float[] xs, zs, angles;
+    private final int[] controls;
+    private final Connection[] connections;
+    //The slots below this can be in use
+    private int slots;
+    private final float[] moved = new float[3];
+
+    //The snapshots of the last HISTORY ticks, by tick modulo HISTORY, and this tick's deltas by region, baseline region and age
+    private final WorldSnapshot[] history = new WorldSnapshot[HISTORY];
+    private final Map<Long, ByteBuffer> deltas = new HashMap<Long, ByteBuffer>();
+    private final ByteBuffer scratch;
+    //The areas a delta is cut to, and that of its baseline
+    private final int[] area = new int[4], baselineArea = new int[4];
+    //The ticks run, and when each of the last HISTORY of them started, from System.nanoTime()
+    private volatile long tick;
+    private final AtomicLongArray tickStarts = new AtomicLongArray(HISTORY);
+
+    //How long each tick took to run, and how long after it was due it had been sent to every client
+    private final LatencyHistogram tickTimes = new LatencyHistogram();
+    private final LatencyHistogram tickLatencies = new LatencyHistogram();
+    //The traffic; only written by the server thread
+    private volatile long bytesSent, bytesReceived, snapshotsSent, fullSnapshots, snapshotsSkipped, deltasEncoded;
+    private volatile int clients;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * A client, and what it has acknowledged and is being sent
+     */
+    private static class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final int slot;
+        final ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE * 16);
+        //The last tick the client decoded, or 0, and the message it is being sent, or null
+        long acked;
+        ByteBuffer sending;
+        //The region each of the last HISTORY ticks sent was cut to, by tick modulo HISTORY
+        final int[] sentRegions = new int[HISTORY];
+
+        Connection(SocketChannel channel, SelectionKey key, int slot) {
+            this.channel = channel;
+            this.key = key;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * Create a server for a maze; it does not listen until started
+     *
+     * @param grid       The maze
+     * @param tickRate   The ticks per second
+     * @param maxPlayers The most players at once
+     */
+    public MazeServer(MazeGrid grid, int tickRate, int maxPlayers) {
+        this.grid = grid;
+        this.collider = new MazeCollider(grid, MazeCollider.PLAYER_RADIUS);
+        this.rows = grid.getRows();
+        this.cols = grid.getCols();
+        this.regionRows = (rows + REGION_SIZE - 1) / REGION_SIZE;
+        this.regionCols = (cols + REGION_SIZE - 1) / REGION_SIZE;
+        this.startX = grid.getStart() >= 0 ? grid.getStart() / cols : 1;
+        this.startZ = grid.getStart() >= 0 ? grid.getStart() % cols : 1;
+        this.tickRate = tickRate;
+        this.tickNanos = 1000000000L / tickRate;
+        this.tickSeconds = 1.0f / tickRate;
+        xs = new float[maxPlayers];
+        zs = new float[maxPlayers];
+        angles = new float[maxPlayers];
+        controls = new int[maxPlayers];
+        connections = new Connection[maxPlayers];
+        for (int h = 0; h < HISTORY; h++) history[h] = new WorldSnapshot();
+        //The header, and every player joining
+        scratch = ByteBuffer.allocate(32 + maxPlayers * 21);
+    }
+
+    /**
+     * Put new players in random open cells instead of at the start, as if they had
+     * been playing for a while; for load tests
+     *
+     * @param seed The seed of the random cells
+     */
+    void setRandomSpawns(long seed) {
+        spawns = grid.getCellCount() > 0 ? new Random(seed) : null;
+    }
+
+    /**
+     * Listen for clients on the loopback address, and start ticking
+     *
+     * @param port The port, or 0 for any free one
+     * @return The port listened on
+     * @throws IOException If the port cannot be listened on
+     */
+    public synchronized int start(int port) throws IOException {
+        if (thread != null) return serverChannel.socket().getLocalPort();
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "maze-server");
+        thread.start();
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Disconnect every client and stop
+     */
+    public void stop() {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+            running = false;
+        }
+        if (stopping == null) return;
+        selector.wakeup();
+        try {
+            stopping.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //The loop of the server thread: handle the sockets until the next tick is due, then run it
+    private void serve() {
+        long due = System.nanoTime() + tickNanos;
+        try {
+            while (running) {
+                long wait = due - System.nanoTime();
+                if (wait >= 1000000) selector.select(wait / 1000000);
+                else selector.selectNow();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        //Take every client waiting, so the queue does not overflow while ticks run
+                        while (accept()) ;
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) send(connection);
+                    } catch (IOException ex) {
+                        disconnect(connection);
+                    }
+                }
+                long now = System.nanoTime();
+                if (now >= due) {
+                    //Drop the time the server cannot catch up on
+                    if (now - due > MAX_CATCH_UP * tickNanos) due = now;
+                    tick(due);
+                    due += tickNanos;
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Failed to serve the maze\n" + ex.toString());
+        } finally {
+            for (int slot = 0; slot < slots; slot++) {
+                if (connections[slot] != null) disconnect(connections[slot]);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ex) {
+                System.out.println("Failed to close the server\n" + ex.toString());
+            }
+        }
+    }
+
+    //Take a new client, put its player at the start and welcome it; false if none was waiting
+    private boolean accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return false;
+        int slot = 0;
+        while (slot < connections.length && connections[slot] != null) slot++;
+        if (slot == connections.length) {
+            System.out.println("Refused a client: the maze is full");
+            channel.close();
+            return true;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel, channel.register(selector, SelectionKey.OP_READ), slot);
+        connection.key.attach(connection);
+        connections[slot] = connection;
+        slots = Math.max(slots, slot + 1);
+        clients++;
+        xs[slot] = startX;
+        zs[slot] = startZ;
+        if (spawns != null) {
+            int cell;
+            do {
+                cell = spawns.nextInt(rows * cols);
+            } while (!grid.isOpen(cell));
+            xs[slot] = cell / cols;
+            zs[slot] = cell % cols;
+        }
+        angles[slot] = 0;
+        controls[slot] = 0;
+
+        ByteBuffer welcome = ByteBuffer.allocate(32);
+        welcome.position(1);
+        welcome.put(WELCOME);
+        WorldSnapshot.writeVarint(welcome, slot);
+        WorldSnapshot.writeVarint(welcome, tickRate);
+        WorldSnapshot.writeVarint(welcome, rows);
+        WorldSnapshot.writeVarint(welcome, cols);
+        //The length fits in the byte left for it
+        welcome.put(0, (byte) (welcome.position() - 1));
+        welcome.flip();
+        connection.sending = welcome;
+        try {
+            send(connection);
+        } catch (IOException ex) {
+            disconnect(connection);
+        }
+        return true;
+    }
+
+    //Read a client's input, keeping the latest controls and acknowledgement
+    private void read(Connection connection) throws IOException {
+        int read = connection.channel.read(connection.input);
+        if (read < 0) throw new IOException("Closed by the client");
+        bytesReceived += read;
+        ByteBuffer input = connection.input;
+        input.flip();
+        while (input.remaining() >= INPUT_SIZE) {
+            if (input.get() != INPUT) throw new IOException("Not an input message");
+            controls[connection.slot] = input.get();
+            long acked = input.getInt() & 0xFFFFFFFFL;
+            //Only ticks the client can have been sent; 0 asks for a full snapshot
+            if (acked <= tick) connection.acked = acked;
+        }
+        input.compact();
+    }
+
+    //Send what is left of a client's message, and wait for the socket if it does not all go
+    private void send(Connection connection) throws IOException {
+        bytesSent += connection.channel.write(connection.sending);
+        if (connection.sending.hasRemaining()) {
+            connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            connection.sending = null;
+            if ((connection.key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                connection.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private void disconnect(Connection connection) {
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ex) {
+            //Closed either way
+        }
+        if (connections[connection.slot] == connection) {
+            connections[connection.slot] = null;
+            clients--;
+            while (slots > 0 && connections[slots - 1] == null) slots--;
+        }
+    }
+
+    //Move the players, keep their snapshot, and send each client its delta
+    private void tick(long due) {
+        long started = System.nanoTime();
+        long now = ++tick;
+        tickStarts.set((int) (now % HISTORY), started);
+        WorldSnapshot snapshot = history[(int) (now % HISTORY)];
+        snapshot.clear(now);
+        for (int slot = 0; slot < slots; slot++) {
+            if (connections[slot] == null) continue;
+            int held = controls[slot];
+            float speed = (held & CONTROL_FORWARD) != 0 ? Simulation.MOVE_SPEED
+                    : (held & CONTROL_BACKWARD) != 0 ? -Simulation.MOVE_SPEED : 0;
+            float turn = (held & CONTROL_LEFT) != 0 ? Simulation.TURN_SPEED
+                    : (held & CONTROL_RIGHT) != 0 ? -Simulation.TURN_SPEED : 0;
+            Simulation.step(collider, xs[slot], zs[slot], angles[slot], speed, turn, tickSeconds, moved);
+            xs[slot] = moved[0];
+            zs[slot] = moved[1];
+            //Keep the angle in one turn, as it is sent
+            angles[slot] = (float) (moved[2] - 2 * Math.PI * Math.floor(moved[2] / (2 * Math.PI)));
+            snapshot.set(slot, xs[slot], zs[slot], angles[slot]);
+        }
+
+        deltas.clear();
+        for (int slot = 0; slot < slots; slot++) {
+            Connection connection = connections[slot];
+            if (connection == null) continue;
+            if (connection.sending != null) {
+                snapshotsSkipped++;
+                continue;
+            }
+            int region = regionOf(xs[slot], zs[slot]);
+            int back = connection.acked > 0 && now - connection.acked < HISTORY ? (int) (now - connection.acked) : 0;
+            int baselineRegion = back > 0 ? connection.sentRegions[(int) (connection.acked % HISTORY)] : 0;
+            Long key = ((long) region * regionRows * regionCols + baselineRegion) * HISTORY + back;
+            ByteBuffer delta = deltas.get(key);
+            if (delta == null) {
+                delta = encode(snapshot, back, region, baselineRegion);
+                deltas.put(key, delta);
+            }
+            connection.sentRegions[(int) (now % HISTORY)] = region;
+            connection.sending = delta.duplicate();
+            snapshotsSent++;
+            if (back == 0) fullSnapshots++;
+            try {
+                send(connection);
+            } catch (IOException ex) {
+                disconnect(connection);
+            }
+        }
+        long finished = System.nanoTime();
+        tickTimes.record(finished - started);
+        tickLatencies.record(finished - due);
+    }
+
+    //The region of a position; positions outside the maze are in the regions at its edge
+    private int regionOf(float x, float z) {
+        int i = Math.max(0, Math.min(regionRows - 1, (int) Math.floor((x + 0.5f) / REGION_SIZE)));
+        int j = Math.max(0, Math.min(regionCols - 1, (int) Math.floor((z + 0.5f) / REGION_SIZE)));
+        return i * regionCols + j;
+    }
+
+    //Set an area to the regions around a region, quantized; the regions at the edge of the maze reach on outside it
+    private void setArea(int region, int[] area) {
+        int i = region / regionCols, j = region % regionCols;
+        float scale = WorldSnapshot.POSITION_SCALE;
+        area[0] = i == 0 ? Integer.MIN_VALUE : Math.round(((i - INTEREST_REGIONS) * REGION_SIZE - 0.5f) * scale);
+        area[1] = j == 0 ? Integer.MIN_VALUE : Math.round(((j - INTEREST_REGIONS) * REGION_SIZE - 0.5f) * scale);
+        area[2] = i == regionRows - 1 ? Integer.MAX_VALUE : Math.round(((i + INTEREST_REGIONS + 1) * REGION_SIZE - 0.5f) * scale);
+        area[3] = j == regionCols - 1 ? Integer.MAX_VALUE : Math.round(((j + INTEREST_REGIONS + 1) * REGION_SIZE - 0.5f) * scale);
+    }
+
+    //Encode the message of a snapshot cut to a region, as a delta against the one some ticks before it, cut to its region
+    private ByteBuffer encode(WorldSnapshot snapshot, int back, int region, int baselineRegion) {
+        scratch.clear();
+        scratch.put(SNAPSHOT);
+        WorldSnapshot.writeVarint(scratch, snapshot.getTick());
+        WorldSnapshot.writeVarint(scratch, back);
+        setArea(region, area);
+        setArea(baselineRegion, baselineArea);
+        snapshot.writeDelta(back > 0 ? history[(int) ((snapshot.getTick() - back) % HISTORY)] : null, area, baselineArea,
+                scratch);
+        scratch.flip();
+        int length = scratch.remaining();
+        ByteBuffer message = ByteBuffer.allocate(WorldSnapshot.varintSize(length) + length);
+        WorldSnapshot.writeVarint(message, length);
+        message.put(scratch);
+        message.flip();
+        deltasEncoded++;
+        return message;
+    }
+
+    //The ticks run
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Get when a recent tick started
+     *
+     * @param tick The tick, one of the last HISTORY
+     * @return The time it started, from System.nanoTime(), or 0 if it is no longer kept
+     */
+    public long getTickStart(long tick) {
+        if (tick <= 0 || tick > this.tick || this.tick - tick >= HISTORY) return 0;
+        return tickStarts.get((int) (tick % HISTORY));
+    }
+
+    //The clients connected
+    public int getClients() {
+        return clients;
+    }
+
+    //How long each tick took to run
+    public LatencyHistogram getTickTimes() {
+        return tickTimes;
+    }
+
+    //How long after each tick was due it had been sent to every client
+    public LatencyHistogram getTickLatencies() {
+        return tickLatencies;
+    }
+
+    //The bytes written to the clients
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    //The bytes read from the clients
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    //The snapshots sent, those of them sent whole, and those not sent to a client still taking the one before
+    public long getSnapshotsSent() {
+        return snapshotsSent;
+    }
+
+    public long getFullSnapshots() {
+        return fullSnapshots;
+    }
+
+    public long getSnapshotsSkipped() {
+        return snapshotsSkipped;
+    }
+
+    //The deltas encoded; each is shared by the clients in the same region that acknowledged the same tick
+    public long getDeltasEncoded() {
+        return deltasEncoded;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: MazeServer mazefile [port [tickrate]]");
+            System.exit(1);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int tickRate = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TICK_RATE;
+        MazeServer server = new MazeServer(MazeLoader.LoadGrid(args[0]), tickRate, DEFAULT_MAX_PLAYERS);
+        System.out.println("Serving " + args[0] + " on port " + server.start(port) + " at " + tickRate + " ticks per second");
+    }
+}
@@ -0,0 +1,308 @@
+package joglmaze;
+
+import java.util.Arrays;
+
+/**
+ * MazeSolver, finds the shortest route between two cells of a maze
+ * <p>
+ * The searches work on flat cell indices in plain int arrays: where each cell
+ * was reached from, its distance from the start, a queue for the breadth-first
+ * searches and a binary heap for the best-first ones. The arrays are made once
+ * per solver and reused, so a search allocates nothing but the route it returns.
+ * <ul>
+ * <li>BFS, breadth-first search, for when nothing is known about the maze</li>
+ * <li>ASTAR, A* with the Manhattan distance to the goal</li>
+ * <li>JPS, jump point search for a 4-connected grid: the search runs straight
+ * along a corridor without stopping until it reaches a side opening, the goal
+ * or a dead end, so only junctions and corners are ever put on the heap</li>
+ * <li>BIDIRECTIONAL, breadth-first from both ends at once, one level of the
+ * smaller side at a time, which visits far fewer cells in very large mazes</li>
+ * </ul>
+ * All four find a shortest route. A solver is not safe to use from several
+ * threads at once; solve() is synchronized.
+ */
+public class MazeSolver {
+
+    /**
+     * The search algorithms
+     */
+    public enum Algorithm {
+        BFS,
+        ASTAR,
+        JPS,
+        BIDIRECTIONAL
+    }
+
+    //The maze being solved
+    private final MazeGrid grid;
+    private final int cols;
+    //The flat index step towards each wall, in the order of the MazeGrid WALL_ constants
+    private final int[] step;
+
+    //Where each cell was reached from, or -1; the second array is for the search back from the goal
+    private final int[] cameFrom;
+    private int[] cameFromBack;
+    //The distance of each cell from the start, for the best-first searches
+    private int[] cost;
+    //The breadth-first queues
+    private int[] queue, queueBack;
+    //The best-first open set: cells and their keys, as a binary heap
+    private int[] heapCells = new int[1024];
+    private int[] heapKeys = new int[1024];
+    private int heapSize;
+
+    //The number of cells taken off the queue or heap by the last search
+    private int expanded;
+
+    /**
+     * Create a solver for a maze
+     *
+     * @param grid The maze
+     */
+    public MazeSolver(MazeGrid grid) {
+        this.grid = grid;
+        this.cols = grid.getCols();
+        this.step = new int[]{-cols, cols, -1, 1};
+        this.cameFrom = new int[grid.getRows() * cols];
+    }
+
+    /**
+     * Find a shortest route between two cells
+     *
+     * @param start     The flat index of the start cell
+     * @param goal      The flat index of the goal cell
+     * @param algorithm The search to use
+     * @return The flat indices of the cells along the route, from start to goal, or null if there is none
+     */
+    public synchronized int[] solve(int start, int goal, Algorithm algorithm) {
+        expanded = 0;
+        if (!grid.isOpen(start) || !grid.isOpen(goal)) return null;
+        Arrays.fill(cameFrom, -1);
+        switch (algorithm) {
+            case BFS:
+                return breadthFirst(start, goal) ? route(start, goal) : null;
+            case ASTAR:
+                return bestFirst(start, goal, false) ? route(start, goal) : null;
+            case JPS:
+                return bestFirst(start, goal, true) ? route(start, goal) : null;
+            default:
+                return bidirectional(start, goal);
+        }
+    }
+
+    //The number of cells taken off the queue or heap by the last search
+    public int getExpanded() {
+        return expanded;
+    }
+
+    /**
+     * Reduce a route to the cells it turns at, as world positions
+     *
+     * @param route The flat indices of the cells along the route
+     * @param cols  The number of columns of the maze
+     * @return The x and z of the first cell, of every cell the route turns at, and of the last cell
+     */
+    public static float[] waypoints(int[] route, int cols) {
+        int count = 0;
+        for (int r = 0; r < route.length; r++) {
+            if (r == 0 || r == route.length - 1 || route[r] - route[r - 1] != route[r + 1] - route[r]) count++;
+        }
+        float[] points = new float[2 * count];
+        int p = 0;
+        for (int r = 0; r < route.length; r++) {
+            if (r == 0 || r == route.length - 1 || route[r] - route[r - 1] != route[r + 1] - route[r]) {
+                points[p++] = route[r] / cols;
+                points[p++] = route[r] % cols;
+            }
+        }
+        return points;
+    }
+
+    private boolean breadthFirst(int start, int goal) {
+        if (queue == null) queue = new int[cameFrom.length];
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        cameFrom[start] = start;
+        while (head < tail) {
+            int cell = queue[head++];
+            expanded++;
+            if (cell == goal) return true;
+            int walls = grid.getWalls(cell);
+            for (int side = 0; side < 4; side++) {
+                //Every cell on the edge of the maze has a wall there, so the neighbour is always inside
+                if ((walls & (1 << side)) != 0) continue;
+                int next = cell + step[side];
+                if (cameFrom[next] >= 0) continue;
+                cameFrom[next] = cell;
+                queue[tail++] = next;
+            }
+        }
+        return false;
+    }
+
+    //A*, or with jump set, A* over the junctions and corners only
+    private boolean bestFirst(int start, int goal, boolean jump) {
+        if (cost == null) cost = new int[cameFrom.length];
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        int goalI = goal / cols, goalJ = goal % cols;
+        heapSize = 0;
+        cost[start] = 0;
+        cameFrom[start] = start;
+        push(start, distance(start, goalI, goalJ));
+        while (heapSize > 0) {
+            int key = heapKeys[0], cell = pop();
+            //A cell pushed again with a lower cost leaves its old entry behind
+            if (key != cost[cell] + distance(cell, goalI, goalJ)) continue;
+            expanded++;
+            if (cell == goal) return true;
+            int walls = grid.getWalls(cell);
+            for (int side = 0; side < 4; side++) {
+                if ((walls & (1 << side)) != 0) continue;
+                int next = cell + step[side], length = 1;
+                if (jump) {
+                    //Run along the corridor to the next cell worth stopping at
+                    int across = side < 2 ? (1 << MazeGrid.WALL_MINUS_J) | (1 << MazeGrid.WALL_PLUS_J)
+                            : (1 << MazeGrid.WALL_MINUS_I) | (1 << MazeGrid.WALL_PLUS_I);
+                    int nextWalls = grid.getWalls(next);
+                    while (next != goal && (nextWalls & across) == across && (nextWalls & (1 << side)) == 0) {
+                        next += step[side];
+                        length++;
+                        nextWalls = grid.getWalls(next);
+                    }
+                    //A dead end is not worth stopping at
+                    if (next != goal && (nextWalls & across) == across) continue;
+                }
+                int nextCost = cost[cell] + length;
+                if (nextCost >= cost[next]) continue;
+                cost[next] = nextCost;
+                cameFrom[next] = cell;
+                push(next, nextCost + distance(next, goalI, goalJ));
+            }
+        }
+        return false;
+    }
+
+    private int[] bidirectional(int start, int goal) {
+        if (queue == null) queue = new int[cameFrom.length];
+        if (queueBack == null) queueBack = new int[cameFrom.length];
+        if (cameFromBack == null) cameFromBack = new int[cameFrom.length];
+        Arrays.fill(cameFromBack, -1);
+        if (start == goal) return new int[]{start};
+
+        int head = 0, tail = 0, headBack = 0, tailBack = 0;
+        queue[tail++] = start;
+        cameFrom[start] = start;
+        queueBack[tailBack++] = goal;
+        cameFromBack[goal] = goal;
+        while (head < tail && headBack < tailBack) {
+            //Expand a whole level of the smaller side; the first meeting is then on a shortest route
+            boolean forward = tail - head <= tailBack - headBack;
+            int[] levelQueue = forward ? queue : queueBack;
+            int[] mine = forward ? cameFrom : cameFromBack, theirs = forward ? cameFromBack : cameFrom;
+            int first = forward ? head : headBack, last = forward ? tail : tailBack, end = last;
+            for (int q = first; q < last; q++) {
+                int cell = levelQueue[q];
+                expanded++;
+                int walls = grid.getWalls(cell);
+                for (int side = 0; side < 4; side++) {
+                    if ((walls & (1 << side)) != 0) continue;
+                    int next = cell + step[side];
+                    if (theirs[next] >= 0) {
+                        return forward ? join(start, cell, next, goal) : join(start, next, cell, goal);
+                    }
+                    if (mine[next] >= 0) continue;
+                    mine[next] = cell;
+                    levelQueue[end++] = next;
+                }
+            }
+            if (forward) {
+                head = last;
+                tail = end;
+            } else {
+                headBack = last;
+                tailBack = end;
+            }
+        }
+        return null;
+    }
+
+    //The route from the start to a cell reached going forwards, then from a neighbouring cell reached going back to the goal
+    private int[] join(int start, int forwardCell, int backCell, int goal) {
+        int forwardLength = 1, backLength = 1;
+        for (int cell = forwardCell; cell != start; cell = cameFrom[cell]) forwardLength++;
+        for (int cell = backCell; cell != goal; cell = cameFromBack[cell]) backLength++;
+        int[] route = new int[forwardLength + backLength];
+        int r = forwardLength - 1;
+        for (int cell = forwardCell; ; cell = cameFrom[cell]) {
+            route[r--] = cell;
+            if (cell == start) break;
+        }
+        r = forwardLength;
+        for (int cell = backCell; ; cell = cameFromBack[cell]) {
+            route[r++] = cell;
+            if (cell == goal) break;
+        }
+        return route;
+    }
+
+    //Walk back from the goal to the start, filling in the straight runs between jump points
+    private int[] route(int start, int goal) {
+        int length = 1;
+        for (int cell = goal; cell != start; cell = cameFrom[cell]) {
+            int previous = cameFrom[cell];
+            length += previous / cols == cell / cols ? Math.abs(cell - previous) : Math.abs(cell - previous) / cols;
+        }
+        int[] route = new int[length];
+        int r = length - 1, cell = goal;
+        while (cell != start) {
+            int previous = cameFrom[cell];
+            int towards = previous / cols == cell / cols ? (previous > cell ? 1 : -1) : (previous > cell ? cols : -cols);
+            for (; cell != previous; cell += towards) route[r--] = cell;
+        }
+        route[0] = start;
+        return route;
+    }
+
+    //The Manhattan distance from a cell to the goal
+    private int distance(int cell, int goalI, int goalJ) {
+        int i = cell / cols;
+        return Math.abs(i - goalI) + Math.abs(cell - i * cols - goalJ);
+    }
+
+    //Add a cell to the heap
+    private void push(int cell, int key) {
+        if (heapSize == heapCells.length) {
+            heapCells = Arrays.copyOf(heapCells, heapSize * 2);
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+        }
+        int h = heapSize++;
+        while (h > 0) {
+            int parent = (h - 1) >>> 1;
+            if (heapKeys[parent] <= key) break;
+            heapCells[h] = heapCells[parent];
+            heapKeys[h] = heapKeys[parent];
+            h = parent;
+        }
+        heapCells[h] = cell;
+        heapKeys[h] = key;
+    }
+
+    //Take the cell with the smallest key off the heap
+    private int pop() {
+        int top = heapCells[0];
+        int cell = heapCells[--heapSize], key = heapKeys[heapSize];
+        int h = 0;
+        while (true) {
+            int child = 2 * h + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+            if (heapKeys[child] >= key) break;
+            heapCells[h] = heapCells[child];
+            heapKeys[h] = heapKeys[child];
+            h = child;
+        }
+        heapCells[h] = cell;
+        heapKeys[h] = key;
+        return top;
+    }
+}
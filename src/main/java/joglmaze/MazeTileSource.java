@@ -0,0 +1,40 @@
+package joglmaze;
+
+import java.io.IOException;
+
+/**
+ * MazeTileSource, a maze file that rectangles of the maze can be read from
+ * without loading the whole file
+ */
+public interface MazeTileSource {
+
+    //The number of rows (along x)
+    int getRows();
+
+    //The number of columns (along z)
+    int getCols();
+
+    //The flat index (i * cols + j) of the start cell, or -1 if there is none or it is not found yet
+    long getStart();
+
+    //The flat index (i * cols + j) of the end cell, or -1 if there is none or it is not found yet
+    long getEnd();
+
+    /**
+     * Read a rectangle of the maze into a grid, with the walls on its edges
+     * worked out from the cells just outside it. Safe to call from several threads.
+     *
+     * @param firstRow The first row (i) of the rectangle
+     * @param firstCol The first column (j) of the rectangle
+     * @param height   The number of rows
+     * @param width    The number of columns
+     * @return The grid of the rectangle, with (0, 0) at (firstRow, firstCol)
+     * @throws IOException If the file cannot be read
+     */
+    MazeGrid readTile(int firstRow, int firstCol, int height, int width) throws IOException;
+
+    /**
+     * Close the file
+     */
+    void close() throws IOException;
+}
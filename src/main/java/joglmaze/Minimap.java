@@ -0,0 +1,347 @@
+package joglmaze;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+/**
+ * Minimap, an overhead map of the maze in a corner of the window that fills in as the camera explores
+ * <p>
+ * The layout of the maze is drawn once into a texture through a framebuffer
+ * object, one texel per cell, or one per square of cells when the maze is too
+ * large for the texture; such a texel takes the colour of the most telling of
+ * its cells, so a lone open or explored cell still shows among closed ones.
+ * The cells around the camera are marked explored in a
+ * bit set as it moves, and the rectangle around the cells newly marked is drawn
+ * again into the texture, in their explored colour; moving within a cell marks
+ * nothing. Each frame the map is then one textured quad, showing the cells
+ * around the camera, and a marker for the camera, so what a frame costs does
+ * not depend on the size of the maze.
+ * <p>
+ * The map is drawn with north, towards -z, at the top, the way the maze would be
+ * seen from above.
+ */
+public class Minimap {
+
+    //The largest texture side, in texels; larger mazes put a square of cells in a texel
+    static final int MAX_TEXTURE_SIZE = 2048;
+    //How far from the camera's cell the cells are explored
+    static final int EXPLORE_RADIUS = 2;
+    //The cells shown across the map, and the size of the map and its distance from the window corner, in pixels
+    static final int VIEW_CELLS = 32;
+    static final int SIZE = 160;
+    static final int MARGIN = 8;
+    //The half length of the camera marker, in pixels
+    static final float MARKER_SIZE = 6.0f;
+
+    //The colours of the occupied cells, the open ones not explored yet, the explored ones, the start and the exit
+    static final float[] CLOSED_COLOUR = {0.0f, 0.0f, 0.0f, 0.6f};
+    static final float[] UNEXPLORED_COLOUR = {0.3f, 0.3f, 0.3f, 0.8f};
+    static final float[] EXPLORED_COLOUR = {0.85f, 0.85f, 0.85f, 0.9f};
+    static final float[] START_COLOUR = {1.0f, 1.0f, 0.0f, 0.9f};
+    static final float[] END_COLOUR = {0.0f, 1.0f, 0.0f, 0.9f};
+    static final float[] MARKER_COLOUR = {1.0f, 0.2f, 0.2f};
+    //The cell colours from the least to the most telling, which a texel of several cells shows
+    private static final float[][] COLOURS = {CLOSED_COLOUR, UNEXPLORED_COLOUR, EXPLORED_COLOUR, START_COLOUR, END_COLOUR};
+    private static final int CLOSED = 0;
+    private static final int UNEXPLORED = 1;
+    private static final int EXPLORED = 2;
+    private static final int START = 3;
+    private static final int END = 4;
+
+    private final MazeGrid grid;
+    //One bit per cell, set once the camera has been near it
+    private final long[] explored;
+    //The cell the camera was in when last explored from
+    private int lastCell = -1;
+    //The rectangle of cells explored but not yet drawn into the texture; empty when the last row is before the first
+    private int dirtyFirstI, dirtyFirstJ, dirtyLastI = -1, dirtyLastJ = -1;
+
+    //The cells along each side of a texel, the texture size, the texture and the framebuffer that draws into it
+    private int scale = 1, width, height;
+    private int texture = -1, framebuffer = -1;
+    //The framebuffer bound before drawing into the texture, to put back after
+    private final int[] boundFramebuffer = new int[1];
+
+    /**
+     * Create the map of a maze; nothing is explored yet
+     *
+     * @param grid The maze
+     */
+    public Minimap(MazeGrid grid) {
+        this.grid = grid;
+        this.explored = new long[(int) (((long) grid.getRows() * grid.getCols() + 63) >>> 6)];
+    }
+
+    /**
+     * Check whether the context can draw into a texture
+     *
+     * @param gl The openGL context
+     * @return True if framebuffer objects are available
+     */
+    public static boolean isSupported(GL2 gl) {
+        return gl.isFunctionAvailable("glGenFramebuffers") && gl.isFunctionAvailable("glFramebufferTexture2D");
+    }
+
+    /**
+     * Create the texture and its framebuffer, and draw the layout of the maze into it
+     *
+     * @param gl The openGL context
+     * @return True if the map is ready, false if the framebuffer could not be made
+     */
+    public boolean init(GL2 gl) {
+        //Fit the maze into the largest texture allowed, putting several cells in a texel if it has to
+        int[] maxSize = new int[1];
+        gl.glGetIntegerv(GL.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+        int limit = maxSize[0] > 0 ? Math.min(MAX_TEXTURE_SIZE, maxSize[0]) : MAX_TEXTURE_SIZE;
+        scale = (Math.max(grid.getRows(), grid.getCols()) + limit - 1) / limit;
+        width = (grid.getRows() + scale - 1) / scale;
+        height = (grid.getCols() + scale - 1) / scale;
+
+        int[] names = new int[1];
+        gl.glGenTextures(1, names, 0);
+        texture = names[0];
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
+        //Outside the maze the edge texels, which are occupied cells, carry on
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, width, height, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, boundFramebuffer, 0);
+        gl.glGenFramebuffers(1, names, 0);
+        framebuffer = names[0];
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer);
+        gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0, GL.GL_TEXTURE_2D, texture, 0);
+        int status = gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, boundFramebuffer[0]);
+        if (status != GL.GL_FRAMEBUFFER_COMPLETE) {
+            System.out.println("Failed to create the minimap framebuffer, status 0x" + Integer.toHexString(status));
+            dispose(gl);
+            return false;
+        }
+
+        //The layout: the occupied cells, with the runs of texels holding open cells of each texel row over them
+        beginPass(gl);
+        gl.glClearColor(CLOSED_COLOUR[0], CLOSED_COLOUR[1], CLOSED_COLOUR[2], CLOSED_COLOUR[3]);
+        gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+        gl.glColor4fv(UNEXPLORED_COLOUR, 0);
+        gl.glBegin(GL2.GL_QUADS);
+        for (int ti = 0; ti < width; ti++) {
+            for (int tj = 0; tj < height; tj++) {
+                if (texelColour(ti, tj) == CLOSED) continue;
+                int first = tj;
+                while (tj + 1 < height && texelColour(ti, tj + 1) != CLOSED) tj++;
+                gl.glVertex2f(ti * scale, first * scale);
+                gl.glVertex2f((ti + 1) * scale, first * scale);
+                gl.glVertex2f((ti + 1) * scale, (tj + 1) * scale);
+                gl.glVertex2f(ti * scale, (tj + 1) * scale);
+            }
+        }
+        gl.glEnd();
+        endPass(gl);
+        return true;
+    }
+
+    /**
+     * Mark the cells around the camera explored. Only does any work when the
+     * camera has moved into another cell.
+     *
+     * @param x The camera X position
+     * @param z The camera Z position
+     */
+    public void explore(float x, float z) {
+        int cameraI = Math.round(x), cameraJ = Math.round(z);
+        if (!grid.isOpen(cameraI, cameraJ)) return;
+        int cols = grid.getCols(), cell = cameraI * cols + cameraJ;
+        if (cell == lastCell) return;
+        lastCell = cell;
+        int lastI = Math.min(grid.getRows() - 1, cameraI + EXPLORE_RADIUS);
+        int lastJ = Math.min(cols - 1, cameraJ + EXPLORE_RADIUS);
+        for (int i = Math.max(0, cameraI - EXPLORE_RADIUS); i <= lastI; i++) {
+            for (int j = Math.max(0, cameraJ - EXPLORE_RADIUS); j <= lastJ; j++) {
+                int index = i * cols + j;
+                if (!grid.isOpen(index) || isExplored(index)) continue;
+                explored[index >>> 6] |= 1L << index;
+                if (dirtyLastI < dirtyFirstI) {
+                    dirtyFirstI = dirtyLastI = i;
+                    dirtyFirstJ = dirtyLastJ = j;
+                } else {
+                    dirtyFirstI = Math.min(dirtyFirstI, i);
+                    dirtyLastI = Math.max(dirtyLastI, i);
+                    dirtyFirstJ = Math.min(dirtyFirstJ, j);
+                    dirtyLastJ = Math.max(dirtyLastJ, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether a cell has been explored
+     *
+     * @param index The flat index of the cell
+     * @return True if the camera has been near the cell
+     */
+    public boolean isExplored(int index) {
+        return (explored[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Draw the texels of the cells explored since the last update into the
+     * texture. The rectangle drawn is at most the cells explored from one camera
+     * cell, unless the camera moved across several cells since the last update.
+     *
+     * @param gl The openGL context
+     * @return The number of draw calls made
+     */
+    public int update(GL2 gl) {
+        if (dirtyLastI < dirtyFirstI) return 0;
+        beginPass(gl);
+        gl.glBegin(GL2.GL_QUADS);
+        for (int ti = dirtyFirstI / scale; ti <= dirtyLastI / scale; ti++) {
+            for (int tj = dirtyFirstJ / scale; tj <= dirtyLastJ / scale; tj++) {
+                gl.glColor4fv(COLOURS[texelColour(ti, tj)], 0);
+                gl.glVertex2f(ti * scale, tj * scale);
+                gl.glVertex2f((ti + 1) * scale, tj * scale);
+                gl.glVertex2f((ti + 1) * scale, (tj + 1) * scale);
+                gl.glVertex2f(ti * scale, (tj + 1) * scale);
+            }
+        }
+        gl.glEnd();
+        endPass(gl);
+        dirtyLastI = dirtyFirstI - 1;
+        return 1;
+    }
+
+    //The colour of a cell on the map, one of the COLOURS
+    private int colourOf(int index) {
+        if (!grid.isOpen(index)) return CLOSED;
+        if (!isExplored(index)) return UNEXPLORED;
+        if (index == grid.getStart()) return START;
+        if (index == grid.getEnd()) return END;
+        return EXPLORED;
+    }
+
+    //The colour of a texel on the map: the most telling colour of the cells in it
+    private int texelColour(int ti, int tj) {
+        int cols = grid.getCols(), colour = CLOSED;
+        int lastI = Math.min(grid.getRows(), (ti + 1) * scale), lastJ = Math.min(cols, (tj + 1) * scale);
+        for (int i = ti * scale; i < lastI; i++) {
+            for (int j = tj * scale; j < lastJ; j++) {
+                colour = Math.max(colour, colourOf(i * cols + j));
+            }
+        }
+        return colour;
+    }
+
+    //Start drawing into the texture, with cell (i, j) covering the unit square at (i, j)
+    private void beginPass(GL2 gl) {
+        gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, boundFramebuffer, 0);
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer);
+        gl.glPushAttrib(GL2.GL_VIEWPORT_BIT | GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_COLOR_BUFFER_BIT);
+        gl.glViewport(0, 0, width, height);
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glDisable(GL2.GL_TEXTURE_2D);
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glDisable(GL2.GL_CULL_FACE);
+        gl.glDisable(GL2.GL_BLEND);
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(0, width * scale, 0, height * scale, -1, 1);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+    }
+
+    //Finish drawing into the texture, and go back to the framebuffer bound before
+    private void endPass(GL2 gl) {
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPopAttrib();
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, boundFramebuffer[0]);
+    }
+
+    /**
+     * Draw the map in the bottom right corner of the window, centred on the camera
+     *
+     * @param gl         The openGL context
+     * @param x          The camera X position
+     * @param z          The camera Z position
+     * @param angle      The camera angle
+     * @param viewWidth  The width of the window
+     * @param viewHeight The height of the window
+     * @return The number of draw calls made
+     */
+    public int draw(GL2 gl, float x, float z, float angle, int viewWidth, int viewHeight) {
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_TEXTURE_BIT);
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glDisable(GL2.GL_CULL_FACE);
+        gl.glEnable(GL2.GL_BLEND);
+        gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(0, viewWidth, 0, viewHeight, -1, 1);
+        gl.glMatrixMode(GL.GL_TEXTURE);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+
+        //The cells around the camera, with -z at the top
+        float left = viewWidth - MARGIN - SIZE, bottom = MARGIN;
+        float s = (x + 0.5f) / (width * scale), t = (z + 0.5f) / (height * scale);
+        float halfS = VIEW_CELLS * 0.5f / (width * scale), halfT = VIEW_CELLS * 0.5f / (height * scale);
+        gl.glEnable(GL.GL_TEXTURE_2D);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+        gl.glColor4f(1.0f, 1.0f, 1.0f, 1.0f);
+        gl.glBegin(GL2.GL_QUADS);
+        gl.glTexCoord2f(s - halfS, t + halfT);
+        gl.glVertex2f(left, bottom);
+        gl.glTexCoord2f(s + halfS, t + halfT);
+        gl.glVertex2f(left + SIZE, bottom);
+        gl.glTexCoord2f(s + halfS, t - halfT);
+        gl.glVertex2f(left + SIZE, bottom + SIZE);
+        gl.glTexCoord2f(s - halfS, t - halfT);
+        gl.glVertex2f(left, bottom + SIZE);
+        gl.glEnd();
+        gl.glDisable(GL.GL_TEXTURE_2D);
+
+        //The camera, an arrow in the middle pointing the way it looks
+        float centreX = left + SIZE * 0.5f, centreY = bottom + SIZE * 0.5f;
+        float forwardX = (float) Math.sin(angle), forwardY = (float) -Math.cos(angle);
+        gl.glColor3f(MARKER_COLOUR[0], MARKER_COLOUR[1], MARKER_COLOUR[2]);
+        gl.glBegin(GL.GL_TRIANGLES);
+        gl.glVertex2f(centreX + forwardX * MARKER_SIZE, centreY + forwardY * MARKER_SIZE);
+        gl.glVertex2f(centreX - (forwardX + forwardY) * MARKER_SIZE * 0.7f, centreY - (forwardY - forwardX) * MARKER_SIZE * 0.7f);
+        gl.glVertex2f(centreX - (forwardX - forwardY) * MARKER_SIZE * 0.7f, centreY - (forwardY + forwardX) * MARKER_SIZE * 0.7f);
+        gl.glEnd();
+
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL.GL_TEXTURE);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPopAttrib();
+        return 2;
+    }
+
+    /**
+     * Release the texture and the framebuffer
+     *
+     * @param gl The openGL context
+     */
+    public void dispose(GL2 gl) {
+        if (framebuffer >= 0) gl.glDeleteFramebuffers(1, new int[]{framebuffer}, 0);
+        if (texture >= 0) gl.glDeleteTextures(1, new int[]{texture}, 0);
+        framebuffer = -1;
+        texture = -1;
+    }
+}
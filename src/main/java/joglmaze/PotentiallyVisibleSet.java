@@ -0,0 +1,500 @@
+package joglmaze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * PotentiallyVisibleSet, the cells that can be seen from each cell of the maze
+ * <p>
+ * For every open cell, the cells with a clear line of sight through the maze
+ * layout, from anywhere in the cell to anywhere in theirs, are found once, and
+ * stored as run-length encoded lists of grid indices (first index, run length).
+ * Because corridors are straight, the runs are long and the whole set stays
+ * small. The set is cached next to the maze file so it only has to be computed
+ * the first time a maze is opened, and forMazeAsync() computes it off the GL
+ * thread, so a large maze can be drawn, frustum culled only, while it is found.
+ */
+public class PotentiallyVisibleSet {
+
+    //The file format of the cache
+    private static final int MAGIC = 0x4d505653;
+    private static final int VERSION = 2;
+
+    //The number of grid indices a fork/join task computes, and whose runs it packs together
+    private static final int TASK_SIZE = 256;
+
+    //The size of the grid the set was computed for
+    private final int rows;
+    private final int cols;
+    //For every grid index, where its runs start in the runs array (and where the next one's start)
+    private final int[] start;
+    //Pairs of (first grid index, length)
+    private final int[] runs;
+
+    private PotentiallyVisibleSet(int rows, int cols, int[] start, int[] runs) {
+        this.rows = rows;
+        this.cols = cols;
+        this.start = start;
+        this.runs = runs;
+    }
+
+    /**
+     * Start getting the visible set of a maze on a background thread, as forMaze()
+     *
+     * @param filename    The maze file; the cache is stored as filename.pvs
+     * @param grid        The maze grid, which must not change until the set is done
+     * @param maxDistance How far the camera can see, in cells
+     * @return The visible set of every cell of the maze, once it is done
+     */
+    public static Future<PotentiallyVisibleSet> forMazeAsync(final String filename, final MazeGrid grid,
+                                                             final float maxDistance) {
+        Callable<PotentiallyVisibleSet> load = new Callable<PotentiallyVisibleSet>() {
+            @Override
+            public PotentiallyVisibleSet call() {
+                return forMaze(filename, grid, maxDistance);
+            }
+        };
+        FutureTask<PotentiallyVisibleSet> task = new FutureTask<PotentiallyVisibleSet>(load);
+        Thread thread = new Thread(task, "visible-set-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Get the visible set of a maze, from its cache file if it is up to date,
+     * otherwise by computing it and writing the cache file.
+     *
+     * @param filename    The maze file; the cache is stored as filename.pvs
+     * @param grid        The maze grid
+     * @param maxDistance How far the camera can see, in cells
+     * @return The visible set of every cell of the maze
+     */
+    public static PotentiallyVisibleSet forMaze(String filename, MazeGrid grid, float maxDistance) {
+        File cacheFile = new File(filename + ".pvs");
+        long checksum;
+        try {
+            checksum = checksum(new File(filename));
+        } catch (IOException ex) {
+            System.out.println("Failed to read maze file for the visible set\n" + ex.toString());
+            return compute(grid, maxDistance);
+        }
+
+        if (cacheFile.exists()) {
+            try {
+                PotentiallyVisibleSet pvs = read(cacheFile, checksum, maxDistance);
+                if (pvs != null && pvs.rows == grid.getRows() && pvs.cols == grid.getCols()) return pvs;
+            } catch (IOException ex) {
+                System.out.println("Ignoring unreadable visible set cache\n" + ex.toString());
+            }
+        }
+
+        PotentiallyVisibleSet pvs = compute(grid, maxDistance);
+        try {
+            pvs.write(cacheFile, checksum, maxDistance);
+        } catch (IOException ex) {
+            System.out.println("Failed to write visible set cache\n" + ex.toString());
+        }
+        return pvs;
+    }
+
+    /**
+     * Compute the visible set of every open cell, in parallel over all cores
+     *
+     * @param grid        The maze grid
+     * @param maxDistance How far the camera can see, in cells
+     * @return The visible set of every cell of the maze
+     */
+    public static PotentiallyVisibleSet compute(final MazeGrid grid, final float maxDistance) {
+        int size = grid.getRows() * grid.getCols();
+        int chunks = (size + TASK_SIZE - 1) / TASK_SIZE;
+        //The runs of each chunk of TASK_SIZE cells, and where each cell's runs start in them
+        int[][] chunkRuns = new int[chunks][];
+        int[][] chunkStarts = new int[chunks][];
+
+        //Each worker thread keeps its own scratch arrays
+        ThreadLocal<SightFinder> finders = new ThreadLocal<SightFinder>() {
+            @Override
+            protected SightFinder initialValue() {
+                return new SightFinder(grid, maxDistance);
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new ComputeTask(grid, finders, chunkRuns, chunkStarts, 0, chunks));
+        } finally {
+            pool.shutdown();
+        }
+
+        //Pack the runs of every chunk into one array
+        int[] start = new int[size + 1];
+        int total = 0;
+        for (int c = 0; c < chunks; c++) total += chunkRuns[c].length;
+        int[] runs = new int[total];
+        total = 0;
+        for (int c = 0; c < chunks; c++) {
+            for (int index = c * TASK_SIZE; index < Math.min(size, (c + 1) * TASK_SIZE); index++) {
+                start[index] = total + chunkStarts[c][index - c * TASK_SIZE];
+            }
+            System.arraycopy(chunkRuns[c], 0, runs, total, chunkRuns[c].length);
+            total += chunkRuns[c].length;
+        }
+        start[size] = total;
+        return new PotentiallyVisibleSet(grid.getRows(), grid.getCols(), start, runs);
+    }
+
+    //Where the runs of a grid index start in getRuns()
+    public int getRunStart(int index) {
+        return start[index];
+    }
+
+    //Where the runs of a grid index end in getRuns()
+    public int getRunEnd(int index) {
+        return start[index + 1];
+    }
+
+    //The (first grid index, length) pairs of all cells
+    public int[] getRuns() {
+        return runs;
+    }
+
+    /**
+     * Count the cells visible from a cell
+     *
+     * @param index The grid index of the cell
+     * @return The number of cells in its visible set
+     */
+    public int countVisible(int index) {
+        int count = 0;
+        for (int r = start[index]; r < start[index + 1]; r += 2) {
+            count += runs[r + 1];
+        }
+        return count;
+    }
+
+    //The total number of ints used by the encoded runs
+    public int getEncodedSize() {
+        return runs.length;
+    }
+
+    /**
+     * Fork/join task computing the visible sets of a range of chunks of TASK_SIZE grid indices
+     */
+    private static class ComputeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final MazeGrid grid;
+        private final ThreadLocal<SightFinder> finders;
+        private final int[][] chunkRuns, chunkStarts;
+        private final int from, to;
+
+        ComputeTask(MazeGrid grid, ThreadLocal<SightFinder> finders, int[][] chunkRuns, int[][] chunkStarts,
+                    int from, int to) {
+            this.grid = grid;
+            this.finders = finders;
+            this.chunkRuns = chunkRuns;
+            this.chunkStarts = chunkStarts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ComputeTask(grid, finders, chunkRuns, chunkStarts, from, middle),
+                        new ComputeTask(grid, finders, chunkRuns, chunkStarts, middle, to));
+                return;
+            }
+            SightFinder finder = finders.get();
+            int first = from * TASK_SIZE, last = Math.min(grid.getRows() * grid.getCols(), first + TASK_SIZE);
+            int[] starts = new int[TASK_SIZE];
+            int[] runs = new int[256];
+            int size = 0;
+            for (int index = first; index < last; index++) {
+                starts[index - first] = size;
+                if (!grid.isOpen(index)) continue;
+                int length = finder.find(index);
+                if (size + length > runs.length) runs = Arrays.copyOf(runs, Math.max(runs.length * 2, size + length));
+                System.arraycopy(finder.getRuns(), 0, runs, size, length);
+                size += length;
+            }
+            chunkRuns[from] = Arrays.copyOf(runs, size);
+            chunkStarts[from] = starts;
+        }
+    }
+
+    /**
+     * Finds the visible set of one cell at a time, exactly, between the whole
+     * squares of the cells.
+     * <p>
+     * The lines of sight are swept out from the source cell in eight sweeps: along
+     * +i, -i, +j and -j, each for the lines sloping one way and the other, up to 45
+     * degrees. In a sweep's own coordinates (u along the sweep, v across it, the
+     * source at 0, 0) a line is v = m u + c with 0 &lt;= m &lt;= 1, a point (m, c) of
+     * line space. The lines through a cell's square then lie between two straight
+     * lines in line space, so the lines still unblocked are a set of convex polygons.
+     * The sweep starts with the lines through the whole source square and moves out
+     * a column of cells at a time: an open cell that any unblocked line passes
+     * through is visible, and the lines through the wall cells of the column are cut
+     * away before the next one. A cell is visible if a line from anywhere in the
+     * source square reaches anywhere in its square, so the set holds wherever the
+     * camera is in its cell. It is conservative in one way: within a column, a line
+     * that passes through a wall cell before an open one still counts the open one
+     * as seen. Lines that only touch a corner (a region of no area in line space)
+     * are not counted.
+     * <p>
+     * The scratch arrays cover only the cells within sight distance of the source,
+     * and are reused between cells.
+     */
+    private static class SightFinder {
+        //Areas of line space smaller than this are rounding errors around a single line
+        private static final double MIN_AREA = 1e-10;
+
+        private final MazeGrid grid;
+        private final float maxDistance;
+        //How far from the source a cell can be, in cells, and the side of the window of cells around it
+        private final int reach, side;
+        //The source cell each cell of the window was last found visible from
+        private final int[] marked;
+        private int[] found = new int[256];
+        private int[] encoded = new int[512];
+        private int count, source, si, sj;
+        //The unblocked lines, as convex polygons of (m, c) pairs, and the ones left after a column
+        private ArrayList<double[]> alive = new ArrayList<double[]>(), left = new ArrayList<double[]>();
+
+        SightFinder(MazeGrid grid, float maxDistance) {
+            this.grid = grid;
+            this.maxDistance = maxDistance;
+            this.reach = (int) Math.ceil(maxDistance) + 2;
+            this.side = 2 * reach + 1;
+            this.marked = new int[side * side];
+            Arrays.fill(marked, -1);
+        }
+
+        /**
+         * Find the cells visible from a cell, run-length encoded, see getRuns()
+         *
+         * @param source The grid index of the cell
+         * @return The number of ints of the encoded runs
+         */
+        int find(int source) {
+            this.source = source;
+            si = source / grid.getCols();
+            sj = source % grid.getCols();
+            count = 0;
+            mark(si, sj);
+            for (int sweep = 0; sweep < 8; sweep++) {
+                sweep((sweep & 1) != 0, (sweep & 2) != 0 ? -1 : 1, (sweep & 4) != 0 ? -1 : 1);
+            }
+
+            //Run-length encode the sorted grid indices
+            Arrays.sort(found, 0, count);
+            if (encoded.length < count * 2) encoded = new int[count * 2];
+            int size = 0;
+            for (int f = 0; f < count; f++) {
+                if (size > 0 && encoded[size - 2] + encoded[size - 1] == found[f]) {
+                    encoded[size - 1]++;
+                } else {
+                    encoded[size++] = found[f];
+                    encoded[size++] = 1;
+                }
+            }
+            return size;
+        }
+
+        //The runs of the last cell found, (first grid index, length) pairs
+        int[] getRuns() {
+            return encoded;
+        }
+
+        /**
+         * Sweep the lines of sight out from the source along one axis, and mark the cells they reach
+         *
+         * @param alongJ True to sweep along j, false along i
+         * @param su     The direction of the sweep along its axis
+         * @param sv     Which way across the axis the lines slope
+         */
+        private void sweep(boolean alongJ, int su, int sv) {
+            alive.clear();
+            //The lines through the source square: -0.5 - m/2 <= c <= 0.5 + m/2
+            double[] all = {0, -0.5, 1, -1, 1, 1, 0, 0.5};
+            //Leaving the source column, the lines that slope up have to get past the cell above the source
+            if (!isOpen(alongJ, su, sv, 0, 1)) all = clip(all, 0.5, 1, 0.5);
+            if (all != null) alive.add(all);
+
+            for (int u = 1; !alive.isEmpty() && u - 1 <= maxDistance; u++) {
+                //The cells of the column the unblocked lines pass through
+                double low = Double.MAX_VALUE, high = -Double.MAX_VALUE;
+                for (double[] piece : alive) {
+                    for (int p = 0; p < piece.length; p += 2) {
+                        low = Math.min(low, piece[p + 1] + piece[p] * (u - 0.5));
+                        high = Math.max(high, piece[p + 1] + piece[p] * (u + 0.5));
+                    }
+                }
+                int firstV = (int) Math.ceil(low - 0.5), lastV = (int) Math.floor(high + 0.5);
+                for (int v = firstV; v <= lastV; v++) {
+                    if (!isOpen(alongJ, su, sv, u, v) || !inReach(u, v)) continue;
+                    int i = alongJ ? si + sv * v : si + su * u, j = alongJ ? sj + su * u : sj + sv * v;
+                    if (marked[window(i, j)] != source && crosses(u, v)) mark(i, j);
+                }
+                //Cut away the lines through the walls of the column
+                for (int v = firstV; v <= lastV && !alive.isEmpty(); v++) {
+                    if (!isOpen(alongJ, su, sv, u, v)) block(u, v);
+                }
+            }
+        }
+
+        //Whether the cell at (u, v) of a sweep is open
+        private boolean isOpen(boolean alongJ, int su, int sv, int u, int v) {
+            return alongJ ? grid.isOpen(si + sv * v, sj + su * u) : grid.isOpen(si + su * u, sj + sv * v);
+        }
+
+        //Whether any part of the cell at (u, v) of a sweep is within sight distance of any part of the source
+        private boolean inReach(int u, int v) {
+            float du = Math.max(0, u - 1), dv = Math.max(0, Math.abs(v) - 1);
+            return du * du + dv * dv <= maxDistance * maxDistance;
+        }
+
+        //Add a cell to the visible set
+        private void mark(int i, int j) {
+            marked[window(i, j)] = source;
+            if (count == found.length) found = Arrays.copyOf(found, count * 2);
+            found[count++] = i * grid.getCols() + j;
+        }
+
+        //Where a cell near the source is in the window
+        private int window(int i, int j) {
+            return (i - si + reach) * side + (j - sj + reach);
+        }
+
+        /*
+         * The lines through the square of the cell at (u, v) are those with
+         * v - 0.5 - m (u + 0.5) <= c <= v + 0.5 - m (u - 0.5)
+         */
+
+        //Whether any unblocked line passes through the cell at (u, v)
+        private boolean crosses(int u, int v) {
+            for (double[] piece : alive) {
+                double[] through = clip(piece, u - 0.5, 1, v + 0.5);
+                if (through != null && clip(through, -(u + 0.5), -1, -(v - 0.5)) != null) return true;
+            }
+            return false;
+        }
+
+        //Cut the lines through the cell at (u, v) out of the unblocked lines
+        private void block(int u, int v) {
+            left.clear();
+            for (double[] piece : alive) {
+                double[] below = clip(piece, u + 0.5, 1, v - 0.5);
+                if (below != null) left.add(below);
+                double[] above = clip(piece, -(u - 0.5), -1, -(v + 0.5));
+                if (above != null) left.add(above);
+            }
+            ArrayList<double[]> swap = alive;
+            alive = left;
+            left = swap;
+        }
+
+        /**
+         * Clip a convex polygon of line space to the half plane a m + b c &lt;= d
+         *
+         * @return The clipped polygon, or null if it has no area left
+         */
+        private static double[] clip(double[] polygon, double a, double b, double d) {
+            double[] out = new double[polygon.length + 2];
+            int size = 0;
+            int points = polygon.length / 2;
+            for (int p = 0; p < points; p++) {
+                double m0 = polygon[2 * p], c0 = polygon[2 * p + 1];
+                int q = (p + 1) % points;
+                double m1 = polygon[2 * q], c1 = polygon[2 * q + 1];
+                double e0 = a * m0 + b * c0 - d, e1 = a * m1 + b * c1 - d;
+                if (e0 <= 0) {
+                    if (size + 2 > out.length) out = Arrays.copyOf(out, out.length * 2);
+                    out[size++] = m0;
+                    out[size++] = c0;
+                }
+                if ((e0 < 0 && e1 > 0) || (e0 > 0 && e1 < 0)) {
+                    double t = e0 / (e0 - e1);
+                    if (size + 2 > out.length) out = Arrays.copyOf(out, out.length * 2);
+                    out[size++] = m0 + (m1 - m0) * t;
+                    out[size++] = c0 + (c1 - c0) * t;
+                }
+            }
+            if (size < 6) return null;
+            //The shoelace formula
+            double area = 0;
+            for (int p = 0; p < size; p += 2) {
+                int q = (p + 2) % size;
+                area += out[p] * out[q + 1] - out[q] * out[p + 1];
+            }
+            if (Math.abs(area) / 2 < MIN_AREA) return null;
+            return size == out.length ? out : Arrays.copyOf(out, size);
+        }
+    }
+
+    //Checksum of the maze file, so a changed maze does not use a stale cache
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) > 0) crc.update(buffer, 0, read);
+        } finally {
+            input.close();
+        }
+        return crc.getValue();
+    }
+
+    //Write the set to a cache file
+    private void write(File file, long checksum, float maxDistance) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(checksum);
+            output.writeFloat(maxDistance);
+            output.writeInt(rows);
+            output.writeInt(cols);
+            output.writeInt(runs.length);
+            for (int s : start) output.writeInt(s);
+            for (int r : runs) output.writeInt(r);
+        } finally {
+            output.close();
+        }
+    }
+
+    //Read a set from a cache file, or return null if it belongs to a different maze or version
+    private static PotentiallyVisibleSet read(File file, long checksum, float maxDistance) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) return null;
+            if (input.readLong() != checksum || input.readFloat() != maxDistance) return null;
+            int rows = input.readInt();
+            int cols = input.readInt();
+            int[] start = new int[rows * cols + 1];
+            int[] runs = new int[input.readInt()];
+            for (int s = 0; s < start.length; s++) start[s] = input.readInt();
+            for (int r = 0; r < runs.length; r++) runs[r] = input.readInt();
+            return new PotentiallyVisibleSet(rows, cols, start, runs);
+        } finally {
+            input.close();
+        }
+    }
+}
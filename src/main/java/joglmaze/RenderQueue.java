@@ -0,0 +1,251 @@
+package joglmaze;
+
+import java.util.Arrays;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+/**
+ * RenderQueue, collects the parts of a frame and draws them grouped by state
+ * <p>
+ * Scene objects submit draw items: the shader, texture layer and material the
+ * item needs, the cell it is in, and the object and part that draw it. Once per
+ * frame the queue is sorted on that state, shader first, then texture layer, then
+ * material, and flushed, setting each state only when it differs from the item
+ * before. Submitting and sorting touch no GL state, so they can be done on
+ * another thread than the flush, as long as the queue is handed over safely.
+ * The sort is a stable counting sort into preallocated arrays, so items with
+ * the same state keep their submission order and stay grouped by cell, and a
+ * frame allocates nothing once the arrays have grown to the scene.
+ * <p>
+ * Moving on to another cell calls the Placement, which puts the cell's lamps
+ * there. Each shader, texture layer, material or placement switch is counted as
+ * one state change, as are the switches the same items would have needed in the
+ * order they were submitted, so getStateChangesSaved() is what the sort saved.
+ * <p>
+ * The state before and after a flush is no shader and the default material;
+ * the texture is left as the last item had it.
+ */
+public class RenderQueue {
+
+    //The texture layer of items drawn without a texture
+    static final int NO_TEXTURE = -1;
+
+    //The materials: the ambient, diffuse, emission and specular colours and the shininess
+    static final int DEFAULT_MATERIAL = 0;
+    static final int START_MATERIAL = 1;
+    static final int END_MATERIAL = 2;
+    static final float[][][] MATERIALS = {
+            {{0.8f, 0.8f, 0.8f, 1.0f}, {0.8f, 0.8f, 0.8f, 1.0f}, {0.0f, 0.0f, 0.0f, 1.0f}, {0.2f, 0.2f, 0.2f, 0.2f}, {50.0f}},
+            {{0.8f, 0.8f, 0.0f, 1.0f}, {1.0f, 1.0f, 0.0f, 1.0f}, {0.5f, 0.5f, 0.0f, 1.0f}, {1.0f, 1.0f, 1.0f, 1.0f}, {60.0f}},
+            {{0.0f, 0.2f, 0.0f, 1.0f}, {0.0f, 1.0f, 0.0f, 1.0f}, {0.0f, 0.1f, 0.0f, 1.0f}, {1.0f, 1.0f, 1.0f, 1.0f}, {20.0f}}};
+
+    //The state of an item packed into an int: shader, texture layer + 1, material
+    private static final int MATERIAL_BITS = 4;
+    private static final int TEXTURE_BITS = 8;
+    private static final int TEXTURE_SHIFT = MATERIAL_BITS;
+    private static final int SHADER_SHIFT = MATERIAL_BITS + TEXTURE_BITS;
+    private static final int STATES = 1 << (SHADER_SHIFT + 1);
+
+    /**
+     * Placement, sets the per-cell state when the queue moves on to another cell
+     */
+    public interface Placement {
+        /**
+         * Set up the state of a cell; the modelview matrix is at the cell origin
+         *
+         * @param gl     The openGL context
+         * @param x      The cell X position
+         * @param z      The cell Z position
+         * @param shader Whether the lighting shader is in use
+         */
+        void place(GL2 gl, float x, float z, boolean shader);
+    }
+
+    //The items of the frame: packed state, cell position, object and part
+    private int count;
+    private int[] states = new int[1024];
+    private float[] xs = new float[1024], zs = new float[1024];
+    private Renderable[] objects = new Renderable[1024];
+    private int[] parts = new int[1024];
+    //The items in drawing order, and the start of each state in it
+    private int[] order = new int[1024];
+    private final int[] starts = new int[STATES + 1];
+
+    //The state changes the submission order would need, and those of the last flush
+    private int unsortedChanges, stateChanges;
+
+    /**
+     * Start collecting a new frame
+     */
+    public void clear() {
+        for (int i = 0; i < count; i++) objects[i] = null;
+        count = 0;
+    }
+
+    /**
+     * Add an item to draw
+     *
+     * @param shader   Whether the item is lit by the lighting shader
+     * @param layer    The texture atlas layer, or NO_TEXTURE
+     * @param material The material, one of the _MATERIAL constants
+     * @param x        The X position of the item's cell
+     * @param z        The Z position of the item's cell
+     * @param object   The object that draws the item
+     * @param part     Which part of the object the item is
+     */
+    public void submit(boolean shader, int layer, int material, float x, float z, Renderable object, int part) {
+        if (count == states.length) grow();
+        states[count] = (shader ? 1 << SHADER_SHIFT : 0) | ((layer + 1) << TEXTURE_SHIFT) | material;
+        xs[count] = x;
+        zs[count] = z;
+        objects[count] = object;
+        parts[count] = part;
+        count++;
+    }
+
+    /**
+     * Sort the items by state, once they have all been submitted
+     */
+    public void sort() {
+        //What drawing in submission order would cost
+        unsortedChanges = 0;
+        for (int i = 0; i < count; i++) {
+            unsortedChanges += changes(i > 0 ? states[i - 1] : -1, states[i]);
+            if (i == 0 || xs[i] != xs[i - 1] || zs[i] != zs[i - 1] || shaderOn(states[i]) != shaderOn(states[i - 1])) {
+                unsortedChanges++;
+            }
+        }
+        if (count > 0) unsortedChanges += changes(states[count - 1], DEFAULT_MATERIAL);
+
+        //Counting sort on the state, stable so that the items of a cell stay together
+        Arrays.fill(starts, 0);
+        for (int i = 0; i < count; i++) starts[states[i] + 1]++;
+        for (int s = 0; s < STATES; s++) starts[s + 1] += starts[s];
+        for (int i = 0; i < count; i++) order[starts[states[i]]++] = i;
+    }
+
+    /**
+     * Draw the items in the order sort() put them in
+     *
+     * @param gl        The openGL context
+     * @param atlas     The texture atlas, bound; may be null if no item is textured
+     * @param lighting  The lighting shader; may be null if no item uses it
+     * @param placement Sets up each cell's state
+     * @return The number of draw calls made, one per item
+     */
+    public int flush(GL2 gl, TextureAtlas atlas, LightingShader lighting, Placement placement) {
+        stateChanges = 0;
+        int current = -1;
+        float placedX = Float.NaN, placedZ = Float.NaN;
+        for (int o = 0; o < count; o++) {
+            int item = order[o], state = states[item];
+            if (state != current) {
+                stateChanges += apply(gl, atlas, lighting, current, state);
+                //The cell state may depend on the shader, so place the cell again
+                if (current < 0 || shaderOn(current) != shaderOn(state)) placedX = Float.NaN;
+                current = state;
+            }
+            gl.glPushMatrix();
+            gl.glTranslatef(xs[item], 0.0f, zs[item]);
+            if (xs[item] != placedX || zs[item] != placedZ) {
+                placement.place(gl, xs[item], zs[item], shaderOn(state));
+                placedX = xs[item];
+                placedZ = zs[item];
+                stateChanges++;
+            }
+            objects[item].render(gl, parts[item]);
+            gl.glPopMatrix();
+        }
+        if (count > 0) stateChanges += apply(gl, atlas, lighting, current, DEFAULT_MATERIAL);
+        return count;
+    }
+
+    //Move from one state to another, returning the number of switches made; from -1 everything is set
+    private static int apply(GL2 gl, TextureAtlas atlas, LightingShader lighting, int from, int to) {
+        int switches = 0;
+        if (from < 0 || shaderOn(from) != shaderOn(to)) {
+            //Nothing uses the shader before the first item
+            if (shaderOn(to)) lighting.use(gl);
+            else if (from >= 0) lighting.release(gl);
+            if (from >= 0 || shaderOn(to)) switches++;
+        }
+        int texture = (to >>> TEXTURE_SHIFT) & ((1 << TEXTURE_BITS) - 1);
+        //The last item leaves the texture as it is
+        if (to != DEFAULT_MATERIAL || from < 0) {
+            if (from < 0 || texture != ((from >>> TEXTURE_SHIFT) & ((1 << TEXTURE_BITS) - 1))) {
+                if (texture == 0) {
+                    gl.glDisable(GL.GL_TEXTURE_2D);
+                } else {
+                    gl.glEnable(GL.GL_TEXTURE_2D);
+                    atlas.selectLayer(gl, texture - 1);
+                }
+                switches++;
+            }
+        }
+        int material = to & ((1 << MATERIAL_BITS) - 1);
+        //The default material is in place before the first item
+        int fromMaterial = from < 0 ? DEFAULT_MATERIAL : from & ((1 << MATERIAL_BITS) - 1);
+        if (material != fromMaterial) {
+            setMaterial(gl, MATERIALS[material]);
+            switches++;
+        }
+        return switches;
+    }
+
+    //The number of switches between two states, counted the same way as apply()
+    private static int changes(int from, int to) {
+        int switches = 0;
+        if (from < 0 ? shaderOn(to) : shaderOn(from) != shaderOn(to)) switches++;
+        int texture = (to >>> TEXTURE_SHIFT) & ((1 << TEXTURE_BITS) - 1);
+        if (to != DEFAULT_MATERIAL || from < 0) {
+            if (from < 0 || texture != ((from >>> TEXTURE_SHIFT) & ((1 << TEXTURE_BITS) - 1))) switches++;
+        }
+        int fromMaterial = from < 0 ? DEFAULT_MATERIAL : from & ((1 << MATERIAL_BITS) - 1);
+        if ((to & ((1 << MATERIAL_BITS) - 1)) != fromMaterial) switches++;
+        return switches;
+    }
+
+    private static boolean shaderOn(int state) {
+        return (state >>> SHADER_SHIFT) != 0;
+    }
+
+    /**
+     * Set the front material
+     *
+     * @param gl       The openGL context
+     * @param material The ambient, diffuse, emission and specular colours and the shininess
+     */
+    static void setMaterial(GL2 gl, float[][] material) {
+        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_AMBIENT, material[0], 0);
+        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_DIFFUSE, material[1], 0);
+        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_EMISSION, material[2], 0);
+        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SPECULAR, material[3], 0);
+        gl.glMaterialfv(GL.GL_FRONT, GL2.GL_SHININESS, material[4], 0);
+    }
+
+    private void grow() {
+        int capacity = states.length * 2;
+        states = Arrays.copyOf(states, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        objects = Arrays.copyOf(objects, capacity);
+        parts = Arrays.copyOf(parts, capacity);
+        order = new int[capacity];
+    }
+
+    //The number of items submitted for the frame
+    public int getCount() {
+        return count;
+    }
+
+    //The state changes made by the last flush
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    //The state changes the last flush saved over drawing the items in the order they were submitted
+    public int getStateChangesSaved() {
+        return unsortedChanges - stateChanges;
+    }
+}
@@ -0,0 +1,21 @@
+package joglmaze;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Renderable, a scene object that the render queue draws one part at a time
+ * <p>
+ * The queue has already set the shader, texture layer and material the part
+ * was submitted with, and moved the modelview matrix to the part's cell, so a
+ * part only issues its own geometry.
+ */
+public interface Renderable {
+
+    /**
+     * Draw one part of the object
+     *
+     * @param gl   The openGL context
+     * @param part The part, as it was submitted
+     */
+    void render(GL2 gl, int part);
+}
@@ -0,0 +1,74 @@
+package joglmaze;
+
+import javax.media.opengl.GL2;
+
+/**
+ * RouteOverlay, draws a route through the maze as a line along the floor
+ * <p>
+ * The route is given as the points it turns at, from any thread. It is compiled
+ * into a display list the next time it is drawn, so a frame with the same route
+ * only calls the list. The line is depth tested, so the walls hide the parts of
+ * the route behind them.
+ */
+public class RouteOverlay {
+
+    //The height of the line, just above the floor
+    static final float HEIGHT = -0.45f;
+    static final float LINE_WIDTH = 3.0f;
+    static final float[] COLOUR = {0.2f, 1.0f, 0.4f};
+
+    //The route waiting to be drawn, and the one compiled into the list
+    private volatile float[] waypoints;
+    private float[] compiled;
+    private int list = -1;
+
+    /**
+     * Set the route to draw
+     *
+     * @param waypoints The x and z of each point the route turns at, or null for no route
+     */
+    public void set(float[] waypoints) {
+        this.waypoints = waypoints;
+    }
+
+    /**
+     * Draw the route, compiling it first if it has changed
+     *
+     * @param gl The GL context
+     * @return The number of draw calls made
+     */
+    public int draw(GL2 gl) {
+        float[] points = waypoints;
+        if (points == null) return 0;
+        if (points != compiled) {
+            if (list < 0) list = gl.glGenLists(1);
+            gl.glNewList(list, GL2.GL_COMPILE);
+            gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_LINE_BIT);
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glDisable(GL2.GL_TEXTURE_2D);
+            gl.glLineWidth(LINE_WIDTH);
+            gl.glColor3f(COLOUR[0], COLOUR[1], COLOUR[2]);
+            gl.glBegin(GL2.GL_LINE_STRIP);
+            for (int p = 0; p < points.length; p += 2) {
+                gl.glVertex3f(points[p], HEIGHT, points[p + 1]);
+            }
+            gl.glEnd();
+            gl.glPopAttrib();
+            gl.glEndList();
+            compiled = points;
+        }
+        gl.glCallList(list);
+        return 1;
+    }
+
+    /**
+     * Release the display list
+     *
+     * @param gl The GL context
+     */
+    public void dispose(GL2 gl) {
+        if (list >= 0) gl.glDeleteLists(list, 1);
+        list = -1;
+        compiled = null;
+    }
+}
@@ -0,0 +1,138 @@
+package joglmaze;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * ServerLoadTest, runs a MazeServer with many simulated clients on this machine and reports its tick latency and bandwidth
+ * <p>
+ * The players join in random open cells, as if they had spread out through the
+ * maze. The server runs on its own thread as it would on its own; the clients all run
+ * on the calling thread, from one selector, each decoding every snapshot it is
+ * sent and acknowledging it. Every second each client picks new controls at
+ * random, most often walking forward, sometimes turning or standing still, so
+ * a share of the players is always moving. The first seconds are a warm-up and
+ * are not counted.
+ * <p>
+ * The figures are how long the server takes to run a tick, how long after a tick
+ * was due every client had been sent it, and how long from the start of a tick a
+ * client took to decode it; and the bytes sent each way. On a machine with few
+ * cores the clients share them with the server, which raises every figure.
+ * <p>
+ * Usage: ServerLoadTest mazefile [clients [seconds [tickrate]]]
+ */
+public class ServerLoadTest {
+
+    //The seconds of warm-up before measuring
+    private static final int WARM_UP_SECONDS = 2;
+    //The controls picked from: mostly walking, sometimes turning on the spot or standing
+    private static final int[] CONTROLS = {
+            MazeServer.CONTROL_FORWARD, MazeServer.CONTROL_FORWARD,
+            MazeServer.CONTROL_FORWARD | MazeServer.CONTROL_LEFT, MazeServer.CONTROL_FORWARD | MazeServer.CONTROL_RIGHT,
+            MazeServer.CONTROL_LEFT, MazeServer.CONTROL_BACKWARD, 0, 0};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: ServerLoadTest mazefile [clients [seconds [tickrate]]]");
+            System.exit(1);
+        }
+        int clientCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int tickRate = args.length > 3 ? Integer.parseInt(args[3]) : MazeServer.DEFAULT_TICK_RATE;
+
+        MazeServer server = new MazeServer(MazeLoader.LoadGrid(args[0]), tickRate, clientCount);
+        server.setRandomSpawns(42);
+        int port = server.start(0);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
+        Selector selector = Selector.open();
+        MazeClient[] clients = new MazeClient[clientCount];
+        long before = System.nanoTime();
+        for (int c = 0; c < clientCount; c++) clients[c] = new MazeClient(address, selector);
+        System.out.println(String.format("Connected %d clients in %.0f ms", clientCount, (System.nanoTime() - before) / 1e6));
+
+        Random random = new Random(42);
+        LatencyHistogram delivery = new LatencyHistogram();
+        long end = System.nanoTime() + (WARM_UP_SECONDS + seconds) * 1000000000L;
+        long measureFrom = System.nanoTime() + WARM_UP_SECONDS * 1000000000L;
+        long nextControls = 0;
+        boolean measuring = false;
+        long startTick = 0, startSent = 0, startReceived = 0, startSnapshots = 0, startFull = 0, startSkipped = 0,
+                startEncoded = 0, startTime = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) break;
+            if (!measuring && now >= measureFrom) {
+                //Start counting
+                measuring = true;
+                server.getTickTimes().reset();
+                server.getTickLatencies().reset();
+                startTick = server.getTick();
+                startSent = server.getBytesSent();
+                startReceived = server.getBytesReceived();
+                startSnapshots = server.getSnapshotsSent();
+                startFull = server.getFullSnapshots();
+                startSkipped = server.getSnapshotsSkipped();
+                startEncoded = server.getDeltasEncoded();
+                startTime = now;
+            }
+            if (now >= nextControls) {
+                //A twentieth of the clients change what they hold, twenty times a second
+                for (int c = 0; c < clientCount; c++) {
+                    if (random.nextInt(20) == 0) clients[c].setControls(CONTROLS[random.nextInt(CONTROLS.length)]);
+                }
+                nextControls = now + 50000000L;
+            }
+
+            selector.select(10);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+                MazeClient client = (MazeClient) key.attachment();
+                if (key.isWritable()) client.flush();
+                if (key.isReadable() && client.read() > 0 && measuring) {
+                    long started = server.getTickStart(client.getLatest().getTick());
+                    if (started > 0) delivery.record(System.nanoTime() - started);
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        long ticks = server.getTick() - startTick;
+        long sent = server.getBytesSent() - startSent;
+        long snapshots = server.getSnapshotsSent() - startSnapshots;
+        long players = 0, dropped = 0;
+        for (MazeClient client : clients) {
+            if (client.getLatest() != null && client.getLatest().isPresent(client.getSlot())) players++;
+            dropped += client.getSnapshotsDropped();
+        }
+        LatencyHistogram tickTimes = server.getTickTimes(), tickLatencies = server.getTickLatencies();
+        System.out.println(String.format("%d clients, %d seeing themselves, %d ticks in %.1f s (%.1f per second, %d asked for)",
+                server.getClients(), players, ticks, elapsed, ticks / elapsed, tickRate));
+        System.out.println(String.format("Tick time         p50 %7.2f ms   p99 %7.2f ms   max %7.2f ms",
+                tickTimes.getPercentileMillis(0.5), tickTimes.getPercentileMillis(0.99), tickTimes.getMaxMillis()));
+        System.out.println(String.format("Tick latency      p50 %7.2f ms   p99 %7.2f ms   max %7.2f ms   (due to sent to all)",
+                tickLatencies.getPercentileMillis(0.5), tickLatencies.getPercentileMillis(0.99), tickLatencies.getMaxMillis()));
+        System.out.println(String.format("Delivery latency  p50 %7.2f ms   p99 %7.2f ms   max %7.2f ms   (tick start to decoded)",
+                delivery.getPercentileMillis(0.5), delivery.getPercentileMillis(0.99), delivery.getMaxMillis()));
+        System.out.println(String.format("Sent     %8.2f MB/s, %7.2f KB/s per client, %7.1f bytes per snapshot",
+                sent / elapsed / 1e6, sent / elapsed / 1e3 / clientCount, snapshots > 0 ? sent / (double) snapshots : 0.0));
+        System.out.println(String.format("Received %8.2f MB/s, %7.2f KB/s per client",
+                (server.getBytesReceived() - startReceived) / elapsed / 1e6,
+                (server.getBytesReceived() - startReceived) / elapsed / 1e3 / clientCount));
+        System.out.println(String.format("Snapshots: %d sent, %d whole, %d skipped for a busy client, %d dropped by a client; %.1f deltas encoded per tick",
+                snapshots, server.getFullSnapshots() - startFull, server.getSnapshotsSkipped() - startSkipped, dropped,
+                ticks > 0 ? (server.getDeltasEncoded() - startEncoded) / (double) ticks : 0.0));
+
+        for (MazeClient client : clients) client.close();
+        selector.close();
+        server.stop();
+    }
+}
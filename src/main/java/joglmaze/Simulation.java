@@ -0,0 +1,348 @@
+package joglmaze;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulation, moves the camera in fixed time steps on its own thread
+ * <p>
+ * The camera is advanced a fixed number of times per second, however fast or
+ * slow frames are drawn, so movement speed does not depend on the frame rate.
+ * After each tick an immutable CameraState is published; the renderer reads
+ * the latest one without locking and draws the camera between its previous
+ * and current positions, according to how far the clock is into the next tick.
+ * If the simulation thread falls more than MAX_CATCH_UP ticks behind, the
+ * missed time is dropped instead of being run all at once. Once a collider is
+ * set, each tick's move is resolved against the walls of the maze. Given a
+ * route, the camera walks it by itself, turning to face each point in turn,
+ * until it reaches the end or is given a route of null.
+ * <p>
+ * The inputs each tick acts on can be recorded to an InputLog, and a log played
+ * back in their place; while a log plays, the controls and placements from
+ * outside are ignored. The ticks can also be run one at a time by the caller
+ * instead of by the clock, to replay a log as fast as it can be drawn.
+ */
+public class Simulation {
+
+    //The camera speeds, per second, when moving or turning
+    static final float MOVE_SPEED = 1.8f;
+    static final float TURN_SPEED = 3.0f;
+    //The most ticks run at once to catch up
+    static final int MAX_CATCH_UP = 10;
+
+    //The length of a tick
+    private final long tickNanos;
+    private final float tickSeconds;
+
+    //The latest snapshot of the camera
+    private volatile CameraState state = new CameraState(0, System.nanoTime(), 0, 0, 0);
+    //The forward speed, in units per second, and the turning speed, in radians per second
+    private volatile float speed, turn;
+    //Keeps the camera out of the walls, or null to move freely
+    private volatile MazeCollider collider;
+    //Where the camera moves to in a tick
+    private final float[] moved = new float[3];
+    //The route to walk, as the x and z of the points it turns at, or null; the route being walked and the next point
+    private volatile float[] route;
+    private float[] walking;
+    private int waypoint;
+    //The log the inputs are recorded to, and the log played back instead of them, or null
+    private volatile InputLog.Writer recorder;
+    private volatile InputLog.Reader replay;
+    //The snapshot the last tick published, to tell when the camera was placed since
+    private CameraState published;
+
+    //When tick 0 was due, and the number of ticks run since
+    private long epoch;
+    private long ticks;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a simulation that is not running yet
+     *
+     * @param tickRate The number of ticks per second
+     */
+    public Simulation(int tickRate) {
+        tickNanos = 1000000000L / tickRate;
+        tickSeconds = 1.0f / tickRate;
+    }
+
+    /**
+     * Place the camera and start ticking on a background thread
+     *
+     * @param x The camera X position
+     * @param z The camera Z position
+     */
+    public void start(float x, float z) {
+        start(x, z, true);
+    }
+
+    /**
+     * Place the camera and start ticking, by the clock or when runTick() is called
+     *
+     * @param x       The camera X position
+     * @param z       The camera Z position
+     * @param clocked True to tick on a background thread, false to leave it to the caller
+     */
+    public synchronized void start(float x, float z, boolean clocked) {
+        stop();
+        moveTo(x, z, 0);
+        epoch = System.nanoTime();
+        ticks = 0;
+        if (!clocked) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "maze-simulation");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                advance(System.nanoTime());
+            }
+        }, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop ticking. The last snapshot stays available.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * Run the ticks that are due by a time
+     *
+     * @param now The time, from System.nanoTime()
+     */
+    synchronized void advance(long now) {
+        long target = (now - epoch) / tickNanos;
+        //Drop the time the simulation cannot catch up on
+        if (target - ticks > MAX_CATCH_UP) ticks = target - MAX_CATCH_UP;
+        while (ticks < target) {
+            ticks++;
+            tick(epoch + ticks * tickNanos);
+        }
+    }
+
+    /**
+     * Run the next tick now, for a simulation started without the clock
+     */
+    public synchronized void runTick() {
+        ticks++;
+        tick(epoch + ticks * tickNanos);
+    }
+
+    //Move the camera by one tick and publish where it is
+    private void tick(long time) {
+        long tick = state.getTick() + 1;
+        InputLog.Reader playing = replay;
+        if (playing != null) {
+            try {
+                playing.applyInputs(tick, this);
+            } catch (IOException ex) {
+                System.out.println("Failed to replay the input log\n" + ex.toString());
+                replay = playing = null;
+            }
+        }
+        //The controls can change at any time, so the tick reads them once for what it records and what it does
+        CameraState last = state;
+        float tickSpeed = speed, tickTurn = turn;
+        float[] points = route;
+        InputLog.Writer writer = recorder;
+        if (writer != null) writer.recordInputs(tick, last != published ? last : null, tickSpeed, tickTurn, points);
+
+        if (points != null) {
+            walk(last, points, time);
+        } else {
+            step(collider, last.getX(), last.getZ(), last.getAngle(), tickSpeed, tickTurn, tickSeconds, moved);
+            state = last.next(time, moved[0], moved[1], moved[2]);
+        }
+        published = state;
+
+        if (writer != null) writer.recordState(state);
+        if (playing != null) {
+            if (!playing.checkState(state) && playing.getDivergedAt() == tick) {
+                System.out.println("The replay diverged from the recording at tick " + tick);
+            }
+            if (playing.isFinished(tick)) {
+                //Hand the camera back
+                System.out.println("Replayed " + tick + " ticks, " + playing.getChecked() + " checksums compared"
+                        + (playing.getDivergedAt() < 0 ? ", all matched" : ", diverged at tick " + playing.getDivergedAt()));
+                replay = null;
+            }
+        }
+    }
+
+    /**
+     * Turn and move a camera for one tick
+     *
+     * @param walls   Keeps the camera out of the walls, or null to move freely
+     * @param x       The camera X position
+     * @param z       The camera Z position
+     * @param angle   The camera angle
+     * @param speed   The forward speed, in units per second
+     * @param turn    The turning speed, in radians per second
+     * @param seconds The length of the tick
+     * @param out     Set to the camera x, z and angle after the tick
+     */
+    static void step(MazeCollider walls, float x, float z, float angle, float speed, float turn, float seconds,
+                     float[] out) {
+        angle += turn * seconds;
+        //StrictMath gives the same results on every machine, so recordings replay anywhere
+        float dx = (float) (speed * seconds * StrictMath.sin(angle));
+        float dz = (float) (speed * seconds * StrictMath.cos(angle));
+        if (walls != null) {
+            walls.move(x, z, dx, dz, out);
+        } else {
+            out[0] = x + dx;
+            out[1] = z + dz;
+        }
+        out[2] = angle;
+    }
+
+    //Move the camera along a route by one tick, turning towards the next point
+    private void walk(CameraState last, float[] points, long time) {
+        if (points != walking) {
+            walking = points;
+            waypoint = 0;
+        }
+        float x = last.getX(), z = last.getZ(), step = MOVE_SPEED * tickSeconds;
+        float dx = points[2 * waypoint] - x, dz = points[2 * waypoint + 1] - z;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        //Skip the points already reached
+        while (distance <= step && waypoint < points.length / 2 - 1) {
+            waypoint++;
+            dx = points[2 * waypoint] - x;
+            dz = points[2 * waypoint + 1] - z;
+            distance = (float) Math.sqrt(dx * dx + dz * dz);
+        }
+        float angle = last.getAngle();
+        if (distance > 0) {
+            //Turn the short way round, no faster than when turning by hand
+            float maxTurn = TURN_SPEED * tickSeconds;
+            float turnBy = (float) Math.IEEEremainder(StrictMath.atan2(dx, dz) - angle, 2 * Math.PI);
+            angle += Math.max(-maxTurn, Math.min(maxTurn, turnBy));
+        }
+        if (distance <= step) {
+            //The end of the route
+            x += dx;
+            z += dz;
+            if (route == points) route = null;
+        } else {
+            x += dx * step / distance;
+            z += dz * step / distance;
+        }
+        state = last.next(time, x, z, angle);
+    }
+
+    /**
+     * Walk the camera along a route
+     *
+     * @param route The x and z of each point the route turns at, from where the camera is; or null to stop walking
+     */
+    public synchronized void setRoute(float[] route) {
+        if (replay == null) walkRoute(route);
+    }
+
+    //Set the route, from outside or from a log
+    void walkRoute(float[] route) {
+        this.route = route;
+    }
+
+    /**
+     * Put the camera somewhere, without it moving there over a tick
+     *
+     * @param x     The camera X position
+     * @param z     The camera Z position
+     * @param angle The camera angle, in radians; 0 looks along +z
+     */
+    public synchronized void place(float x, float z, float angle) {
+        if (replay == null) moveTo(x, z, angle);
+    }
+
+    //Put the camera somewhere, from outside or from a log
+    void moveTo(float x, float z, float angle) {
+        state = new CameraState(state.getTick(), System.nanoTime(), x, z, angle);
+    }
+
+    //Set the speeds, from a log
+    void control(float speed, float turn) {
+        this.speed = speed;
+        this.turn = turn;
+    }
+
+    /**
+     * Record the inputs of each tick from now on
+     *
+     * @param recorder The log to record to, or null to stop recording
+     */
+    public void record(InputLog.Writer recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Play a log back from the next tick, ignoring the controls until it ends
+     *
+     * @param replay The log to play, from the start of a recording; or null to stop playing
+     */
+    public void replay(InputLog.Reader replay) {
+        this.replay = replay;
+    }
+
+    //Whether a log is being played back
+    public boolean isReplaying() {
+        return replay != null;
+    }
+
+    /**
+     * Find where to draw the camera at a time, between the last two ticks
+     *
+     * @param now    The time, from System.nanoTime()
+     * @param camera Set to the camera x, z and angle
+     */
+    public void sample(long now, float[] camera) {
+        CameraState current = state;
+        float alpha = (now - current.getTime()) / (float) tickNanos;
+        current.interpolate(Math.max(0, Math.min(1, alpha)), camera);
+    }
+
+    //The latest snapshot of the camera
+    public CameraState getState() {
+        return state;
+    }
+
+    /**
+     * Set what keeps the camera out of the walls
+     *
+     * @param collider The collider, or null to move freely
+     */
+    public void setCollider(MazeCollider collider) {
+        this.collider = collider;
+    }
+
+    /**
+     * Set the forward speed
+     *
+     * @param speed The speed, in units per second; negative to move backwards
+     */
+    public void setSpeed(float speed) {
+        if (replay == null) this.speed = speed;
+    }
+
+    /**
+     * Set the turning speed
+     *
+     * @param turn The speed, in radians per second; positive turns left
+     */
+    public void setTurn(float turn) {
+        if (replay == null) this.turn = turn;
+    }
+}
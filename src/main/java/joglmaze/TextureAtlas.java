@@ -0,0 +1,484 @@
+package joglmaze;
+
+import com.jogamp.common.nio.Buffers;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * TextureAtlas, all the maze textures packed into a single texture
+ * <p>
+ * The layers of the atlas are stacked along t, each one a square image with a
+ * gutter above and below it. Texture coordinates repeat freely along s, which
+ * the maze mesh uses to repeat a texture along a merged strip of cells; along t
+ * they stay within a layer. The gutters hold the rows from the other edge of the
+ * layer, so filtering near a layer edge wraps around the same way GL_REPEAT would,
+ * and the mipmap levels are limited to what the gutters cover.
+ * <p>
+ * The images are decoded on background threads (see loadAsync) and the finished
+ * mipmap levels are cached on disk, keyed by a hash of the image files, so a warm
+ * start reads the cache instead of decoding anything. Where the driver supports
+ * S3TC, the atlas is uploaded compressed and the compressed levels are cached too,
+ * for the same renderer. Only the upload itself happens on the GL thread.
+ * <p>
+ * There are two kinds of layer: the plain materials, for drawing cell by cell with
+ * fixed-function lighting (see selectLayer), and the materials of the mesh face
+ * groups with the cell lamps baked in (see MazeMesh.bakeLightMap). The lighting
+ * shader adds the tile lights to the mesh from the plain layers (see plainOffset).
+ * More materials are added as more layers, which adds no texture bindings or
+ * draw calls.
+ */
+public class TextureAtlas {
+
+    //The material images
+    static final String[] MATERIAL_FILES = {"textures/brick.jpg", "textures/redbook.jpg", "textures/vine.png"};
+    static final int BRICK = 0;
+    static final int REDBOOK = 1;
+    static final int VINE = 2;
+
+    //The layers: the material of each, and the mesh face group it is lit for, or -1 if it is not lit
+    private static final int[][] LAYERS = {
+            {BRICK, -1}, {REDBOOK, -1}, {VINE, -1},
+            {BRICK, MazeMesh.WALLS_X}, {BRICK, MazeMesh.WALLS_Z},
+            {REDBOOK, MazeMesh.FLOOR}, {VINE, MazeMesh.CEILING}};
+
+    //The size of a layer, and of the gutter on each side of it along t, in texels
+    static final int LAYER_SIZE = 256;
+    static final int GUTTER = 16;
+    private static final int LAYER_STRIDE = LAYER_SIZE + 2 * GUTTER;
+    //The last mipmap level; a level-n texel covers 2^n base texels, which the gutter must hold.
+    //The layers also start on a 4x4 compression block at every level.
+    private static final int MAX_LEVEL = 3;
+
+    //The decoded atlas and the driver-compressed atlas are cached next to the images
+    static final String CACHE_FILE = "textures/atlas.cache";
+    static final String COMPRESSED_CACHE_FILE = "textures/atlas.s3tc.cache";
+    private static final int CACHE_MAGIC = 0x4A415443;
+    //Change whenever the layout of the atlas changes, so that old caches are ignored
+    private static final int CACHE_VERSION = 1;
+    //The format the atlas is compressed to, if the driver supports it
+    private static final int COMPRESSED_FORMAT = GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+
+    //Background threads that do not keep the application running
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "texture-atlas-loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    //The RGBA texels of every mipmap level, until uploaded
+    private ByteBuffer[] levels;
+    //The compressed levels and the renderer that compressed them, if they were cached
+    private ByteBuffer[] compressedLevels;
+    private String compressedRenderer;
+    //The hash of the images the atlas was made from
+    private final long key;
+    //The GL texture name, once uploaded
+    private int texture = -1;
+
+    private TextureAtlas(long key, ByteBuffer[] levels) {
+        this.key = key;
+        this.levels = levels;
+    }
+
+    /**
+     * Find the layer of a material
+     *
+     * @param material The material, one of the material constants
+     * @param group    The mesh face group it is lit for, or -1 for the plain material
+     * @return The layer
+     */
+    static int layer(int material, int group) {
+        for (int l = 0; l < LAYERS.length; l++) {
+            if (LAYERS[l][0] == material && LAYERS[l][1] == group) return l;
+        }
+        throw new IllegalArgumentException("No atlas layer for material " + material + " and group " + group);
+    }
+
+    //The number of layers stacked in the atlas
+    static int layerCount() {
+        return LAYERS.length;
+    }
+
+    /**
+     * Get how far the plain material of a layer is from the layer, along t. The
+     * lighting shader uses it to find the unlit texel under a baked one.
+     *
+     * @param layer The layer
+     * @return The atlas t coordinate of the plain material's layer less that of the layer
+     */
+    static float plainOffset(int layer) {
+        return t(layer(LAYERS[layer][0], -1), 0) - t(layer, 0);
+    }
+
+    /**
+     * Get the atlas t coordinate of a point of a layer
+     *
+     * @param layer The layer
+     * @param v     The t coordinate within the layer, from 0 to 1
+     * @return The t coordinate within the atlas
+     */
+    static float t(int layer, float v) {
+        return (layer * LAYER_STRIDE + GUTTER + v * LAYER_SIZE) / (float) (LAYERS.length * LAYER_STRIDE);
+    }
+
+    /**
+     * Start loading the atlas on background threads, one per image
+     *
+     * @return The atlas, ready to be uploaded once it is done
+     */
+    public static Future<TextureAtlas> loadAsync() {
+        final ExecutorService decoders = Executors.newFixedThreadPool(MATERIAL_FILES.length, DAEMON_THREADS);
+        FutureTask<TextureAtlas> task = new FutureTask<TextureAtlas>(new Callable<TextureAtlas>() {
+            @Override
+            public TextureAtlas call() throws IOException {
+                try {
+                    return load(decoders);
+                } finally {
+                    decoders.shutdown();
+                }
+            }
+        });
+        DAEMON_THREADS.newThread(task).start();
+        return task;
+    }
+
+    /**
+     * Load the atlas from the cache or, if the images have changed, decode the
+     * images and put the atlas together. Does not need a GL context.
+     *
+     * @param decoders The threads to decode the images on
+     * @return The atlas, ready to be uploaded
+     * @throws IOException If an image cannot be read
+     */
+    public static TextureAtlas load(ExecutorService decoders) throws IOException {
+        long key = cacheKey();
+        TextureAtlas atlas = readCache(key);
+        if (atlas != null) return atlas;
+
+        //Decode all the images at once
+        List<Future<int[]>> decoded = new ArrayList<Future<int[]>>();
+        for (final String file : MATERIAL_FILES) {
+            decoded.add(decoders.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws IOException {
+                    BufferedImage image = ImageIO.read(new File(file));
+                    if (image == null) throw new IOException("Unsupported image format: " + file);
+                    return scale(image);
+                }
+            }));
+        }
+        int[][] materials = new int[MATERIAL_FILES.length][];
+        for (int m = 0; m < MATERIAL_FILES.length; m++) {
+            try {
+                materials[m] = decoded.get(m).get();
+            } catch (InterruptedException ex) {
+                throw new IOException("Interrupted while decoding " + MATERIAL_FILES[m]);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                throw new IOException("Failed to decode " + MATERIAL_FILES[m], ex.getCause());
+            }
+        }
+
+        ByteBuffer texels = Buffers.newDirectByteBuffer(LAYER_SIZE * LAYER_STRIDE * LAYERS.length * 4);
+        for (int[] layer : LAYERS) {
+            int[] pixels = materials[layer[0]];
+            float[] light = layer[1] < 0 ? null : MazeMesh.bakeLightMap(layer[1], LAYER_SIZE);
+            //The wrapped rows of the gutter, the layer, then the gutter again
+            for (int row = -GUTTER; row < LAYER_SIZE + GUTTER; row++) {
+                int t = (row + LAYER_SIZE) % LAYER_SIZE;
+                for (int s = 0; s < LAYER_SIZE; s++) {
+                    int argb = pixels[t * LAYER_SIZE + s];
+                    int n = (t * LAYER_SIZE + s) * 3;
+                    for (int shift = 16; shift >= 0; shift -= 8) {
+                        float channel = (argb >>> shift) & 0xff;
+                        if (light != null) channel *= light[n++];
+                        texels.put((byte) Math.round(channel));
+                    }
+                    texels.put((byte) (argb >>> 24));
+                }
+            }
+        }
+        texels.rewind();
+
+        //Work out the mipmap levels here, so that the cache holds them
+        ByteBuffer[] levels = new ByteBuffer[MAX_LEVEL + 1];
+        levels[0] = texels;
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            levels[level] = halve(levels[level - 1], LAYER_SIZE >> (level - 1), atlasHeight() >> (level - 1));
+        }
+
+        atlas = new TextureAtlas(key, levels);
+        try {
+            writeCache(new File(CACHE_FILE), key, 0, "", levels);
+        } catch (IOException ex) {
+            System.out.println("Failed to write texture cache\n" + ex.toString());
+        }
+        return atlas;
+    }
+
+    //The height of the atlas at level 0, in texels
+    private static int atlasHeight() {
+        return LAYER_STRIDE * LAYERS.length;
+    }
+
+    //Average each 2x2 square of an RGBA image into one texel
+    private static ByteBuffer halve(ByteBuffer image, int width, int height) {
+        ByteBuffer half = Buffers.newDirectByteBuffer((width / 2) * (height / 2) * 4);
+        for (int y = 0; y < height; y += 2) {
+            for (int x = 0; x < width; x += 2) {
+                for (int c = 0; c < 4; c++) {
+                    int sum = (image.get((y * width + x) * 4 + c) & 0xff) + (image.get((y * width + x + 1) * 4 + c) & 0xff)
+                            + (image.get(((y + 1) * width + x) * 4 + c) & 0xff) + (image.get(((y + 1) * width + x + 1) * 4 + c) & 0xff);
+                    half.put((byte) ((sum + 2) / 4));
+                }
+            }
+        }
+        half.rewind();
+        return half;
+    }
+
+    //The hash of the image files and of the atlas layout
+    private static long cacheKey() throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        for (String file : MATERIAL_FILES) {
+            InputStream input = new FileInputStream(file);
+            try {
+                int read;
+                while ((read = input.read(buffer)) > 0) crc.update(buffer, 0, read);
+            } finally {
+                input.close();
+            }
+        }
+        for (int[] layer : LAYERS) {
+            crc.update(layer[0]);
+            crc.update(layer[1]);
+        }
+        crc.update(LAYER_SIZE);
+        crc.update(GUTTER);
+        crc.update(MAX_LEVEL);
+        return crc.getValue();
+    }
+
+    //Read the cached atlas, and the compressed one if there is one; null if the cache is missing or stale
+    private static TextureAtlas readCache(long key) {
+        try {
+            String[] renderer = new String[1];
+            ByteBuffer[] levels = readCache(new File(CACHE_FILE), key, 0, renderer);
+            if (levels == null) return null;
+            TextureAtlas atlas = new TextureAtlas(key, levels);
+            atlas.compressedLevels = readCache(new File(COMPRESSED_CACHE_FILE), key, COMPRESSED_FORMAT, renderer);
+            atlas.compressedRenderer = renderer[0];
+            return atlas;
+        } catch (IOException ex) {
+            System.out.println("Ignoring unreadable texture cache\n" + ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Read the levels of a cache file
+     *
+     * @param file     The cache file
+     * @param key      The hash of the images the levels must have been made from
+     * @param format   0 for RGBA levels, or the compressed format they must be in
+     * @param renderer Set to the renderer that made the levels
+     * @return The levels, or null if the file is missing or was made from other images
+     */
+    private static ByteBuffer[] readCache(File file, long key, int format, String[] renderer) throws IOException {
+        if (!file.exists()) return null;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != CACHE_MAGIC || input.readInt() != CACHE_VERSION) return null;
+            if (input.readLong() != key || input.readInt() != format) return null;
+            renderer[0] = input.readUTF();
+            ByteBuffer[] levels = new ByteBuffer[input.readInt()];
+            byte[] bytes = new byte[0];
+            for (int level = 0; level < levels.length; level++) {
+                int length = input.readInt();
+                if (bytes.length < length) bytes = new byte[length];
+                input.readFully(bytes, 0, length);
+                levels[level] = Buffers.newDirectByteBuffer(length);
+                levels[level].put(bytes, 0, length);
+                levels[level].rewind();
+            }
+            return levels;
+        } finally {
+            input.close();
+        }
+    }
+
+    //Write levels to a cache file, through a temporary file so that a cache is never half written
+    private static void writeCache(File file, long key, int format, String renderer, ByteBuffer[] levels) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            output.writeInt(CACHE_MAGIC);
+            output.writeInt(CACHE_VERSION);
+            output.writeLong(key);
+            output.writeInt(format);
+            output.writeUTF(renderer);
+            output.writeInt(levels.length);
+            for (ByteBuffer level : levels) {
+                byte[] bytes = new byte[level.remaining()];
+                level.duplicate().get(bytes);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+        } finally {
+            output.close();
+        }
+        if (file.exists() && !file.delete()) throw new IOException("Cannot replace " + file);
+        if (!temporary.renameTo(file)) throw new IOException("Cannot write " + file);
+    }
+
+    //Scale an image to the layer size, as packed ARGB pixels with the top row first
+    private static int[] scale(BufferedImage image) {
+        BufferedImage scaled = new BufferedImage(LAYER_SIZE, LAYER_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, LAYER_SIZE, LAYER_SIZE, null);
+        graphics.dispose();
+        return scaled.getRGB(0, 0, LAYER_SIZE, LAYER_SIZE, null, 0, LAYER_SIZE);
+    }
+
+    /**
+     * Upload the atlas into a mipmapped texture, compressed if the driver supports it.
+     * The texels are released afterwards. Must be called on the GL thread.
+     *
+     * @param gl The openGL context
+     */
+    public void upload(GL2 gl) {
+        int[] names = new int[1];
+        gl.glGenTextures(1, names, 0);
+        texture = names[0];
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAX_LEVEL, MAX_LEVEL);
+
+        String renderer = gl.glGetString(GL.GL_RENDERER);
+        boolean compress = gl.isExtensionAvailable("GL_EXT_texture_compression_s3tc");
+        if (compress && compressedLevels != null && renderer.equals(compressedRenderer)) {
+            //Warm start on the same driver: the compressed levels go straight in
+            for (int level = 0; level <= MAX_LEVEL; level++) {
+                gl.glCompressedTexImage2D(GL.GL_TEXTURE_2D, level, COMPRESSED_FORMAT, LAYER_SIZE >> level,
+                        atlasHeight() >> level, 0, compressedLevels[level].remaining(), compressedLevels[level]);
+            }
+        } else {
+            //Let the driver compress the levels, then keep what it made for next time
+            for (int level = 0; level <= MAX_LEVEL; level++) {
+                gl.glTexImage2D(GL.GL_TEXTURE_2D, level, compress ? COMPRESSED_FORMAT : GL.GL_RGBA, LAYER_SIZE >> level,
+                        atlasHeight() >> level, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, levels[level]);
+            }
+            if (compress) cacheCompressed(gl, renderer);
+        }
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        levels = null;
+        compressedLevels = null;
+    }
+
+    //Read back the levels the driver compressed and write them to the cache on a background thread
+    private void cacheCompressed(GL2 gl, final String renderer) {
+        int[] value = new int[1];
+        gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, 0, GL2.GL_TEXTURE_COMPRESSED, value, 0);
+        if (value[0] == 0) return;
+        final ByteBuffer[] compressed = new ByteBuffer[MAX_LEVEL + 1];
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, level, GL2.GL_TEXTURE_COMPRESSED_IMAGE_SIZE, value, 0);
+            compressed[level] = Buffers.newDirectByteBuffer(value[0]);
+            gl.glGetCompressedTexImage(GL.GL_TEXTURE_2D, level, compressed[level]);
+        }
+        DAEMON_THREADS.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeCache(new File(COMPRESSED_CACHE_FILE), key, COMPRESSED_FORMAT, renderer, compressed);
+                } catch (IOException ex) {
+                    System.out.println("Failed to write texture cache\n" + ex.toString());
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Enable texturing and bind the atlas
+     *
+     * @param gl The openGL context
+     */
+    public void bind(GL2 gl) {
+        gl.glActiveTexture(GL.GL_TEXTURE0);
+        gl.glEnable(GL.GL_TEXTURE_2D);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+    }
+
+    /**
+     * Select a layer for texture coordinates from 0 to 1, through the texture matrix.
+     * Used when drawing cell by cell, where the texture coordinates are fixed.
+     *
+     * @param gl    The openGL context
+     * @param layer The layer
+     */
+    public void selectLayer(GL2 gl, int layer) {
+        gl.glMatrixMode(GL.GL_TEXTURE);
+        gl.glLoadIdentity();
+        gl.glTranslatef(0, t(layer, 0), 0);
+        gl.glScalef(1, t(layer, 1) - t(layer, 0), 1);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+    }
+
+    /**
+     * Reset the texture matrix and disable texturing
+     *
+     * @param gl The openGL context
+     */
+    public void unbind(GL2 gl) {
+        gl.glMatrixMode(GL.GL_TEXTURE);
+        gl.glLoadIdentity();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        gl.glDisable(GL.GL_TEXTURE_2D);
+    }
+
+    /**
+     * Release the texture
+     *
+     * @param gl The openGL context
+     */
+    public void dispose(GL2 gl) {
+        if (texture != -1) {
+            gl.glDeleteTextures(1, new int[]{texture}, 0);
+            texture = -1;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package joglmaze;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * TiledMazeFile, reads square tiles of a maze text file without loading the whole file
+ * <p>
+ * The rows of a maze file all have the same length, so the position of any cell in
+ * the file can be worked out from its row and column. A tile is read with one
+ * positional read per row, plus a border of one cell all around so that the walls
+ * on the edges of the tile are known. Positional reads do not move the file
+ * pointer, so tiles can be read from several threads at once.
+ * <p>
+ * Finding the start and end cells means reading the whole file, so it is not
+ * done on opening it; findEndPointsAsync() looks for them on a thread of its own,
+ * and until they are found getStart() and getEnd() return -1.
+ */
+public class TiledMazeFile implements MazeTileSource {
+
+    //The maze dimensions
+    private final int rows;
+    private final int cols;
+    //Where the first row of the layout starts, and the distance from one row to the next
+    private final long dataOffset;
+    private final int stride;
+    //The flat indices of the start and end cells, or -1 until they are found
+    private volatile long start = -1;
+    private volatile long end = -1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * Open a maze file for reading tiles
+     *
+     * @param filename The maze file, in the format MazeLoader reads
+     * @throws IOException If the file cannot be read or its rows are not all the same length
+     */
+    public TiledMazeFile(String filename) throws IOException {
+        file = new RandomAccessFile(filename, "r");
+        channel = file.getChannel();
+        try {
+            //The two dimension lines
+            rows = Integer.parseInt(file.readLine().trim());
+            cols = Integer.parseInt(file.readLine().trim());
+            dataOffset = file.getFilePointer();
+
+            //Rows end in either \n or \r\n
+            ByteBuffer probe = ByteBuffer.allocate(1);
+            channel.read(probe, dataOffset + cols);
+            stride = probe.get(0) == '\r' ? cols + 2 : cols + 1;
+            if (channel.size() < dataOffset + (long) (rows - 1) * stride + cols) {
+                throw new IOException("Maze file rows are not all " + cols + " cells long");
+            }
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        } catch (RuntimeException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Start looking for the start and end cells on a background thread
+     *
+     * @return The flat indices of the start and end cells, or -1 for any not in the file, once they are found
+     */
+    public Future<long[]> findEndPointsAsync() {
+        FutureTask<long[]> task = new FutureTask<long[]>(new Callable<long[]>() {
+            @Override
+            public long[] call() throws IOException {
+                findEndPoints();
+                return new long[]{start, end};
+            }
+        });
+        Thread thread = new Thread(task, "maze-end-point-finder");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    //Stream through the layout once, a buffer at a time, looking for the 's' and 'e' cells
+    private void findEndPoints() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        long position = dataOffset;
+        long start = -1, end = -1;
+        while (position < channel.size() && (start < 0 || end < 0)) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int b = 0; b < read; b++) {
+                byte c = buffer.get(b);
+                if (c != 's' && c != 'e') continue;
+                long offset = position + b - dataOffset;
+                //Rows are stored top down, the maze has them bottom up
+                long index = (rows - 1 - offset / stride) * (long) cols + offset % stride;
+                if (c == 's') start = index;
+                else end = index;
+            }
+            position += read;
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    //The number of rows (along x)
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    //The number of columns (along z)
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    //The flat index (i * cols + j) of the start cell, or -1
+    @Override
+    public long getStart() {
+        return start;
+    }
+
+    //The flat index (i * cols + j) of the end cell, or -1
+    @Override
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Read a rectangle of the maze into a grid, with the walls on its edges
+     * worked out from the cells just outside it
+     *
+     * @param firstRow The first row (i) of the rectangle
+     * @param firstCol The first column (j) of the rectangle
+     * @param height   The number of rows
+     * @param width    The number of columns
+     * @return The grid of the rectangle, with (0, 0) at (firstRow, firstCol)
+     * @throws IOException If the file cannot be read
+     */
+    @Override
+    public MazeGrid readTile(int firstRow, int firstCol, int height, int width) throws IOException {
+        //The rectangle plus its border, clipped to the maze
+        int top = Math.max(0, firstRow - 1), bottom = Math.min(rows, firstRow + height + 1);
+        int left = Math.max(0, firstCol - 1), right = Math.min(cols, firstCol + width + 1);
+        int borderWidth = width + 2, borderHeight = height + 2;
+        boolean[] open = new boolean[borderWidth * borderHeight];
+
+        ByteBuffer line = ByteBuffer.allocate(right - left);
+        for (int i = top; i < bottom; i++) {
+            line.clear();
+            long position = dataOffset + (long) (rows - 1 - i) * stride + left;
+            while (line.hasRemaining()) {
+                if (channel.read(line, position + line.position()) < 0) throw new IOException("Maze file is truncated");
+            }
+            int row = (i - firstRow + 1) * borderWidth;
+            for (int j = left; j < right; j++) {
+                open[row + j - firstCol + 1] = line.get(j - left) != 'o';
+            }
+        }
+
+        //Fill in the grid, taking the walls from the bordered layout
+        return MazeGrid.fromBorderedLayout(open, height, width);
+    }
+
+    /**
+     * Close the file
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,262 @@
+package joglmaze;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ViewFrustum, finds the maze cells that can be inside the camera's view
+ * <p>
+ * The camera always looks horizontally, so the view frustum seen from above is
+ * a triangle from the camera position out to the far plane. The triangle is
+ * scanned over the cell grid row by row, and only the cells of each row whose
+ * squares overlap the triangle are visited, so the cost is proportional to the
+ * visible area and not to the size of the maze. When the area is large, the
+ * rows can be scanned in parallel on a fork/join pool.
+ */
+public class ViewFrustum {
+
+    //Half the horizontal field of view, in radians, and the view distance
+    private final double halfFov;
+    private final float far;
+
+    //The triangle corners: camera, far left, far right
+    private final float[] xs = new float[3];
+    private final float[] zs = new float[3];
+
+    //The number of cells a fork/join task scans without splitting further
+    static final int TASK_CELLS = 2048;
+
+    //The flat indices of the visible cells of the last cull
+    private int[] visible = new int[256];
+    private int visibleCount;
+    //Per row scanned by the last cull: its first and last column, the open cells found, and where they start in visible
+    private int rowCount;
+    private int[] rowFirst = new int[64], rowLast = new int[64], rowFound = new int[64], rowStart = new int[65];
+
+    /**
+     * Create a frustum for a symmetric perspective projection
+     *
+     * @param fov The field of view in degrees (gluPerspective with aspect 1)
+     * @param far The far plane distance
+     */
+    public ViewFrustum(float fov, float far) {
+        this.halfFov = Math.toRadians(fov / 2);
+        this.far = far;
+    }
+
+    /**
+     * Move the frustum to the camera
+     *
+     * @param x     The camera X position
+     * @param z     The camera Z position
+     * @param angle The camera angle, as used for the look-at direction
+     */
+    public void update(float x, float z, float angle) {
+        //Forward is (sin, cos) of the angle; the far corners are rotated half the field of view each way
+        float reach = (float) (far / Math.cos(halfFov));
+        xs[0] = x;
+        zs[0] = z;
+        xs[1] = x + reach * (float) Math.sin(angle + halfFov);
+        zs[1] = z + reach * (float) Math.cos(angle + halfFov);
+        xs[2] = x + reach * (float) Math.sin(angle - halfFov);
+        zs[2] = z + reach * (float) Math.cos(angle - halfFov);
+    }
+
+    /**
+     * Collect the cells of the grid that overlap the view triangle.
+     * The result is conservative: a cell is never culled if any part of it is in view.
+     *
+     * @param grid The maze grid
+     * @return The number of visible cells, see getVisible()
+     */
+    public int cull(MazeGrid grid) {
+        return cull(grid, null);
+    }
+
+    /**
+     * Collect the cells of the grid that overlap the view triangle, scanning the
+     * rows on a fork/join pool when the triangle covers enough cells to be worth it
+     *
+     * @param grid The maze grid
+     * @param pool The pool to scan on, or null to scan on the calling thread
+     * @return The number of visible cells, see getVisible()
+     */
+    public int cull(MazeGrid grid, ForkJoinPool pool) {
+        //Rows covered by the triangle, widened to whole cells
+        float minX = Math.min(xs[0], Math.min(xs[1], xs[2]));
+        float maxX = Math.max(xs[0], Math.max(xs[1], xs[2]));
+        int firstRow = Math.max(0, (int) Math.floor(minX + 0.5f));
+        int lastRow = Math.min(grid.getRows() - 1, (int) Math.floor(maxX + 0.5f));
+        rowCount = Math.max(0, lastRow - firstRow + 1);
+        if (rowFirst.length < rowCount) {
+            rowFirst = new int[rowCount];
+            rowLast = new int[rowCount];
+            rowFound = new int[rowCount];
+            rowStart = new int[rowCount + 1];
+        }
+
+        //The columns of each row inside the triangle, and where the row's cells go in visible
+        for (int r = 0; r < rowCount; r++) {
+            //The z extent of the part of the triangle inside this row's slab
+            int i = firstRow + r;
+            float slabMin = i - 0.5f, slabMax = i + 0.5f;
+            float minZ = Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+            for (int e = 0; e < 3; e++) {
+                float ax = xs[e], az = zs[e];
+                float bx = xs[(e + 1) % 3], bz = zs[(e + 1) % 3];
+                if (ax >= slabMin && ax <= slabMax) {
+                    minZ = Math.min(minZ, az);
+                    maxZ = Math.max(maxZ, az);
+                }
+                //Where the edge crosses either side of the slab
+                for (int side = 0; side < 2; side++) {
+                    float sx = side == 0 ? slabMin : slabMax;
+                    if ((ax - sx) * (bx - sx) < 0) {
+                        float cz = az + (bz - az) * (sx - ax) / (bx - ax);
+                        minZ = Math.min(minZ, cz);
+                        maxZ = Math.max(maxZ, cz);
+                    }
+                }
+            }
+            rowFirst[r] = 0;
+            rowLast[r] = -1;
+            if (minZ <= maxZ) {
+                rowFirst[r] = Math.max(0, (int) Math.floor(minZ + 0.5f));
+                rowLast[r] = Math.min(grid.getCols() - 1, (int) Math.floor(maxZ + 0.5f));
+            }
+            rowStart[r + 1] = rowStart[r] + Math.max(0, rowLast[r] - rowFirst[r] + 1);
+        }
+        int scanned = rowStart[rowCount];
+        if (visible.length < scanned) visible = new int[Math.max(scanned, visible.length * 2)];
+
+        //Each row writes its open cells from its own start, so the rows can be scanned at once
+        if (pool != null && scanned > 2 * TASK_CELLS) {
+            pool.invoke(new ScanTask(grid, firstRow, 0, rowCount));
+        } else {
+            scanRows(grid, firstRow, 0, rowCount);
+        }
+
+        //Close the gaps left by the closed cells of each row
+        visibleCount = 0;
+        for (int r = 0; r < rowCount; r++) {
+            System.arraycopy(visible, rowStart[r], visible, visibleCount, rowFound[r]);
+            visibleCount += rowFound[r];
+        }
+        return visibleCount;
+    }
+
+    //Find the open cells of a range of the rows set up by cull()
+    private void scanRows(MazeGrid grid, int firstRow, int from, int to) {
+        int cols = grid.getCols();
+        for (int r = from; r < to; r++) {
+            int found = rowStart[r];
+            for (int index = (firstRow + r) * cols + rowFirst[r], end = index - rowFirst[r] + rowLast[r]; index <= end; index++) {
+                if (grid.isOpen(index)) visible[found++] = index;
+            }
+            rowFound[r] = found - rowStart[r];
+        }
+    }
+
+    /**
+     * Fork/join task scanning a range of the rows set up by cull()
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final MazeGrid grid;
+        private final int firstRow, from, to;
+
+        ScanTask(MazeGrid grid, int firstRow, int from, int to) {
+            this.grid = grid;
+            this.firstRow = firstRow;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && rowStart[to] - rowStart[from] > TASK_CELLS) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScanTask(grid, firstRow, from, middle), new ScanTask(grid, firstRow, middle, to));
+                return;
+            }
+            scanRows(grid, firstRow, from, to);
+        }
+    }
+
+    /**
+     * Collect the cells of a visible set that overlap the view triangle. Only the
+     * cells that can be seen from the camera's cell are tested, so the cost is
+     * proportional to the size of the visible set.
+     *
+     * @param grid The maze grid
+     * @param pvs  The visible sets of the maze
+     * @param cell The grid index of the cell the camera is in
+     * @return The number of visible cells, see getVisible()
+     */
+    public int cull(MazeGrid grid, PotentiallyVisibleSet pvs, int cell) {
+        visibleCount = 0;
+        int[] runs = pvs.getRuns();
+        int cols = grid.getCols();
+        for (int r = pvs.getRunStart(cell); r < pvs.getRunEnd(cell); r += 2) {
+            for (int index = runs[r]; index < runs[r] + runs[r + 1]; index++) {
+                if (!overlaps(index / cols, index % cols)) continue;
+                if (visibleCount == visible.length) visible = Arrays.copyOf(visible, visibleCount * 2);
+                visible[visibleCount++] = index;
+            }
+        }
+        return visibleCount;
+    }
+
+    /**
+     * Check whether the square of a cell overlaps the view triangle, by looking
+     * for a separating axis among the two grid axes and the triangle edge normals.
+     *
+     * @param i The row (x) index of the cell
+     * @param j The column (z) index of the cell
+     * @return True if the cell is at least partly in view
+     */
+    public boolean overlaps(int i, int j) {
+        return overlaps(i, j, i, j);
+    }
+
+    /**
+     * Check whether a rectangle of cells overlaps the view triangle
+     *
+     * @param firstI The first row (x) index of the rectangle
+     * @param firstJ The first column (z) index of the rectangle
+     * @param lastI  The last row (x) index of the rectangle
+     * @param lastJ  The last column (z) index of the rectangle
+     * @return True if the rectangle is at least partly in view
+     */
+    public boolean overlaps(int firstI, int firstJ, int lastI, int lastJ) {
+        float minX = firstI - 0.5f, maxX = lastI + 0.5f;
+        float minZ = firstJ - 0.5f, maxZ = lastJ + 0.5f;
+        if (Math.max(xs[0], Math.max(xs[1], xs[2])) < minX) return false;
+        if (Math.min(xs[0], Math.min(xs[1], xs[2])) > maxX) return false;
+        if (Math.max(zs[0], Math.max(zs[1], zs[2])) < minZ) return false;
+        if (Math.min(zs[0], Math.min(zs[1], zs[2])) > maxZ) return false;
+
+        for (int e = 0; e < 3; e++) {
+            //The normal of the edge, and the opposite triangle corner that lies on its inner side
+            float ax = xs[e], az = zs[e];
+            float nx = zs[(e + 1) % 3] - az, nz = ax - xs[(e + 1) % 3];
+            float inside = nx * (xs[(e + 2) % 3] - ax) + nz * (zs[(e + 2) % 3] - az);
+            //The corner that lies furthest towards the inner side
+            float cx = nx * inside > 0 ? maxX : minX;
+            float cz = nz * inside > 0 ? maxZ : minZ;
+            if ((nx * (cx - ax) + nz * (cz - az)) * inside < 0) return false;
+        }
+        return true;
+    }
+
+    //The flat grid indices of the cells found by the last cull
+    public int[] getVisible() {
+        return visible;
+    }
+
+    //The number of cells found by the last cull
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+}
@@ -1,14 +1,16 @@
 package joglmaze;
 
 import com.jogamp.opengl.util.gl2.GLUT;
-import com.jogamp.opengl.util.texture.Texture;
-import com.jogamp.opengl.util.texture.TextureIO;
 
 import javax.media.opengl.*;
 import javax.media.opengl.glu.GLU;
 import javax.media.opengl.glu.gl2.GLUgl2;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 
 
 /**
@@ -22,38 +24,144 @@ import java.util.ArrayList;
  *         the default matrix is the modelview matrix
  */
 public class ViewRenderer implements GLEventListener {
-    // The current time for global animation
-    private int time = 0;
-    // The amount to update time
-    private int deltaT = 1;
-    // The maximum number of frames to skip
-    private int maxFrameSkip = 10;
-    // The delay between time updates
-    private long delay;
-    // The time last time we checked
-    private long lastTime;
+    //The simulation that moves the camera in fixed ticks, independently of the frame rate
+    private final Simulation simulation;
+    //The camera x, z and angle for the frame being drawn, between the last two ticks
+    private final float[] camera = new float[3];
     //Camera X position, lookAt position
-    private static float xPos = 1, initXPos, xLookAt = 0;
+    private float xPos = 1, xLookAt = 0;
     //Camera Z position, lookAt position
-    private static float zPos = 1, initZPos, zLookAt = 0;
-    //Current camera forward-movement speed
-    private float speed = 0;
+    private float zPos = 1, zLookAt = 0;
     //Current camera angle
     private float angle = 0;
-    //Current camera angular (turning) speed
-    private float turn = 0;
-    //Current camera angle
-    private float camAngle;
+    //The start position of the camera, at the start cell of the maze once it is loaded
+    private float initXPos = 1, initZPos = 1;
 
     //The wall/ceiling/etc drawlist
     static int rectList = -1;
+    //The number of quads along each side of a face in the drawlist, for fixed-function lighting,
+    //and how far the face is shifted in the list to be centred by its translation
+    static final int FACE_TILES = 20;
+    static final float FACE_OFFSET = 0.025f;
+
+    //The diffuse colour and attenuation of the two cell lamps
+    static final float[] LAMP_DIFFUSE = {0.5f, 0.5f, 0.2f, 1.0f};
+    static final float LAMP_LINEAR_ATTENUATION = 0.5f;
+    static final float LAMP_QUADRATIC_ATTENUATION = 0.5f;
+
+    //The perspective projection, shared by reshape() and the view frustum culling
+    static final float FIELD_OF_VIEW = 75;
+    static final float NEAR_PLANE = 0.01f;
+    static final float FAR_PLANE = 100;
+
+    //The default maze layout file
+    static final String MAZE_FILE = "maze_layout_1";
+
+    //Mazes with more cells than this are streamed in tiles instead of being loaded whole
+    static final long CHUNKED_MIN_CELLS = 4096L * 4096L;
+    //The tile size and how many tiles around the camera are kept loaded when streaming
+    static final int TILE_SIZE = 64;
+    static final int TILE_RADIUS = 2;
+    //The most mesh data kept loaded when streaming, in bytes (-Dmaze.tileMemoryBudget=...)
+    static final long TILE_MEMORY_BUDGET = Long.getLong("maze.tileMemoryBudget", 256L << 20);
+
+    //The search used to find the route to the exit (-Dmaze.solver=BFS, ASTAR, JPS or BIDIRECTIONAL)
+    static final MazeSolver.Algorithm SOLVER = MazeSolver.Algorithm.valueOf(System.getProperty("maze.solver", "JPS"));
+
+    //The maze layout file to load
+    private String mazeFile = MAZE_FILE;
+
+    // The layout of the maze: open cells and their walls
+    private MazeGrid mazeGrid;
+    // The list of the maze cells, only created when drawing cell by cell
+    private ArrayList<Cell> mazeCells;
+    // The grid index of the maze cells, to find the Cell objects of the cells in view
+    private CellGrid cellGrid;
+    // The cells that can be seen from each cell of the maze, found in the background, until handed to the preparer
+    private Future<PotentiallyVisibleSet> visibleSetLoad;
+    // The number of cells drawn and culled in the last frame
+    private volatile int cellsDrawn, cellsCulled;
+    // The cells that hold a maze object, drawn on top of the static mesh; the markers of a streamed text maze
+    // are added once they are found, while the preparer reads the list
+    private List<Cell> itemCells = new CopyOnWriteArrayList<Cell>();
+    // The start and end cells of a streamed text maze, found in the background
+    private Future<long[]> endPointsLoad;
+
+    //Whether to draw the maze from the merged static mesh, or cell by cell (-Dmaze.cellByCell=true)
+    private boolean useStaticMesh = !Boolean.getBoolean("maze.cellByCell");
+    //Whether cells drawn one by one are lit per pixel by a shader (-Dmaze.lighting=shader), or per vertex (fixed)
+    static final boolean SHADER_LIGHTING = !"fixed".equals(System.getProperty("maze.lighting", "shader"));
+    //The per pixel lighting, and whether it built on this context
+    private final LightingShader lighting = new LightingShader();
+    private boolean shaderLighting;
+
+    //The torches and other lights placed in the maze, lit by the shader (-Dmaze.torchSpacing=... cells per torch)
+    static final int TORCH_SPACING = Integer.getInteger("maze.torchSpacing", 12);
+    private LightGrid lights;
+    //The lantern carried by the camera: whether it is wanted, and its light id, or -1
+    static final float[] LANTERN_COLOUR = {0.9f, 0.85f, 0.7f};
+    static final float LANTERN_RADIUS = 3.0f;
+    private volatile boolean lanternCarried;
+    private int lantern = -1;
+    //The merged wall/floor/ceiling geometry of the maze
+    private MazeMesh mazeMesh;
+    //The tiles of a maze too large to load whole, streamed around the camera
+    private ChunkedMaze chunkedMaze;
+
+    //All the maze textures, in one texture
+    private TextureAtlas atlas;
+
+    //Works out each frame, on its own thread while the last one is drawn (-Dmaze.pipeline=false to do it here)
+    static final boolean PIPELINED = Boolean.parseBoolean(System.getProperty("maze.pipeline", "true"));
+    private FramePreparer preparer;
+    //Puts the lamps, and the shader lights of its tile, in each cell the queue draws in
+    private final RenderQueue.Placement cellPlacement = new RenderQueue.Placement() {
+        @Override
+        public void place(GL2 gl, float x, float z, boolean shader) {
+            Cell.placeLights(gl);
+            if (shader) metrics.addStateChanges(lighting.selectTile(gl, lights, lights.tileOf((int) x, (int) z)));
+        }
+    };
 
+    //Finds the route to the exit, made the first time it is needed
+    private MazeSolver solver;
+    //The route to the exit along the floor, and whether it is shown
+    private final RouteOverlay routeOverlay = new RouteOverlay();
+    private volatile boolean routeVisible;
 
-    // The list of the maze cells
-    private ArrayList<Cell> mazeCells;
+    //The overhead map of the cells explored, when the maze is loaded whole and the context can draw into a texture
+    private Minimap minimap;
+    private volatile boolean minimapVisible = true;
 
-    //Initialize the texture variable array
-    private Texture[] textures = new Texture[3];
+    /**
+     * How the GL calls are made: straight to the driver, checked for errors after each call,
+     * or counted by entry point with the redundant state changes
+     */
+    enum GLPipeline {PRODUCTION, DEBUG, PROFILING}
+
+    //The GL pipeline (-Dmaze.glPipeline=PRODUCTION, DEBUG or PROFILING), and where profiling writes its summary at exit
+    static final GLPipeline GL_PIPELINE = GLPipeline.valueOf(System.getProperty("maze.glPipeline", "PRODUCTION"));
+    static final String GL_PROFILE_FILE = System.getProperty("maze.glProfile", "glprofile.txt");
+    private GLProfiler glProfiler;
+
+    //Record what drives the camera to a log (-Dmaze.record=<file>), or play a log back (-Dmaze.replay=<file>),
+    //in real time or one tick per frame drawn (-Dmaze.replayFast=true)
+    static final String RECORD_FILE = System.getProperty("maze.record");
+    static final String REPLAY_FILE = System.getProperty("maze.replay");
+    static final boolean REPLAY_FAST = Boolean.getBoolean("maze.replayFast");
+    private final int tickRate;
+    private InputLog.Writer recorder;
+    private InputLog.Reader replay;
+    private boolean tickPerFrame;
+
+    //The timings and counters of each frame, and whether they are drawn over the maze
+    private final FrameMetrics metrics = new FrameMetrics();
+    private volatile boolean overlayVisible;
+    //The size of the window, to place the overlay from the top and the minimap in the corner
+    private int viewWidth, viewHeight;
+    //The overlay text position and spacing, in pixels
+    static final int OVERLAY_MARGIN = 8;
+    static final int OVERLAY_LINE_HEIGHT = 15;
 
     GLU glu = new GLUgl2();
     GLUT glut = new GLUT();
@@ -61,20 +169,42 @@ public class ViewRenderer implements GLEventListener {
     /**
      * Default constructor for the ViewRenderer class
      *
-     * @param fps - the number of fps at which animation should occur.
+     * @param fps - the number of times per second the camera is moved; frames are drawn at any rate.
      */
     public ViewRenderer(int fps) {
-        // Delay between time updates in ms
-        delay = 1000 / fps;
-        // Look at the time now
-        lastTime = System.currentTimeMillis();
+        simulation = new Simulation(fps);
+        tickRate = fps;
     }
 
     /**
-     * You have to implement dispose to avoid some warnings, but I don't need to clean up
+     * Constructor for a renderer that shows a particular maze
+     *
+     * @param fps      - the number of times per second the camera is moved.
+     * @param mazeFile - the maze layout file to load
+     */
+    public ViewRenderer(int fps, String mazeFile) {
+        this(fps);
+        this.mazeFile = mazeFile;
+    }
+
+    /**
+     * Release the maze geometry
      */
     @Override
     public void dispose(GLAutoDrawable drawable) {
+        GL2 gl = getGL2(drawable);
+        simulation.stop();
+        if (recorder != null) recorder.close();
+        if (preparer != null) preparer.stop();
+        if (mazeMesh != null) mazeMesh.dispose(gl);
+        if (chunkedMaze != null) chunkedMaze.dispose(gl);
+        if (atlas != null) atlas.dispose(gl);
+        routeOverlay.dispose(gl);
+        MazeEndPoint.disposeLists(gl);
+        if (minimap != null) minimap.dispose(gl);
+        lighting.dispose(gl);
+        metrics.dispose(gl);
+        metrics.unregister();
     }
 
     /**
@@ -89,17 +219,30 @@ public class ViewRenderer implements GLEventListener {
     public void display(GLAutoDrawable drawable) {
 
         // Get the OpenGL Context
-        GL2 gl = drawable.getGL().getGL2();
+        GL2 gl = getGL2(drawable);
 
-        //Update the time variable for each frame
-        time++;
+        metrics.beginFrame(gl);
+        metrics.beginPhase(gl, FrameMetrics.Phase.CULL);
 
-        //Update the camera angle based on the angular speed
-        angle += turn;
+        //Take the camera from the simulation, between its last two ticks, and have the frame worked out for it;
+        //what is drawn is the frame worked out for the camera of the last one
+        if (tickPerFrame) {
+            //Replaying as fast as frames are drawn: a tick a frame, drawn where it ends
+            simulation.runTick();
+            simulation.getState().interpolate(1, camera);
+        } else {
+            simulation.sample(System.nanoTime(), camera);
+        }
+        if (visibleSetLoad != null && visibleSetLoad.isDone()) useVisibleSet();
+        if (endPointsLoad != null && endPointsLoad.isDone()) useEndPoints();
+        FramePacket packet = preparer.next(camera[0], camera[1], camera[2]);
+        ViewFrustum frustum = packet.getFrustum();
+        metrics.endPhase(gl, FrameMetrics.Phase.CULL);
 
-        //Update the camera position based on the current camera speeds
-        xPos += speed * Math.sin(angle);
-        zPos += speed * Math.cos(angle);
+        metrics.beginPhase(gl, FrameMetrics.Phase.CAMERA);
+        xPos = packet.getX();
+        zPos = packet.getZ();
+        angle = packet.getAngle();
 
         //update the look-at position based on the current cam position
         xLookAt = (float) (xPos + Math.sin(angle));
@@ -116,16 +259,111 @@ public class ViewRenderer implements GLEventListener {
 
 
         gl.glPushMatrix();
-
-        //Iterate through the draw methods of each cell in the arraylist
-        for (Cell cell : mazeCells) {
-            cell.draw(textures, gl);
+        metrics.endPhase(gl, FrameMetrics.Phase.CAMERA);
+
+        if (chunkedMaze != null) {
+            //Stream in the tiles around the camera and draw the ones in view
+            metrics.beginPhase(gl, FrameMetrics.Phase.STREAM);
+            chunkedMaze.update(gl, xPos, zPos);
+            metrics.endPhase(gl, FrameMetrics.Phase.STREAM);
+
+            metrics.beginPhase(gl, FrameMetrics.Phase.MAZE);
+            chunkedMaze.draw(gl, atlas, frustum);
+            metrics.endPhase(gl, FrameMetrics.Phase.MAZE);
+            cellsDrawn = chunkedMaze.getCellsDrawn();
+            cellsCulled = chunkedMaze.getCellsCulled();
+            metrics.addDrawCalls(chunkedMaze.getDrawCalls());
+            metrics.addStateChanges(chunkedMaze.getStateChanges());
+        } else {
+            cellsDrawn = packet.getCellsDrawn();
+            cellsCulled = packet.getCellsCulled();
+
+            metrics.beginPhase(gl, FrameMetrics.Phase.MAZE);
+            if (mazeMesh != null) {
+                //Draw the walls of the visible blocks at once, or with the shader a block at a time, in the lights
+                //of its tile
+                if (lights != null) {
+                    lighting.beginFrame(xPos, zPos, angle);
+                    moveLantern();
+                }
+                mazeMesh.draw(gl, atlas, frustum, lights != null ? lighting : null, lights);
+                metrics.addDrawCalls(mazeMesh.getDrawCalls());
+                metrics.addStateChanges(MazeMesh.BEGIN_END_BINDS + MazeMesh.MESH_BINDS + mazeMesh.getLightingStateChanges());
+            } else {
+                //Draw the faces of the visible cells, queued and sorted with the frame, with the atlas bound once
+                atlas.bind(gl);
+                if (shaderLighting) {
+                    lighting.beginFrame(xPos, zPos, angle);
+                    moveLantern();
+                }
+                RenderQueue cells = packet.getCells();
+                metrics.addDrawCalls(cells.flush(gl, atlas, lighting, cellPlacement));
+                atlas.unbind(gl);
+                //The atlas bind and unbind, and the shader, layer, material and cell switches of the queue
+                metrics.addStateChanges(2 + cells.getStateChanges());
+                metrics.addStateChangesSaved(cells.getStateChangesSaved());
+            }
+            metrics.endPhase(gl, FrameMetrics.Phase.MAZE);
+        }
+        metrics.addCells(cellsDrawn);
+
+        //The start and end markers, drawn by the cells themselves when drawing cell by cell, and the route
+        metrics.beginPhase(gl, FrameMetrics.Phase.ITEMS);
+        if (mazeCells == null) {
+            RenderQueue items = packet.getItems();
+            metrics.addDrawCalls(items.flush(gl, null, null, cellPlacement));
+            metrics.addStateChanges(items.getStateChanges());
+            metrics.addStateChangesSaved(items.getStateChangesSaved());
         }
+        if (routeVisible) metrics.addDrawCalls(routeOverlay.draw(gl));
+        metrics.endPhase(gl, FrameMetrics.Phase.ITEMS);
 
         gl.glPopMatrix();
 
+        //Mark the cells around the camera explored, draw them into the map, and draw the map over the view
+        if (minimap != null) {
+            metrics.beginPhase(gl, FrameMetrics.Phase.MINIMAP);
+            minimap.explore(xPos, zPos);
+            metrics.addDrawCalls(minimap.update(gl));
+            if (minimapVisible) metrics.addDrawCalls(minimap.draw(gl, xPos, zPos, angle, viewWidth, viewHeight));
+            metrics.endPhase(gl, FrameMetrics.Phase.MINIMAP);
+        }
+
         // Flush the data.
+        metrics.beginPhase(gl, FrameMetrics.Phase.FLUSH);
         gl.glFlush();
+        metrics.endPhase(gl, FrameMetrics.Phase.FLUSH);
+        metrics.endFrame();
+
+        if (overlayVisible) drawOverlay(gl);
+        if (glProfiler != null) glProfiler.endFrame();
+    }
+
+    //Add, move or take away the lantern carried by the camera
+    private void moveLantern() {
+        if (lanternCarried && lantern < 0) {
+            lantern = lights.add(xPos, 0, zPos, LANTERN_COLOUR[0], LANTERN_COLOUR[1], LANTERN_COLOUR[2], LANTERN_RADIUS);
+        } else if (lanternCarried) {
+            lights.move(lantern, xPos, 0, zPos);
+        } else if (lantern >= 0) {
+            lights.remove(lantern);
+            lantern = -1;
+        }
+    }
+
+    //Draw the frame metrics in the top left corner of the window
+    private void drawOverlay(GL2 gl) {
+        String[] lines = metrics.getOverlayLines();
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT);
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glDisable(GL2.GL_TEXTURE_2D);
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glColor3f(1.0f, 1.0f, 0.0f);
+        for (int l = 0; l < lines.length; l++) {
+            gl.glWindowPos2i(OVERLAY_MARGIN, viewHeight - OVERLAY_MARGIN - (l + 1) * OVERLAY_LINE_HEIGHT);
+            glut.glutBitmapString(GLUT.BITMAP_HELVETICA_12, lines[l]);
+        }
+        gl.glPopAttrib();
     }
 
 
@@ -139,8 +377,17 @@ public class ViewRenderer implements GLEventListener {
     @Override
     public void init(GLAutoDrawable drawable) {
 
-        drawable.setGL(new DebugGL2(drawable.getGL().getGL2()));
-        GL2 gl = drawable.getGL().getGL2();
+        //Start decoding the textures in the background, while the maze loads
+        Future<TextureAtlas> atlasLoad = TextureAtlas.loadAsync();
+
+        //Draw straight to the driver, or through a wrapper that checks or counts the calls
+        if (GL_PIPELINE == GLPipeline.DEBUG) {
+            drawable.setGL(new DebugGL2(drawable.getGL().getGL2()));
+        } else if (GL_PIPELINE == GLPipeline.PROFILING) {
+            glProfiler = new GLProfiler(drawable.getGL().getGL2(), new File(GL_PROFILE_FILE));
+            drawable.setGL(glProfiler);
+        }
+        GL2 gl = getGL2(drawable);
         gl.glShadeModel(GL2.GL_SMOOTH);
 
         //Set up the default buffer clear parameters
@@ -172,19 +419,19 @@ public class ViewRenderer implements GLEventListener {
 
         //Set up a light source for light 0 and 1
         gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, new float[]{0.0f, 0.0f, 0.0f, 1.0f}, 0);
-        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, new float[]{0.5f, 0.5f, 0.2f, 1.0f}, 0);
+        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, LAMP_DIFFUSE, 0);
         gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_SPECULAR, new float[]{0.4f, 0.4f, 0.4f, 1.0f}, 0);
 
         gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_AMBIENT, new float[]{0.0f, 0.0f, 0.0f, 1.0f}, 0);
-        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_DIFFUSE, new float[]{0.5f, 0.5f, 0.2f, 1.0f}, 0);
+        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_DIFFUSE, LAMP_DIFFUSE, 0);
         gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_SPECULAR, new float[]{0.4f, 0.4f, 0.4f, 1.0f}, 0);
 
         //Set the attenuation parameter of the lights
-        gl.glLightf(GL2.GL_LIGHT0, GL2.GL_LINEAR_ATTENUATION, 0.5f);
-        gl.glLightf(GL2.GL_LIGHT0, GL2.GL_QUADRATIC_ATTENUATION, 0.5f);
+        gl.glLightf(GL2.GL_LIGHT0, GL2.GL_LINEAR_ATTENUATION, LAMP_LINEAR_ATTENUATION);
+        gl.glLightf(GL2.GL_LIGHT0, GL2.GL_QUADRATIC_ATTENUATION, LAMP_QUADRATIC_ATTENUATION);
 
-        gl.glLightf(GL2.GL_LIGHT1, GL2.GL_LINEAR_ATTENUATION, 0.5f);
-        gl.glLightf(GL2.GL_LIGHT1, GL2.GL_QUADRATIC_ATTENUATION, 0.5f);
+        gl.glLightf(GL2.GL_LIGHT1, GL2.GL_LINEAR_ATTENUATION, LAMP_LINEAR_ATTENUATION);
+        gl.glLightf(GL2.GL_LIGHT1, GL2.GL_QUADRATIC_ATTENUATION, LAMP_QUADRATIC_ATTENUATION);
 
         //Enable backface culling to save up more system resources
         gl.glCullFace(GL2.GL_BACK);
@@ -196,49 +443,217 @@ public class ViewRenderer implements GLEventListener {
         //gl.glActiveTexture(GL.GL_TEXTURE1);
         //gl.glEnable(GL2.GL_TEXTURE_2D);
 
-        //Load the image files to be used as textures
+        //Create a draw list of a generic wall/ceiling/floor rectangle. The shader lights it per pixel,
+        //so one quad will do; fixed-function lighting is per vertex, so it needs 20x20 smaller quads to look smooth
+        shaderLighting = SHADER_LIGHTING && LightingShader.isSupported(gl) && lighting.init(gl);
+        rectList = buildFaceList(gl, shaderLighting ? 1 : FACE_TILES);
+        MazeEndPoint.buildLists(gl);
+
+        //Very large mazes are streamed in tiles, with only their start and end markers loaded up front, or for text
+        //files, which have to be read through to find them, once they are found
+        int[] dimensions = MazeLoader.ReadDimensions(mazeFile);
+        if ((long) dimensions[0] * dimensions[1] > CHUNKED_MIN_CELLS) {
+            try {
+                chunkedMaze = new ChunkedMaze(mazeFile, TILE_SIZE, TILE_RADIUS, TILE_MEMORY_BUDGET);
+            } catch (IOException ex) {
+                System.out.println("Failed to open maze file\n" + ex.toString());
+                System.exit(1);
+            }
+            MazeTileSource tiledFile = chunkedMaze.getMazeFile();
+            //Binary maze files can look up any cell, so the camera collides with their walls too
+            if (tiledFile instanceof MazeLayout) {
+                simulation.setCollider(new MazeCollider((MazeLayout) tiledFile, MazeCollider.PLAYER_RADIUS));
+            }
+            if (tiledFile instanceof TiledMazeFile) {
+                endPointsLoad = ((TiledMazeFile) tiledFile).findEndPointsAsync();
+            } else {
+                addEndPoints(tiledFile.getStart(), tiledFile.getEnd(), dimensions[1]);
+            }
+        } else {
+            //Load the maze from the text file
+            mazeGrid = MazeLoader.LoadGrid(mazeFile);
+            visibleSetLoad = PotentiallyVisibleSet.forMazeAsync(mazeFile, mazeGrid, FAR_PLANE);
+            simulation.setCollider(new MazeCollider(mazeGrid, MazeCollider.PLAYER_RADIUS));
+            if (mazeGrid.getStart() >= 0) setStart(mazeGrid.getStart() / mazeGrid.getCols(), mazeGrid.getStart() % mazeGrid.getCols());
+
+            //Draw the layout into the minimap's texture
+            if (Minimap.isSupported(gl)) {
+                minimap = new Minimap(mazeGrid);
+                if (!minimap.init(gl)) minimap = null;
+            }
+
+            if (useStaticMesh) {
+                //Merge the walls of all the cells into one mesh; only the cells with markers need objects
+                mazeMesh = MazeMesh.build(mazeGrid);
+                mazeMesh.upload(gl);
+                if (mazeGrid.getStart() >= 0) itemCells.add(MazeLoader.MakeCell(mazeGrid, mazeGrid.getStart()));
+                if (mazeGrid.getEnd() >= 0) itemCells.add(MazeLoader.MakeCell(mazeGrid, mazeGrid.getEnd()));
+            } else {
+                mazeCells = MazeLoader.MakeMaze(mazeGrid);
+                cellGrid = new CellGrid(mazeGrid, mazeCells);
+            }
+            //Only the shader can light the maze with more than the two cell lamps
+            if (shaderLighting) lights = LightGrid.forMaze(mazeGrid, TORCH_SPACING);
+        }
+
+        //Work out the frames from the maze, ahead of drawing them, culled by the frustum alone until the visible set is found
+        preparer = new FramePreparer(mazeGrid, null, cellGrid, itemCells, shaderLighting);
+        if (PIPELINED) preparer.start();
+
+        //Start moving the camera from the start cell, recording or replaying what moves it
+        openInputLogs(dimensions);
+        simulation.start(initXPos, initZPos, !tickPerFrame);
+
+        //Set up the frame timers and show them over JMX
+        metrics.init(gl);
+        metrics.register();
+
+        //Wait for the textures, packed into one atlas, and upload them
         try {
-            textures[0] = TextureIO.newTexture(new File("textures/brick.jpg"), true);
-            textures[1] = TextureIO.newTexture(new File("textures/redbook.jpg"), true);
-            textures[2] = TextureIO.newTexture(new File("textures/vine.png"), true);
+            atlas = atlasLoad.get();
+            atlas.upload(gl);
         } catch (Exception e) {
             System.out.println("Error: cannot load textures");
             e.printStackTrace();
         }
+    }
+
+
+    //Put markers in the start and end cells of a streamed maze, and start there
+    private void addEndPoints(long start, long end, int cols) {
+        long[] endPoints = {start, end};
+        if (endPoints[0] >= 0) setStart(endPoints[0] / cols, endPoints[0] % cols);
+        for (int p = 0; p < 2; p++) {
+            if (endPoints[p] < 0) continue;
+            Cell cell = new Cell(new boolean[4], endPoints[p] / cols, endPoints[p] % cols);
+            cell.addItem(new MazeEndPoint(p == 0 ? MazeEndPoint.EndPointType.START : MazeEndPoint.EndPointType.END));
+            itemCells.add(cell);
+        }
+    }
+
+    //Add the markers of a streamed text maze found in the background, and move the camera to the start
+    //if it has not moved yet
+    private void useEndPoints() {
+        float startX = initXPos, startZ = initZPos;
+        try {
+            long[] endPoints = endPointsLoad.get();
+            addEndPoints(endPoints[0], endPoints[1], chunkedMaze.getMazeFile().getCols());
+        } catch (Exception e) {
+            System.out.println("Failed to find the start and end of the maze\n" + e.toString());
+        }
+        endPointsLoad = null;
+        CameraState state = simulation.getState();
+        if (state.getX() == startX && state.getZ() == startZ && state.getAngle() == 0) {
+            simulation.place(initXPos, initZPos, 0);
+        }
+    }
+
+    //Cull with the visible set found in the background from the next frame prepared
+    private void useVisibleSet() {
+        try {
+            preparer.setVisibleSet(visibleSetLoad.get());
+        } catch (Exception e) {
+            System.out.println("Failed to find the visible set, culling by the frustum alone\n" + e.toString());
+        }
+        visibleSetLoad = null;
+    }
+
+    //Open the input log to replay and the one to record to, if asked for, and hand them to the simulation
+    private void openInputLogs(int[] dimensions) {
+        try {
+            if (replay == null && REPLAY_FILE != null) {
+                replay = new InputLog.Reader(REPLAY_FILE);
+                tickPerFrame = REPLAY_FAST;
+            }
+            if (replay != null) {
+                if (replay.getRows() != dimensions[0] || replay.getCols() != dimensions[1]) {
+                    System.out.println("Warning: the input log was recorded in a " + replay.getRows() + "x"
+                            + replay.getCols() + " maze, not this one");
+                }
+                if (replay.getTickRate() != tickRate) {
+                    System.out.println("Warning: the input log was recorded at " + replay.getTickRate()
+                            + " ticks per second, not " + tickRate);
+                }
+                simulation.replay(replay);
+            }
+            if (RECORD_FILE != null) {
+                final InputLog.Writer log = new InputLog.Writer(new File(RECORD_FILE), tickRate, dimensions[0], dimensions[1]);
+                recorder = log;
+                simulation.record(log);
+                //The window is usually closed by exiting, without disposing of the renderer
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        log.close();
+                    }
+                }, "input-log-writer"));
+            }
+        } catch (IOException ex) {
+            System.out.println("Failed to open the input log\n" + ex.toString());
+            System.exit(1);
+        }
+    }
 
-        //Create a draw list of a generic wall/ceiling/floor rectangle
-        //that consists of 100x100 smaller vertexes for smooth lignting
-        rectList = gl.glGenLists(1);
-        gl.glNewList(rectList, GL2.GL_COMPILE);
+    /**
+     * Play an input log back in place of the controls; call before the renderer is initialised
+     *
+     * @param log          The log to play
+     * @param tickPerFrame True to run a tick each frame drawn, false to run them in real time
+     */
+    public void replay(InputLog.Reader log, boolean tickPerFrame) {
+        replay = log;
+        this.tickPerFrame = tickPerFrame;
+    }
+
+    /**
+     * Get the GL of a drawable, staying inside the debug or profiling pipeline if
+     * one is set, whose getGL2() hands back the GL it wraps
+     *
+     * @param drawable The drawable
+     * @return The openGL context
+     */
+    private static GL2 getGL2(GLAutoDrawable drawable) {
+        GL gl = drawable.getGL();
+        return gl instanceof GL2 ? (GL2) gl : gl.getGL2();
+    }
+
+    /**
+     * Compile the draw list of a generic wall/ceiling/floor face, split into tiles
+     *
+     * @param gl    The openGL context
+     * @param tiles The number of quads along each side of the face
+     * @return The draw list
+     */
+    private static int buildFaceList(GL2 gl, int tiles) {
+        float size = 1.0f / tiles;
+        int list = gl.glGenLists(1);
+        gl.glNewList(list, GL2.GL_COMPILE);
         gl.glPushMatrix();
         gl.glRotatef(90, 1.0f, 0.0f, 0.0f);
         gl.glTranslatef(0.0f, -0.475f, -0.475f);
         //gl.glNormal3f(0,0,-1);
-        for (int i = 0; i < 20; i++) {
-            for (int j = 0; j < 20; j++) {
+        for (int i = 0; i < tiles; i++) {
+            for (int j = 0; j < tiles; j++) {
+                float iLow = i * size - FACE_OFFSET, iHigh = iLow + size;
+                float jLow = j * size - FACE_OFFSET, jHigh = jLow + size;
                 gl.glBegin(GL2.GL_POLYGON);
-                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, (i / 20.0f) + (0.5f * 0.05f), (j / 20.0f) + (0.5f * 0.05f));
-                gl.glVertex3f(-0.5f, (i / 20.0f) + (0.5f * 0.05f), (j / 20.0f) + (0.5f * 0.05f));
-                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, (i / 20.0f) - (0.5f * 0.05f), (j / 20.0f) + (0.5f * 0.05f));
-                gl.glVertex3f(-0.5f, (i / 20.0f) - (0.5f * 0.05f), (j / 20.0f) + (0.5f * 0.05f));
-                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, (i / 20.0f) - (0.5f * 0.05f), (j / 20.0f) - (0.5f * 0.05f));
-                gl.glVertex3f(-0.5f, (i / 20.0f) - (0.5f * 0.05f), (j / 20.0f) - (0.5f * 0.05f));
-                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, (i / 20.0f) + (0.5f * 0.05f), (j / 20.0f) - (0.5f * 0.05f));
-                gl.glVertex3f(-0.5f, (i / 20.0f) + (0.5f * 0.05f), (j / 20.0f) - (0.5f * 0.05f));
+                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, iHigh, jHigh);
+                gl.glVertex3f(-0.5f, iHigh, jHigh);
+                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, iLow, jHigh);
+                gl.glVertex3f(-0.5f, iLow, jHigh);
+                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, iLow, jLow);
+                gl.glVertex3f(-0.5f, iLow, jLow);
+                gl.glMultiTexCoord2f(GL2.GL_TEXTURE0, iHigh, jLow);
+                gl.glVertex3f(-0.5f, iHigh, jLow);
                 gl.glEnd();
             }
         }
 
         gl.glPopMatrix();
         gl.glEndList();
-
-        //Load the maze from the text file
-        mazeCells = MazeLoader.MakeMaze("maze_layout_1");
-
-
+        return list;
     }
 
-
     /**
      * (non-Javadoc)
      *
@@ -249,70 +664,163 @@ public class ViewRenderer implements GLEventListener {
     @Override
     public void reshape(GLAutoDrawable drawable, int x, int y, int width,
                         int height) {
-        GL2 gl = drawable.getGL().getGL2();
+        GL2 gl = getGL2(drawable);
         if (height <= 0) height = 1;
+        viewWidth = width;
+        viewHeight = height;
         float aspectRatio = (float) x / (float) y;
         gl.glMatrixMode(GL2.GL_PROJECTION);
         gl.glLoadIdentity();
-        glu.gluPerspective(75, 1, 0.01, 100);
+        glu.gluPerspective(FIELD_OF_VIEW, 1, NEAR_PLANE, FAR_PLANE);
         gl.glMatrixMode(GL2.GL_MODELVIEW);
     }
 
     /**
-     * Update the time variable used in the world.
+     * Get the number of maze cells that were in view in the last frame
+     *
+     * @return The number of cells drawn
+     */
+    public int getCellsDrawn() {
+        return cellsDrawn;
+    }
+
+    /**
+     * Get the number of maze cells that were skipped in the last frame
+     *
+     * @return The number of cells culled
      */
-    private void updateTime() {
-        // Update the time for as much time as has passed
-        long curTime = System.currentTimeMillis();
-        long numFrames = ((curTime - lastTime) / delay);
-
-        // Clamp numFrames to a minimum of 1 and a maximum of maxFrameSkip frames
-        numFrames = Math.max(numFrames, 1l);
-        numFrames = Math.min(numFrames, maxFrameSkip);
-
-        // Increase time by the update amount. When deltaT is set
-        // to zero this has no effect.
-        time += deltaT * numFrames;
-
-        // record the time so we can measure the time difference next frame
-        // If we are paused or have skipped over maxFrameSkip frames, don't try to keep track of
-        // partial frames
-        if (delay == 0 || numFrames == maxFrameSkip) {
-            lastTime = curTime;
-        } else {
-            lastTime += numFrames * delay;
+    public int getCellsCulled() {
+        return cellsCulled;
+    }
+
+    /**
+     * Get the timings and counters of the frames drawn
+     *
+     * @return The frame metrics
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Show or hide the frame metrics over the maze
+     *
+     * @param visible True to draw the metrics on screen
+     */
+    public void setOverlayVisible(boolean visible) {
+        overlayVisible = visible;
+    }
+
+    /**
+     * Show or hide the overhead map. The cells are explored whether it is shown or not.
+     *
+     * @param visible True to draw the map in the corner of the window
+     */
+    public void setMinimapVisible(boolean visible) {
+        minimapVisible = visible;
+    }
+
+    /**
+     * Carry a lantern with the camera, or put it away. The lantern, like the
+     * torches, is only seen when the cells are lit by the shader.
+     *
+     * @param carried True to light the maze around the camera
+     */
+    public void setLanternCarried(boolean carried) {
+        lanternCarried = carried;
+    }
+
+    /**
+     * Show or hide the route from the camera to the exit
+     *
+     * @param visible True to find the route and draw it along the floor
+     */
+    public void showRoute(boolean visible) {
+        routeVisible = visible;
+        if (visible) findRoute(false);
+    }
+
+    /**
+     * Find the route from the camera to the exit and walk the camera along it
+     */
+    public void walkToExit() {
+        findRoute(true);
+    }
+
+    //Find the route from the camera's cell to the exit on a background thread, then show it and maybe walk it
+    private void findRoute(final boolean walk) {
+        final MazeGrid grid = mazeGrid;
+        if (grid == null || grid.getEnd() < 0) {
+            System.out.println("No route: the maze is streamed in tiles, or has no exit");
+            return;
+        }
+        CameraState state = simulation.getState();
+        int i = Math.round(state.getX()), j = Math.round(state.getZ());
+        if (!grid.isOpen(i, j)) {
+            System.out.println("No route: the camera is outside the maze");
+            return;
         }
+        final int start = i * grid.getCols() + j;
+        Thread search = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int[] route = getSolver(grid).solve(start, grid.getEnd(), SOLVER);
+                if (route == null) {
+                    System.out.println("No route: the exit cannot be reached from here");
+                    return;
+                }
+                float[] waypoints = MazeSolver.waypoints(route, grid.getCols());
+                routeOverlay.set(waypoints);
+                if (walk) simulation.setRoute(waypoints);
+            }
+        }, "maze-solver");
+        search.setDaemon(true);
+        search.start();
+    }
+
+    //The solver of the maze, made on first use since its arrays take 8 to 16 bytes per cell
+    private synchronized MazeSolver getSolver(MazeGrid grid) {
+        if (solver == null) solver = new MazeSolver(grid);
+        return solver;
     }
 
     /**
      * Get the current time.
      *
-     * @return The current time variable
+     * @return The number of simulation ticks run
      */
     public int getTime() {
-        return time;
+        return (int) simulation.getState().getTick();
     }
 
     /**
      * Set the initial camera position
      *
-     * @param initXPos the X position of the player
-     * @param initZPos the Z position of the player
+     * @param inXPos the X position of the player
+     * @param inZPos the Z position of the player
      */
-    public static void setPos(float inXPos, float inZPos) {
+    private void setStart(float inXPos, float inZPos) {
         initXPos = inXPos;
-        xPos = inXPos;
         initZPos = inZPos;
-        zPos = inZPos;
+    }
+
+    /**
+     * Place the camera, for driving it along a scripted path
+     *
+     * @param x     The camera X position
+     * @param z     The camera Z position
+     * @param angle The camera angle, in radians; 0 looks along +z
+     */
+    public void setCamera(float x, float z, float angle) {
+        simulation.place(x, z, angle);
     }
 
     /**
      * Reset the camera position
      */
     public void reset() {
-        xPos = initXPos;
-        zPos = initZPos;
-        angle = 0;
+        simulation.setRoute(null);
+        simulation.place(initXPos, initZPos, 0);
     }
 
     /**
@@ -320,32 +828,41 @@ public class ViewRenderer implements GLEventListener {
      *
      * @param move the boolean that decides to either move or stand still
      */
-    public void moveForward(Boolean move) {
-        if (move) speed = 0.03f;
-        else speed = 0f;
+    public void moveForward(boolean move) {
+        stopWalking(move);
+        if (move) simulation.setSpeed(Simulation.MOVE_SPEED);
+        else simulation.setSpeed(0f);
     }
 
     /**
      * Move the camera backward
      */
-    public void moveBackward(Boolean move) {
-        if (move) speed = -0.03f;
-        else speed = 0f;
+    public void moveBackward(boolean move) {
+        stopWalking(move);
+        if (move) simulation.setSpeed(-Simulation.MOVE_SPEED);
+        else simulation.setSpeed(0f);
     }
 
     /**
      * Turn the camera left
      */
-    public void turnLeft(Boolean move) {
-        if (move) turn = 0.05f;
-        else turn = 0f;
+    public void turnLeft(boolean move) {
+        stopWalking(move);
+        if (move) simulation.setTurn(Simulation.TURN_SPEED);
+        else simulation.setTurn(0f);
     }
 
     /**
      * Turn the camera right
      */
-    public void turnRight(Boolean move) {
-        if (move) turn = -0.05f;
-        else turn = 0f;
+    public void turnRight(boolean move) {
+        stopWalking(move);
+        if (move) simulation.setTurn(-Simulation.TURN_SPEED);
+        else simulation.setTurn(0f);
+    }
+
+    //Taking over the controls stops the walk to the exit
+    private void stopWalking(boolean move) {
+        if (move) simulation.setRoute(null);
     }
-}
+}
\ No newline at end of file
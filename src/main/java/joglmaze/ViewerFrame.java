@@ -1,5 +1,7 @@
 package joglmaze;
 
+import com.jogamp.opengl.util.Animator;
+import com.jogamp.opengl.util.AnimatorBase;
 import com.jogamp.opengl.util.FPSAnimator;
 
 import javax.media.opengl.GLCapabilities;
@@ -24,16 +26,30 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
     // The object that renders the scene
     private ViewRenderer renderer;
     // The Animator object used to control animation frame rates
-    private FPSAnimator animator;
+    private AnimatorBase animator;
+
+    // The number of times per second the camera is moved
+    static final int TICK_RATE = 60;
+    // The frame rate to draw at (-Dmaze.fps=...); 0 draws as fast as the swap interval allows
+    static final int FRAME_RATE = Integer.getInteger("maze.fps", 60);
 
     // Menu items used in the program
     private JMenuItem exitItem;
     private JMenuItem resetItem;
+    private JCheckBoxMenuItem routeItem;
+    private JMenuItem walkItem;
+    private JCheckBoxMenuItem metricsItem;
+    private JCheckBoxMenuItem minimapItem;
+    private JCheckBoxMenuItem lanternItem;
+
+    // The window title, and the timer that adds the per-frame cell counts to it
+    private String title;
+    private Timer statsTimer;
 
     /**
      * The main method which runs the application
      *
-     * @param args The command line arguments
+     * @param args The command line arguments: optionally, the maze layout file to load
      */
     public static void main(String[] args) {
         // This line initialises some OpenGL features and must come before any other
@@ -43,7 +59,8 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
         GLProfile glp = GLProfile.getDefault();
 
         // Create a new frame and make it visible
-        new ViewerFrame("Java 3D Maze by jnazander", glp);
+        String mazeFile = args.length > 0 ? args[0] : ViewRenderer.MAZE_FILE;
+        new ViewerFrame("Java 3D Maze by jnazander", glp, mazeFile);
     }
 
     /**
@@ -53,8 +70,20 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
      * @param profile The GLProfile object used to initialise the OpenGL context
      */
     public ViewerFrame(String title, GLProfile profile) {
+        this(title, profile, ViewRenderer.MAZE_FILE);
+    }
+
+    /**
+     * Constructor for a frame showing a particular maze.
+     *
+     * @param title    The title of the Frame
+     * @param profile  The GLProfile object used to initialise the OpenGL context
+     * @param mazeFile The maze layout file to load
+     */
+    public ViewerFrame(String title, GLProfile profile, String mazeFile) {
         // Call the parent constructor
         super(title);
+        this.title = title;
 
         // Setup the frame with some default intial parameters
         setSize(512, 512);
@@ -70,16 +99,17 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
         jpanel = new GLJPanel(caps);
         jpanel.setDoubleBuffered(true);
 
-        // The jpanel will update 60 times a second, so we don't need to redraw
+        // The animator redraws the jpanel continuously, so we don't need to redraw
         // on other UI events
         jpanel.setIgnoreRepaint(true);
 
         // Create a new scene rendering object
-        renderer = new ViewRenderer(60);
+        renderer = new ViewRenderer(TICK_RATE, mazeFile);
         jpanel.addGLEventListener(renderer);
 
-        // Setup 60fps animator
-        animator = new FPSAnimator(jpanel, 60);
+        // Setup the animator; the camera moves at the same speed whatever the frame rate
+        if (FRAME_RATE > 0) animator = new FPSAnimator(jpanel, FRAME_RATE);
+        else animator = new Animator(jpanel);
 
         // Add the panel to the canvas
         getContentPane().add(jpanel);
@@ -97,6 +127,10 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
         // Start the animation
         animator.start();
 
+        // Report the drawn and culled cells twice a second
+        statsTimer = new Timer(500, this);
+        statsTimer.start();
+
     }
 
     /**
@@ -120,8 +154,31 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
         resetItem = new JMenuItem("Reset Player Location");
         resetItem.addActionListener(this);
         resetMenu.add(resetItem);
+        // Add items to show the way to the exit, also toggled with H, and to walk there, also started with G
+        routeItem = new JCheckBoxMenuItem("Show Route to Exit");
+        routeItem.addActionListener(this);
+        resetMenu.add(routeItem);
+        walkItem = new JMenuItem("Walk to Exit");
+        walkItem.addActionListener(this);
+        resetMenu.add(walkItem);
         menuBar.add(resetMenu);
 
+        //Build the View menu
+        JMenu viewMenu = new JMenu("View");
+        // Add an item to show the frame timings over the maze, also toggled with F3
+        metricsItem = new JCheckBoxMenuItem("Show Frame Metrics");
+        metricsItem.addActionListener(this);
+        viewMenu.add(metricsItem);
+        // Add an item to show the overhead map of the cells explored, also toggled with M
+        minimapItem = new JCheckBoxMenuItem("Show Minimap", true);
+        minimapItem.addActionListener(this);
+        viewMenu.add(minimapItem);
+        // Add an item to carry a lantern, also toggled with L
+        lanternItem = new JCheckBoxMenuItem("Carry Lantern");
+        lanternItem.addActionListener(this);
+        viewMenu.add(lanternItem);
+        menuBar.add(viewMenu);
+
         // Add the menu bar to this Frame
         setJMenuBar(menuBar);
 
@@ -150,6 +207,30 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
             case KeyEvent.VK_RIGHT:
                 renderer.turnRight(true);
                 break;
+            // If the user presses F3, show or hide the frame metrics
+            case KeyEvent.VK_F3:
+                metricsItem.setSelected(!metricsItem.isSelected());
+                renderer.setOverlayVisible(metricsItem.isSelected());
+                break;
+            // If the user presses M, show or hide the minimap
+            case KeyEvent.VK_M:
+                minimapItem.setSelected(!minimapItem.isSelected());
+                renderer.setMinimapVisible(minimapItem.isSelected());
+                break;
+            // If the user presses H, show or hide the route to the exit
+            case KeyEvent.VK_H:
+                routeItem.setSelected(!routeItem.isSelected());
+                renderer.showRoute(routeItem.isSelected());
+                break;
+            // If the user presses G, walk to the exit
+            case KeyEvent.VK_G:
+                renderer.walkToExit();
+                break;
+            // If the user presses L, carry a lantern or put it away
+            case KeyEvent.VK_L:
+                lanternItem.setSelected(!lanternItem.isSelected());
+                renderer.setLanternCarried(lanternItem.isSelected());
+                break;
             // If the user presses escape, exit the program
             case KeyEvent.VK_ESCAPE:
                 System.exit(0);
@@ -222,6 +303,30 @@ public class ViewerFrame extends JFrame implements KeyListener, ActionListener {
             // Reset was selected - restart the position
             renderer.reset();
         }
+        if (e.getSource().equals(routeItem)) {
+            // Show route was toggled - find the way to the exit and draw it, or stop
+            renderer.showRoute(routeItem.isSelected());
+        }
+        if (e.getSource().equals(walkItem)) {
+            // Walk was selected - find the way to the exit and follow it
+            renderer.walkToExit();
+        }
+        if (e.getSource().equals(metricsItem)) {
+            // Show metrics was toggled - draw the frame timings over the maze or stop
+            renderer.setOverlayVisible(metricsItem.isSelected());
+        }
+        if (e.getSource().equals(minimapItem)) {
+            // Show minimap was toggled - draw the map of the cells explored or stop
+            renderer.setMinimapVisible(minimapItem.isSelected());
+        }
+        if (e.getSource().equals(lanternItem)) {
+            // Carry lantern was toggled - light the maze around the camera or stop
+            renderer.setLanternCarried(lanternItem.isSelected());
+        }
+        if (e.getSource().equals(statsTimer)) {
+            // Show the cell counts of the last frame
+            setTitle(title + " - cells drawn: " + renderer.getCellsDrawn() + ", culled: " + renderer.getCellsCulled());
+        }
     }
 
 }
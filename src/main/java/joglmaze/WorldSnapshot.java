@@ -0,0 +1,286 @@
+package joglmaze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * WorldSnapshot, the players of a MazeServer after a tick, and its compact binary encoding
+ * <p>
+ * The players are kept quantized, the way they are sent: x and z in 1/256ths of
+ * a cell, and the angle in 1/65536ths of a turn, so the server and its clients
+ * agree on every value exactly. A snapshot is sent as a delta against one the
+ * client already has: only the players that joined, left or moved since are
+ * written, each as the gap from the slot of the player before, a byte of flags
+ * saying what follows, and the change of each field that changed as a zigzag
+ * varint. A player standing still costs nothing, and one walking a few bytes.
+ * Against no snapshot at all, the delta is the whole world. A delta can also
+ * be limited to the players in an area: the players outside it are left out,
+ * and the ones that went out of it since the baseline are written as leaving.
+ * <p>
+ * Slots are numbered from 0 and only the slots below getCount() can be in use,
+ * so the arrays stay as long as the most players there have been at once.
+ */
+public class WorldSnapshot {
+
+    //The quantization: 1/256 of a cell for positions, 1/65536 of a turn for angles
+    static final float POSITION_SCALE = 256.0f;
+    static final float ANGLE_SCALE = (float) (65536 / (2 * Math.PI));
+
+    //The flags of a player's entry: the fields that follow, and whether the player joined or left
+    static final int CHANGED_X = 1;
+    static final int CHANGED_Z = 2;
+    static final int CHANGED_ANGLE = 4;
+    static final int JOINED = 8;
+    static final int LEFT = 16;
+
+    //The tick the snapshot was taken at
+    private long tick;
+    //The slots that can be in use, one bit per slot for whether a player is in it, and each one's x, z and angle
+    private int count;
+    private long[] present = new long[1];
+    private int[] xs = new int[64], zs = new int[64], angles = new int[64];
+
+    /**
+     * Empty the snapshot for a new tick
+     *
+     * @param tick The tick the snapshot is of
+     */
+    public void clear(long tick) {
+        Arrays.fill(present, 0, (count + 63) >>> 6, 0);
+        count = 0;
+        this.tick = tick;
+    }
+
+    /**
+     * Put a player in a slot
+     *
+     * @param slot  The player's slot
+     * @param x     The player's X position
+     * @param z     The player's Z position
+     * @param angle The player's angle
+     */
+    public void set(int slot, float x, float z, float angle) {
+        put(slot, Math.round(x * POSITION_SCALE), Math.round(z * POSITION_SCALE),
+                Math.round(angle * ANGLE_SCALE) & 0xFFFF);
+    }
+
+    private void put(int slot, int x, int z, int angle) {
+        if (slot >= xs.length) grow(slot + 1);
+        present[slot >>> 6] |= 1L << slot;
+        xs[slot] = x;
+        zs[slot] = z;
+        angles[slot] = angle;
+        count = Math.max(count, slot + 1);
+    }
+
+    private void grow(int slots) {
+        int capacity = Math.max(slots, xs.length * 2);
+        xs = Arrays.copyOf(xs, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        angles = Arrays.copyOf(angles, capacity);
+        present = Arrays.copyOf(present, (capacity + 63) >>> 6);
+    }
+
+    /**
+     * Make this snapshot a copy of another
+     *
+     * @param other The snapshot to copy
+     */
+    public void copyFrom(WorldSnapshot other) {
+        if (other == this) return;
+        clear(other.tick);
+        if (other.count > xs.length) grow(other.count);
+        System.arraycopy(other.present, 0, present, 0, (other.count + 63) >>> 6);
+        System.arraycopy(other.xs, 0, xs, 0, other.count);
+        System.arraycopy(other.zs, 0, zs, 0, other.count);
+        System.arraycopy(other.angles, 0, angles, 0, other.count);
+        count = other.count;
+    }
+
+    /**
+     * Write the players that changed since another snapshot
+     *
+     * @param baseline The snapshot the receiver has, or null to write every player
+     * @param out      The buffer to write to; a player takes at most 21 bytes, and the end 2
+     */
+    public void writeDelta(WorldSnapshot baseline, ByteBuffer out) {
+        writeDelta(baseline, null, null, out);
+    }
+
+    /**
+     * Write the players in an area that changed since another snapshot of an area
+     *
+     * @param baseline     The snapshot the receiver has, or null to write every player in the area
+     * @param area         The area: the lowest and highest x and z, quantized; or null for everywhere
+     * @param baselineArea The area of the baseline the receiver has, the same way
+     * @param out          The buffer to write to; a player takes at most 21 bytes, and the end 2
+     */
+    public void writeDelta(WorldSnapshot baseline, int[] area, int[] baselineArea, ByteBuffer out) {
+        int slots = Math.max(count, baseline == null ? 0 : baseline.count);
+        int last = -1;
+        for (int slot = 0; slot < slots; slot++) {
+            boolean now = isPresent(slot) && inArea(slot, area);
+            boolean before = baseline != null && baseline.isPresent(slot) && baseline.inArea(slot, baselineArea);
+            int flags, dx = 0, dz = 0, dAngle = 0;
+            if (now) {
+                dx = before ? xs[slot] - baseline.xs[slot] : xs[slot];
+                dz = before ? zs[slot] - baseline.zs[slot] : zs[slot];
+                //The angle wraps round, so its change is the short way round
+                dAngle = (before ? angles[slot] - baseline.angles[slot] : angles[slot]) << 16 >> 16;
+                flags = (before ? 0 : JOINED) | (dx != 0 ? CHANGED_X : 0) | (dz != 0 ? CHANGED_Z : 0)
+                        | (dAngle != 0 ? CHANGED_ANGLE : 0);
+                if (flags == 0) continue;
+            } else if (before) {
+                flags = LEFT;
+            } else {
+                continue;
+            }
+            writeVarint(out, slot - last - 1);
+            out.put((byte) flags);
+            if ((flags & CHANGED_X) != 0) writeVarint(out, zigzag(dx) & 0xFFFFFFFFL);
+            if ((flags & CHANGED_Z) != 0) writeVarint(out, zigzag(dz) & 0xFFFFFFFFL);
+            if ((flags & CHANGED_ANGLE) != 0) writeVarint(out, zigzag(dAngle) & 0xFFFFFFFFL);
+            last = slot;
+        }
+        //The end: an entry without flags
+        writeVarint(out, 0);
+        out.put((byte) 0);
+    }
+
+    //Whether a player is in an area, or the area is null
+    private boolean inArea(int slot, int[] area) {
+        return area == null || (xs[slot] >= area[0] && zs[slot] >= area[1] && xs[slot] <= area[2] && zs[slot] <= area[3]);
+    }
+
+    /**
+     * Read a delta written by writeDelta(), making this snapshot the baseline with the changes applied
+     *
+     * @param in       The buffer to read from
+     * @param baseline The snapshot the delta was written against, or null if it was written against none
+     * @param tick     The tick of the snapshot
+     * @throws IOException If the delta does not fit the baseline
+     */
+    public void readDelta(ByteBuffer in, WorldSnapshot baseline, long tick) throws IOException {
+        if (baseline != null) copyFrom(baseline);
+        else clear(tick);
+        this.tick = tick;
+        int slot = -1;
+        while (true) {
+            slot += (int) readVarint(in) + 1;
+            int flags = in.get() & 0xFF;
+            if (flags == 0) return;
+            if ((flags & LEFT) != 0) {
+                if (isPresent(slot)) present[slot >>> 6] &= ~(1L << slot);
+                continue;
+            }
+            if ((flags & JOINED) != 0) {
+                put(slot, 0, 0, 0);
+            } else if (!isPresent(slot)) {
+                throw new IOException("Snapshot " + tick + " moves player " + slot + ", who is not in its baseline");
+            }
+            if ((flags & CHANGED_X) != 0) xs[slot] += unzigzag((int) readVarint(in));
+            if ((flags & CHANGED_Z) != 0) zs[slot] += unzigzag((int) readVarint(in));
+            if ((flags & CHANGED_ANGLE) != 0) angles[slot] = (angles[slot] + unzigzag((int) readVarint(in))) & 0xFFFF;
+        }
+    }
+
+    /**
+     * Write an unsigned varint: seven bits a byte, lowest first, the top bit set on all but the last
+     *
+     * @param out   The buffer to write to
+     * @param value The value, taken as unsigned
+     */
+    static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint
+     *
+     * @param in The buffer to read from
+     * @return The value
+     */
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Read an unsigned varint that may not have arrived whole
+     *
+     * @param in The buffer to read from
+     * @return The value, or -1 if the buffer ends first, leaving its position anywhere
+     */
+    static long tryReadVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; in.hasRemaining(); shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        return -1;
+    }
+
+    //The number of bytes writeVarint() takes for a value
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    //Signed values as unsigned, small either way: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    //The tick the snapshot was taken at
+    public long getTick() {
+        return tick;
+    }
+
+    //The slots below this can be in use
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Check whether a slot holds a player
+     *
+     * @param slot The slot
+     * @return True if a player is in the slot
+     */
+    public boolean isPresent(int slot) {
+        return slot < count && (present[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    //The X position of the player in a slot
+    public float getX(int slot) {
+        return xs[slot] / POSITION_SCALE;
+    }
+
+    //The Z position of the player in a slot
+    public float getZ(int slot) {
+        return zs[slot] / POSITION_SCALE;
+    }
+
+    //The angle of the player in a slot, from 0 to 2 pi
+    public float getAngle(int slot) {
+        return angles[slot] / ANGLE_SCALE;
+    }
+}
@@ -0,0 +1,246 @@
+package joglmaze;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AllocationBudgetTest, checks that drawing a frame allocates no more than a budget
+ * <p>
+ * The maze is drawn along the same camera path as HeadlessBenchmark, once against
+ * StubGL2, which runs anywhere, and once offscreen in a real GL2 context, which is
+ * skipped where JOGL finds no GL2 profile. Only the bytes allocated by the thread
+ * drawing, inside ViewRenderer.display(), are counted. Reading the counter can
+ * itself allocate on some JVMs; that cost is measured with no work in between and
+ * taken off. The path is drawn once to warm up, which grows the visible cell
+ * arrays to their final size and gives the visible set time to be found in the
+ * background, and then again to measure. A few frames may still go over: when
+ * the JIT compiler recompiles a method, the thread running it can allocate a few
+ * hundred bytes, which the renderer does not do when interpreted.
+ */
+public class AllocationBudgetTest {
+
+    //The bytes a frame may allocate after the warm-up
+    private static final long BUDGET = 0;
+    //The frames drawn along the path, and those that may go over the budget
+    private static final int FRAMES = 2000;
+    private static final int FRAMES_OVER = FRAMES / 100;
+    //The distance the camera moves per frame, in cells
+    private static final float CAMERA_STEP = 0.05f;
+    //The size of the maze, odd
+    private static final int MAZE_SIZE = 61;
+
+    private com.sun.management.ThreadMXBean allocations;
+    private File mazeFile;
+    //The bytes reading the counter twice allocates
+    private long overhead;
+
+    @Before
+    public void setUp() throws IOException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("This JVM cannot count the bytes allocated by a thread",
+                threads instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+        allocations = (com.sun.management.ThreadMXBean) threads;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        overhead = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long first = allocatedBytes();
+            long second = allocatedBytes();
+            overhead = Math.min(overhead, second - first);
+        }
+        mazeFile = File.createTempFile("maze", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        if (mazeFile == null) return;
+        mazeFile.delete();
+        new File(mazeFile.getPath() + ".pvs").delete();
+    }
+
+    @Test
+    public void stubFramesStayWithinBudget() throws IOException, InterruptedException {
+        writeMaze(mazeFile);
+        StubContext.install();
+        final StubDrawable drawable = new StubDrawable();
+        final ViewRenderer renderer = new ViewRenderer(60, mazeFile.getPath());
+        renderer.init(drawable);
+        renderer.reshape(drawable, 0, 0, 512, 512);
+        try {
+            checkFrames(renderer, new FrameDrawer() {
+                @Override
+                public long draw() {
+                    long before = allocatedBytes();
+                    renderer.display(drawable);
+                    return allocatedBytes() - before;
+                }
+            });
+        } finally {
+            renderer.dispose(drawable);
+        }
+    }
+
+    @Test
+    public void offscreenFramesStayWithinBudget() throws IOException, InterruptedException {
+        GLProfile profile;
+        try {
+            GLProfile.initSingleton();
+            profile = GLProfile.get(GLProfile.GL2);
+        } catch (Throwable ex) {
+            Assume.assumeNoException("No GL2 profile to draw with", ex);
+            return;
+        }
+        writeMaze(mazeFile);
+        GLCapabilities capabilities = new GLCapabilities(profile);
+        capabilities.setOnscreen(false);
+        GLDrawableFactory factory = GLDrawableFactory.getFactory(profile);
+        final GLOffscreenAutoDrawable drawable = factory.createOffscreenAutoDrawable(factory.getDefaultDevice(),
+                capabilities, null, 512, 512, null);
+
+        //Listeners before and after the renderer read the counter on the GL thread
+        final AllocationProbe before = new AllocationProbe(allocations), after = new AllocationProbe(allocations);
+        ViewRenderer renderer = new ViewRenderer(60, mazeFile.getPath());
+        drawable.addGLEventListener(before);
+        drawable.addGLEventListener(renderer);
+        drawable.addGLEventListener(after);
+        try {
+            //The first display initialises the renderer and loads the maze
+            drawable.display();
+            checkFrames(renderer, new FrameDrawer() {
+                @Override
+                public long draw() {
+                    drawable.display();
+                    return after.bytes - before.bytes;
+                }
+            });
+        } finally {
+            drawable.destroy();
+        }
+    }
+
+    //Draw the path to warm up, then again counting the frames over the budget
+    private void checkFrames(ViewRenderer renderer, FrameDrawer drawer) throws IOException, InterruptedException {
+        float[] path = HeadlessBenchmark.shortestRoute(mazeFile.getPath());
+        float[] camera = new float[3];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            HeadlessBenchmark.cameraAt(path, frame * CAMERA_STEP, camera);
+            renderer.setCamera(camera[0], camera[1], camera[2]);
+            drawer.draw();
+            Thread.sleep(1);
+        }
+
+        long worst = 0;
+        int overBudget = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            HeadlessBenchmark.cameraAt(path, frame * CAMERA_STEP, camera);
+            renderer.setCamera(camera[0], camera[1], camera[2]);
+            long bytes = Math.max(0, drawer.draw() - overhead);
+            worst = Math.max(worst, bytes);
+            if (bytes > BUDGET) overBudget++;
+        }
+        assertTrue(overBudget + " of " + FRAMES + " frames went over the budget of " + BUDGET
+                + " bytes, the worst by " + worst, overBudget <= FRAMES_OVER);
+    }
+
+    //The bytes allocated so far by the calling thread
+    private long allocatedBytes() {
+        return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    //Write a random perfect maze, carved by a depth-first search over every other cell, with a start and an end
+    private static void writeMaze(File file) throws IOException {
+        char[][] layout = new char[MAZE_SIZE][MAZE_SIZE];
+        for (char[] row : layout) Arrays.fill(row, 'o');
+        Random random = new Random(MAZE_SIZE);
+        int[] stack = new int[MAZE_SIZE * MAZE_SIZE];
+        int top = 0;
+        stack[top++] = MAZE_SIZE + 1;
+        layout[1][1] = 'x';
+        int[][] steps = {{-2, 0}, {2, 0}, {0, -2}, {0, 2}};
+        while (top > 0) {
+            int i = stack[top - 1] / MAZE_SIZE, j = stack[top - 1] % MAZE_SIZE;
+            int choices = 0;
+            int[] next = new int[4];
+            for (int[] step : steps) {
+                int ni = i + step[0], nj = j + step[1];
+                if (ni > 0 && nj > 0 && ni < MAZE_SIZE - 1 && nj < MAZE_SIZE - 1 && layout[ni][nj] == 'o') {
+                    next[choices++] = ni * MAZE_SIZE + nj;
+                }
+            }
+            if (choices == 0) {
+                top--;
+                continue;
+            }
+            int chosen = next[random.nextInt(choices)];
+            int ni = chosen / MAZE_SIZE, nj = chosen % MAZE_SIZE;
+            layout[(i + ni) / 2][(j + nj) / 2] = 'x';
+            layout[ni][nj] = 'x';
+            stack[top++] = chosen;
+        }
+        layout[1][1] = 's';
+        layout[MAZE_SIZE - 2][MAZE_SIZE - 2] = 'e';
+
+        Writer output = new FileWriter(file);
+        try {
+            output.write(MAZE_SIZE + "\n" + MAZE_SIZE + "\n");
+            for (char[] row : layout) output.write(new String(row) + "\n");
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Draws a frame
+     */
+    private interface FrameDrawer {
+        //Draw the frame, returning the bytes allocated by the thread drawing
+        long draw();
+    }
+
+    /**
+     * Records the bytes allocated so far by the thread that draws
+     */
+    private static class AllocationProbe implements GLEventListener {
+        private final com.sun.management.ThreadMXBean allocations;
+        private long bytes;
+
+        AllocationProbe(com.sun.management.ThreadMXBean allocations) {
+            this.allocations = allocations;
+        }
+
+        @Override
+        public void display(GLAutoDrawable drawable) {
+            bytes = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        @Override
+        public void init(GLAutoDrawable drawable) {
+        }
+
+        @Override
+        public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void dispose(GLAutoDrawable drawable) {
+        }
+    }
+}
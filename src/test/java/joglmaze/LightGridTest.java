@@ -0,0 +1,72 @@
+package joglmaze;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LightGridTest, checks that the lights of a generated maze, and a lantern carried through it, all fit in their tiles
+ */
+public class LightGridTest {
+
+    //The size of the maze, odd, and the default torch spacing
+    private static final int MAZE_SIZE = 401;
+    private static final int TORCH_SPACING = 12;
+
+    private File mazeFile;
+    private MazeGrid grid;
+
+    @Before
+    public void setUp() throws IOException {
+        mazeFile = File.createTempFile("maze", ".txt");
+        new MazeGenerator(MAZE_SIZE, MAZE_SIZE, MAZE_SIZE).write(mazeFile, 1);
+        grid = MazeLoader.LoadGrid(mazeFile.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        if (mazeFile != null) mazeFile.delete();
+    }
+
+    @Test
+    public void mazeLightsFitTheirTiles() {
+        LightGrid lights = LightGrid.forMaze(grid, TORCH_SPACING);
+        assertTrue("No torches were placed", lights.getLightCount() > 1);
+        assertEquals("Links left out", 0, lights.getOverflow());
+        for (int i = 0; i < grid.getRows(); i += LightGrid.TILE_SIZE) {
+            for (int j = 0; j < grid.getCols(); j += LightGrid.TILE_SIZE) {
+                assertTrue("No slot left in the tile of " + i + ", " + j,
+                        lights.getTileLightCount(lights.tileOf(i, j)) < LightGrid.MAX_TILE_LIGHTS);
+            }
+        }
+    }
+
+    @Test
+    public void lanternIsInTheTileOfEveryCell() {
+        LightGrid lights = LightGrid.forMaze(grid, TORCH_SPACING);
+        int start = grid.getStart(), cols = grid.getCols();
+        int lantern = lights.add(start / cols, 0, start % cols, 1, 1, 1, ViewRenderer.LANTERN_RADIUS);
+        for (int i = 0; i < grid.getRows(); i++) {
+            for (int j = 0; j < cols; j++) {
+                if (!grid.isOpen(i, j)) continue;
+                lights.move(lantern, i, 0, j);
+                assertTrue("The lantern is not lit at " + i + ", " + j, hasLight(lights, lights.tileOf(i, j), lantern));
+            }
+        }
+        assertEquals("Links left out", 0, lights.getOverflow());
+    }
+
+    //Whether a light is in the list of a tile
+    private static boolean hasLight(LightGrid lights, int tile, int id) {
+        for (int n = 0; n < lights.getTileLightCount(tile); n++) {
+            if (lights.getTileLight(tile, n) == id) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package joglmaze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ParallelLoadTest, checks the walls and cells made in fork/join row bands against those made sequentially
+ * <p>
+ * The mazes are random layouts rather than perfect mazes, so every kind of wall
+ * turns up, and none of their widths is a multiple of 16. The thresholds are small,
+ * so that there are many bands and their edges fall in the middle of a row and of
+ * a long of wall bits.
+ */
+public class ParallelLoadTest {
+
+    //The rows and columns of the mazes
+    private static final int[][] SIZES = {{15, 17}, {33, 101}, {257, 131}};
+    private static final int[] THRESHOLDS = {1, 7, 40, 1000};
+
+    @Test
+    public void wallsMatchSequential() {
+        for (int[] size : SIZES) {
+            MazeGrid expected = randomGrid(size[0], size[1], size[0]);
+            MazeLoader.ComputeWalls(expected, 0);
+            for (int threshold : THRESHOLDS) {
+                MazeGrid grid = randomGrid(size[0], size[1], size[0]);
+                MazeLoader.ComputeWalls(grid, threshold);
+                assertArrayEquals(size[0] + "x" + size[1] + " in bands of " + threshold,
+                        walls(expected), walls(grid));
+            }
+        }
+    }
+
+    @Test
+    public void cellsMatchSequential() {
+        for (int[] size : SIZES) {
+            MazeGrid grid = randomGrid(size[0], size[1], size[1]);
+            grid.computeWalls();
+            ArrayList<Cell> expected = MazeLoader.MakeMaze(grid, 0);
+            for (int threshold : THRESHOLDS) {
+                ArrayList<Cell> cells = MazeLoader.MakeMaze(grid, threshold);
+                String maze = size[0] + "x" + size[1] + " in bands of " + threshold;
+                assertEquals(maze, expected.size(), cells.size());
+                for (int c = 0; c < cells.size(); c++) {
+                    Cell cell = cells.get(c), other = expected.get(c);
+                    assertEquals(maze, other.getI(), cell.getI());
+                    assertEquals(maze, other.getJ(), cell.getJ());
+                    assertEquals(maze + " cell " + c, Arrays.toString(other.walls), Arrays.toString(cell.walls));
+                }
+            }
+        }
+    }
+
+    //A grid with about half of its positions open, and none of its walls worked out
+    private static MazeGrid randomGrid(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        MazeGrid grid = new MazeGrid(rows, cols);
+        for (int index = 0; index < rows * cols; index++) {
+            if (random.nextBoolean()) grid.setOpen(index);
+        }
+        return grid;
+    }
+
+    //The wall bits of every position of a grid
+    private static int[] walls(MazeGrid grid) {
+        int[] walls = new int[grid.getRows() * grid.getCols()];
+        for (int index = 0; index < walls.length; index++) walls[index] = grid.getWalls(index);
+        return walls;
+    }
+}
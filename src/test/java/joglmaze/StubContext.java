@@ -0,0 +1,199 @@
+package joglmaze;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLDebugListener;
+import javax.media.opengl.GLDrawable;
+
+import java.nio.IntBuffer;
+
+/**
+ * StubContext, a GL context with nothing behind it, for the code that asks JOGL
+ * for the current context rather than being handed a GL
+ */
+public class StubContext extends GLContext {
+
+    //The GL of every stub context
+    private static final GL STUB_GL = new StubGL2();
+
+    /**
+     * Make a stub context current on the calling thread
+     */
+    static void install() {
+        setCurrent(new StubContext());
+    }
+
+    @Override
+    public GL getGL() {
+        return STUB_GL;
+    }
+
+    @Override
+    public GL getRootGL() {
+        return STUB_GL;
+    }
+
+    @Override
+    public void addGLDebugListener(GLDebugListener arg0) {
+    }
+
+    @Override
+    public void copy(GLContext arg0, int arg1) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void enableGLDebugMessage(boolean arg0) {
+    }
+
+    @Override
+    public int getBoundFramebuffer(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public int getContextCreationFlags() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultDrawFramebuffer() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultPixelDataFormat() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultPixelDataType() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultReadBuffer() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultReadFramebuffer() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultVAO() {
+        return 0;
+    }
+
+    @Override
+    public String getGLDebugMessageExtension() {
+        return null;
+    }
+
+    @Override
+    public GLDrawable getGLDrawable() {
+        return null;
+    }
+
+    @Override
+    public int getGLExtensionCount() {
+        return 0;
+    }
+
+    @Override
+    public String getGLExtensionsString() {
+        return null;
+    }
+
+    @Override
+    public GLDrawable getGLReadDrawable() {
+        return null;
+    }
+
+    @Override
+    public int getPlatformExtensionCount() {
+        return 0;
+    }
+
+    @Override
+    public String getPlatformExtensionsString() {
+        return null;
+    }
+
+    @Override
+    public void glDebugMessageControl(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5, boolean arg6) {
+    }
+
+    @Override
+    public void glDebugMessageControl(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4, boolean arg5) {
+    }
+
+    @Override
+    public void glDebugMessageInsert(int arg0, int arg1, int arg2, int arg3, String arg4) {
+    }
+
+    @Override
+    public boolean isExtensionAvailable(String arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean isFunctionAvailable(String arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean isGLDebugMessageEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLDebugSynchronous() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLReadDrawableAvailable() {
+        return false;
+    }
+
+    @Override
+    public int makeCurrent() {
+        return 0;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    @Override
+    public void removeGLDebugListener(GLDebugListener arg0) {
+    }
+
+    @Override
+    public void setContextCreationFlags(int arg0) {
+    }
+
+    @Override
+    public GL setGL(GL arg0) {
+        return null;
+    }
+
+    @Override
+    public void setGLDebugSynchronous(boolean arg0) {
+    }
+
+    @Override
+    public GLDrawable setGLDrawable(GLDrawable arg0, boolean arg1) {
+        return null;
+    }
+
+    @Override
+    public GLDrawable setGLReadDrawable(GLDrawable arg0) {
+        return null;
+    }
+}
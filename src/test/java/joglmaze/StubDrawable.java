@@ -0,0 +1,210 @@
+package joglmaze;
+
+import javax.media.nativewindow.NativeSurface;
+import javax.media.opengl.GL;
+import javax.media.opengl.GLAnimatorControl;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilitiesImmutable;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLDrawable;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLProfile;
+import javax.media.opengl.GLRunnable;
+
+import java.util.List;
+
+/**
+ * StubDrawable, a drawable with nothing behind it, handing the renderer a StubGL2
+ */
+public class StubDrawable implements GLAutoDrawable {
+
+    //The GL handed to the listeners
+    private GL gl = new StubGL2();
+
+    @Override
+    public GL getGL() {
+        return gl;
+    }
+
+    @Override
+    public GL setGL(GL gl) {
+        this.gl = gl;
+        return gl;
+    }
+
+    @Override
+    public void addGLEventListener(int arg0, GLEventListener arg1) {
+    }
+
+    @Override
+    public void addGLEventListener(GLEventListener arg0) {
+    }
+
+    @Override
+    public GLContext createContext(GLContext arg0) {
+        return null;
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void display() {
+    }
+
+    @Override
+    public GLEventListener disposeGLEventListener(GLEventListener arg0, boolean arg1) {
+        return null;
+    }
+
+    @Override
+    public GLAnimatorControl getAnimator() {
+        return null;
+    }
+
+    @Override
+    public boolean getAutoSwapBufferMode() {
+        return false;
+    }
+
+    @Override
+    public GLCapabilitiesImmutable getChosenGLCapabilities() {
+        return null;
+    }
+
+    @Override
+    public GLContext getContext() {
+        return null;
+    }
+
+    @Override
+    public int getContextCreationFlags() {
+        return 0;
+    }
+
+    @Override
+    public GLDrawable getDelegatedDrawable() {
+        return null;
+    }
+
+    @Override
+    public Thread getExclusiveContextThread() {
+        return null;
+    }
+
+    @Override
+    public GLDrawableFactory getFactory() {
+        return null;
+    }
+
+    @Override
+    public GLEventListener getGLEventListener(int arg0) {
+        return null;
+    }
+
+    @Override
+    public int getGLEventListenerCount() {
+        return 0;
+    }
+
+    @Override
+    public boolean getGLEventListenerInitState(GLEventListener arg0) {
+        return false;
+    }
+
+    @Override
+    public GLProfile getGLProfile() {
+        return null;
+    }
+
+    @Override
+    public long getHandle() {
+        return 0;
+    }
+
+    @Override
+    public int getHeight() {
+        return 0;
+    }
+
+    @Override
+    public NativeSurface getNativeSurface() {
+        return null;
+    }
+
+    @Override
+    public Object getUpstreamWidget() {
+        return null;
+    }
+
+    @Override
+    public int getWidth() {
+        return 0;
+    }
+
+    @Override
+    public boolean invoke(boolean arg0, List arg1) {
+        return false;
+    }
+
+    @Override
+    public boolean invoke(boolean arg0, GLRunnable arg1) {
+        return false;
+    }
+
+    @Override
+    public boolean isGLOriented() {
+        return false;
+    }
+
+    @Override
+    public boolean isRealized() {
+        return false;
+    }
+
+    @Override
+    public GLEventListener removeGLEventListener(GLEventListener arg0) {
+        return null;
+    }
+
+    @Override
+    public void setAnimator(GLAnimatorControl arg0) {
+    }
+
+    @Override
+    public void setAutoSwapBufferMode(boolean arg0) {
+    }
+
+    @Override
+    public GLContext setContext(GLContext arg0, boolean arg1) {
+        return null;
+    }
+
+    @Override
+    public void setContextCreationFlags(int arg0) {
+    }
+
+    @Override
+    public Thread setExclusiveContextThread(Thread arg0) {
+        return null;
+    }
+
+    @Override
+    public void setGLEventListenerInitState(GLEventListener arg0, boolean arg1) {
+    }
+
+    @Override
+    public void setRealized(boolean arg0) {
+    }
+
+    @Override
+    public void swapBuffers() {
+    }
+
+    @Override
+    public String toString() {
+        return null;
+    }
+}
@@ -0,0 +1,9240 @@
+package joglmaze;
+
+import com.jogamp.common.nio.PointerBuffer;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL2ES1;
+import javax.media.opengl.GL2ES2;
+import javax.media.opengl.GL2GL3;
+import javax.media.opengl.GL3;
+import javax.media.opengl.GL3ES3;
+import javax.media.opengl.GL3bc;
+import javax.media.opengl.GL4;
+import javax.media.opengl.GL4ES3;
+import javax.media.opengl.GL4bc;
+import javax.media.opengl.GLArrayData;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLES1;
+import javax.media.opengl.GLES2;
+import javax.media.opengl.GLES3;
+import javax.media.opengl.GLProfile;
+import javax.media.opengl.GLUniformData;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * StubGL2, an OpenGL 2 that does nothing, so the renderer can be driven without a display
+ * <p>
+ * Every call is ignored. Queries return 0, false or null, except glGetString(),
+ * which returns "stub", and the getGL methods, which return this stub where it
+ * fits. So the renderer finds no extensions and no shader support, and draws
+ * the way it does on the oldest drivers. The methods follow the GL2 interface
+ * of JOGL 2.0.2, whose parameter names are not in its class files.
+ */
+public class StubGL2 implements GL2 {
+
+    @Override
+    public int getBoundFramebuffer(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public GLContext getContext() {
+        return null;
+    }
+
+    @Override
+    public int getDefaultDrawFramebuffer() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultReadBuffer() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultReadFramebuffer() {
+        return 0;
+    }
+
+    @Override
+    public GL getDownstreamGL() {
+        return null;
+    }
+
+    @Override
+    public Object getExtension(String arg0) {
+        return null;
+    }
+
+    @Override
+    public GL getGL() {
+        return this;
+    }
+
+    @Override
+    public GL2 getGL2() {
+        return this;
+    }
+
+    @Override
+    public GL2ES1 getGL2ES1() {
+        return this;
+    }
+
+    @Override
+    public GL2ES2 getGL2ES2() {
+        return this;
+    }
+
+    @Override
+    public GL2GL3 getGL2GL3() {
+        return this;
+    }
+
+    @Override
+    public GL3 getGL3() {
+        return null;
+    }
+
+    @Override
+    public GL3ES3 getGL3ES3() {
+        return null;
+    }
+
+    @Override
+    public GL3bc getGL3bc() {
+        return null;
+    }
+
+    @Override
+    public GL4 getGL4() {
+        return null;
+    }
+
+    @Override
+    public GL4ES3 getGL4ES3() {
+        return null;
+    }
+
+    @Override
+    public GL4bc getGL4bc() {
+        return null;
+    }
+
+    @Override
+    public GLES1 getGLES1() {
+        return null;
+    }
+
+    @Override
+    public GLES2 getGLES2() {
+        return null;
+    }
+
+    @Override
+    public GLES3 getGLES3() {
+        return null;
+    }
+
+    @Override
+    public GLProfile getGLProfile() {
+        return null;
+    }
+
+    @Override
+    public int getMaxRenderbufferSamples() {
+        return 0;
+    }
+
+    @Override
+    public Object getPlatformGLExtensions() {
+        return null;
+    }
+
+    @Override
+    public GL getRootGL() {
+        return null;
+    }
+
+    @Override
+    public int getSwapInterval() {
+        return 0;
+    }
+
+    @Override
+    public void glAccum(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glActiveStencilFaceEXT(int arg0) {
+    }
+
+    @Override
+    public void glActiveTexture(int arg0) {
+    }
+
+    @Override
+    public ByteBuffer glAllocateMemoryNV(int arg0, float arg1, float arg2, float arg3) {
+        return null;
+    }
+
+    @Override
+    public void glAlphaFunc(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glApplyTextureEXT(int arg0) {
+    }
+
+    @Override
+    public boolean glAreTexturesResident(int arg0, int[] arg1, int arg2, byte[] arg3, int arg4) {
+        return false;
+    }
+
+    @Override
+    public boolean glAreTexturesResident(int arg0, IntBuffer arg1, ByteBuffer arg2) {
+        return false;
+    }
+
+    @Override
+    public void glArrayElement(int arg0) {
+    }
+
+    @Override
+    public void glAttachObjectARB(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glAttachShader(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBegin(int arg0) {
+    }
+
+    @Override
+    public void glBeginConditionalRender(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBeginConditionalRenderNVX(int arg0) {
+    }
+
+    @Override
+    public void glBeginOcclusionQueryNV(int arg0) {
+    }
+
+    @Override
+    public void glBeginPerfMonitorAMD(int arg0) {
+    }
+
+    @Override
+    public void glBeginQuery(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBeginTransformFeedback(int arg0) {
+    }
+
+    @Override
+    public void glBeginVertexShaderEXT() {
+    }
+
+    @Override
+    public void glBeginVideoCaptureNV(int arg0) {
+    }
+
+    @Override
+    public void glBindAttribLocation(int arg0, int arg1, String arg2) {
+    }
+
+    @Override
+    public void glBindBuffer(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBindBufferBase(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glBindBufferRange(int arg0, int arg1, int arg2, long arg3, long arg4) {
+    }
+
+    @Override
+    public void glBindFragDataLocation(int arg0, int arg1, String arg2) {
+    }
+
+    @Override
+    public void glBindFramebuffer(int arg0, int arg1) {
+    }
+
+    @Override
+    public int glBindLightParameterEXT(int arg0, int arg1) {
+        return 0;
+    }
+
+    @Override
+    public int glBindMaterialParameterEXT(int arg0, int arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glBindMultiTextureEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public int glBindParameterEXT(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glBindProgramARB(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBindRenderbuffer(int arg0, int arg1) {
+    }
+
+    @Override
+    public int glBindTexGenParameterEXT(int arg0, int arg1, int arg2) {
+        return 0;
+    }
+
+    @Override
+    public void glBindTexture(int arg0, int arg1) {
+    }
+
+    @Override
+    public int glBindTextureUnitParameterEXT(int arg0, int arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glBindTransformFeedbackNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBindVertexArray(int arg0) {
+    }
+
+    @Override
+    public void glBindVertexShaderEXT(int arg0) {
+    }
+
+    @Override
+    public void glBindVideoCaptureStreamBufferNV(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glBindVideoCaptureStreamTextureNV(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glBitmap(int arg0, int arg1, float arg2, float arg3, float arg4, float arg5, byte[] arg6, int arg7) {
+    }
+
+    @Override
+    public void glBitmap(int arg0, int arg1, float arg2, float arg3, float arg4, float arg5, ByteBuffer arg6) {
+    }
+
+    @Override
+    public void glBitmap(int arg0, int arg1, float arg2, float arg3, float arg4, float arg5, long arg6) {
+    }
+
+    @Override
+    public void glBlendColor(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glBlendEquation(int arg0) {
+    }
+
+    @Override
+    public void glBlendEquationIndexedAMD(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBlendEquationSeparate(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBlendEquationSeparateIndexedAMD(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glBlendFunc(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glBlendFuncIndexedAMD(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glBlendFuncSeparate(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glBlendFuncSeparateINGR(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glBlendFuncSeparateIndexedAMD(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glBlitFramebuffer(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9) {
+    }
+
+    @Override
+    public void glBufferAddressRangeNV(int arg0, int arg1, long arg2, long arg3) {
+    }
+
+    @Override
+    public void glBufferData(int arg0, long arg1, Buffer arg2, int arg3) {
+    }
+
+    @Override
+    public void glBufferParameteri(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glBufferSubData(int arg0, long arg1, long arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glCallList(int arg0) {
+    }
+
+    @Override
+    public void glCallLists(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public int glCheckNamedFramebufferStatusEXT(int arg0, int arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glClampColor(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glClear(int arg0) {
+    }
+
+    @Override
+    public void glClearAccum(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glClearBufferfi(int arg0, int arg1, float arg2, int arg3) {
+    }
+
+    @Override
+    public void glClearBufferfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glClearBufferfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glClearBufferiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glClearBufferiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glClearBufferuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glClearBufferuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glClearColor(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glClearColorIi(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glClearColorIui(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glClearDepth(double arg0) {
+    }
+
+    @Override
+    public void glClearDepthf(float arg0) {
+    }
+
+    @Override
+    public void glClearIndex(float arg0) {
+    }
+
+    @Override
+    public void glClearNamedBufferDataEXT(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glClearNamedBufferSubDataEXT(int arg0, int arg1, int arg2, int arg3, long arg4, long arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glClearStencil(int arg0) {
+    }
+
+    @Override
+    public void glClientActiveTexture(int arg0) {
+    }
+
+    @Override
+    public void glClientAttribDefaultEXT(int arg0) {
+    }
+
+    @Override
+    public void glClipPlane(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glClipPlane(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glClipPlanef(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glClipPlanef(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glColor3b(byte arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glColor3bv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3bv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3d(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glColor3dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3f(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glColor3fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3h(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glColor3hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glColor3iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3s(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glColor3sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3ub(byte arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glColor3ubv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3ubv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3ui(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glColor3uiv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3uiv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glColor3us(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glColor3usv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor3usv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4b(byte arg0, byte arg1, byte arg2, byte arg3) {
+    }
+
+    @Override
+    public void glColor4bv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4bv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4d(double arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glColor4dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4f(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glColor4fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4h(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glColor4hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4i(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glColor4iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4s(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glColor4sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4ub(byte arg0, byte arg1, byte arg2, byte arg3) {
+    }
+
+    @Override
+    public void glColor4ubv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4ubv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4ui(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glColor4uiv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4uiv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glColor4us(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glColor4usv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glColor4usv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glColorFormatNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glColorMask(boolean arg0, boolean arg1, boolean arg2, boolean arg3) {
+    }
+
+    @Override
+    public void glColorMaskIndexed(int arg0, boolean arg1, boolean arg2, boolean arg3, boolean arg4) {
+    }
+
+    @Override
+    public void glColorMaski(int arg0, boolean arg1, boolean arg2, boolean arg3, boolean arg4) {
+    }
+
+    @Override
+    public void glColorMaterial(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glColorPointer(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glColorPointer(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glColorPointer(GLArrayData arg0) {
+    }
+
+    @Override
+    public void glColorSubTable(int arg0, int arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glColorSubTable(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glColorTable(int arg0, int arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glColorTable(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glColorTableParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glColorTableParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glColorTableParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glColorTableParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glCompileShader(int arg0) {
+    }
+
+    @Override
+    public void glCompileShaderARB(int arg0) {
+    }
+
+    @Override
+    public void glCompileShaderIncludeARB(int arg0, int arg1, String[] arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glCompileShaderIncludeARB(int arg0, int arg1, String[] arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glCompressedMultiTexImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glCompressedMultiTexImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glCompressedMultiTexImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glCompressedMultiTexSubImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glCompressedMultiTexSubImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glCompressedMultiTexSubImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, int arg10, Buffer arg11) {
+    }
+
+    @Override
+    public void glCompressedTexImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glCompressedTexImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6) {
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, long arg7) {
+    }
+
+    @Override
+    public void glCompressedTexImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glCompressedTexImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, long arg8) {
+    }
+
+    @Override
+    public void glCompressedTexSubImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glCompressedTexSubImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6) {
+    }
+
+    @Override
+    public void glCompressedTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glCompressedTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, long arg8) {
+    }
+
+    @Override
+    public void glCompressedTexSubImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, Buffer arg10) {
+    }
+
+    @Override
+    public void glCompressedTexSubImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, long arg10) {
+    }
+
+    @Override
+    public void glCompressedTextureImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glCompressedTextureImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glCompressedTextureImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glCompressedTextureSubImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glCompressedTextureSubImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glCompressedTextureSubImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, int arg10, Buffer arg11) {
+    }
+
+    @Override
+    public void glConvolutionFilter1D(int arg0, int arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glConvolutionFilter1D(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glConvolutionFilter2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glConvolutionFilter2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6) {
+    }
+
+    @Override
+    public void glConvolutionParameterf(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glConvolutionParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glConvolutionParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glConvolutionParameteri(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glConvolutionParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glConvolutionParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glCopyBufferSubData(int arg0, int arg1, long arg2, long arg3, long arg4) {
+    }
+
+    @Override
+    public void glCopyColorSubTable(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glCopyColorTable(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glCopyConvolutionFilter1D(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glCopyConvolutionFilter2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glCopyImageSubDataNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, int arg10, int arg11, int arg12, int arg13, int arg14) {
+    }
+
+    @Override
+    public void glCopyMultiTexImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7) {
+    }
+
+    @Override
+    public void glCopyMultiTexImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8) {
+    }
+
+    @Override
+    public void glCopyMultiTexSubImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6) {
+    }
+
+    @Override
+    public void glCopyMultiTexSubImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8) {
+    }
+
+    @Override
+    public void glCopyMultiTexSubImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9) {
+    }
+
+    @Override
+    public void glCopyPathNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glCopyPixels(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glCopyTexImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6) {
+    }
+
+    @Override
+    public void glCopyTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7) {
+    }
+
+    @Override
+    public void glCopyTexSubImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glCopyTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7) {
+    }
+
+    @Override
+    public void glCopyTexSubImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8) {
+    }
+
+    @Override
+    public void glCopyTextureImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7) {
+    }
+
+    @Override
+    public void glCopyTextureImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8) {
+    }
+
+    @Override
+    public void glCopyTextureSubImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6) {
+    }
+
+    @Override
+    public void glCopyTextureSubImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8) {
+    }
+
+    @Override
+    public void glCopyTextureSubImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9) {
+    }
+
+    @Override
+    public void glCoverFillPathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, float[] arg6, int arg7) {
+    }
+
+    @Override
+    public void glCoverFillPathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, FloatBuffer arg6) {
+    }
+
+    @Override
+    public void glCoverFillPathNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glCoverStrokePathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, float[] arg6, int arg7) {
+    }
+
+    @Override
+    public void glCoverStrokePathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, FloatBuffer arg6) {
+    }
+
+    @Override
+    public void glCoverStrokePathNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return 0;
+    }
+
+    @Override
+    public int glCreateProgramObjectARB() {
+        return 0;
+    }
+
+    @Override
+    public int glCreateShader(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public int glCreateShaderObjectARB(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public long glCreateSyncFromCLeventARB(long arg0, long arg1, int arg2) {
+        return 0;
+    }
+
+    @Override
+    public void glCullFace(int arg0) {
+    }
+
+    @Override
+    public void glCullParameterdvEXT(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glCullParameterdvEXT(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glCullParameterfvEXT(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glCullParameterfvEXT(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glCurrentPaletteMatrix(int arg0) {
+    }
+
+    @Override
+    public void glDebugMessageControl(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5, boolean arg6) {
+    }
+
+    @Override
+    public void glDebugMessageControl(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4, boolean arg5) {
+    }
+
+    @Override
+    public void glDebugMessageEnableAMD(int arg0, int arg1, int arg2, int[] arg3, int arg4, boolean arg5) {
+    }
+
+    @Override
+    public void glDebugMessageEnableAMD(int arg0, int arg1, int arg2, IntBuffer arg3, boolean arg4) {
+    }
+
+    @Override
+    public void glDebugMessageInsert(int arg0, int arg1, int arg2, int arg3, int arg4, String arg5) {
+    }
+
+    @Override
+    public void glDebugMessageInsertAMD(int arg0, int arg1, int arg2, int arg3, String arg4) {
+    }
+
+    @Override
+    public void glDeleteBuffers(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteBuffers(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteFencesAPPLE(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteFencesAPPLE(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteFencesNV(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteFencesNV(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteLists(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDeleteNamedStringARB(int arg0, String arg1) {
+    }
+
+    @Override
+    public void glDeleteNamesAMD(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glDeleteNamesAMD(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glDeleteObjectARB(int arg0) {
+    }
+
+    @Override
+    public void glDeleteOcclusionQueriesNV(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteOcclusionQueriesNV(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeletePathsNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDeletePerfMonitorsAMD(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeletePerfMonitorsAMD(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteProgram(int arg0) {
+    }
+
+    @Override
+    public void glDeleteProgramsARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteProgramsARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteQueries(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteQueries(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteShader(int arg0) {
+    }
+
+    @Override
+    public void glDeleteTextures(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteTextures(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteTransformFeedbacksNV(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteTransformFeedbacksNV(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDeleteVertexShaderEXT(int arg0) {
+    }
+
+    @Override
+    public void glDepthBoundsEXT(double arg0, double arg1) {
+    }
+
+    @Override
+    public void glDepthFunc(int arg0) {
+    }
+
+    @Override
+    public void glDepthMask(boolean arg0) {
+    }
+
+    @Override
+    public void glDepthRange(double arg0, double arg1) {
+    }
+
+    @Override
+    public void glDepthRangef(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glDetachObjectARB(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDetachShader(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDisable(int arg0) {
+    }
+
+    @Override
+    public void glDisableClientState(int arg0) {
+    }
+
+    @Override
+    public void glDisableClientStateIndexedEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDisableClientStateiEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDisableIndexed(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDisableVariantClientStateEXT(int arg0) {
+    }
+
+    @Override
+    public void glDisableVertexArrayAttribEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDisableVertexArrayEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDisableVertexAttribAPPLE(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int arg0) {
+    }
+
+    @Override
+    public void glDisableVertexAttribArrayARB(int arg0) {
+    }
+
+    @Override
+    public void glDisablei(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glDrawArrays(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glDrawBuffer(int arg0) {
+    }
+
+    @Override
+    public void glDrawBuffers(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDrawBuffers(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDrawBuffersATI(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glDrawBuffersATI(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glDrawElements(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glDrawElements(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int arg0, int arg1, int arg2, Buffer arg3, int arg4) {
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int arg0, int arg1, int arg2, long arg3, int arg4) {
+    }
+
+    @Override
+    public void glDrawPixels(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glDrawPixels(int arg0, int arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glDrawRangeElements(int arg0, int arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glDrawRangeElements(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glDrawTextureNV(int arg0, int arg1, float arg2, float arg3, float arg4, float arg5, float arg6, float arg7, float arg8, float arg9, float arg10) {
+    }
+
+    @Override
+    public void glDrawTransformFeedbackNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEdgeFlag(boolean arg0) {
+    }
+
+    @Override
+    public void glEdgeFlagFormatNV(int arg0) {
+    }
+
+    @Override
+    public void glEdgeFlagPointer(int arg0, Buffer arg1) {
+    }
+
+    @Override
+    public void glEdgeFlagPointer(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glEdgeFlagv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glEdgeFlagv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glEnable(int arg0) {
+    }
+
+    @Override
+    public void glEnableClientState(int arg0) {
+    }
+
+    @Override
+    public void glEnableClientStateIndexedEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEnableClientStateiEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEnableIndexed(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEnableVariantClientStateEXT(int arg0) {
+    }
+
+    @Override
+    public void glEnableVertexArrayAttribEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEnableVertexArrayEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEnableVertexAttribAPPLE(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int arg0) {
+    }
+
+    @Override
+    public void glEnableVertexAttribArrayARB(int arg0) {
+    }
+
+    @Override
+    public void glEnablei(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEnd() {
+    }
+
+    @Override
+    public void glEndConditionalRender() {
+    }
+
+    @Override
+    public void glEndConditionalRenderNVX() {
+    }
+
+    @Override
+    public void glEndList() {
+    }
+
+    @Override
+    public void glEndOcclusionQueryNV() {
+    }
+
+    @Override
+    public void glEndPerfMonitorAMD(int arg0) {
+    }
+
+    @Override
+    public void glEndQuery(int arg0) {
+    }
+
+    @Override
+    public void glEndTransformFeedback() {
+    }
+
+    @Override
+    public void glEndVertexShaderEXT() {
+    }
+
+    @Override
+    public void glEndVideoCaptureNV(int arg0) {
+    }
+
+    @Override
+    public void glEvalCoord1d(double arg0) {
+    }
+
+    @Override
+    public void glEvalCoord1dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glEvalCoord1dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glEvalCoord1f(float arg0) {
+    }
+
+    @Override
+    public void glEvalCoord1fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glEvalCoord1fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glEvalCoord2d(double arg0, double arg1) {
+    }
+
+    @Override
+    public void glEvalCoord2dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glEvalCoord2dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glEvalCoord2f(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glEvalCoord2fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glEvalCoord2fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glEvalMapsNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glEvalMesh1(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glEvalMesh2(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glEvalPoint1(int arg0) {
+    }
+
+    @Override
+    public void glEvalPoint2(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glExtractComponentEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glFeedbackBuffer(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glFinish() {
+    }
+
+    @Override
+    public void glFinishFenceAPPLE(int arg0) {
+    }
+
+    @Override
+    public void glFinishFenceNV(int arg0) {
+    }
+
+    @Override
+    public void glFinishObjectAPPLE(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glFinishTextureSUNX() {
+    }
+
+    @Override
+    public void glFlush() {
+    }
+
+    @Override
+    public void glFlushMappedBufferRange(int arg0, long arg1, long arg2) {
+    }
+
+    @Override
+    public void glFlushMappedNamedBufferRangeEXT(int arg0, long arg1, long arg2) {
+    }
+
+    @Override
+    public void glFlushPixelDataRangeNV(int arg0) {
+    }
+
+    @Override
+    public void glFlushVertexArrayRangeAPPLE(int arg0, Buffer arg1) {
+    }
+
+    @Override
+    public void glFlushVertexArrayRangeNV() {
+    }
+
+    @Override
+    public void glFogCoordFormatNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glFogCoordPointer(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glFogCoordPointer(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glFogCoordd(double arg0) {
+    }
+
+    @Override
+    public void glFogCoorddv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glFogCoorddv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glFogCoordf(float arg0) {
+    }
+
+    @Override
+    public void glFogCoordfv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glFogCoordfv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glFogCoordh(short arg0) {
+    }
+
+    @Override
+    public void glFogCoordhv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glFogCoordhv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glFogf(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glFogfv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glFogfv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glFogi(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glFogiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glFogiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glFrameTerminatorGREMEDY() {
+    }
+
+    @Override
+    public void glFramebufferDrawBufferEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glFramebufferDrawBuffersEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glFramebufferDrawBuffersEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glFramebufferReadBufferEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glFramebufferTexture1D(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glFramebufferTexture3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glFramebufferTextureARB(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glFramebufferTextureEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glFramebufferTextureFaceARB(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glFramebufferTextureFaceEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glFramebufferTextureLayer(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glFramebufferTextureLayerARB(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glFramebufferTextureLayerEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glFreeMemoryNV(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glFrontFace(int arg0) {
+    }
+
+    @Override
+    public void glFrustum(double arg0, double arg1, double arg2, double arg3, double arg4, double arg5) {
+    }
+
+    @Override
+    public void glFrustumf(float arg0, float arg1, float arg2, float arg3, float arg4, float arg5) {
+    }
+
+    @Override
+    public void glGenBuffers(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenBuffers(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenFencesAPPLE(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenFencesAPPLE(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenFencesNV(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenFencesNV(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenFramebuffers(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenFramebuffers(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public int glGenLists(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glGenNamesAMD(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGenNamesAMD(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGenOcclusionQueriesNV(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenOcclusionQueriesNV(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public int glGenPathsNV(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glGenPerfMonitorsAMD(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenPerfMonitorsAMD(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenProgramsARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenProgramsARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenQueries(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenQueries(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenRenderbuffers(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenRenderbuffers(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public int glGenSymbolsEXT(int arg0, int arg1, int arg2, int arg3) {
+        return 0;
+    }
+
+    @Override
+    public void glGenTextures(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenTextures(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenTransformFeedbacksNV(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenTransformFeedbacksNV(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGenVertexArrays(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGenVertexArrays(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public int glGenVertexShadersEXT(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glGenerateMipmap(int arg0) {
+    }
+
+    @Override
+    public void glGenerateMultiTexMipmapEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glGenerateTextureMipmapEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glGetActiveAttrib(int arg0, int arg1, int arg2, int[] arg3, int arg4, int[] arg5, int arg6, int[] arg7, int arg8, byte[] arg9, int arg10) {
+    }
+
+    @Override
+    public void glGetActiveAttrib(int arg0, int arg1, int arg2, IntBuffer arg3, IntBuffer arg4, IntBuffer arg5, ByteBuffer arg6) {
+    }
+
+    @Override
+    public void glGetActiveUniform(int arg0, int arg1, int arg2, int[] arg3, int arg4, int[] arg5, int arg6, int[] arg7, int arg8, byte[] arg9, int arg10) {
+    }
+
+    @Override
+    public void glGetActiveUniform(int arg0, int arg1, int arg2, IntBuffer arg3, IntBuffer arg4, IntBuffer arg5, ByteBuffer arg6) {
+    }
+
+    @Override
+    public void glGetActiveUniformARB(int arg0, int arg1, int arg2, int[] arg3, int arg4, int[] arg5, int arg6, int[] arg7, int arg8, byte[] arg9, int arg10) {
+    }
+
+    @Override
+    public void glGetActiveUniformARB(int arg0, int arg1, int arg2, IntBuffer arg3, IntBuffer arg4, IntBuffer arg5, ByteBuffer arg6) {
+    }
+
+    @Override
+    public void glGetActiveUniformBlockName(int arg0, int arg1, int arg2, int[] arg3, int arg4, byte[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glGetActiveUniformBlockName(int arg0, int arg1, int arg2, IntBuffer arg3, ByteBuffer arg4) {
+    }
+
+    @Override
+    public void glGetActiveUniformBlockiv(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetActiveUniformBlockiv(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetActiveUniformName(int arg0, int arg1, int arg2, int[] arg3, int arg4, byte[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glGetActiveUniformName(int arg0, int arg1, int arg2, IntBuffer arg3, ByteBuffer arg4) {
+    }
+
+    @Override
+    public void glGetActiveUniformsiv(int arg0, int arg1, int[] arg2, int arg3, int arg4, int[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glGetActiveUniformsiv(int arg0, int arg1, IntBuffer arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glGetAttachedObjectsARB(int arg0, int arg1, int[] arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetAttachedObjectsARB(int arg0, int arg1, IntBuffer arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetAttachedShaders(int arg0, int arg1, int[] arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetAttachedShaders(int arg0, int arg1, IntBuffer arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public int glGetAttribLocation(int arg0, String arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glGetBooleanIndexedv(int arg0, int arg1, byte[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetBooleanIndexedv(int arg0, int arg1, ByteBuffer arg2) {
+    }
+
+    @Override
+    public void glGetBooleani_v(int arg0, int arg1, byte[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetBooleani_v(int arg0, int arg1, ByteBuffer arg2) {
+    }
+
+    @Override
+    public void glGetBooleanv(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetBooleanv(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public int glGetBoundBuffer(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glGetBufferParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetBufferParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetBufferParameterui64vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetBufferParameterui64vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public long glGetBufferSize(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glGetBufferSubData(int arg0, long arg1, long arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetClipPlane(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetClipPlane(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glGetClipPlanef(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetClipPlanef(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glGetColorTable(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetColorTable(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glGetColorTableParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetColorTableParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetColorTableParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetColorTableParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetCompressedMultiTexImageEXT(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetCompressedTexImage(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glGetCompressedTexImage(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glGetCompressedTextureImageEXT(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetConvolutionFilter(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetConvolutionFilter(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glGetConvolutionParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetConvolutionParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetConvolutionParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetConvolutionParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public int glGetDebugMessageLog(int arg0, int arg1, int[] arg2, int arg3, int[] arg4, int arg5, int[] arg6, int arg7, int[] arg8, int arg9, int[] arg10, int arg11, byte[] arg12, int arg13) {
+        return 0;
+    }
+
+    @Override
+    public int glGetDebugMessageLog(int arg0, int arg1, IntBuffer arg2, IntBuffer arg3, IntBuffer arg4, IntBuffer arg5, IntBuffer arg6, ByteBuffer arg7) {
+        return 0;
+    }
+
+    @Override
+    public int glGetDebugMessageLogAMD(int arg0, int arg1, int[] arg2, int arg3, int[] arg4, int arg5, int[] arg6, int arg7, int[] arg8, int arg9, byte[] arg10, int arg11) {
+        return 0;
+    }
+
+    @Override
+    public int glGetDebugMessageLogAMD(int arg0, int arg1, IntBuffer arg2, IntBuffer arg3, IntBuffer arg4, IntBuffer arg5, ByteBuffer arg6) {
+        return 0;
+    }
+
+    @Override
+    public void glGetDoubleIndexedvEXT(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetDoubleIndexedvEXT(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetDoublei_vEXT(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetDoublei_vEXT(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetDoublev(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetDoublev(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public int glGetError() {
+        return 0;
+    }
+
+    @Override
+    public void glGetFenceivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetFenceivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetFloatIndexedvEXT(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetFloatIndexedvEXT(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetFloati_vEXT(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetFloati_vEXT(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetFloatv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetFloatv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public int glGetFragDataLocation(int arg0, String arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glGetFramebufferAttachmentParameteriv(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetFramebufferAttachmentParameteriv(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetFramebufferParameterivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetFramebufferParameterivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public int glGetGraphicsResetStatus() {
+        return 0;
+    }
+
+    @Override
+    public int glGetHandleARB(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glGetHistogram(int arg0, boolean arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glGetHistogram(int arg0, boolean arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glGetHistogramParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetHistogramParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetHistogramParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetHistogramParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public long glGetImageHandleNV(int arg0, int arg1, boolean arg2, int arg3, int arg4) {
+        return 0;
+    }
+
+    @Override
+    public void glGetInfoLogARB(int arg0, int arg1, int[] arg2, int arg3, byte[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetInfoLogARB(int arg0, int arg1, IntBuffer arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glGetIntegerIndexedv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetIntegerIndexedv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetIntegeri_v(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetIntegeri_v(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetIntegerui64i_vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetIntegerui64i_vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glGetIntegerui64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetIntegerui64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glGetIntegerv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetIntegerv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGetInternalformativ(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetInternalformativ(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glGetInvariantBooleanvEXT(int arg0, int arg1, byte[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetInvariantBooleanvEXT(int arg0, int arg1, ByteBuffer arg2) {
+    }
+
+    @Override
+    public void glGetInvariantFloatvEXT(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetInvariantFloatvEXT(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetInvariantIntegervEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetInvariantIntegervEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetLightfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetLightfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetLightiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetLightiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetLocalConstantBooleanvEXT(int arg0, int arg1, byte[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetLocalConstantBooleanvEXT(int arg0, int arg1, ByteBuffer arg2) {
+    }
+
+    @Override
+    public void glGetLocalConstantFloatvEXT(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetLocalConstantFloatvEXT(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetLocalConstantIntegervEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetLocalConstantIntegervEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMapAttribParameterfvNV(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMapAttribParameterfvNV(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMapAttribParameterivNV(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMapAttribParameterivNV(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMapControlPointsNV(int arg0, int arg1, int arg2, int arg3, int arg4, boolean arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glGetMapParameterfvNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMapParameterfvNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMapParameterivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMapParameterivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMapdv(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMapdv(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMapfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMapfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMapiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMapiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMaterialfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMaterialfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMaterialiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMaterialiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMinmax(int arg0, boolean arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glGetMinmax(int arg0, boolean arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glGetMinmaxParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMinmaxParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMinmaxParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMinmaxParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetMultiTexEnvfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexEnvfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexEnvivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexEnvivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexGendvEXT(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexGendvEXT(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexGenfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexGenfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexGenivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexGenivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexImageEXT(int arg0, int arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glGetMultiTexLevelParameterfvEXT(int arg0, int arg1, int arg2, int arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetMultiTexLevelParameterfvEXT(int arg0, int arg1, int arg2, int arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexLevelParameterivEXT(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetMultiTexLevelParameterivEXT(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterIivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterIivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterIuivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterIuivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetMultiTexParameterivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetMultisamplefvNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetMultisamplefvNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetNamedBufferParameterivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetNamedBufferParameterivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetNamedBufferParameterui64vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetNamedBufferParameterui64vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glGetNamedBufferSubDataEXT(int arg0, long arg1, long arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedFramebufferAttachmentParameterivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetNamedFramebufferAttachmentParameterivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedFramebufferParameterivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetNamedFramebufferParameterivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterIivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterIivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterIuivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterIuivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterdvEXT(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterdvEXT(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetNamedProgramLocalParameterfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedProgramStringEXT(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedProgramivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetNamedProgramivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetNamedRenderbufferParameterivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetNamedRenderbufferParameterivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetNamedStringARB(int arg0, String arg1, int arg2, int[] arg3, int arg4, byte[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glGetNamedStringARB(int arg0, String arg1, int arg2, IntBuffer arg3, ByteBuffer arg4) {
+    }
+
+    @Override
+    public void glGetNamedStringivARB(int arg0, String arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetNamedStringivARB(int arg0, String arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetObjectLabel(int arg0, int arg1, int arg2, int[] arg3, int arg4, byte[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glGetObjectLabel(int arg0, int arg1, int arg2, IntBuffer arg3, ByteBuffer arg4) {
+    }
+
+    @Override
+    public void glGetObjectParameterfvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetObjectParameterfvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetObjectParameterivAPPLE(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetObjectParameterivAPPLE(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetObjectParameterivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetObjectParameterivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetObjectPtrLabel(Buffer arg0, int arg1, int[] arg2, int arg3, byte[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetObjectPtrLabel(Buffer arg0, int arg1, IntBuffer arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glGetOcclusionQueryivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetOcclusionQueryivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetOcclusionQueryuivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetOcclusionQueryuivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPathColorGenfvNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPathColorGenfvNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPathColorGenivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPathColorGenivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPathCommandsNV(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetPathCommandsNV(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glGetPathCoordsNV(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetPathCoordsNV(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glGetPathDashArrayNV(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetPathDashArrayNV(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public float glGetPathLengthNV(int arg0, int arg1, int arg2) {
+        return 0;
+    }
+
+    @Override
+    public void glGetPathMetricRangeNV(int arg0, int arg1, int arg2, int arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetPathMetricRangeNV(int arg0, int arg1, int arg2, int arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glGetPathMetricsNV(int arg0, int arg1, int arg2, Buffer arg3, int arg4, int arg5, float[] arg6, int arg7) {
+    }
+
+    @Override
+    public void glGetPathMetricsNV(int arg0, int arg1, int arg2, Buffer arg3, int arg4, int arg5, FloatBuffer arg6) {
+    }
+
+    @Override
+    public void glGetPathParameterfvNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPathParameterfvNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPathParameterivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPathParameterivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPathSpacingNV(int arg0, int arg1, int arg2, Buffer arg3, int arg4, float arg5, float arg6, int arg7, float[] arg8, int arg9) {
+    }
+
+    @Override
+    public void glGetPathSpacingNV(int arg0, int arg1, int arg2, Buffer arg3, int arg4, float arg5, float arg6, int arg7, FloatBuffer arg8) {
+    }
+
+    @Override
+    public void glGetPathTexGenfvNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPathTexGenfvNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPathTexGenivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPathTexGenivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPerfMonitorCounterDataAMD(int arg0, int arg1, int arg2, int[] arg3, int arg4, int[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glGetPerfMonitorCounterDataAMD(int arg0, int arg1, int arg2, IntBuffer arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glGetPerfMonitorCounterInfoAMD(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetPerfMonitorCounterStringAMD(int arg0, int arg1, int arg2, int[] arg3, int arg4, byte[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glGetPerfMonitorCounterStringAMD(int arg0, int arg1, int arg2, IntBuffer arg3, ByteBuffer arg4) {
+    }
+
+    @Override
+    public void glGetPerfMonitorCountersAMD(int arg0, int[] arg1, int arg2, int[] arg3, int arg4, int arg5, int[] arg6, int arg7) {
+    }
+
+    @Override
+    public void glGetPerfMonitorCountersAMD(int arg0, IntBuffer arg1, IntBuffer arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glGetPerfMonitorGroupStringAMD(int arg0, int arg1, int[] arg2, int arg3, byte[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetPerfMonitorGroupStringAMD(int arg0, int arg1, IntBuffer arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glGetPerfMonitorGroupsAMD(int[] arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetPerfMonitorGroupsAMD(IntBuffer arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPixelMapfv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetPixelMapfv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glGetPixelMapfv(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glGetPixelMapuiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetPixelMapuiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glGetPixelMapuiv(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glGetPixelMapusv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetPixelMapusv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glGetPixelMapusv(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glGetPixelTransformParameterfvEXT(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPixelTransformParameterfvEXT(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPixelTransformParameterivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetPixelTransformParameterivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPointeri_vEXT(int arg0, int arg1, PointerBuffer arg2) {
+    }
+
+    @Override
+    public void glGetPolygonStipple(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glGetPolygonStipple(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glGetPolygonStipple(long arg0) {
+    }
+
+    @Override
+    public void glGetProgramBinary(int arg0, int arg1, int[] arg2, int arg3, int[] arg4, int arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glGetProgramBinary(int arg0, int arg1, IntBuffer arg2, IntBuffer arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterIivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterIivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterIuivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterIuivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterdvARB(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterdvARB(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterfvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramEnvParameterfvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramInfoLog(int arg0, int arg1, int[] arg2, int arg3, byte[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetProgramInfoLog(int arg0, int arg1, IntBuffer arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterIivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterIivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterIuivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterIuivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterdvARB(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterdvARB(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterfvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramLocalParameterfvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramStringARB(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramSubroutineParameteruivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramSubroutineParameteruivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetProgramivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetProgramivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetQueryObjecti64vEXT(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetQueryObjecti64vEXT(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glGetQueryObjectiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetQueryObjectiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetQueryObjectui64vEXT(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetQueryObjectui64vEXT(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetQueryiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetQueryiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetRenderbufferParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetRenderbufferParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetSeparableFilter(int arg0, int arg1, int arg2, Buffer arg3, Buffer arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glGetSeparableFilter(int arg0, int arg1, int arg2, long arg3, long arg4, long arg5) {
+    }
+
+    @Override
+    public void glGetShaderInfoLog(int arg0, int arg1, int[] arg2, int arg3, byte[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetShaderInfoLog(int arg0, int arg1, IntBuffer arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glGetShaderPrecisionFormat(int arg0, int arg1, int[] arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetShaderPrecisionFormat(int arg0, int arg1, IntBuffer arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetShaderSource(int arg0, int arg1, int[] arg2, int arg3, byte[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetShaderSource(int arg0, int arg1, IntBuffer arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glGetShaderSourceARB(int arg0, int arg1, int[] arg2, int arg3, byte[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetShaderSourceARB(int arg0, int arg1, IntBuffer arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glGetShaderiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetShaderiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public String glGetString(int arg0) {
+        return "stub";
+    }
+
+    @Override
+    public String glGetStringi(int arg0, int arg1) {
+        return null;
+    }
+
+    @Override
+    public void glGetTexEnvfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexEnvfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexEnviv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexEnviv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexGendv(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexGendv(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexGenfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexGenfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexGeniv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexGeniv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexImage(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glGetTexImage(int arg0, int arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glGetTexLevelParameterfv(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetTexLevelParameterfv(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetTexLevelParameteriv(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetTexLevelParameteriv(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetTexParameterIiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexParameterIiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexParameterIuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexParameterIuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetTexParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetTexParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public long glGetTextureHandleNV(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glGetTextureImageEXT(int arg0, int arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glGetTextureLevelParameterfvEXT(int arg0, int arg1, int arg2, int arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetTextureLevelParameterfvEXT(int arg0, int arg1, int arg2, int arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glGetTextureLevelParameterivEXT(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glGetTextureLevelParameterivEXT(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glGetTextureParameterIivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetTextureParameterIivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetTextureParameterIuivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetTextureParameterIuivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetTextureParameterfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetTextureParameterfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetTextureParameterivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetTextureParameterivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public long glGetTextureSamplerHandleNV(int arg0, int arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glGetTransformFeedbackVarying(int arg0, int arg1, int arg2, int[] arg3, int arg4, int[] arg5, int arg6, int[] arg7, int arg8, byte[] arg9, int arg10) {
+    }
+
+    @Override
+    public void glGetTransformFeedbackVarying(int arg0, int arg1, int arg2, IntBuffer arg3, IntBuffer arg4, IntBuffer arg5, ByteBuffer arg6) {
+    }
+
+    @Override
+    public int glGetUniformBlockIndex(int arg0, String arg1) {
+        return 0;
+    }
+
+    @Override
+    public int glGetUniformBufferSizeEXT(int arg0, int arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glGetUniformIndices(int arg0, int arg1, String[] arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetUniformIndices(int arg0, int arg1, String[] arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public int glGetUniformLocation(int arg0, String arg1) {
+        return 0;
+    }
+
+    @Override
+    public int glGetUniformLocationARB(int arg0, String arg1) {
+        return 0;
+    }
+
+    @Override
+    public long glGetUniformOffsetEXT(int arg0, int arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glGetUniformfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetUniformfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetUniformfvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetUniformfvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetUniformiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetUniformiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetUniformivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetUniformivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetUniformui64vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetUniformui64vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glGetUniformuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetUniformuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVariantBooleanvEXT(int arg0, int arg1, byte[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVariantBooleanvEXT(int arg0, int arg1, ByteBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVariantFloatvEXT(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVariantFloatvEXT(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVariantIntegervEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVariantIntegervEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexArrayIntegeri_vEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetVertexArrayIntegeri_vEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetVertexArrayIntegervEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexArrayIntegervEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexArrayPointeri_vEXT(int arg0, int arg1, int arg2, PointerBuffer arg3) {
+    }
+
+    @Override
+    public void glGetVertexArrayPointervEXT(int arg0, int arg1, PointerBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribIiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribIiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribIivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribIivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribIuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribIuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribIuivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribIuivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribLi64vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribLi64vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribLui64vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribLui64vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribdv(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribdv(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribdvARB(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribdvARB(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribfvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribfvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVertexAttribivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVertexAttribivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetVideoCaptureStreamdvNV(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetVideoCaptureStreamdvNV(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glGetVideoCaptureStreamfvNV(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetVideoCaptureStreamfvNV(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetVideoCaptureStreamivNV(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetVideoCaptureStreamivNV(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetVideoCaptureivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetVideoCaptureivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetnColorTable(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glGetnCompressedTexImage(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glGetnConvolutionFilter(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glGetnHistogram(int arg0, boolean arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glGetnMapdv(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetnMapdv(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glGetnMapfv(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetnMapfv(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetnMapiv(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetnMapiv(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetnMinmax(int arg0, boolean arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glGetnPixelMapfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetnPixelMapfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glGetnPixelMapuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetnPixelMapuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glGetnPixelMapusv(int arg0, int arg1, short[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glGetnPixelMapusv(int arg0, int arg1, ShortBuffer arg2) {
+    }
+
+    @Override
+    public void glGetnPolygonStipple(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glGetnPolygonStipple(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glGetnSeparableFilter(int arg0, int arg1, int arg2, int arg3, Buffer arg4, int arg5, Buffer arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glGetnTexImage(int arg0, int arg1, int arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glGetnUniformdv(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetnUniformdv(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glGetnUniformfv(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetnUniformfv(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glGetnUniformiv(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetnUniformiv(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glGetnUniformuiv(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glGetnUniformuiv(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glHint(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glHintPGI(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glHistogram(int arg0, int arg1, int arg2, boolean arg3) {
+    }
+
+    @Override
+    public long glImportSyncEXT(int arg0, long arg1, int arg2) {
+        return 0;
+    }
+
+    @Override
+    public void glIndexFormatNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glIndexFuncEXT(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glIndexMask(int arg0) {
+    }
+
+    @Override
+    public void glIndexMaterialEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glIndexPointer(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glIndexd(double arg0) {
+    }
+
+    @Override
+    public void glIndexdv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glIndexdv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glIndexf(float arg0) {
+    }
+
+    @Override
+    public void glIndexfv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glIndexfv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glIndexi(int arg0) {
+    }
+
+    @Override
+    public void glIndexiv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glIndexiv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glIndexs(short arg0) {
+    }
+
+    @Override
+    public void glIndexsv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glIndexsv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glIndexub(byte arg0) {
+    }
+
+    @Override
+    public void glIndexubv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glIndexubv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glInitNames() {
+    }
+
+    @Override
+    public void glInsertComponentEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glInterleavedArrays(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glInterleavedArrays(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glInterpolatePathsNV(int arg0, int arg1, int arg2, float arg3) {
+    }
+
+    @Override
+    public boolean glIsBuffer(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsBufferResidentNV(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsEnabled(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsEnabledIndexed(int arg0, int arg1) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsEnabledi(int arg0, int arg1) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsFenceAPPLE(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsFenceNV(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsFramebuffer(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsImageHandleResidentNV(long arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsList(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsNameAMD(int arg0, int arg1) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsNamedBufferResidentNV(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsNamedStringARB(int arg0, String arg1) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsOcclusionQueryNV(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsPBOPackEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean glIsPBOUnpackEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean glIsPathNV(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsPointInFillPathNV(int arg0, int arg1, float arg2, float arg3) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsPointInStrokePathNV(int arg0, float arg1, float arg2) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsProgram(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsProgramARB(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsQuery(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsRenderbuffer(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsShader(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsTexture(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsTextureHandleResidentNV(long arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsTransformFeedbackNV(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsVBOArrayEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean glIsVBOElementArrayEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean glIsVariantEnabledEXT(int arg0, int arg1) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsVertexArray(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glIsVertexAttribEnabledAPPLE(int arg0, int arg1) {
+        return false;
+    }
+
+    @Override
+    public void glLightModelf(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glLightModelfv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glLightModelfv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glLightModeli(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glLightModeliv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glLightModeliv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glLightf(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glLightfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glLightfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glLighti(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glLightiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glLightiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glLineStipple(int arg0, short arg1) {
+    }
+
+    @Override
+    public void glLineWidth(float arg0) {
+    }
+
+    @Override
+    public void glLinkProgram(int arg0) {
+    }
+
+    @Override
+    public void glLinkProgramARB(int arg0) {
+    }
+
+    @Override
+    public void glListBase(int arg0) {
+    }
+
+    @Override
+    public void glLoadIdentity() {
+    }
+
+    @Override
+    public void glLoadMatrixd(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glLoadMatrixd(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glLoadMatrixf(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glLoadMatrixf(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glLoadName(int arg0) {
+    }
+
+    @Override
+    public void glLoadTransposeMatrixd(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glLoadTransposeMatrixd(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glLoadTransposeMatrixf(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glLoadTransposeMatrixf(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glLockArraysEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glLogicOp(int arg0) {
+    }
+
+    @Override
+    public void glMakeBufferNonResidentNV(int arg0) {
+    }
+
+    @Override
+    public void glMakeBufferResidentNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glMakeImageHandleNonResidentNV(long arg0) {
+    }
+
+    @Override
+    public void glMakeImageHandleResidentNV(long arg0, int arg1) {
+    }
+
+    @Override
+    public void glMakeNamedBufferNonResidentNV(int arg0) {
+    }
+
+    @Override
+    public void glMakeNamedBufferResidentNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glMakeTextureHandleNonResidentNV(long arg0) {
+    }
+
+    @Override
+    public void glMakeTextureHandleResidentNV(long arg0) {
+    }
+
+    @Override
+    public void glMap1d(int arg0, double arg1, double arg2, int arg3, int arg4, double[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glMap1d(int arg0, double arg1, double arg2, int arg3, int arg4, DoubleBuffer arg5) {
+    }
+
+    @Override
+    public void glMap1f(int arg0, float arg1, float arg2, int arg3, int arg4, float[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glMap1f(int arg0, float arg1, float arg2, int arg3, int arg4, FloatBuffer arg5) {
+    }
+
+    @Override
+    public void glMap2d(int arg0, double arg1, double arg2, int arg3, int arg4, double arg5, double arg6, int arg7, int arg8, double[] arg9, int arg10) {
+    }
+
+    @Override
+    public void glMap2d(int arg0, double arg1, double arg2, int arg3, int arg4, double arg5, double arg6, int arg7, int arg8, DoubleBuffer arg9) {
+    }
+
+    @Override
+    public void glMap2f(int arg0, float arg1, float arg2, int arg3, int arg4, float arg5, float arg6, int arg7, int arg8, float[] arg9, int arg10) {
+    }
+
+    @Override
+    public void glMap2f(int arg0, float arg1, float arg2, int arg3, int arg4, float arg5, float arg6, int arg7, int arg8, FloatBuffer arg9) {
+    }
+
+    @Override
+    public ByteBuffer glMapBuffer(int arg0, int arg1) {
+        return null;
+    }
+
+    @Override
+    public ByteBuffer glMapBufferRange(int arg0, long arg1, long arg2, int arg3) {
+        return null;
+    }
+
+    @Override
+    public void glMapControlPointsNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, boolean arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glMapGrid1d(int arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glMapGrid1f(int arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glMapGrid2d(int arg0, double arg1, double arg2, int arg3, double arg4, double arg5) {
+    }
+
+    @Override
+    public void glMapGrid2f(int arg0, float arg1, float arg2, int arg3, float arg4, float arg5) {
+    }
+
+    @Override
+    public ByteBuffer glMapNamedBufferEXT(int arg0, int arg1) {
+        return null;
+    }
+
+    @Override
+    public ByteBuffer glMapNamedBufferRangeEXT(int arg0, long arg1, long arg2, int arg3) {
+        return null;
+    }
+
+    @Override
+    public void glMapParameterfvNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glMapParameterfvNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glMapParameterivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glMapParameterivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public ByteBuffer glMapTexture2DINTEL(int arg0, int arg1, int arg2, int[] arg3, int arg4, int[] arg5, int arg6) {
+        return null;
+    }
+
+    @Override
+    public ByteBuffer glMapTexture2DINTEL(int arg0, int arg1, int arg2, IntBuffer arg3, IntBuffer arg4) {
+        return null;
+    }
+
+    @Override
+    public void glMapVertexAttrib1dAPPLE(int arg0, int arg1, double arg2, double arg3, int arg4, int arg5, double[] arg6, int arg7) {
+    }
+
+    @Override
+    public void glMapVertexAttrib1dAPPLE(int arg0, int arg1, double arg2, double arg3, int arg4, int arg5, DoubleBuffer arg6) {
+    }
+
+    @Override
+    public void glMapVertexAttrib1fAPPLE(int arg0, int arg1, float arg2, float arg3, int arg4, int arg5, float[] arg6, int arg7) {
+    }
+
+    @Override
+    public void glMapVertexAttrib1fAPPLE(int arg0, int arg1, float arg2, float arg3, int arg4, int arg5, FloatBuffer arg6) {
+    }
+
+    @Override
+    public void glMapVertexAttrib2dAPPLE(int arg0, int arg1, double arg2, double arg3, int arg4, int arg5, double arg6, double arg7, int arg8, int arg9, double[] arg10, int arg11) {
+    }
+
+    @Override
+    public void glMapVertexAttrib2dAPPLE(int arg0, int arg1, double arg2, double arg3, int arg4, int arg5, double arg6, double arg7, int arg8, int arg9, DoubleBuffer arg10) {
+    }
+
+    @Override
+    public void glMapVertexAttrib2fAPPLE(int arg0, int arg1, float arg2, float arg3, int arg4, int arg5, float arg6, float arg7, int arg8, int arg9, float[] arg10, int arg11) {
+    }
+
+    @Override
+    public void glMapVertexAttrib2fAPPLE(int arg0, int arg1, float arg2, float arg3, int arg4, int arg5, float arg6, float arg7, int arg8, int arg9, FloatBuffer arg10) {
+    }
+
+    @Override
+    public void glMaterialf(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glMaterialfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glMaterialfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glMateriali(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glMaterialiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glMaterialiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glMatrixFrustumEXT(int arg0, double arg1, double arg2, double arg3, double arg4, double arg5, double arg6) {
+    }
+
+    @Override
+    public void glMatrixIndexPointer(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glMatrixIndexubvARB(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixIndexubvARB(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixIndexuivARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixIndexuivARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixIndexusvARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixIndexusvARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixLoadIdentityEXT(int arg0) {
+    }
+
+    @Override
+    public void glMatrixLoadTransposedEXT(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixLoadTransposedEXT(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixLoadTransposefEXT(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixLoadTransposefEXT(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixLoaddEXT(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixLoaddEXT(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixLoadfEXT(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixLoadfEXT(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixMode(int arg0) {
+    }
+
+    @Override
+    public void glMatrixMultTransposedEXT(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixMultTransposedEXT(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixMultTransposefEXT(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixMultTransposefEXT(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixMultdEXT(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixMultdEXT(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixMultfEXT(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMatrixMultfEXT(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMatrixOrthoEXT(int arg0, double arg1, double arg2, double arg3, double arg4, double arg5, double arg6) {
+    }
+
+    @Override
+    public void glMatrixPopEXT(int arg0) {
+    }
+
+    @Override
+    public void glMatrixPushEXT(int arg0) {
+    }
+
+    @Override
+    public void glMatrixRotatedEXT(int arg0, double arg1, double arg2, double arg3, double arg4) {
+    }
+
+    @Override
+    public void glMatrixRotatefEXT(int arg0, float arg1, float arg2, float arg3, float arg4) {
+    }
+
+    @Override
+    public void glMatrixScaledEXT(int arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glMatrixScalefEXT(int arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glMatrixTranslatedEXT(int arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glMatrixTranslatefEXT(int arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glMinmax(int arg0, int arg1, boolean arg2) {
+    }
+
+    @Override
+    public void glMultMatrixd(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glMultMatrixd(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glMultMatrixf(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glMultMatrixf(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glMultTransposeMatrixd(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glMultTransposeMatrixd(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glMultTransposeMatrixf(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glMultTransposeMatrixf(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glMultiDrawArrays(int arg0, int[] arg1, int arg2, int[] arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glMultiDrawArrays(int arg0, IntBuffer arg1, IntBuffer arg2, int arg3) {
+    }
+
+    @Override
+    public void glMultiDrawArraysIndirectAMD(int arg0, Buffer arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glMultiDrawElements(int arg0, IntBuffer arg1, int arg2, PointerBuffer arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiDrawElementsIndirectAMD(int arg0, int arg1, Buffer arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexBufferEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glMultiTexCoord1bOES(int arg0, byte arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1bvOES(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord1bvOES(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1d(int arg0, double arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord1dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1f(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord1fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1h(int arg0, short arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord1hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1i(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord1iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1s(int arg0, short arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord1sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord1sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord2bOES(int arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2bvOES(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2bvOES(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord2d(int arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord2f(int arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord2h(int arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord2i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord2s(int arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord2sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord3bOES(int arg0, byte arg1, byte arg2, byte arg3) {
+    }
+
+    @Override
+    public void glMultiTexCoord3bvOES(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord3bvOES(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord3d(int arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glMultiTexCoord3dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord3dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord3f(int arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glMultiTexCoord3fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord3fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord3h(int arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glMultiTexCoord3hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord3hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord3i(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glMultiTexCoord3iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord3iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord3s(int arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glMultiTexCoord3sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord3sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord4bOES(int arg0, byte arg1, byte arg2, byte arg3, byte arg4) {
+    }
+
+    @Override
+    public void glMultiTexCoord4bvOES(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord4bvOES(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord4d(int arg0, double arg1, double arg2, double arg3, double arg4) {
+    }
+
+    @Override
+    public void glMultiTexCoord4dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord4dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord4f(int arg0, float arg1, float arg2, float arg3, float arg4) {
+    }
+
+    @Override
+    public void glMultiTexCoord4fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord4fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord4h(int arg0, short arg1, short arg2, short arg3, short arg4) {
+    }
+
+    @Override
+    public void glMultiTexCoord4hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord4hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord4i(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexCoord4iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord4iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoord4s(int arg0, short arg1, short arg2, short arg3, short arg4) {
+    }
+
+    @Override
+    public void glMultiTexCoord4sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexCoord4sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glMultiTexCoordPointerEXT(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glMultiTexEnvfEXT(int arg0, int arg1, int arg2, float arg3) {
+    }
+
+    @Override
+    public void glMultiTexEnvfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexEnvfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexEnviEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glMultiTexEnvivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexEnvivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexGendEXT(int arg0, int arg1, int arg2, double arg3) {
+    }
+
+    @Override
+    public void glMultiTexGendvEXT(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexGendvEXT(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexGenfEXT(int arg0, int arg1, int arg2, float arg3) {
+    }
+
+    @Override
+    public void glMultiTexGenfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexGenfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexGeniEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glMultiTexGenivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexGenivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glMultiTexImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glMultiTexImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, Buffer arg10) {
+    }
+
+    @Override
+    public void glMultiTexParameterIivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexParameterIivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexParameterIuivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexParameterIuivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexParameterfEXT(int arg0, int arg1, int arg2, float arg3) {
+    }
+
+    @Override
+    public void glMultiTexParameterfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexParameterfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexParameteriEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glMultiTexParameterivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glMultiTexParameterivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glMultiTexRenderbufferEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glMultiTexSubImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glMultiTexSubImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glMultiTexSubImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, int arg10, Buffer arg11) {
+    }
+
+    @Override
+    public void glNamedBufferDataEXT(int arg0, long arg1, Buffer arg2, int arg3) {
+    }
+
+    @Override
+    public void glNamedBufferSubDataEXT(int arg0, long arg1, long arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glNamedCopyBufferSubDataEXT(int arg0, int arg1, long arg2, long arg3, long arg4) {
+    }
+
+    @Override
+    public void glNamedFramebufferParameteriEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glNamedFramebufferRenderbufferEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glNamedFramebufferTexture1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedFramebufferTexture2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedFramebufferTexture3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glNamedFramebufferTextureEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glNamedFramebufferTextureFaceEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedFramebufferTextureLayerEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameter4dEXT(int arg0, int arg1, int arg2, double arg3, double arg4, double arg5, double arg6) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameter4dvEXT(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameter4dvEXT(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameter4fEXT(int arg0, int arg1, int arg2, float arg3, float arg4, float arg5, float arg6) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameter4fvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameter4fvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameterI4iEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameterI4ivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameterI4ivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameterI4uiEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameterI4uivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameterI4uivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameters4fvEXT(int arg0, int arg1, int arg2, int arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParameters4fvEXT(int arg0, int arg1, int arg2, int arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParametersI4ivEXT(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParametersI4ivEXT(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParametersI4uivEXT(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glNamedProgramLocalParametersI4uivEXT(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glNamedProgramStringEXT(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glNamedRenderbufferStorageEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glNamedRenderbufferStorageMultisampleCoverageEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glNamedRenderbufferStorageMultisampleEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glNamedStringARB(int arg0, int arg1, String arg2, int arg3, String arg4) {
+    }
+
+    @Override
+    public void glNewList(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormal3b(byte arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glNormal3bv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormal3bv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glNormal3d(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glNormal3dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormal3dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glNormal3f(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glNormal3fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormal3fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glNormal3h(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glNormal3hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormal3hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glNormal3i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glNormal3iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormal3iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glNormal3s(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glNormal3sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormal3sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glNormalFormatNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glNormalPointer(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glNormalPointer(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glNormalPointer(GLArrayData arg0) {
+    }
+
+    @Override
+    public void glObjectLabel(int arg0, int arg1, int arg2, byte[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glObjectLabel(int arg0, int arg1, int arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glObjectPtrLabel(Buffer arg0, int arg1, byte[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glObjectPtrLabel(Buffer arg0, int arg1, ByteBuffer arg2) {
+    }
+
+    @Override
+    public int glObjectPurgeableAPPLE(int arg0, int arg1, int arg2) {
+        return 0;
+    }
+
+    @Override
+    public int glObjectUnpurgeableAPPLE(int arg0, int arg1, int arg2) {
+        return 0;
+    }
+
+    @Override
+    public void glOrtho(double arg0, double arg1, double arg2, double arg3, double arg4, double arg5) {
+    }
+
+    @Override
+    public void glOrthof(float arg0, float arg1, float arg2, float arg3, float arg4, float arg5) {
+    }
+
+    @Override
+    public void glPNTrianglesfATI(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glPNTrianglesiATI(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glPassThrough(float arg0) {
+    }
+
+    @Override
+    public void glPathColorGenNV(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glPathColorGenNV(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glPathCommandsNV(int arg0, int arg1, byte[] arg2, int arg3, int arg4, int arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glPathCommandsNV(int arg0, int arg1, ByteBuffer arg2, int arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glPathCoordsNV(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glPathCoverDepthFuncNV(int arg0) {
+    }
+
+    @Override
+    public void glPathDashArrayNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPathDashArrayNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glPathFogGenNV(int arg0) {
+    }
+
+    @Override
+    public void glPathGlyphRangeNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, int arg6, int arg7, float arg8) {
+    }
+
+    @Override
+    public void glPathGlyphsNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, Buffer arg6, int arg7, int arg8, float arg9) {
+    }
+
+    @Override
+    public void glPathParameterfNV(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glPathParameterfvNV(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPathParameterfvNV(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glPathParameteriNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glPathParameterivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPathParameterivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glPathStencilDepthOffsetNV(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glPathStencilFuncNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glPathStringNV(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glPathSubCommandsNV(int arg0, int arg1, int arg2, int arg3, byte[] arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glPathSubCommandsNV(int arg0, int arg1, int arg2, int arg3, ByteBuffer arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glPathSubCoordsNV(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glPathTexGenNV(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glPathTexGenNV(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glPauseTransformFeedbackNV() {
+    }
+
+    @Override
+    public void glPixelDataRangeNV(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glPixelMapfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPixelMapfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glPixelMapfv(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glPixelMapuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPixelMapuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glPixelMapuiv(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glPixelMapusv(int arg0, int arg1, short[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPixelMapusv(int arg0, int arg1, ShortBuffer arg2) {
+    }
+
+    @Override
+    public void glPixelMapusv(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glPixelStoref(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glPixelStorei(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glPixelTransferf(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glPixelTransferi(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glPixelTransformParameterfEXT(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glPixelTransformParameterfvEXT(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPixelTransformParameterfvEXT(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glPixelTransformParameteriEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glPixelTransformParameterivEXT(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glPixelTransformParameterivEXT(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glPixelZoom(float arg0, float arg1) {
+    }
+
+    @Override
+    public boolean glPointAlongPathNV(int arg0, int arg1, int arg2, float arg3, float[] arg4, int arg5, float[] arg6, int arg7, float[] arg8, int arg9, float[] arg10, int arg11) {
+        return false;
+    }
+
+    @Override
+    public boolean glPointAlongPathNV(int arg0, int arg1, int arg2, float arg3, FloatBuffer arg4, FloatBuffer arg5, FloatBuffer arg6, FloatBuffer arg7) {
+        return false;
+    }
+
+    @Override
+    public void glPointParameterf(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glPointParameterfv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glPointParameterfv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glPointParameteri(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glPointParameteriv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glPointParameteriv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glPointSize(float arg0) {
+    }
+
+    @Override
+    public void glPolygonMode(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glPolygonOffset(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glPolygonStipple(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glPolygonStipple(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glPolygonStipple(long arg0) {
+    }
+
+    @Override
+    public void glPopAttrib() {
+    }
+
+    @Override
+    public void glPopClientAttrib() {
+    }
+
+    @Override
+    public void glPopDebugGroup() {
+    }
+
+    @Override
+    public void glPopMatrix() {
+    }
+
+    @Override
+    public void glPopName() {
+    }
+
+    @Override
+    public void glPrimitiveRestartIndex(int arg0) {
+    }
+
+    @Override
+    public void glPrimitiveRestartIndexNV(int arg0) {
+    }
+
+    @Override
+    public void glPrimitiveRestartNV() {
+    }
+
+    @Override
+    public void glPrioritizeTextures(int arg0, int[] arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glPrioritizeTextures(int arg0, IntBuffer arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramBinary(int arg0, int arg1, Buffer arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramBufferParametersIivNV(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramBufferParametersIivNV(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramBufferParametersIuivNV(int arg0, int arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramBufferParametersIuivNV(int arg0, int arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramBufferParametersfvNV(int arg0, int arg1, int arg2, int arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramBufferParametersfvNV(int arg0, int arg1, int arg2, int arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramEnvParameter4dARB(int arg0, int arg1, double arg2, double arg3, double arg4, double arg5) {
+    }
+
+    @Override
+    public void glProgramEnvParameter4dvARB(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramEnvParameter4dvARB(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramEnvParameter4fARB(int arg0, int arg1, float arg2, float arg3, float arg4, float arg5) {
+    }
+
+    @Override
+    public void glProgramEnvParameter4fvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramEnvParameter4fvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramEnvParameterI4iNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramEnvParameterI4ivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramEnvParameterI4ivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramEnvParameterI4uiNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramEnvParameterI4uivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramEnvParameterI4uivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramEnvParameters4fvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramEnvParameters4fvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramEnvParametersI4ivNV(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramEnvParametersI4ivNV(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramEnvParametersI4uivNV(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramEnvParametersI4uivNV(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramLocalParameter4dARB(int arg0, int arg1, double arg2, double arg3, double arg4, double arg5) {
+    }
+
+    @Override
+    public void glProgramLocalParameter4dvARB(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramLocalParameter4dvARB(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramLocalParameter4fARB(int arg0, int arg1, float arg2, float arg3, float arg4, float arg5) {
+    }
+
+    @Override
+    public void glProgramLocalParameter4fvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramLocalParameter4fvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramLocalParameterI4iNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramLocalParameterI4ivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramLocalParameterI4ivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramLocalParameterI4uiNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramLocalParameterI4uivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramLocalParameterI4uivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramLocalParameters4fvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramLocalParameters4fvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramLocalParametersI4ivNV(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramLocalParametersI4ivNV(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramLocalParametersI4uivNV(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramLocalParametersI4uivNV(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramParameteriARB(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glProgramStringARB(int arg0, int arg1, int arg2, String arg3) {
+    }
+
+    @Override
+    public void glProgramSubroutineParametersuivNV(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramSubroutineParametersuivNV(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glProgramUniform1uiEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glProgramUniform1uivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramUniform1uivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramUniform2uiEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glProgramUniform2uivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramUniform2uivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramUniform3uiEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramUniform3uivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramUniform3uivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramUniform4uiEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramUniform4uivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramUniform4uivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramUniformHandleui64NV(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glProgramUniformHandleui64vNV(int arg0, int arg1, int arg2, long[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramUniformHandleui64vNV(int arg0, int arg1, int arg2, LongBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix2x3fvEXT(int arg0, int arg1, int arg2, boolean arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix2x3fvEXT(int arg0, int arg1, int arg2, boolean arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix2x4fvEXT(int arg0, int arg1, int arg2, boolean arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix2x4fvEXT(int arg0, int arg1, int arg2, boolean arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix3x2fvEXT(int arg0, int arg1, int arg2, boolean arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix3x2fvEXT(int arg0, int arg1, int arg2, boolean arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix3x4fvEXT(int arg0, int arg1, int arg2, boolean arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix3x4fvEXT(int arg0, int arg1, int arg2, boolean arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix4x2fvEXT(int arg0, int arg1, int arg2, boolean arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix4x2fvEXT(int arg0, int arg1, int arg2, boolean arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix4x3fvEXT(int arg0, int arg1, int arg2, boolean arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glProgramUniformMatrix4x3fvEXT(int arg0, int arg1, int arg2, boolean arg3, FloatBuffer arg4) {
+    }
+
+    @Override
+    public void glProgramUniformui64NV(int arg0, int arg1, long arg2) {
+    }
+
+    @Override
+    public void glProgramUniformui64vNV(int arg0, int arg1, int arg2, long[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glProgramUniformui64vNV(int arg0, int arg1, int arg2, LongBuffer arg3) {
+    }
+
+    @Override
+    public void glProgramVertexLimitNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glProvokingVertexEXT(int arg0) {
+    }
+
+    @Override
+    public void glPushAttrib(int arg0) {
+    }
+
+    @Override
+    public void glPushClientAttrib(int arg0) {
+    }
+
+    @Override
+    public void glPushClientAttribDefaultEXT(int arg0) {
+    }
+
+    @Override
+    public void glPushDebugGroup(int arg0, int arg1, int arg2, byte[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glPushDebugGroup(int arg0, int arg1, int arg2, ByteBuffer arg3) {
+    }
+
+    @Override
+    public void glPushMatrix() {
+    }
+
+    @Override
+    public void glPushName(int arg0) {
+    }
+
+    @Override
+    public int glQueryMatrixxOES(int[] arg0, int arg1, int[] arg2, int arg3) {
+        return 0;
+    }
+
+    @Override
+    public int glQueryMatrixxOES(IntBuffer arg0, IntBuffer arg1) {
+        return 0;
+    }
+
+    @Override
+    public void glRasterPos2d(double arg0, double arg1) {
+    }
+
+    @Override
+    public void glRasterPos2dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos2dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos2f(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glRasterPos2fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos2fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos2i(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos2iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos2iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos2s(short arg0, short arg1) {
+    }
+
+    @Override
+    public void glRasterPos2sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos2sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos3d(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glRasterPos3dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos3dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos3f(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glRasterPos3fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos3fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos3i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glRasterPos3iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos3iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos3s(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glRasterPos3sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos3sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos4d(double arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glRasterPos4dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos4dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos4f(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glRasterPos4fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos4fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos4i(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glRasterPos4iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos4iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glRasterPos4s(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glRasterPos4sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glRasterPos4sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glReadBuffer(int arg0) {
+    }
+
+    @Override
+    public void glReadPixels(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glReadPixels(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6) {
+    }
+
+    @Override
+    public void glReadnPixels(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glRectd(double arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glRectdv(double[] arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glRectdv(DoubleBuffer arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glRectf(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glRectfv(float[] arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glRectfv(FloatBuffer arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glRecti(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glRectiv(int[] arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glRectiv(IntBuffer arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glRects(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glRectsv(short[] arg0, int arg1, short[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glRectsv(ShortBuffer arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glReleaseShaderCompiler() {
+    }
+
+    @Override
+    public int glRenderMode(int arg0) {
+        return 0;
+    }
+
+    @Override
+    public void glRenderbufferStorage(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glRenderbufferStorageMultisample(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glRenderbufferStorageMultisampleCoverageNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glResetHistogram(int arg0) {
+    }
+
+    @Override
+    public void glResetMinmax(int arg0) {
+    }
+
+    @Override
+    public void glResumeTransformFeedbackNV() {
+    }
+
+    @Override
+    public void glRotated(double arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glRotatef(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glSampleCoverage(float arg0, boolean arg1) {
+    }
+
+    @Override
+    public void glSampleMaskIndexedNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glScaled(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glScalef(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glScissor(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glSecondaryColor3b(byte arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3bv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3bv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3d(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3f(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3h(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3s(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3ub(byte arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3ubv(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3ubv(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3ui(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3uiv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3uiv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColor3us(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glSecondaryColor3usv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glSecondaryColor3usv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glSecondaryColorFormatNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glSecondaryColorPointer(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glSecondaryColorPointer(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glSelectBuffer(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glSelectPerfMonitorCountersAMD(int arg0, boolean arg1, int arg2, int arg3, int[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glSelectPerfMonitorCountersAMD(int arg0, boolean arg1, int arg2, int arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glSeparableFilter2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, Buffer arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glSeparableFilter2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6, long arg7) {
+    }
+
+    @Override
+    public void glSetFenceAPPLE(int arg0) {
+    }
+
+    @Override
+    public void glSetFenceNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glSetInvariantEXT(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glSetLocalConstantEXT(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glSetMultisamplefvAMD(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glSetMultisamplefvAMD(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glShadeModel(int arg0) {
+    }
+
+    @Override
+    public void glShaderBinary(int arg0, int[] arg1, int arg2, int arg3, Buffer arg4, int arg5) {
+    }
+
+    @Override
+    public void glShaderBinary(int arg0, IntBuffer arg1, int arg2, Buffer arg3, int arg4) {
+    }
+
+    @Override
+    public void glShaderOp1EXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glShaderOp2EXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glShaderOp3EXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glShaderSource(int arg0, int arg1, String[] arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glShaderSource(int arg0, int arg1, String[] arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glShaderSourceARB(int arg0, int arg1, String[] arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glShaderSourceARB(int arg0, int arg1, String[] arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glStencilClearTagEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glStencilFillPathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, int arg6, float[] arg7, int arg8) {
+    }
+
+    @Override
+    public void glStencilFillPathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, int arg6, FloatBuffer arg7) {
+    }
+
+    @Override
+    public void glStencilFillPathNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glStencilFunc(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glStencilFuncSeparate(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glStencilMask(int arg0) {
+    }
+
+    @Override
+    public void glStencilMaskSeparate(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glStencilOp(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glStencilOpSeparate(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glStencilOpValueAMD(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glStencilStrokePathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, int arg6, float[] arg7, int arg8) {
+    }
+
+    @Override
+    public void glStencilStrokePathInstancedNV(int arg0, int arg1, Buffer arg2, int arg3, int arg4, int arg5, int arg6, FloatBuffer arg7) {
+    }
+
+    @Override
+    public void glStencilStrokePathNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glStringMarkerGREMEDY(int arg0, Buffer arg1) {
+    }
+
+    @Override
+    public void glSwizzleEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glSyncTextureINTEL(int arg0) {
+    }
+
+    @Override
+    public void glTessellationFactorAMD(float arg0) {
+    }
+
+    @Override
+    public void glTessellationModeAMD(int arg0) {
+    }
+
+    @Override
+    public boolean glTestFenceAPPLE(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glTestFenceNV(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glTestObjectAPPLE(int arg0, int arg1) {
+        return false;
+    }
+
+    @Override
+    public void glTexBuffer(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glTexCoord1bOES(byte arg0) {
+    }
+
+    @Override
+    public void glTexCoord1bvOES(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord1bvOES(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord1d(double arg0) {
+    }
+
+    @Override
+    public void glTexCoord1dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord1dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord1f(float arg0) {
+    }
+
+    @Override
+    public void glTexCoord1fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord1fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord1h(short arg0) {
+    }
+
+    @Override
+    public void glTexCoord1hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord1hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord1i(int arg0) {
+    }
+
+    @Override
+    public void glTexCoord1iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord1iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord1s(short arg0) {
+    }
+
+    @Override
+    public void glTexCoord1sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord1sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord2bOES(byte arg0, byte arg1) {
+    }
+
+    @Override
+    public void glTexCoord2bvOES(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord2bvOES(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord2d(double arg0, double arg1) {
+    }
+
+    @Override
+    public void glTexCoord2dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord2dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord2f(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glTexCoord2fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord2fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord2h(short arg0, short arg1) {
+    }
+
+    @Override
+    public void glTexCoord2hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord2hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord2i(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord2iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord2iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord2s(short arg0, short arg1) {
+    }
+
+    @Override
+    public void glTexCoord2sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord2sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord3bOES(byte arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glTexCoord3bvOES(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord3bvOES(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord3d(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glTexCoord3dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord3dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord3f(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glTexCoord3fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord3fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord3h(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glTexCoord3hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord3hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord3i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glTexCoord3iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord3iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord3s(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glTexCoord3sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord3sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord4bOES(byte arg0, byte arg1, byte arg2, byte arg3) {
+    }
+
+    @Override
+    public void glTexCoord4bvOES(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord4bvOES(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord4d(double arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glTexCoord4dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord4dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord4f(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glTexCoord4fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord4fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord4h(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glTexCoord4hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord4hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord4i(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexCoord4iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord4iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoord4s(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glTexCoord4sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexCoord4sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glTexCoordFormatNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glTexCoordPointer(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glTexCoordPointer(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glTexCoordPointer(GLArrayData arg0) {
+    }
+
+    @Override
+    public void glTexEnvf(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glTexEnvfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexEnvfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glTexEnvi(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glTexEnviv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexEnviv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glTexGend(int arg0, int arg1, double arg2) {
+    }
+
+    @Override
+    public void glTexGendv(int arg0, int arg1, double[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexGendv(int arg0, int arg1, DoubleBuffer arg2) {
+    }
+
+    @Override
+    public void glTexGenf(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glTexGenfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexGenfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glTexGeni(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glTexGeniv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexGeniv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glTexImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glTexImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, long arg7) {
+    }
+
+    @Override
+    public void glTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glTexImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, long arg8) {
+    }
+
+    @Override
+    public void glTexImage2DMultisampleCoverageNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, boolean arg6) {
+    }
+
+    @Override
+    public void glTexImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glTexImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, long arg9) {
+    }
+
+    @Override
+    public void glTexImage3DMultisampleCoverageNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, boolean arg7) {
+    }
+
+    @Override
+    public void glTexParameterIiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexParameterIiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glTexParameterIuiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexParameterIuiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glTexParameterf(int arg0, int arg1, float arg2) {
+    }
+
+    @Override
+    public void glTexParameterfv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexParameterfv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glTexParameteri(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glTexParameteriv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexParameteriv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glTexRenderbufferNV(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glTexStorage1D(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glTexStorage2D(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glTexStorage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glTexStorageSparseAMD(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6) {
+    }
+
+    @Override
+    public void glTexSubImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, Buffer arg6) {
+    }
+
+    @Override
+    public void glTexSubImage1D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6) {
+    }
+
+    @Override
+    public void glTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glTexSubImage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, long arg8) {
+    }
+
+    @Override
+    public void glTexSubImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, Buffer arg10) {
+    }
+
+    @Override
+    public void glTexSubImage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, long arg10) {
+    }
+
+    @Override
+    public void glTextureBarrierNV() {
+    }
+
+    @Override
+    public void glTextureBufferEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glTextureBufferRangeEXT(int arg0, int arg1, int arg2, int arg3, long arg4, long arg5) {
+    }
+
+    @Override
+    public void glTextureImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, Buffer arg8) {
+    }
+
+    @Override
+    public void glTextureImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glTextureImage2DMultisampleCoverageNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, boolean arg7) {
+    }
+
+    @Override
+    public void glTextureImage2DMultisampleNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, boolean arg6) {
+    }
+
+    @Override
+    public void glTextureImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, Buffer arg10) {
+    }
+
+    @Override
+    public void glTextureImage3DMultisampleCoverageNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, boolean arg8) {
+    }
+
+    @Override
+    public void glTextureImage3DMultisampleNV(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, boolean arg7) {
+    }
+
+    @Override
+    public void glTextureLightEXT(int arg0) {
+    }
+
+    @Override
+    public void glTextureMaterialEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glTextureNormalEXT(int arg0) {
+    }
+
+    @Override
+    public void glTextureParameterIivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glTextureParameterIivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glTextureParameterIuivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glTextureParameterIuivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glTextureParameterfEXT(int arg0, int arg1, int arg2, float arg3) {
+    }
+
+    @Override
+    public void glTextureParameterfvEXT(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glTextureParameterfvEXT(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glTextureParameteriEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glTextureParameterivEXT(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glTextureParameterivEXT(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glTextureRangeAPPLE(int arg0, int arg1, Buffer arg2) {
+    }
+
+    @Override
+    public void glTextureRenderbufferEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glTextureStorage1D(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glTextureStorage2D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public void glTextureStorage3D(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6) {
+    }
+
+    @Override
+    public void glTextureStorageSparseAMD(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7) {
+    }
+
+    @Override
+    public void glTextureSubImage1DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, Buffer arg7) {
+    }
+
+    @Override
+    public void glTextureSubImage2DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, Buffer arg9) {
+    }
+
+    @Override
+    public void glTextureSubImage3DEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, int arg6, int arg7, int arg8, int arg9, int arg10, Buffer arg11) {
+    }
+
+    @Override
+    public void glTransformFeedbackVaryings(int arg0, int arg1, String[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glTransformPathNV(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glTransformPathNV(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glTranslated(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glTranslatef(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glUniform(GLUniformData arg0) {
+    }
+
+    @Override
+    public void glUniform1f(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glUniform1fARB(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glUniform1fv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform1fv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform1fvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform1fvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform1i(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glUniform1iARB(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glUniform1iv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform1iv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform1ivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform1ivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform1ui(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glUniform1uiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform1uiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform2f(int arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glUniform2fARB(int arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glUniform2fv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform2fv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform2fvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform2fvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform2i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glUniform2iARB(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glUniform2iv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform2iv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform2ivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform2ivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform2ui(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glUniform2uiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform2uiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform3f(int arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glUniform3fARB(int arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glUniform3fv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3fv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform3fvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3fvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform3i(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3iARB(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3iv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3iv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform3ivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3ivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform3ui(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3uiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform3uiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform4f(int arg0, float arg1, float arg2, float arg3, float arg4) {
+    }
+
+    @Override
+    public void glUniform4fARB(int arg0, float arg1, float arg2, float arg3, float arg4) {
+    }
+
+    @Override
+    public void glUniform4fv(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform4fv(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform4fvARB(int arg0, int arg1, float[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform4fvARB(int arg0, int arg1, FloatBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform4i(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniform4iARB(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniform4iv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform4iv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform4ivARB(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform4ivARB(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniform4ui(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniform4uiv(int arg0, int arg1, int[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniform4uiv(int arg0, int arg1, IntBuffer arg2) {
+    }
+
+    @Override
+    public void glUniformBlockBinding(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glUniformBufferEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glUniformHandleui64NV(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glUniformHandleui64vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniformHandleui64vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glUniformMatrix2fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix2fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix2fvARB(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix2fvARB(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix2x3fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix2x3fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix2x4fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix2x4fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix3fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix3fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix3fvARB(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix3fvARB(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix3x2fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix3x2fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix3x4fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix3x4fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix4fvARB(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix4fvARB(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix4x2fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix4x2fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformMatrix4x3fv(int arg0, int arg1, boolean arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glUniformMatrix4x3fv(int arg0, int arg1, boolean arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glUniformui64NV(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glUniformui64vNV(int arg0, int arg1, long[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glUniformui64vNV(int arg0, int arg1, LongBuffer arg2) {
+    }
+
+    @Override
+    public void glUnlockArraysEXT() {
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean glUnmapNamedBufferEXT(int arg0) {
+        return false;
+    }
+
+    @Override
+    public void glUnmapTexture2DINTEL(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glUseProgram(int arg0) {
+    }
+
+    @Override
+    public void glUseProgramObjectARB(int arg0) {
+    }
+
+    @Override
+    public void glVDPAUFiniNV() {
+    }
+
+    @Override
+    public void glVDPAUGetSurfaceivNV(long arg0, int arg1, int arg2, int[] arg3, int arg4, int[] arg5, int arg6) {
+    }
+
+    @Override
+    public void glVDPAUGetSurfaceivNV(long arg0, int arg1, int arg2, IntBuffer arg3, IntBuffer arg4) {
+    }
+
+    @Override
+    public void glVDPAUInitNV(Buffer arg0, Buffer arg1) {
+    }
+
+    @Override
+    public void glVDPAUIsSurfaceNV(long arg0) {
+    }
+
+    @Override
+    public void glVDPAUMapSurfacesNV(int arg0, PointerBuffer arg1) {
+    }
+
+    @Override
+    public long glVDPAURegisterOutputSurfaceNV(Buffer arg0, int arg1, int arg2, int[] arg3, int arg4) {
+        return 0;
+    }
+
+    @Override
+    public long glVDPAURegisterOutputSurfaceNV(Buffer arg0, int arg1, int arg2, IntBuffer arg3) {
+        return 0;
+    }
+
+    @Override
+    public long glVDPAURegisterVideoSurfaceNV(Buffer arg0, int arg1, int arg2, int[] arg3, int arg4) {
+        return 0;
+    }
+
+    @Override
+    public long glVDPAURegisterVideoSurfaceNV(Buffer arg0, int arg1, int arg2, IntBuffer arg3) {
+        return 0;
+    }
+
+    @Override
+    public void glVDPAUSurfaceAccessNV(long arg0, int arg1) {
+    }
+
+    @Override
+    public void glVDPAUUnmapSurfacesNV(int arg0, PointerBuffer arg1) {
+    }
+
+    @Override
+    public void glVDPAUUnregisterSurfaceNV(long arg0) {
+    }
+
+    @Override
+    public void glValidateProgram(int arg0) {
+    }
+
+    @Override
+    public void glValidateProgramARB(int arg0) {
+    }
+
+    @Override
+    public void glVariantPointerEXT(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glVariantPointerEXT(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glVariantbvEXT(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantbvEXT(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVariantdvEXT(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantdvEXT(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVariantfvEXT(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantfvEXT(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVariantivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVariantsvEXT(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantsvEXT(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVariantubvEXT(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantubvEXT(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVariantuivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantuivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVariantusvEXT(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVariantusvEXT(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertex2bOES(byte arg0) {
+    }
+
+    @Override
+    public void glVertex2bvOES(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex2bvOES(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex2d(double arg0, double arg1) {
+    }
+
+    @Override
+    public void glVertex2dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex2dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex2f(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glVertex2fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex2fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex2h(short arg0, short arg1) {
+    }
+
+    @Override
+    public void glVertex2hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex2hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex2i(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex2iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex2iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex2s(short arg0, short arg1) {
+    }
+
+    @Override
+    public void glVertex2sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex2sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex3bOES(byte arg0, byte arg1) {
+    }
+
+    @Override
+    public void glVertex3bvOES(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex3bvOES(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex3d(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glVertex3dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex3dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex3f(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glVertex3fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex3fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex3h(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glVertex3hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex3hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex3i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertex3iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex3iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex3s(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glVertex3sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex3sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex4bOES(byte arg0, byte arg1, byte arg2) {
+    }
+
+    @Override
+    public void glVertex4bvOES(byte[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex4bvOES(ByteBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex4d(double arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glVertex4dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex4dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex4f(float arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glVertex4fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex4fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex4h(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glVertex4hv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex4hv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex4i(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertex4iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex4iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glVertex4s(short arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glVertex4sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertex4sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glVertexArrayBindVertexBufferEXT(int arg0, int arg1, int arg2, long arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexArrayColorOffsetEXT(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glVertexArrayEdgeFlagOffsetEXT(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glVertexArrayFogCoordOffsetEXT(int arg0, int arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glVertexArrayIndexOffsetEXT(int arg0, int arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glVertexArrayMultiTexCoordOffsetEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6) {
+    }
+
+    @Override
+    public void glVertexArrayNormalOffsetEXT(int arg0, int arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glVertexArrayParameteriAPPLE(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertexArrayRangeAPPLE(int arg0, Buffer arg1) {
+    }
+
+    @Override
+    public void glVertexArrayRangeNV(int arg0, Buffer arg1) {
+    }
+
+    @Override
+    public void glVertexArraySecondaryColorOffsetEXT(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glVertexArrayTexCoordOffsetEXT(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glVertexArrayVertexAttribBindingEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexArrayVertexAttribFormatEXT(int arg0, int arg1, int arg2, int arg3, boolean arg4, int arg5) {
+    }
+
+    @Override
+    public void glVertexArrayVertexAttribIFormatEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexArrayVertexAttribIOffsetEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5, long arg6) {
+    }
+
+    @Override
+    public void glVertexArrayVertexAttribLFormatEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexArrayVertexAttribOffsetEXT(int arg0, int arg1, int arg2, int arg3, int arg4, boolean arg5, int arg6, long arg7) {
+    }
+
+    @Override
+    public void glVertexArrayVertexBindingDivisorEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexArrayVertexOffsetEXT(int arg0, int arg1, int arg2, int arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glVertexAttrib1d(int arg0, double arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1dARB(int arg0, double arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib1dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1dvARB(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib1dvARB(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1f(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1fARB(int arg0, float arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib1fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1fvARB(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib1fvARB(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1h(int arg0, short arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib1hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1s(int arg0, short arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1sARB(int arg0, short arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib1sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib1svARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib1svARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib2d(int arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2dARB(int arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib2dvARB(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2dvARB(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib2f(int arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2fARB(int arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib2fvARB(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2fvARB(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib2h(int arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib2s(int arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2sARB(int arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib2svARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib2svARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib3d(int arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glVertexAttrib3dARB(int arg0, double arg1, double arg2, double arg3) {
+    }
+
+    @Override
+    public void glVertexAttrib3dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib3dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib3dvARB(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib3dvARB(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib3f(int arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glVertexAttrib3fARB(int arg0, float arg1, float arg2, float arg3) {
+    }
+
+    @Override
+    public void glVertexAttrib3fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib3fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib3fvARB(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib3fvARB(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib3h(int arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glVertexAttrib3hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib3hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib3s(int arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glVertexAttrib3sARB(int arg0, short arg1, short arg2, short arg3) {
+    }
+
+    @Override
+    public void glVertexAttrib3sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib3sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib3svARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib3svARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nbv(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nbv(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4NbvARB(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4NbvARB(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4Niv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4Niv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4NivARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4NivARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nsv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nsv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4NsvARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4NsvARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nub(int arg0, byte arg1, byte arg2, byte arg3, byte arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4NubARB(int arg0, byte arg1, byte arg2, byte arg3, byte arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nubv(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nubv(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4NubvARB(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4NubvARB(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nuiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nuiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4NuivARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4NuivARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nusv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4Nusv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4NusvARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4NusvARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4bv(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4bv(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4bvARB(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4bvARB(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4d(int arg0, double arg1, double arg2, double arg3, double arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4dARB(int arg0, double arg1, double arg2, double arg3, double arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4dv(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4dv(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4dvARB(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4dvARB(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4f(int arg0, float arg1, float arg2, float arg3, float arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4fARB(int arg0, float arg1, float arg2, float arg3, float arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4fv(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4fv(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4fvARB(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4fvARB(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4h(int arg0, short arg1, short arg2, short arg3, short arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4hv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4hv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4ivARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4ivARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4s(int arg0, short arg1, short arg2, short arg3, short arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4sARB(int arg0, short arg1, short arg2, short arg3, short arg4) {
+    }
+
+    @Override
+    public void glVertexAttrib4sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4svARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4svARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4ubv(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4ubv(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4ubvARB(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4ubvARB(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4uiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4uiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4uivARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4uivARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4usv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4usv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttrib4usvARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttrib4usvARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribFormatNV(int arg0, int arg1, int arg2, boolean arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexAttribI1i(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI1iEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI1iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI1iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI1ivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI1ivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI1ui(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI1uiEXT(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI1uiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI1uiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI1uivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI1uivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI2i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2iEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI2ivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2ivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI2ui(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2uiEXT(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2uiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2uiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI2uivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI2uivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI3i(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribI3iEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribI3iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI3iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI3ivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI3ivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI3ui(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribI3uiEXT(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribI3uiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI3uiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI3uivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI3uivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4bv(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4bv(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4bvEXT(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4bvEXT(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4i(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexAttribI4iEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexAttribI4iv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4iv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4ivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4ivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4sv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4sv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4svEXT(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4svEXT(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4ubv(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4ubv(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4ubvEXT(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4ubvEXT(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4ui(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexAttribI4uiEXT(int arg0, int arg1, int arg2, int arg3, int arg4) {
+    }
+
+    @Override
+    public void glVertexAttribI4uiv(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4uiv(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4uivEXT(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4uivEXT(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4usv(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4usv(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribI4usvEXT(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribI4usvEXT(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribIFormatNV(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribIPointer(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glVertexAttribIPointer(int arg0, int arg1, int arg2, int arg3, long arg4) {
+    }
+
+    @Override
+    public void glVertexAttribIPointerEXT(int arg0, int arg1, int arg2, int arg3, Buffer arg4) {
+    }
+
+    @Override
+    public void glVertexAttribL1i64NV(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL1i64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL1i64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL1ui64NV(int arg0, long arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL1ui64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL1ui64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL2i64NV(int arg0, long arg1, long arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL2i64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL2i64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL2ui64NV(int arg0, long arg1, long arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL2ui64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL2ui64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL3i64NV(int arg0, long arg1, long arg2, long arg3) {
+    }
+
+    @Override
+    public void glVertexAttribL3i64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL3i64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL3ui64NV(int arg0, long arg1, long arg2, long arg3) {
+    }
+
+    @Override
+    public void glVertexAttribL3ui64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL3ui64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL4i64NV(int arg0, long arg1, long arg2, long arg3, long arg4) {
+    }
+
+    @Override
+    public void glVertexAttribL4i64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL4i64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribL4ui64NV(int arg0, long arg1, long arg2, long arg3, long arg4) {
+    }
+
+    @Override
+    public void glVertexAttribL4ui64vNV(int arg0, long[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribL4ui64vNV(int arg0, LongBuffer arg1) {
+    }
+
+    @Override
+    public void glVertexAttribLFormatNV(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribParameteriAMD(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexAttribPointer(int arg0, int arg1, int arg2, boolean arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glVertexAttribPointer(int arg0, int arg1, int arg2, boolean arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glVertexAttribPointer(GLArrayData arg0) {
+    }
+
+    @Override
+    public void glVertexAttribPointerARB(int arg0, int arg1, int arg2, boolean arg3, int arg4, Buffer arg5) {
+    }
+
+    @Override
+    public void glVertexAttribPointerARB(int arg0, int arg1, int arg2, boolean arg3, int arg4, long arg5) {
+    }
+
+    @Override
+    public void glVertexAttribs1hv(int arg0, int arg1, short[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribs1hv(int arg0, int arg1, ShortBuffer arg2) {
+    }
+
+    @Override
+    public void glVertexAttribs2hv(int arg0, int arg1, short[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribs2hv(int arg0, int arg1, ShortBuffer arg2) {
+    }
+
+    @Override
+    public void glVertexAttribs3hv(int arg0, int arg1, short[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribs3hv(int arg0, int arg1, ShortBuffer arg2) {
+    }
+
+    @Override
+    public void glVertexAttribs4hv(int arg0, int arg1, short[] arg2, int arg3) {
+    }
+
+    @Override
+    public void glVertexAttribs4hv(int arg0, int arg1, ShortBuffer arg2) {
+    }
+
+    @Override
+    public void glVertexBlendARB(int arg0) {
+    }
+
+    @Override
+    public void glVertexFormatNV(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glVertexPointer(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glVertexPointer(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glVertexPointer(GLArrayData arg0) {
+    }
+
+    @Override
+    public void glVertexWeightPointerEXT(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glVertexWeightPointerEXT(int arg0, int arg1, int arg2, long arg3) {
+    }
+
+    @Override
+    public void glVertexWeightfEXT(float arg0) {
+    }
+
+    @Override
+    public void glVertexWeightfvEXT(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertexWeightfvEXT(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glVertexWeighth(short arg0) {
+    }
+
+    @Override
+    public void glVertexWeighthv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glVertexWeighthv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public int glVideoCaptureNV(int arg0, int[] arg1, int arg2, long[] arg3, int arg4) {
+        return 0;
+    }
+
+    @Override
+    public int glVideoCaptureNV(int arg0, IntBuffer arg1, LongBuffer arg2) {
+        return 0;
+    }
+
+    @Override
+    public void glVideoCaptureStreamParameterdvNV(int arg0, int arg1, int arg2, double[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glVideoCaptureStreamParameterdvNV(int arg0, int arg1, int arg2, DoubleBuffer arg3) {
+    }
+
+    @Override
+    public void glVideoCaptureStreamParameterfvNV(int arg0, int arg1, int arg2, float[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glVideoCaptureStreamParameterfvNV(int arg0, int arg1, int arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glVideoCaptureStreamParameterivNV(int arg0, int arg1, int arg2, int[] arg3, int arg4) {
+    }
+
+    @Override
+    public void glVideoCaptureStreamParameterivNV(int arg0, int arg1, int arg2, IntBuffer arg3) {
+    }
+
+    @Override
+    public void glViewport(int arg0, int arg1, int arg2, int arg3) {
+    }
+
+    @Override
+    public void glWeightPathsNV(int arg0, int arg1, int[] arg2, int arg3, float[] arg4, int arg5) {
+    }
+
+    @Override
+    public void glWeightPathsNV(int arg0, int arg1, IntBuffer arg2, FloatBuffer arg3) {
+    }
+
+    @Override
+    public void glWeightPointer(int arg0, int arg1, int arg2, Buffer arg3) {
+    }
+
+    @Override
+    public void glWeightbvARB(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightbvARB(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glWeightdvARB(int arg0, double[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightdvARB(int arg0, DoubleBuffer arg1) {
+    }
+
+    @Override
+    public void glWeightfvARB(int arg0, float[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightfvARB(int arg0, FloatBuffer arg1) {
+    }
+
+    @Override
+    public void glWeightivARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightivARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glWeightsvARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightsvARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glWeightubvARB(int arg0, byte[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightubvARB(int arg0, ByteBuffer arg1) {
+    }
+
+    @Override
+    public void glWeightuivARB(int arg0, int[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightuivARB(int arg0, IntBuffer arg1) {
+    }
+
+    @Override
+    public void glWeightusvARB(int arg0, short[] arg1, int arg2) {
+    }
+
+    @Override
+    public void glWeightusvARB(int arg0, ShortBuffer arg1) {
+    }
+
+    @Override
+    public void glWindowPos2d(double arg0, double arg1) {
+    }
+
+    @Override
+    public void glWindowPos2dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos2dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glWindowPos2f(float arg0, float arg1) {
+    }
+
+    @Override
+    public void glWindowPos2fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos2fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glWindowPos2i(int arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos2iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos2iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glWindowPos2s(short arg0, short arg1) {
+    }
+
+    @Override
+    public void glWindowPos2sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos2sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glWindowPos3d(double arg0, double arg1, double arg2) {
+    }
+
+    @Override
+    public void glWindowPos3dv(double[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos3dv(DoubleBuffer arg0) {
+    }
+
+    @Override
+    public void glWindowPos3f(float arg0, float arg1, float arg2) {
+    }
+
+    @Override
+    public void glWindowPos3fv(float[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos3fv(FloatBuffer arg0) {
+    }
+
+    @Override
+    public void glWindowPos3i(int arg0, int arg1, int arg2) {
+    }
+
+    @Override
+    public void glWindowPos3iv(int[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos3iv(IntBuffer arg0) {
+    }
+
+    @Override
+    public void glWindowPos3s(short arg0, short arg1, short arg2) {
+    }
+
+    @Override
+    public void glWindowPos3sv(short[] arg0, int arg1) {
+    }
+
+    @Override
+    public void glWindowPos3sv(ShortBuffer arg0) {
+    }
+
+    @Override
+    public void glWriteMaskEXT(int arg0, int arg1, int arg2, int arg3, int arg4, int arg5) {
+    }
+
+    @Override
+    public boolean hasBasicFBOSupport() {
+        return false;
+    }
+
+    @Override
+    public boolean hasFullFBOSupport() {
+        return false;
+    }
+
+    @Override
+    public boolean hasGLSL() {
+        return false;
+    }
+
+    @Override
+    public boolean isExtensionAvailable(String arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean isFunctionAvailable(String arg0) {
+        return false;
+    }
+
+    @Override
+    public boolean isGL() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL2() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL2ES1() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL2ES2() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL2GL3() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL3() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL3ES3() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL3bc() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL3core() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL4() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL4ES3() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL4bc() {
+        return false;
+    }
+
+    @Override
+    public boolean isGL4core() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLES() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLES1() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLES2() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLES2Compatible() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLES3() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLES3Compatible() {
+        return false;
+    }
+
+    @Override
+    public boolean isGLcore() {
+        return false;
+    }
+
+    @Override
+    public boolean isNPOTTextureAvailable() {
+        return false;
+    }
+
+    @Override
+    public boolean isTextureFormatBGRA8888Available() {
+        return false;
+    }
+
+    @Override
+    public void setSwapInterval(int arg0) {
+    }
+}